@@ -115,6 +115,48 @@ public class AnthropicFunctionBatchIntegrationTest {
 		}
 	}
 
+	@Test
+	void performChatReportsEachToolUseBeforeTheBatchIsComplete() throws Exception {
+		try (RecordingAnthropicServer server = new RecordingAnthropicServer(FIRST_TURN_RESPONSE)) {
+			AnthropicApiClient client = new AnthropicApiClient(createConnection(server));
+			ChatConversation chat = new ChatConversation();
+			chat.addMessage(new ChatMessage(Role.USER, USER_PROMPT), false);
+
+			CountDownLatch responseFinished = new CountDownLatch(1);
+			chat.addListener(createListener(responseFinished, new AtomicInteger()));
+			List<String> completedCalls = new ArrayList<>();
+			chat.addListener(new ChatListener() {
+				@Override
+				public void onMessageAdded(ChatMessage message, boolean updating) {
+				}
+
+				@Override
+				public void onMessageUpdated(ChatMessage message) {
+				}
+
+				@Override
+				public void onFunctionCall(ChatMessage message) {
+				}
+
+				@Override
+				public void onFunctionCallComplete(ChatMessage message, FunctionCall call) {
+					completedCalls.add(call.getId() + " " + call.getArgsJson() + " batch="
+							+ message.getFunctionCallBatch().isPresent());
+				}
+
+				@Override
+				public void onChatResponseFinished(ChatMessage message) {
+				}
+			});
+
+			client.performChat("claude-sonnet-4-20250514", chat, 1024);
+			awaitChatFinished(client, responseFinished);
+
+			assertEquals(List.of("call-1 {\"query\":\"*.java\"} batch=false",
+					"call-2 {\"path\":\"/project/A.java\"} batch=false"), completedCalls);
+		}
+	}
+
 	@Test
 	void performChatReplaysBatchToolUsesAndGroupedToolResultsForContinuation() throws Exception {
 		try (RecordingAnthropicServer server = new RecordingAnthropicServer(SECOND_TURN_RESPONSE)) {
@@ -0,0 +1,178 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.apiclient.AiApiConnection.ApiType;
+import com.chabicht.code_intelligence.apiclient.MockLlmServer.RecordedRequest;
+import com.chabicht.code_intelligence.apiclient.MockLlmServer.Script;
+import com.chabicht.code_intelligence.model.ChatConversation;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatListener;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.Role;
+import com.chabicht.code_intelligence.model.PromptType;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class ApiCallTelemetryTest {
+
+	@Test
+	void histogramPercentilesUseBucketBounds() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 9; i++) {
+			histogram.record(80);
+		}
+		histogram.record(4000);
+
+		assertEquals(10, histogram.getCount());
+		assertEquals(100, histogram.getPercentile(50));
+		assertEquals(100, histogram.getPercentile(90));
+		assertEquals(4000, histogram.getPercentile(99));
+		assertEquals(4000, histogram.getMax());
+		assertEquals(472, histogram.getMean());
+		assertEquals(-1, new LatencyHistogram().getPercentile(50));
+	}
+
+	@Test
+	void streamingCallMeasuresFirstTokenAndUsage() {
+		ApiCallTelemetry telemetry = new ApiCallTelemetry(10);
+		AtomicLong clock = new AtomicLong(1000);
+		ApiCall call = new ApiCall(telemetry, clock::get, "conn", "model", PromptType.CHAT, "chat");
+
+		ChatConversation chat = new ChatConversation();
+		call.observe(chat);
+		ChatMessage message = new ChatMessage(Role.ASSISTANT, "");
+		chat.addMessage(message, true);
+
+		clock.set(1200);
+		call.responseReceived(200);
+		clock.set(1500);
+		message.setContent("Hello");
+		chat.notifyMessageUpdated(message);
+		clock.set(2000);
+		message.setContent("Hello world");
+		chat.notifyMessageUpdated(message);
+		call.usage(JsonParser.parseString("{\"type\":\"message_start\",\"message\":{\"usage\":"
+				+ "{\"input_tokens\":100,\"cache_read_input_tokens\":80,\"output_tokens\":1}}}").getAsJsonObject());
+		call.usage(JsonParser.parseString("{\"type\":\"message_delta\",\"usage\":{\"output_tokens\":50}}")
+				.getAsJsonObject());
+		clock.set(2500);
+		chat.notifyChatResponseFinished(message);
+		// Ignored, the call is already finished.
+		chat.notifyChatResponseFinished(message);
+
+		List<ApiCallRecord> calls = telemetry.getRecentCalls();
+		assertEquals(1, calls.size());
+		ApiCallRecord record = calls.get(0);
+		assertEquals(200, record.getHeadersMillis());
+		assertEquals(500, record.getFirstTokenMillis());
+		assertEquals(1500, record.getTotalMillis());
+		assertEquals(100, record.getInputTokens());
+		assertEquals(50, record.getOutputTokens());
+		assertEquals(80, record.getCachedTokens());
+		assertEquals(50d, record.getTokensPerSecond(), 0.001);
+		assertNull(record.getError());
+	}
+
+	@Test
+	void errorsAreCountedSeparately() {
+		ApiCallTelemetry telemetry = new ApiCallTelemetry(10);
+		AtomicLong clock = new AtomicLong();
+
+		ApiCall ok = new ApiCall(telemetry, clock::get, "conn", "model", PromptType.INSTRUCT, "completion");
+		clock.addAndGet(300);
+		ok.finish();
+
+		ApiCall failed = new ApiCall(telemetry, clock::get, "conn", "model", PromptType.INSTRUCT, "caption");
+		failed.responseReceived(429);
+		failed.finish();
+
+		List<ApiCallStats> stats = telemetry.getStats();
+		assertEquals(1, stats.size());
+		assertEquals(2, stats.get(0).getCalls());
+		assertEquals(1, stats.get(0).getErrors());
+		assertEquals("HTTP 429", stats.get(0).getLastError());
+		assertEquals(1, stats.get(0).getTotalLatency().getCount());
+		assertEquals(300, stats.get(0).getFirstTokenLatency().getMax());
+	}
+
+	@Test
+	void keepsOnlyTheMostRecentCalls() {
+		ApiCallTelemetry telemetry = new ApiCallTelemetry(3);
+		for (int i = 0; i < 5; i++) {
+			new ApiCall(telemetry, () -> 0L, "conn", "model-" + (i % 2), PromptType.CHAT, "chat").finish();
+		}
+
+		assertEquals(3, telemetry.getRecentCalls().size());
+		assertEquals(2, telemetry.getStats().size());
+
+		JsonObject json = JsonParser.parseString(telemetry.toJson()).getAsJsonObject();
+		assertEquals(3, json.getAsJsonArray("calls").size());
+		assertEquals(3, json.getAsJsonArray("stats").get(0).getAsJsonObject().get("calls").getAsLong());
+		assertTrue(json.getAsJsonArray("stats").get(0).getAsJsonObject().getAsJsonObject("totalLatency")
+				.getAsJsonObject("buckets").has("<=50"));
+	}
+
+	@Test
+	void extractsUsageOfAllApis() {
+		assertArrayEquals(new long[] { 10, 5, 2 }, usage("{\"usage\":{\"prompt_tokens\":10,"
+				+ "\"completion_tokens\":5,\"prompt_tokens_details\":{\"cached_tokens\":2}}}"));
+		assertArrayEquals(new long[] { 10, 5, 3 }, usage("{\"type\":\"response.completed\",\"response\":{\"usage\":"
+				+ "{\"input_tokens\":10,\"output_tokens\":5,\"input_tokens_details\":{\"cached_tokens\":3}}}}"));
+		assertArrayEquals(new long[] { 10, 5, 4 }, usage("{\"usageMetadata\":{\"promptTokenCount\":10,"
+				+ "\"candidatesTokenCount\":5,\"cachedContentTokenCount\":4}}"));
+		assertArrayEquals(new long[] { 10, 5, -1 }, usage("{\"done\":true,\"prompt_eval_count\":10,\"eval_count\":5}"));
+		assertNull(ApiCall.extractUsage(JsonParser.parseString("{\"choices\":[]}").getAsJsonObject()));
+	}
+
+	@Test
+	void chatCompletionStreamsRequestTheUsage() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			for (ApiType type : List.of(ApiType.OPENAI, ApiType.XAI)) {
+				server.enqueue(Script.text("Hello"));
+				ChatConversation chat = new ChatConversation();
+				chat.addMessage(new ChatMessage(Role.USER, "Hi"), false);
+				CountDownLatch finished = new CountDownLatch(1);
+				chat.addListener(new ChatListener() {
+					@Override
+					public void onMessageAdded(ChatMessage message, boolean updating) {
+					}
+
+					@Override
+					public void onMessageUpdated(ChatMessage message) {
+					}
+
+					@Override
+					public void onFunctionCall(ChatMessage message) {
+					}
+
+					@Override
+					public void onChatResponseFinished(ChatMessage message) {
+						finished.countDown();
+					}
+				});
+
+				server.createConnection(type).getApiClient().performChat("mock-model", chat, 1024);
+				assertTrue(finished.await(10, TimeUnit.SECONDS), type.getName());
+
+				List<RecordedRequest> requests = server.getRequests();
+				JsonObject body = requests.get(requests.size() - 1).getBody();
+				assertTrue(body.getAsJsonObject("stream_options").get("include_usage").getAsBoolean(),
+						type.getName());
+			}
+		}
+	}
+
+	private static long[] usage(String json) {
+		return ApiCall.extractUsage(JsonParser.parseString(json).getAsJsonObject());
+	}
+}
@@ -0,0 +1,129 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.apiclient.EventStreamDecoder.Format;
+import com.chabicht.code_intelligence.apiclient.StreamEvent.Type;
+
+public class EventStreamDecoderTest {
+
+	@Test
+	void decodesSseEvents() throws Exception {
+		String stream = "\uFEFF: keep-alive comment\n" //
+				+ "event: message_start\n" //
+				+ "data: {\"a\":1}\n" //
+				+ "\n" //
+				+ "data:{\"b\":\n" //
+				+ "data: 2}\n" //
+				+ "\n" //
+				+ "data: [DONE]\n" //
+				+ "\n" //
+				+ "event: last\n" //
+				+ "data: {\"c\":3}";
+
+		List<String> events = decode(Format.SSE, stream);
+
+		assertEquals(List.of("message_start|{\"a\":1}", "|{\"b\":\n2}", "last|{\"c\":3}"), events);
+	}
+
+	@Test
+	void decodesNdJsonLines() throws Exception {
+		List<String> events = decode(Format.NDJSON, "{\"a\":1}\n\n  \n{\"b\":2}\n");
+
+		assertEquals(List.of("|{\"a\":1}", "|{\"b\":2}"), events);
+	}
+
+	@Test
+	void parsesChatCompletionChunks() throws Exception {
+		List<StreamEvent> events = new ArrayList<>();
+		StreamDeltaParser.parseChatCompletionChunk(
+				"{\"id\":\"x\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hi\",\"extra\":[1,{\"y\":null}]},"
+						+ "\"finish_reason\":null}]}",
+				events::add);
+		StreamDeltaParser.parseChatCompletionChunk("{\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":1,"
+				+ "\"id\":\"call_1\",\"type\":\"function\",\"function\":{\"name\":\"f\",\"arguments\":\"{\\\"a\\\"\"}}]},"
+				+ "\"finish_reason\":\"tool_calls\"}],"
+				+ "\"usage\":{\"prompt_tokens\":10,\"completion_tokens\":5,\"prompt_tokens_details\":{\"cached_tokens\":4}}}",
+				events::add);
+
+		assertEquals(4, events.size());
+		assertEquals(Type.TEXT_DELTA, events.get(0).getType());
+		assertEquals("Hi", events.get(0).getText());
+
+		StreamEvent toolCall = events.get(1);
+		assertEquals(Type.TOOL_CALL_DELTA, toolCall.getType());
+		assertEquals(1, toolCall.getIndex());
+		assertEquals("call_1", toolCall.getToolCallId());
+		assertEquals("f", toolCall.getToolName());
+		assertEquals("{\"a\"", toolCall.getArguments());
+		assertEquals(Type.FINISH, events.get(2).getType());
+		assertEquals("tool_calls", events.get(2).getText());
+
+		StreamEvent usage = events.get(3);
+		assertEquals(Type.USAGE, usage.getType());
+		assertEquals(10, usage.getInputTokens());
+		assertEquals(5, usage.getOutputTokens());
+		assertEquals(4, usage.getCachedTokens());
+	}
+
+	@Test
+	void parsesAnthropicContentBlockDeltas() throws Exception {
+		List<StreamEvent> events = new ArrayList<>();
+		StreamDeltaParser.parseAnthropicContentBlockDelta(
+				"{\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"thinking_delta\",\"thinking\":\"Hm\"}}",
+				events::add);
+		StreamDeltaParser.parseAnthropicContentBlockDelta(
+				"{\"type\":\"content_block_delta\",\"index\":2,\"delta\":{\"type\":\"input_json_delta\",\"partial_json\":\"{\\\"q\"}}",
+				events::add);
+		StreamDeltaParser.parseAnthropicContentBlockDelta(
+				"{\"type\":\"content_block_delta\",\"index\":1,\"delta\":{\"type\":\"text_delta\",\"text\":\"\\u00e4\"}}",
+				events::add);
+
+		assertEquals(3, events.size());
+		assertEquals(Type.REASONING_DELTA, events.get(0).getType());
+		assertEquals("Hm", events.get(0).getText());
+		assertEquals(Type.TOOL_CALL_DELTA, events.get(1).getType());
+		assertEquals(2, events.get(1).getIndex());
+		assertEquals("{\"q", events.get(1).getArguments());
+		assertEquals(Type.TEXT_DELTA, events.get(2).getType());
+		assertEquals("\u00e4", events.get(2).getText());
+	}
+
+	@Test
+	void parsesOllamaChunks() throws Exception {
+		List<StreamEvent> events = new ArrayList<>();
+		StreamDeltaParser.parseOllamaChunk("{\"model\":\"m\",\"message\":{\"role\":\"assistant\",\"content\":\"\","
+				+ "\"tool_calls\":[{\"function\":{\"name\":\"f\",\"arguments\":{\"a\":[1,2]}}}]},\"done\":false}",
+				events::add);
+		StreamDeltaParser.parseOllamaChunk("{\"message\":{\"role\":\"assistant\",\"content\":\"ok\"},\"done\":true,"
+				+ "\"prompt_eval_count\":7,\"eval_count\":3}", events::add);
+
+		assertEquals(5, events.size());
+		assertEquals(Type.TOOL_CALL_DELTA, events.get(0).getType());
+		assertEquals(0, events.get(0).getIndex());
+		assertEquals("f", events.get(0).getToolName());
+		assertEquals("{\"a\":[1,2]}", events.get(0).getArguments());
+		assertEquals(Type.TEXT_DELTA, events.get(1).getType());
+		assertEquals("", events.get(1).getText());
+		assertEquals(Type.TEXT_DELTA, events.get(2).getType());
+		assertEquals("ok", events.get(2).getText());
+		assertEquals(Type.USAGE, events.get(3).getType());
+		assertEquals(7, events.get(3).getInputTokens());
+		assertEquals(3, events.get(3).getOutputTokens());
+		assertEquals(Type.FINISH, events.get(4).getType());
+	}
+
+	private List<String> decode(Format format, String stream) throws Exception {
+		List<String> events = new ArrayList<>();
+		new EventStreamDecoder(format).decode(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)),
+				(event, data) -> events.add(event + "|" + data));
+		return events;
+	}
+}
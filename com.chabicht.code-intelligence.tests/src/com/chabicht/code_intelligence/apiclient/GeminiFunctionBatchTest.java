@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.lang.reflect.Method;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.jupiter.api.Test;
@@ -67,7 +68,7 @@ public class GeminiFunctionBatchTest {
 		}
 
 		@Test
-	void createChatContentsArrayGroupsBatchCallsAndResponses() throws Exception {
+	void createChatContentFragmentsGroupsBatchCallsAndResponses() throws Exception {
 		GeminiApiClient client = new GeminiApiClient(createGeminiConnection());
 		ChatConversation chat = new ChatConversation();
 
@@ -87,7 +88,7 @@ public class GeminiFunctionBatchTest {
 		assistantMessage.setFunctionCallBatch(batch);
 		chat.addMessage(assistantMessage, false);
 
-		JsonArray contents = invokeCreateChatContentsArray(client, chat);
+		JsonArray contents = invokeCreateChatContentFragments(client, chat);
 		assertEquals(2, contents.size(), "Batch call turn should serialize as model + user response turns");
 
 		JsonObject modelTurn = contents.get(0).getAsJsonObject();
@@ -111,7 +112,7 @@ public class GeminiFunctionBatchTest {
 	}
 
 	@Test
-		void createChatContentsArraySupportsSingleItemBatchPath() throws Exception {
+		void createChatContentFragmentsSupportsSingleItemBatchPath() throws Exception {
 			GeminiApiClient client = new GeminiApiClient(createGeminiConnection());
 			ChatConversation chat = new ChatConversation();
 
@@ -124,7 +125,7 @@ public class GeminiFunctionBatchTest {
 			assistantMessage.setFunctionCallBatch(batch);
 			chat.addMessage(assistantMessage, false);
 
-			JsonArray contents = invokeCreateChatContentsArray(client, chat);
+			JsonArray contents = invokeCreateChatContentFragments(client, chat);
 			assertEquals(2, contents.size(), "Single-item batch call/result should serialize as two turns");
 
 		JsonObject modelTurn = contents.get(0).getAsJsonObject();
@@ -138,10 +139,16 @@ public class GeminiFunctionBatchTest {
 		assertNotNull(userTurn.getAsJsonArray("parts").get(0).getAsJsonObject().getAsJsonObject("functionResponse"));
 	}
 
-	private JsonArray invokeCreateChatContentsArray(GeminiApiClient client, ChatConversation chat) throws Exception {
-		Method m = GeminiApiClient.class.getDeclaredMethod("createChatContentsArray", ChatConversation.class);
+	@SuppressWarnings("unchecked")
+	private JsonArray invokeCreateChatContentFragments(GeminiApiClient client, ChatConversation chat)
+			throws Exception {
+		Method m = GeminiApiClient.class.getDeclaredMethod("createChatContentFragments", ChatConversation.class);
 		m.setAccessible(true);
-		return (JsonArray) m.invoke(client, chat);
+		JsonArray res = new JsonArray();
+		for (String fragment : (List<String>) m.invoke(client, chat)) {
+			res.add(JsonParser.parseString(fragment));
+		}
+		return res;
 	}
 
 	private AiApiConnection createGeminiConnection() {
@@ -0,0 +1,94 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCall;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCallBatch;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionResult;
+import com.chabicht.code_intelligence.model.ChatConversation.MessageContext;
+import com.chabicht.code_intelligence.model.ChatConversation.Role;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+
+public class MessageFragmentCacheTest {
+	private final MessageFragmentCache cache = new MessageFragmentCache(new Gson());
+	private final AtomicInteger encodings = new AtomicInteger();
+	private final Function<ChatMessage, JsonArray> encoder = message -> {
+		encodings.incrementAndGet();
+		JsonArray res = new JsonArray();
+		res.add(message.getContent());
+		for (MessageContext ctx : message.getContext()) {
+			res.add(ctx.compile(true));
+		}
+		message.getFunctionCallBatch().ifPresent(batch -> batch.getResults()
+				.forEach(result -> res.add(String.valueOf(result.getResultJson()))));
+		return res;
+	};
+
+	@Test
+	void unchangedMessageIsEncodedOnce() {
+		ChatMessage message = new ChatMessage(Role.USER, "Hello");
+		message.getContext().add(new MessageContext("A.java", 1, 2, "class A {\n}"));
+
+		List<String> first = cache.encode(message, encoder);
+		List<String> second = cache.encode(message, encoder);
+
+		assertSame(first, second);
+		assertEquals(1, encodings.get());
+	}
+
+	@Test
+	void mutationsInvalidateTheEncoding() {
+		ChatMessage message = new ChatMessage(Role.ASSISTANT, "Hello");
+		cache.encode(message, encoder);
+
+		message.setContent("Hello again");
+		assertEquals("\"Hello again\"", cache.encode(message, encoder).get(0));
+
+		message.getContext().add(new MessageContext("A.java", 1, 1, "class A {}"));
+		assertEquals(2, cache.encode(message, encoder).size());
+
+		FunctionCallBatch batch = new FunctionCallBatch();
+		batch.addCall(new FunctionCall("call_1", "read_file_content", "{}"));
+		message.setFunctionCallBatch(batch);
+		cache.encode(message, encoder);
+
+		FunctionResult result = new FunctionResult("call_1", "read_file_content");
+		batch.setResultForCall(0, result);
+		assertEquals("\"null\"", cache.encode(message, encoder).get(2));
+
+		result.setResultJson("{\"status\":\"Success\"}");
+		assertEquals("\"{\\\"status\\\":\\\"Success\\\"}\"", cache.encode(message, encoder).get(2));
+
+		assertEquals(6, encodings.get());
+		cache.encode(message, encoder);
+		assertEquals(6, encodings.get());
+	}
+
+	@Test
+	void replacedResultWithOlderVersionInvalidatesTheEncoding() {
+		FunctionResult older = new FunctionResult("call_1", "read_file_content");
+		older.setResultJson("\"older\"");
+		FunctionResult newer = new FunctionResult("call_1", "read_file_content");
+		newer.setResultJson("\"newer\"");
+
+		FunctionCallBatch batch = new FunctionCallBatch();
+		batch.addCall(new FunctionCall("call_1", "read_file_content", "{}"));
+		batch.setResultForCall(0, newer);
+		ChatMessage message = new ChatMessage(Role.ASSISTANT, "");
+		message.setFunctionCallBatch(batch);
+		cache.encode(message, encoder);
+
+		batch.setResultForCall(0, older);
+
+		assertEquals("\"\\\"older\\\"\"", cache.encode(message, encoder).get(1));
+	}
+}
@@ -0,0 +1,285 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.chabicht.code_intelligence.apiclient.MockLlmServer.RecordedRequest;
+import com.chabicht.code_intelligence.model.ChatConversation;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatListener;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.Role;
+
+/**
+ * Drives streaming chats of an {@link IAiApiClient} against a
+ * {@link MockLlmServer} and measures throughput, time to the first token and
+ * how fast an aborted chat stops streaming.
+ */
+public class MockLlmLoadDriver {
+	private final MockLlmServer server;
+	private final IAiApiClient client;
+	private final String modelName;
+
+	public MockLlmLoadDriver(MockLlmServer server, IAiApiClient client, String modelName) {
+		this.server = server;
+		this.client = client;
+		this.modelName = modelName;
+	}
+
+	/**
+	 * Throughput of concurrently streamed chats.
+	 */
+	public static class LoadResult {
+		private final int chats;
+		private int finished;
+		private long elapsedMillis;
+		private long streamedChars;
+		private final LatencyHistogram timeToFirstToken = new LatencyHistogram();
+		private final LatencyHistogram duration = new LatencyHistogram();
+
+		private LoadResult(int chats) {
+			this.chats = chats;
+		}
+
+		public int getChats() {
+			return chats;
+		}
+
+		/**
+		 * @return the number of chats that finished within the timeout.
+		 */
+		public int getFinished() {
+			return finished;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		public long getStreamedChars() {
+			return streamedChars;
+		}
+
+		public double getCharsPerSecond() {
+			return elapsedMillis == 0 ? 0 : streamedChars * 1000d / elapsedMillis;
+		}
+
+		public LatencyHistogram getTimeToFirstToken() {
+			return timeToFirstToken;
+		}
+
+		public LatencyHistogram getDuration() {
+			return duration;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%d/%d chats in %d ms, %.0f chars/s, first token p50 %d ms p95 %d ms, duration p50 %d ms p95 %d ms",
+					finished, chats, elapsedMillis, getCharsPerSecond(), timeToFirstToken.getPercentile(50),
+					timeToFirstToken.getPercentile(95), duration.getPercentile(50), duration.getPercentile(95));
+		}
+	}
+
+	/**
+	 * What happened to a chat that was aborted while streaming.
+	 */
+	public static class CancellationResult {
+		private long abortToIdleMillis = -1;
+		private int chunksBeforeAbort;
+		private int chunksSent;
+		private int updatesAfterAbort;
+		private boolean finishedAfterAbort;
+		private boolean serverCompleted;
+		private boolean clientDisconnected;
+
+		/**
+		 * @return the time from the abort until the client reported the chat as no
+		 *         longer pending, -1 if it still was at the timeout.
+		 */
+		public long getAbortToIdleMillis() {
+			return abortToIdleMillis;
+		}
+
+		public int getChunksBeforeAbort() {
+			return chunksBeforeAbort;
+		}
+
+		/**
+		 * @return the chunks the server sent in total, the difference to
+		 *         {@link #getChunksBeforeAbort()} was streamed in vain.
+		 */
+		public int getChunksSent() {
+			return chunksSent;
+		}
+
+		/**
+		 * @return how often the listeners were told about new content after the
+		 *         abort, should be 0.
+		 */
+		public int getUpdatesAfterAbort() {
+			return updatesAfterAbort;
+		}
+
+		/**
+		 * @return true if the listeners were told that the aborted response
+		 *         finished.
+		 */
+		public boolean isFinishedAfterAbort() {
+			return finishedAfterAbort;
+		}
+
+		public boolean isServerCompleted() {
+			return serverCompleted;
+		}
+
+		public boolean isClientDisconnected() {
+			return clientDisconnected;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("idle %d ms after abort, %d of %d chunks and %d updates%s after abort, %s",
+					abortToIdleMillis, chunksSent - chunksBeforeAbort, chunksSent, updatesAfterAbort,
+					finishedAfterAbort ? " and finish" : "", clientDisconnected ? "client disconnected"
+							: serverCompleted ? "stream completed" : "stream still open");
+		}
+	}
+
+	/**
+	 * Starts the chats at once and waits until all of them finished or the timeout
+	 * expired. The server answers with its queued or default scripts.
+	 */
+	public LoadResult run(int chats, long timeoutMillis) throws InterruptedException {
+		LoadResult result = new LoadResult(chats);
+		CountDownLatch finished = new CountDownLatch(chats);
+		List<ChatConversation> conversations = new ArrayList<>();
+		AtomicLong streamedChars = new AtomicLong();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < chats; i++) {
+			ChatConversation chat = createChat("Load test chat " + i);
+			chat.addListener(new Listener() {
+				private boolean firstToken = true;
+
+				@Override
+				public void onMessageUpdated(ChatMessage message) {
+					if (firstToken) {
+						firstToken = false;
+						result.timeToFirstToken.record(millisSince(start));
+					}
+				}
+
+				@Override
+				public void onChatResponseFinished(ChatMessage message) {
+					result.duration.record(millisSince(start));
+					streamedChars.addAndGet(message.getContent().length());
+					finished.countDown();
+				}
+			});
+			conversations.add(chat);
+			client.performChat(modelName, chat, 1024);
+		}
+		finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+
+		result.elapsedMillis = millisSince(start);
+		result.finished = chats - (int) finished.getCount();
+		result.streamedChars = streamedChars.get();
+		conversations.forEach(client::abortChat);
+		return result;
+	}
+
+	/**
+	 * Starts a chat, aborts it after the given number of streamed chunks and waits
+	 * until the client reports it as idle and the server stopped streaming.
+	 * <p>
+	 * The answer of the server should be long and slow enough to be still
+	 * streaming when the chat is aborted.
+	 */
+	public CancellationResult cancel(int abortAfterChunks, long timeoutMillis) throws InterruptedException {
+		CancellationResult result = new CancellationResult();
+		int requestIndex = server.getRequests().size();
+		ChatConversation chat = createChat("Cancellation test chat");
+		CountDownLatch streaming = new CountDownLatch(abortAfterChunks);
+		AtomicBoolean aborted = new AtomicBoolean();
+		AtomicInteger updatesAfterAbort = new AtomicInteger();
+		AtomicBoolean finishedAfterAbort = new AtomicBoolean();
+		chat.addListener(new Listener() {
+			@Override
+			public void onMessageUpdated(ChatMessage message) {
+				streaming.countDown();
+				if (aborted.get()) {
+					updatesAfterAbort.incrementAndGet();
+				}
+			}
+
+			@Override
+			public void onChatResponseFinished(ChatMessage message) {
+				if (aborted.get()) {
+					finishedAfterAbort.set(true);
+				}
+			}
+		});
+		client.performChat(modelName, chat, 1024);
+		if (!streaming.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+			client.abortChat(chat);
+			return result;
+		}
+
+		RecordedRequest request = server.getRequests().get(requestIndex);
+		result.chunksBeforeAbort = request.getChunksSent();
+		long abort = System.nanoTime();
+		aborted.set(true);
+		client.abortChat(chat);
+		long deadline = abort + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while (System.nanoTime() < deadline
+				&& (client.isChatPending(chat) || !(request.isCompleted() || request.isClientDisconnected()))) {
+			if (result.abortToIdleMillis < 0 && !client.isChatPending(chat)) {
+				result.abortToIdleMillis = millisSince(abort);
+			}
+			Thread.sleep(1);
+		}
+		if (result.abortToIdleMillis < 0 && !client.isChatPending(chat)) {
+			result.abortToIdleMillis = millisSince(abort);
+		}
+
+		result.chunksSent = request.getChunksSent();
+		result.updatesAfterAbort = updatesAfterAbort.get();
+		result.finishedAfterAbort = finishedAfterAbort.get();
+		result.serverCompleted = request.isCompleted();
+		result.clientDisconnected = request.isClientDisconnected();
+		return result;
+	}
+
+	private ChatConversation createChat(String prompt) {
+		ChatConversation chat = new ChatConversation();
+		chat.addMessage(new ChatMessage(Role.USER, prompt), false);
+		return chat;
+	}
+
+	private static long millisSince(long startNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	private abstract static class Listener implements ChatListener {
+		@Override
+		public void onMessageAdded(ChatMessage message, boolean updating) {
+		}
+
+		@Override
+		public void onMessageUpdated(ChatMessage message) {
+		}
+
+		@Override
+		public void onFunctionCall(ChatMessage message) {
+		}
+
+		@Override
+		public void onChatResponseFinished(ChatMessage message) {
+		}
+	}
+}
@@ -0,0 +1,902 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.chabicht.code_intelligence.apiclient.AiApiConnection.ApiType;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the LLM providers, speaking the wire format of every
+ * {@link IAiApiClient}: OpenAI chat completions (also used by X.ai), OpenAI
+ * Responses, Anthropic messages, Gemini and Ollama.
+ * <p>
+ * Each request is answered with the next {@link Script}, or the default script
+ * if none is queued. A script streams its text and tool calls in chunks at a
+ * configurable rate and can inject failures: error statuses before the answer
+ * and a dropped connection in the middle of the stream.
+ * <p>
+ * Embedding requests (Ollama and OpenAI) are answered independently of the
+ * scripts with {@link #embedding(String)}.
+ *
+ * <pre>
+ * try (MockLlmServer server = new MockLlmServer()) {
+ * 	server.enqueue(Script.text("Hello").failFirst(429).tokensPerSecond(50));
+ * 	IAiApiClient client = server.createConnection(ApiType.ANTHROPIC).getApiClient();
+ * 	...
+ * }
+ * </pre>
+ */
+public class MockLlmServer implements AutoCloseable {
+	private static final Gson GSON = new Gson();
+	public static final int EMBEDDING_DIMENSIONS = 64;
+
+	/**
+	 * Answer of the server to one request.
+	 */
+	public static class Script {
+		private String text = "";
+		private final List<ToolCall> toolCalls = new ArrayList<>();
+		private int chunkLength = 4;
+		private double tokensPerSecond;
+		private long latencyMillis;
+		private final Deque<Failure> failures = new ArrayDeque<>();
+		private int disconnectAfterChunks = -1;
+
+		public static Script text(String text) {
+			Script res = new Script();
+			res.text = text;
+			return res;
+		}
+
+		public static Script toolCalls(ToolCall... toolCalls) {
+			Script res = new Script();
+			res.toolCalls.addAll(List.of(toolCalls));
+			return res;
+		}
+
+		public Script withToolCall(String id, String name, String argumentsJson) {
+			toolCalls.add(new ToolCall(id, name, argumentsJson));
+			return this;
+		}
+
+		/**
+		 * Length of the streamed chunks in characters. Each chunk counts as one token.
+		 */
+		public Script chunkLength(int chunkLength) {
+			this.chunkLength = Math.max(1, chunkLength);
+			return this;
+		}
+
+		/**
+		 * Rate the chunks are streamed with, 0 streams them as fast as possible.
+		 */
+		public Script tokensPerSecond(double tokensPerSecond) {
+			this.tokensPerSecond = tokensPerSecond;
+			return this;
+		}
+
+		/**
+		 * Delay before the response headers are sent, i.e. the time to the first
+		 * byte.
+		 */
+		public Script latency(long millis) {
+			this.latencyMillis = millis;
+			return this;
+		}
+
+		/**
+		 * Answers the next request with the status before the script is played. Can be
+		 * called several times.
+		 */
+		public Script failFirst(int status) {
+			return failFirst(status, -1);
+		}
+
+		/**
+		 * @param retryAfterSeconds value of the Retry-After header, -1 for none.
+		 */
+		public Script failFirst(int status, int retryAfterSeconds) {
+			failures.add(new Failure(status, retryAfterSeconds));
+			return this;
+		}
+
+		/**
+		 * Drops the connection after the given number of chunks.
+		 */
+		public Script disconnectAfter(int chunks) {
+			this.disconnectAfterChunks = chunks;
+			return this;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public List<ToolCall> getToolCalls() {
+			return toolCalls;
+		}
+
+		private List<String> chunks(String s) {
+			List<String> res = new ArrayList<>();
+			for (int i = 0; i < s.length(); i += chunkLength) {
+				res.add(s.substring(i, Math.min(s.length(), i + chunkLength)));
+			}
+			return res;
+		}
+
+		private int outputTokens() {
+			int res = chunks(text).size();
+			for (ToolCall toolCall : toolCalls) {
+				res += chunks(toolCall.argumentsJson()).size();
+			}
+			return res;
+		}
+	}
+
+	public static record ToolCall(String id, String name, String argumentsJson) {
+	}
+
+	private static record Failure(int status, int retryAfterSeconds) {
+	}
+
+	/**
+	 * A request the server received and what it sent back.
+	 */
+	public static class RecordedRequest {
+		private final String method;
+		private final String path;
+		private final JsonObject body;
+		private final long receivedNanos = System.nanoTime();
+		private volatile int status;
+		private volatile int chunksSent;
+		private volatile boolean completed;
+		private volatile boolean clientDisconnected;
+
+		private RecordedRequest(String method, String path, JsonObject body) {
+			this.method = method;
+			this.path = path;
+			this.body = body;
+		}
+
+		public String getMethod() {
+			return method;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return the JSON request body, null for requests without body.
+		 */
+		public JsonObject getBody() {
+			return body;
+		}
+
+		public long getReceivedNanos() {
+			return receivedNanos;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public int getChunksSent() {
+			return chunksSent;
+		}
+
+		/**
+		 * @return true if the whole answer was sent.
+		 */
+		public boolean isCompleted() {
+			return completed;
+		}
+
+		/**
+		 * @return true if the client closed the connection before the answer was
+		 *         complete.
+		 */
+		public boolean isClientDisconnected() {
+			return clientDisconnected;
+		}
+	}
+
+	private enum Dialect {
+		OPENAI_CHAT, OPENAI_RESPONSES, ANTHROPIC, GEMINI, OLLAMA
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "MockLlmServer");
+		t.setDaemon(true);
+		return t;
+	});
+	private final Deque<Script> scripts = new ArrayDeque<>();
+	private final List<RecordedRequest> requests = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicInteger responseIds = new AtomicInteger();
+	private Script defaultScript = Script.text("Hello from the mock server.");
+
+	public MockLlmServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	/**
+	 * Queues the answer to the next request.
+	 */
+	public synchronized MockLlmServer enqueue(Script script) {
+		scripts.add(script);
+		return this;
+	}
+
+	/**
+	 * Sets the answer to requests when no script is queued.
+	 */
+	public synchronized MockLlmServer setDefaultScript(Script script) {
+		this.defaultScript = script;
+		return this;
+	}
+
+	public String getBaseUri() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	/**
+	 * @return an enabled connection of the given type pointing to this server.
+	 */
+	public AiApiConnection createConnection(ApiType type) {
+		AiApiConnection connection = new AiApiConnection();
+		connection.setName("Mock " + type.getName());
+		connection.setType(type);
+		connection.setBaseUri(getBaseUri());
+		connection.setApiKey("mock-key");
+		connection.setEnabled(true);
+		return connection;
+	}
+
+	public List<RecordedRequest> getRequests() {
+		synchronized (requests) {
+			return new ArrayList<>(requests);
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		byte[] requestBytes = exchange.getRequestBody().readAllBytes();
+		JsonObject body = null;
+		if (requestBytes.length > 0) {
+			JsonElement parsed = JsonParser.parseString(new String(requestBytes, StandardCharsets.UTF_8));
+			body = parsed.isJsonObject() ? parsed.getAsJsonObject() : null;
+		}
+		RecordedRequest request = new RecordedRequest(exchange.getRequestMethod(), path, body);
+		requests.add(request);
+
+		try {
+			if ("GET".equals(exchange.getRequestMethod())) {
+				respondToGet(exchange, request);
+				return;
+			}
+			if (path.endsWith("/api/embed") || path.endsWith("/embeddings")) {
+				respondWithEmbeddings(exchange, request, path.endsWith("/embeddings"));
+				return;
+			}
+
+			Script script;
+			Failure failure;
+			synchronized (this) {
+				script = scripts.isEmpty() ? defaultScript : scripts.peek();
+				failure = script.failures.poll();
+				if (failure == null && script == scripts.peek()) {
+					scripts.poll();
+				}
+			}
+			sleep(script.latencyMillis);
+			if (failure != null) {
+				respondWithFailure(exchange, request, failure);
+				return;
+			}
+
+			Dialect dialect = dialect(path);
+			String model = dialect == Dialect.GEMINI ? geminiModel(path) : string(body, "model", "mock-model");
+			boolean streaming = dialect == Dialect.GEMINI ? path.endsWith(":streamGenerateContent")
+					: body != null && body.has("stream") && body.get("stream").getAsBoolean();
+			if (streaming) {
+				stream(exchange, request, dialect, model, script);
+			} else {
+				respond(exchange, request, 200, "application/json", complete(dialect, path, model, script));
+				request.completed = true;
+			}
+		} catch (IOException e) {
+			request.clientDisconnected = true;
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private Dialect dialect(String path) {
+		if (path.startsWith("/api/")) {
+			return Dialect.OLLAMA;
+		} else if (path.endsWith("/messages")) {
+			return Dialect.ANTHROPIC;
+		} else if (path.endsWith("/responses")) {
+			return Dialect.OPENAI_RESPONSES;
+		} else if (path.contains(":")) {
+			return Dialect.GEMINI;
+		} else {
+			return Dialect.OPENAI_CHAT;
+		}
+	}
+
+	private String geminiModel(String path) {
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		return name.substring(0, name.indexOf(':'));
+	}
+
+	private void respondToGet(HttpExchange exchange, RecordedRequest request) throws IOException {
+		String path = request.getPath();
+		JsonObject res = new JsonObject();
+		JsonArray models = new JsonArray();
+		if (path.endsWith("/api/tags")) {
+			models.add(object("name", "mock-model"));
+			res.add("models", models);
+		} else if (path.endsWith("/api/version")) {
+			res.addProperty("version", "0.12.0");
+		} else if (path.endsWith("/models") && exchange.getRequestURI().getQuery() != null) {
+			// Gemini passes the API key as query parameter.
+			JsonObject model = object("name", "models/mock-model");
+			model.addProperty("displayName", "Mock Model");
+			models.add(model);
+			res.add("models", models);
+		} else if (path.endsWith("/models")) {
+			JsonObject model = object("id", "mock-model");
+			model.addProperty("display_name", "Mock Model");
+			models.add(model);
+			res.add("data", models);
+		} else {
+			respond(exchange, request, 404, "application/json", "{\"error\":\"Unknown path " + path + "\"}");
+			return;
+		}
+		respond(exchange, request, 200, "application/json", GSON.toJson(res));
+		request.completed = true;
+	}
+
+	private void respondWithEmbeddings(HttpExchange exchange, RecordedRequest request, boolean openAi)
+			throws IOException {
+		JsonObject body = request.getBody();
+		JsonElement input = body != null ? body.get("input") : null;
+		List<String> texts = new ArrayList<>();
+		if (input != null && input.isJsonArray()) {
+			input.getAsJsonArray().forEach(e -> texts.add(e.getAsString()));
+		} else if (input != null) {
+			texts.add(input.getAsString());
+		}
+
+		JsonArray embeddings = new JsonArray();
+		for (int i = 0; i < texts.size(); i++) {
+			JsonArray vector = new JsonArray();
+			for (float f : embedding(texts.get(i))) {
+				vector.add(f);
+			}
+			if (openAi) {
+				JsonObject item = object("object", "embedding");
+				item.addProperty("index", i);
+				item.add("embedding", vector);
+				embeddings.add(item);
+			} else {
+				embeddings.add(vector);
+			}
+		}
+		JsonObject res = object("model", string(body, "model", "mock-model"));
+		res.add(openAi ? "data" : "embeddings", embeddings);
+		respond(exchange, request, 200, "application/json", GSON.toJson(res));
+		request.completed = true;
+	}
+
+	/**
+	 * The embedding the server returns for a text: the words of the text hashed
+	 * into {@link #EMBEDDING_DIMENSIONS} buckets, so texts sharing words are
+	 * similar.
+	 */
+	public static float[] embedding(String text) {
+		float[] res = new float[EMBEDDING_DIMENSIONS];
+		for (String word : text.toLowerCase().split("[^\\p{Alnum}]+")) {
+			if (!word.isEmpty()) {
+				res[Math.floorMod(word.hashCode(), EMBEDDING_DIMENSIONS)] += 1;
+			}
+		}
+		return res;
+	}
+
+	private void respondWithFailure(HttpExchange exchange, RecordedRequest request, Failure failure)
+			throws IOException {
+		if (failure.retryAfterSeconds() >= 0) {
+			exchange.getResponseHeaders().add("Retry-After", Integer.toString(failure.retryAfterSeconds()));
+		}
+		JsonObject error = new JsonObject();
+		error.add("error", object("message", "Injected failure with status " + failure.status()));
+		respond(exchange, request, failure.status(), "application/json", GSON.toJson(error));
+	}
+
+	private void respond(HttpExchange exchange, RecordedRequest request, int status, String contentType,
+			String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		request.status = status;
+		exchange.getResponseHeaders().add("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Sends the events of the script with the configured rate. The response has a
+	 * fixed length so dropping the connection early is seen as a truncated body by
+	 * the client.
+	 */
+	private void stream(HttpExchange exchange, RecordedRequest request, Dialect dialect, String model,
+			Script script) throws IOException {
+		List<String> events = events(dialect, model, script);
+		long length = 0;
+		for (String event : events) {
+			length += event.getBytes(StandardCharsets.UTF_8).length;
+		}
+
+		request.status = 200;
+		exchange.getResponseHeaders().add("Content-Type",
+				dialect == Dialect.OLLAMA ? "application/x-ndjson" : "text/event-stream");
+		exchange.sendResponseHeaders(200, length);
+		OutputStream out = exchange.getResponseBody();
+		long intervalNanos = script.tokensPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / script.tokensPerSecond)
+				: 0;
+		long next = System.nanoTime();
+		for (String event : events) {
+			if (request.chunksSent == script.disconnectAfterChunks) {
+				// Closing before the announced length is reached drops the connection.
+				return;
+			}
+			if (intervalNanos > 0) {
+				LockSupport.parkNanos(next - System.nanoTime());
+				next += intervalNanos;
+			}
+			out.write(event.getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			request.chunksSent++;
+		}
+		out.close();
+		request.completed = true;
+	}
+
+	private List<String> events(Dialect dialect, String model, Script script) {
+		return switch (dialect) {
+		case OPENAI_CHAT -> openAiChatEvents(model, script);
+		case OPENAI_RESPONSES -> responsesEvents(script);
+		case ANTHROPIC -> anthropicEvents(model, script);
+		case GEMINI -> geminiEvents(script);
+		case OLLAMA -> ollamaEvents(model, script);
+		};
+	}
+
+	private List<String> openAiChatEvents(String model, Script script) {
+		List<String> res = new ArrayList<>();
+		String id = "chatcmpl-mock-" + responseIds.incrementAndGet();
+		for (String chunk : script.chunks(script.text)) {
+			res.add(sse(null, openAiChunk(id, model, object("content", chunk), null)));
+		}
+		for (int i = 0; i < script.toolCalls.size(); i++) {
+			ToolCall toolCall = script.toolCalls.get(i);
+			JsonObject function = object("name", toolCall.name());
+			function.addProperty("arguments", "");
+			JsonObject start = object("id", toolCall.id());
+			start.addProperty("index", i);
+			start.addProperty("type", "function");
+			start.add("function", function);
+			res.add(sse(null, openAiChunk(id, model, toolCallsDelta(start), null)));
+			for (String chunk : script.chunks(toolCall.argumentsJson())) {
+				JsonObject delta = new JsonObject();
+				delta.addProperty("index", i);
+				delta.add("function", object("arguments", chunk));
+				res.add(sse(null, openAiChunk(id, model, toolCallsDelta(delta), null)));
+			}
+		}
+		JsonObject finish = openAiChunk(id, model, new JsonObject(),
+				script.toolCalls.isEmpty() ? "stop" : "tool_calls");
+		finish.add("usage", usage("prompt_tokens", "completion_tokens", script));
+		res.add(sse(null, finish));
+		res.add("data: [DONE]\n\n");
+		return res;
+	}
+
+	private JsonObject openAiChunk(String id, String model, JsonObject delta, String finishReason) {
+		JsonObject choice = new JsonObject();
+		choice.addProperty("index", 0);
+		choice.add("delta", delta);
+		choice.addProperty("finish_reason", finishReason);
+		JsonArray choices = new JsonArray();
+		choices.add(choice);
+		JsonObject res = object("id", id);
+		res.addProperty("object", "chat.completion.chunk");
+		res.addProperty("model", model);
+		res.add("choices", choices);
+		return res;
+	}
+
+	private JsonObject toolCallsDelta(JsonObject toolCall) {
+		JsonArray toolCalls = new JsonArray();
+		toolCalls.add(toolCall);
+		JsonObject res = new JsonObject();
+		res.add("tool_calls", toolCalls);
+		return res;
+	}
+
+	private List<String> responsesEvents(Script script) {
+		List<String> res = new ArrayList<>();
+		String responseId = "resp_mock_" + responseIds.incrementAndGet();
+		JsonObject created = object("type", "response.created");
+		created.add("response", object("id", responseId));
+		res.add(sse("response.created", created));
+
+		int outputIndex = 0;
+		if (!script.text.isEmpty()) {
+			JsonObject item = object("type", "message");
+			item.addProperty("id", "msg_mock");
+			item.addProperty("role", "assistant");
+			res.add(sse("response.output_item.added", outputItemEvent("response.output_item.added", outputIndex, item)));
+			for (String chunk : script.chunks(script.text)) {
+				JsonObject delta = object("type", "response.output_text.delta");
+				delta.addProperty("item_id", "msg_mock");
+				delta.addProperty("output_index", outputIndex);
+				delta.addProperty("content_index", 0);
+				delta.addProperty("delta", chunk);
+				res.add(sse("response.output_text.delta", delta));
+			}
+			res.add(sse("response.output_item.done", outputItemEvent("response.output_item.done", outputIndex, item)));
+			outputIndex++;
+		}
+		for (ToolCall toolCall : script.toolCalls) {
+			String itemId = "fc_mock_" + outputIndex;
+			JsonObject item = object("type", "function_call");
+			item.addProperty("id", itemId);
+			item.addProperty("call_id", toolCall.id());
+			item.addProperty("name", toolCall.name());
+			item.addProperty("arguments", "");
+			res.add(sse("response.output_item.added", outputItemEvent("response.output_item.added", outputIndex, item)));
+			for (String chunk : script.chunks(toolCall.argumentsJson())) {
+				JsonObject delta = object("type", "response.function_call_arguments.delta");
+				delta.addProperty("item_id", itemId);
+				delta.addProperty("output_index", outputIndex);
+				delta.addProperty("delta", chunk);
+				res.add(sse("response.function_call_arguments.delta", delta));
+			}
+			JsonObject done = object("type", "response.function_call_arguments.done");
+			done.addProperty("item_id", itemId);
+			done.addProperty("output_index", outputIndex);
+			done.addProperty("arguments", toolCall.argumentsJson());
+			res.add(sse("response.function_call_arguments.done", done));
+			item = item.deepCopy();
+			item.addProperty("arguments", toolCall.argumentsJson());
+			item.addProperty("status", "completed");
+			res.add(sse("response.output_item.done", outputItemEvent("response.output_item.done", outputIndex, item)));
+			outputIndex++;
+		}
+
+		JsonObject response = object("id", responseId);
+		response.addProperty("status", "completed");
+		response.add("usage", usage("input_tokens", "output_tokens", script));
+		JsonObject completed = object("type", "response.completed");
+		completed.add("response", response);
+		res.add(sse("response.completed", completed));
+		return res;
+	}
+
+	private JsonObject outputItemEvent(String type, int outputIndex, JsonObject item) {
+		JsonObject res = object("type", type);
+		res.addProperty("output_index", outputIndex);
+		res.add("item", item);
+		return res;
+	}
+
+	private List<String> anthropicEvents(String model, Script script) {
+		List<String> res = new ArrayList<>();
+		JsonObject message = object("id", "msg_mock_" + responseIds.incrementAndGet());
+		message.addProperty("type", "message");
+		message.addProperty("role", "assistant");
+		message.addProperty("model", model);
+		message.add("content", new JsonArray());
+		JsonObject startUsage = usage("input_tokens", "output_tokens", script);
+		startUsage.addProperty("output_tokens", 1);
+		message.add("usage", startUsage);
+		JsonObject start = object("type", "message_start");
+		start.add("message", message);
+		res.add(sse("message_start", start));
+		res.add(sse("ping", object("type", "ping")));
+
+		int index = 0;
+		if (!script.text.isEmpty()) {
+			JsonObject block = object("type", "text");
+			block.addProperty("text", "");
+			res.add(sse("content_block_start", contentBlockStart(index, block)));
+			for (String chunk : script.chunks(script.text)) {
+				JsonObject delta = object("type", "text_delta");
+				delta.addProperty("text", chunk);
+				res.add(sse("content_block_delta", contentBlockDelta(index, delta)));
+			}
+			res.add(sse("content_block_stop", contentBlockStop(index)));
+			index++;
+		}
+		for (ToolCall toolCall : script.toolCalls) {
+			JsonObject block = object("type", "tool_use");
+			block.addProperty("id", toolCall.id());
+			block.addProperty("name", toolCall.name());
+			block.add("input", new JsonObject());
+			res.add(sse("content_block_start", contentBlockStart(index, block)));
+			for (String chunk : script.chunks(toolCall.argumentsJson())) {
+				JsonObject delta = object("type", "input_json_delta");
+				delta.addProperty("partial_json", chunk);
+				res.add(sse("content_block_delta", contentBlockDelta(index, delta)));
+			}
+			res.add(sse("content_block_stop", contentBlockStop(index)));
+			index++;
+		}
+
+		JsonObject messageDelta = object("type", "message_delta");
+		messageDelta.add("delta", object("stop_reason", script.toolCalls.isEmpty() ? "end_turn" : "tool_use"));
+		JsonObject outputUsage = new JsonObject();
+		outputUsage.addProperty("output_tokens", script.outputTokens());
+		messageDelta.add("usage", outputUsage);
+		res.add(sse("message_delta", messageDelta));
+		res.add(sse("message_stop", object("type", "message_stop")));
+		return res;
+	}
+
+	private JsonObject contentBlockStart(int index, JsonObject block) {
+		JsonObject res = object("type", "content_block_start");
+		res.addProperty("index", index);
+		res.add("content_block", block);
+		return res;
+	}
+
+	private JsonObject contentBlockDelta(int index, JsonObject delta) {
+		JsonObject res = object("type", "content_block_delta");
+		res.addProperty("index", index);
+		res.add("delta", delta);
+		return res;
+	}
+
+	private JsonObject contentBlockStop(int index) {
+		JsonObject res = object("type", "content_block_stop");
+		res.addProperty("index", index);
+		return res;
+	}
+
+	/**
+	 * Gemini sends the function calls of a turn in one chunk, the last chunk
+	 * carries the finish reason and the usage.
+	 */
+	private List<String> geminiEvents(Script script) {
+		List<JsonArray> partsPerChunk = new ArrayList<>();
+		for (String chunk : script.chunks(script.text)) {
+			JsonArray parts = new JsonArray();
+			parts.add(object("text", chunk));
+			partsPerChunk.add(parts);
+		}
+		if (!script.toolCalls.isEmpty()) {
+			JsonArray parts = new JsonArray();
+			for (ToolCall toolCall : script.toolCalls) {
+				JsonObject functionCall = object("id", toolCall.id());
+				functionCall.addProperty("name", toolCall.name());
+				functionCall.add("args", JsonParser.parseString(toolCall.argumentsJson()));
+				JsonObject part = new JsonObject();
+				part.add("functionCall", functionCall);
+				parts.add(part);
+			}
+			partsPerChunk.add(parts);
+		}
+		if (partsPerChunk.isEmpty()) {
+			JsonArray parts = new JsonArray();
+			parts.add(object("text", ""));
+			partsPerChunk.add(parts);
+		}
+
+		List<String> res = new ArrayList<>();
+		for (int i = 0; i < partsPerChunk.size(); i++) {
+			boolean last = i == partsPerChunk.size() - 1;
+			JsonObject content = new JsonObject();
+			content.add("parts", partsPerChunk.get(i));
+			content.addProperty("role", "model");
+			JsonObject candidate = new JsonObject();
+			candidate.add("content", content);
+			candidate.addProperty("index", 0);
+			if (last) {
+				candidate.addProperty("finishReason", "STOP");
+			}
+			JsonArray candidates = new JsonArray();
+			candidates.add(candidate);
+			JsonObject chunk = new JsonObject();
+			chunk.add("candidates", candidates);
+			if (last) {
+				chunk.add("usageMetadata", usage("promptTokenCount", "candidatesTokenCount", script));
+			}
+			res.add(sse(null, chunk));
+		}
+		return res;
+	}
+
+	private List<String> ollamaEvents(String model, Script script) {
+		List<String> res = new ArrayList<>();
+		for (String chunk : script.chunks(script.text)) {
+			res.add(ndjson(ollamaChunk(model, chunk, false)));
+		}
+		if (!script.toolCalls.isEmpty()) {
+			JsonArray toolCalls = new JsonArray();
+			for (int i = 0; i < script.toolCalls.size(); i++) {
+				ToolCall toolCall = script.toolCalls.get(i);
+				JsonObject function = object("name", toolCall.name());
+				function.addProperty("index", i);
+				function.add("arguments", JsonParser.parseString(toolCall.argumentsJson()));
+				JsonObject item = object("id", toolCall.id());
+				item.add("function", function);
+				toolCalls.add(item);
+			}
+			JsonObject chunk = ollamaChunk(model, "", false);
+			chunk.getAsJsonObject("message").add("tool_calls", toolCalls);
+			res.add(ndjson(chunk));
+		}
+		JsonObject done = ollamaChunk(model, "", true);
+		done.addProperty("done_reason", "stop");
+		JsonObject usage = usage("prompt_eval_count", "eval_count", script);
+		usage.entrySet().forEach(e -> done.add(e.getKey(), e.getValue()));
+		res.add(ndjson(done));
+		return res;
+	}
+
+	private JsonObject ollamaChunk(String model, String content, boolean done) {
+		JsonObject message = object("role", "assistant");
+		message.addProperty("content", content);
+		JsonObject res = object("model", model);
+		res.addProperty("created_at", "2025-01-01T00:00:00Z");
+		res.add("message", message);
+		res.addProperty("done", done);
+		return res;
+	}
+
+	/**
+	 * Answer of a request without streaming, e.g. a completion or a caption.
+	 */
+	private String complete(Dialect dialect, String path, String model, Script script) {
+		JsonObject res = new JsonObject();
+		switch (dialect) {
+		case OPENAI_CHAT: {
+			JsonObject message = object("role", "assistant");
+			message.addProperty("content", script.text);
+			JsonObject choice = new JsonObject();
+			choice.addProperty("index", 0);
+			choice.add("message", message);
+			choice.addProperty("finish_reason", "stop");
+			JsonArray choices = new JsonArray();
+			choices.add(choice);
+			res.addProperty("id", "chatcmpl-mock-" + responseIds.incrementAndGet());
+			res.addProperty("model", model);
+			res.add("choices", choices);
+			res.add("usage", usage("prompt_tokens", "completion_tokens", script));
+			break;
+		}
+		case OPENAI_RESPONSES: {
+			JsonObject text = object("type", "output_text");
+			text.addProperty("text", script.text);
+			JsonArray content = new JsonArray();
+			content.add(text);
+			JsonObject message = object("type", "message");
+			message.addProperty("role", "assistant");
+			message.add("content", content);
+			JsonArray output = new JsonArray();
+			output.add(message);
+			res.addProperty("id", "resp_mock_" + responseIds.incrementAndGet());
+			res.add("output", output);
+			res.add("usage", usage("input_tokens", "output_tokens", script));
+			break;
+		}
+		case ANTHROPIC: {
+			JsonObject text = object("type", "text");
+			text.addProperty("text", script.text);
+			JsonArray content = new JsonArray();
+			content.add(text);
+			res.addProperty("id", "msg_mock_" + responseIds.incrementAndGet());
+			res.addProperty("model", model);
+			res.add("content", content);
+			res.addProperty("stop_reason", "end_turn");
+			res.add("usage", usage("input_tokens", "output_tokens", script));
+			break;
+		}
+		case GEMINI: {
+			JsonArray parts = new JsonArray();
+			parts.add(object("text", script.text));
+			JsonObject content = new JsonObject();
+			content.add("parts", parts);
+			content.addProperty("role", "model");
+			JsonObject candidate = new JsonObject();
+			candidate.add("content", content);
+			candidate.addProperty("finishReason", "STOP");
+			JsonArray candidates = new JsonArray();
+			candidates.add(candidate);
+			res.add("candidates", candidates);
+			res.add("usageMetadata", usage("promptTokenCount", "candidatesTokenCount", script));
+			break;
+		}
+		case OLLAMA:
+			if (path.endsWith("/api/show")) {
+				JsonArray capabilities = new JsonArray();
+				capabilities.add("completion");
+				capabilities.add("tools");
+				res.add("capabilities", capabilities);
+			} else if (path.endsWith("/api/generate")) {
+				res.addProperty("model", model);
+				res.addProperty("response", script.text);
+				res.addProperty("done", true);
+			} else {
+				res = ollamaChunk(model, script.text, true);
+			}
+			break;
+		}
+		return GSON.toJson(res);
+	}
+
+	private JsonObject usage(String inputName, String outputName, Script script) {
+		JsonObject res = new JsonObject();
+		res.addProperty(inputName, 1000);
+		res.addProperty(outputName, script.outputTokens());
+		return res;
+	}
+
+	private static String sse(String event, JsonObject data) {
+		return (event != null ? "event: " + event + "\n" : "") + "data: " + GSON.toJson(data) + "\n\n";
+	}
+
+	private static String ndjson(JsonObject data) {
+		return GSON.toJson(data) + "\n";
+	}
+
+	private static JsonObject object(String name, String value) {
+		JsonObject res = new JsonObject();
+		res.addProperty(name, value);
+		return res;
+	}
+
+	private static String string(JsonObject object, String name, String defaultValue) {
+		return object != null && object.has(name) && !object.get(name).isJsonNull() ? object.get(name).getAsString()
+				: defaultValue;
+	}
+
+	private static void sleep(long millis) {
+		if (millis > 0) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+		}
+	}
+}
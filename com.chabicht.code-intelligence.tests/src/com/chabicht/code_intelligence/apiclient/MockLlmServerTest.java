@@ -0,0 +1,168 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.apiclient.AiApiConnection.ApiType;
+import com.chabicht.code_intelligence.apiclient.MockLlmLoadDriver.CancellationResult;
+import com.chabicht.code_intelligence.apiclient.MockLlmLoadDriver.LoadResult;
+import com.chabicht.code_intelligence.apiclient.MockLlmServer.RecordedRequest;
+import com.chabicht.code_intelligence.apiclient.MockLlmServer.Script;
+import com.chabicht.code_intelligence.apiclient.MockLlmServer.ToolCall;
+import com.chabicht.code_intelligence.model.ChatConversation;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatListener;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCallBatch;
+import com.chabicht.code_intelligence.model.ChatConversation.Role;
+
+public class MockLlmServerTest {
+	private static final String TEXT = "The quick brown fox jumps over the lazy dog. \"Quoted\" and\nnew lines.";
+
+	@Test
+	void everyClientStreamsTheScriptedText() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			for (ApiType type : ApiType.values()) {
+				server.enqueue(Script.text(TEXT));
+				ChatMessage answer = chat(server.createConnection(type).getApiClient());
+
+				assertEquals(TEXT, answer.getContent(), type.getName());
+			}
+		}
+	}
+
+	@Test
+	void everyClientReceivesTheScriptedToolCallsAsOneBatch() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			for (ApiType type : ApiType.values()) {
+				server.enqueue(Script.toolCalls(new ToolCall("call_1", "read_file_content", "{\"file_name\":\"A.java\"}"),
+						new ToolCall("call_2", "read_file_content", "{\"file_name\":\"B.java\"}")));
+				ChatMessage answer = chat(server.createConnection(type).getApiClient());
+
+				assertTrue(answer.getFunctionCallBatch().isPresent(), type.getName());
+				FunctionCallBatch batch = answer.getFunctionCallBatch().get();
+				assertEquals(2, batch.getItems().size(), type.getName());
+				assertEquals("call_1", batch.getItems().get(0).getCall().getId(), type.getName());
+				assertEquals("read_file_content", batch.getItems().get(0).getCall().getFunctionName(), type.getName());
+				assertEquals("{\"file_name\":\"B.java\"}", batch.getItems().get(1).getCall().getArgsJson(),
+						type.getName());
+			}
+		}
+	}
+
+	@Test
+	void rateLimitedChatIsRetried() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			server.enqueue(Script.text(TEXT).failFirst(429, 0));
+			ChatMessage answer = chat(server.createConnection(ApiType.ANTHROPIC).getApiClient());
+
+			assertEquals(TEXT, answer.getContent());
+			List<RecordedRequest> requests = server.getRequests();
+			assertEquals(2, requests.size());
+			assertEquals(429, requests.get(0).getStatus());
+			assertEquals(200, requests.get(1).getStatus());
+		}
+	}
+
+	@Test
+	void droppedConnectionFinishesTheResponse() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			for (ApiType type : List.of(ApiType.OPENAI, ApiType.OLLAMA)) {
+				server.enqueue(Script.text(TEXT).disconnectAfter(5));
+				ChatMessage answer = chat(server.createConnection(type).getApiClient());
+
+				assertTrue(TEXT.startsWith(answer.getContent()), type.getName());
+				assertTrue(answer.getContent().length() < TEXT.length(), type.getName());
+			}
+		}
+	}
+
+	@Test
+	void loadDriverStreamsConcurrentChats() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			server.setDefaultScript(Script.text(TEXT).tokensPerSecond(500));
+			IAiApiClient client = server.createConnection(ApiType.OPENAI).getApiClient();
+
+			LoadResult result = new MockLlmLoadDriver(server, client, "mock-model").run(8, 10000);
+
+			assertEquals(8, result.getFinished(), result.toString());
+			assertEquals(8 * TEXT.length(), result.getStreamedChars());
+			assertEquals(8, result.getTimeToFirstToken().getCount());
+		}
+	}
+
+	@Test
+	void abortedChatIsNoLongerPending() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			server.setDefaultScript(Script.text(TEXT.repeat(10)).tokensPerSecond(200));
+			IAiApiClient client = server.createConnection(ApiType.ANTHROPIC).getApiClient();
+
+			CancellationResult result = new MockLlmLoadDriver(server, client, "mock-model").cancel(5, 10000);
+
+			assertTrue(result.getAbortToIdleMillis() >= 0, result.toString());
+			assertTrue(result.getChunksBeforeAbort() > 0, result.toString());
+			assertEquals(0, result.getUpdatesAfterAbort(), result.toString());
+			assertFalse(result.isFinishedAfterAbort(), result.toString());
+			// The server only gets a few chunks out before it notices the closed
+			// connection, the rest of the answer isn't streamed.
+			assertTrue(result.getChunksSent() - result.getChunksBeforeAbort() < 10, result.toString());
+			assertTrue(result.isClientDisconnected(), result.toString());
+		}
+	}
+
+	@Test
+	void ollamaAndOpenAiClientsReturnEmbeddingsInInputOrder() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			for (ApiType type : List.of(ApiType.OLLAMA, ApiType.OPENAI)) {
+				List<String> texts = List.of("retry the request", "parse the response", "");
+				List<float[]> embeddings = server.createConnection(type).getApiClient().embed("mock-embed", texts);
+
+				assertEquals(texts.size(), embeddings.size(), type.getName());
+				for (int i = 0; i < texts.size(); i++) {
+					assertArrayEquals(MockLlmServer.embedding(texts.get(i)), embeddings.get(i), type.getName());
+				}
+				RecordedRequest request = server.getRequests().get(server.getRequests().size() - 1);
+				assertEquals("mock-embed", request.getBody().get("model").getAsString(), type.getName());
+			}
+		}
+	}
+
+	private ChatMessage chat(IAiApiClient client) throws InterruptedException {
+		ChatConversation chat = new ChatConversation();
+		chat.addMessage(new ChatMessage(Role.USER, "Hello"), false);
+		CountDownLatch finished = new CountDownLatch(1);
+		chat.addListener(new ChatListener() {
+			@Override
+			public void onMessageAdded(ChatMessage message, boolean updating) {
+			}
+
+			@Override
+			public void onMessageUpdated(ChatMessage message) {
+			}
+
+			@Override
+			public void onFunctionCall(ChatMessage message) {
+			}
+
+			@Override
+			public void onChatResponseFinished(ChatMessage message) {
+				finished.countDown();
+			}
+		});
+
+		client.performChat("mock-model", chat, 1024);
+		assertTrue(finished.await(10, TimeUnit.SECONDS), "Timed out waiting for the chat response");
+		for (int i = 0; i < 40 && client.isChatPending(chat); i++) {
+			Thread.sleep(50);
+		}
+		assertFalse(client.isChatPending(chat));
+		return chat.getMessages().get(chat.getMessages().size() - 1);
+	}
+}
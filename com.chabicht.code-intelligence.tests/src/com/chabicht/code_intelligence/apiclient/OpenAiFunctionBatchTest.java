@@ -6,7 +6,9 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -98,7 +100,7 @@ public class OpenAiFunctionBatchTest {
 	}
 
 	@Test
-	void buildMessagesJsonIncludesAllBatchToolCallsAndResults() throws Exception {
+	void buildMessageFragmentsIncludesAllBatchToolCallsAndResults() throws Exception {
 		OpenAiApiClient client = new OpenAiApiClient(createConnection());
 		ChatConversation chat = new ChatConversation();
 
@@ -107,7 +109,7 @@ public class OpenAiFunctionBatchTest {
 		assistantMessage.setFunctionCallBatch(batch);
 		chat.addMessage(assistantMessage, false);
 
-		JsonArray messages = invokeBuildMessagesJson(client, chat);
+		JsonArray messages = invokeBuildMessageFragments(client, chat);
 		assertEquals(3, messages.size(), "Batch replay should serialize one assistant turn plus two tool result messages");
 
 		JsonObject assistantJson = messages.get(0).getAsJsonObject();
@@ -128,7 +130,7 @@ public class OpenAiFunctionBatchTest {
 	}
 
 	@Test
-	void buildMessagesJsonSupportsSingleItemBatchPath() throws Exception {
+	void buildMessageFragmentsSupportsSingleItemBatchPath() throws Exception {
 		OpenAiApiClient client = new OpenAiApiClient(createConnection());
 		ChatConversation chat = new ChatConversation();
 
@@ -141,12 +143,33 @@ public class OpenAiFunctionBatchTest {
 		assistantMessage.setFunctionCallBatch(batch);
 		chat.addMessage(assistantMessage, false);
 
-		JsonArray messages = invokeBuildMessagesJson(client, chat);
+		JsonArray messages = invokeBuildMessageFragments(client, chat);
 		assertEquals(2, messages.size(), "Single-item batch replay should stay as assistant + one tool result");
 		assertEquals(1, messages.get(0).getAsJsonObject().getAsJsonArray("tool_calls").size());
 		assertEquals("legacy-call", messages.get(1).getAsJsonObject().get("tool_call_id").getAsString());
 	}
 
+	@Test
+	void buildMessageFragmentsSendsPlainTextToolResultsIfConfigured() throws Exception {
+		AiApiConnection connection = createConnection();
+		connection.setPlainTextToolResults(true);
+		OpenAiApiClient client = new OpenAiApiClient(connection);
+		ChatConversation chat = new ChatConversation();
+
+		ChatMessage assistantMessage = new ChatMessage(Role.ASSISTANT, "");
+		FunctionCall call = new FunctionCall("call-1", "read_file_content", "{\"file_name\":\"A.java\"}");
+		FunctionResult result = new FunctionResult("call-1", "read_file_content");
+		result.setResultJson("{\"status\":\"Success\",\"content\":\"1: class A {\\n2: }\"}");
+		FunctionCallBatch batch = new FunctionCallBatch("batch-plain-text");
+		batch.setItems(java.util.List.of(new FunctionCallItem(call, result)));
+		assistantMessage.setFunctionCallBatch(batch);
+		chat.addMessage(assistantMessage, false);
+
+		JsonArray messages = invokeBuildMessageFragments(client, chat);
+		assertEquals("status: Success\ncontent:\n1: class A {\n2: }",
+				messages.get(1).getAsJsonObject().get("content").getAsString());
+	}
+
 	@Test
 	void finalizeToolCallsAggregatesMultipleStreamedToolCallsIntoBatch() throws Exception {
 		OpenAiApiClient client = new OpenAiApiClient(createConnection());
@@ -174,7 +197,7 @@ public class OpenAiFunctionBatchTest {
 		});
 
 		Map<Integer, Object> activeToolCalls = new TreeMap<>();
-		invokeHandleToolCallDelta(client, activeToolCalls, assistantMessage, chat, jsonArray("""
+		invokeToolCallChunk(client, activeToolCalls, assistantMessage, chat, jsonArray("""
 				[
 				  {
 				    "index": 1,
@@ -194,7 +217,7 @@ public class OpenAiFunctionBatchTest {
 				  }
 				]
 				"""));
-		invokeHandleToolCallDelta(client, activeToolCalls, assistantMessage, chat, jsonArray("""
+		invokeToolCallChunk(client, activeToolCalls, assistantMessage, chat, jsonArray("""
 				[
 				  {
 				    "index": 1,
@@ -225,6 +248,54 @@ public class OpenAiFunctionBatchTest {
 		assertEquals(1, functionCallNotifications.get(), "Function-call notification should fire once per assistant turn");
 	}
 
+	@Test
+	void toolCallsAreReportedCompleteWhenTheNextOneStarts() throws Exception {
+		OpenAiApiClient client = new OpenAiApiClient(createConnection());
+		ChatConversation chat = new ChatConversation();
+		ChatMessage assistantMessage = new ChatMessage(Role.ASSISTANT, "");
+		List<String> completedCalls = new ArrayList<>();
+		chat.addListener(new ChatListener() {
+			@Override
+			public void onMessageAdded(ChatMessage message, boolean updating) {
+			}
+
+			@Override
+			public void onMessageUpdated(ChatMessage message) {
+			}
+
+			@Override
+			public void onFunctionCall(ChatMessage message) {
+			}
+
+			@Override
+			public void onFunctionCallComplete(ChatMessage message, FunctionCall call) {
+				completedCalls.add(call.getId() + " " + call.getArgsJson());
+			}
+
+			@Override
+			public void onChatResponseFinished(ChatMessage message) {
+			}
+		});
+
+		Map<Integer, Object> activeToolCalls = new TreeMap<>();
+		invokeToolCallChunk(client, activeToolCalls, assistantMessage, chat, jsonArray("""
+				[{"index": 0, "id": "call-1", "function": {"name": "find_files", "arguments": "{\\"query\\":"}}]
+				"""));
+		invokeToolCallChunk(client, activeToolCalls, assistantMessage, chat, jsonArray("""
+				[{"index": 0, "function": {"arguments": "\\"*.java\\"}"}}]
+				"""));
+		assertEquals(List.of(), completedCalls);
+
+		invokeToolCallChunk(client, activeToolCalls, assistantMessage, chat, jsonArray("""
+				[{"index": 1, "id": "call-2", "function": {"name": "read_file_content", "arguments": "{}"}}]
+				"""));
+		assertEquals(List.of("call-1 {\"query\":\"*.java\"}"), completedCalls);
+
+		invokeFinalizeToolCalls(client, activeToolCalls, assistantMessage, chat);
+		assertEquals(2, assistantMessage.getFunctionCallBatch().get().getItems().size());
+		assertEquals(1, completedCalls.size(), "The last call is dispatched with the batch");
+	}
+
 	private FunctionCallBatch createBatchWithResults() {
 		FunctionCall callOne = new FunctionCall("call-1", "find_files", "{\"query\":\"*.java\"}");
 		FunctionResult resultOne = new FunctionResult("call-1", "find_files");
@@ -240,18 +311,41 @@ public class OpenAiFunctionBatchTest {
 		return batch;
 	}
 
-	private JsonArray invokeBuildMessagesJson(OpenAiApiClient client, ChatConversation chat) throws Exception {
-		Method method = OpenAiApiClient.class.getDeclaredMethod("buildMessagesJson", ChatConversation.class);
+	@SuppressWarnings("unchecked")
+	private JsonArray invokeBuildMessageFragments(OpenAiApiClient client, ChatConversation chat) throws Exception {
+		Method method = OpenAiApiClient.class.getDeclaredMethod("buildMessageFragments", ChatConversation.class);
 		method.setAccessible(true);
-		return (JsonArray) method.invoke(client, chat);
+		JsonArray res = new JsonArray();
+		for (String fragment : (List<String>) method.invoke(client, chat)) {
+			res.add(JsonParser.parseString(fragment));
+		}
+		return res;
 	}
 
-	private void invokeHandleToolCallDelta(OpenAiApiClient client, Map<Integer, Object> activeToolCalls,
+	/**
+	 * Passes the tool call deltas through the stream parser to the event handler,
+	 * like a chunk of the streamed response.
+	 */
+	private void invokeToolCallChunk(OpenAiApiClient client, Map<Integer, Object> activeToolCalls,
 			ChatMessage assistantMessage, ChatConversation chat, JsonArray toolCallDeltas) throws Exception {
-		Method method = OpenAiApiClient.class.getDeclaredMethod("handleToolCallDelta", JsonArray.class, Map.class,
+		Method method = OpenAiApiClient.class.getDeclaredMethod("handleStreamEvent", StreamEvent.class, Map.class,
 				ChatMessage.class, ChatConversation.class);
 		method.setAccessible(true);
-		method.invoke(client, toolCallDeltas, activeToolCalls, assistantMessage, chat);
+		JsonObject delta = new JsonObject();
+		delta.add("tool_calls", toolCallDeltas);
+		JsonObject choice = new JsonObject();
+		choice.addProperty("index", 0);
+		choice.add("delta", delta);
+		JsonArray choices = new JsonArray();
+		choices.add(choice);
+		JsonObject chunk = new JsonObject();
+		chunk.add("choices", choices);
+
+		List<StreamEvent> events = new ArrayList<>();
+		StreamDeltaParser.parseChatCompletionChunk(chunk.toString(), events::add);
+		for (StreamEvent event : events) {
+			method.invoke(client, event, activeToolCalls, assistantMessage, chat);
+		}
 	}
 
 	private void invokeFinalizeToolCalls(OpenAiApiClient client, Map<Integer, Object> activeToolCalls,
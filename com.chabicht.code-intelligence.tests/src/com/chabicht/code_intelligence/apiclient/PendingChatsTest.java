@@ -0,0 +1,110 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.model.ChatConversation;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatListener;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.Role;
+
+public class PendingChatsTest {
+
+	@Test
+	void abortingOneConversationKeepsTheOthers() {
+		PendingChats pendingChats = new PendingChats();
+		ChatConversation first = new ChatConversation();
+		ChatConversation second = new ChatConversation();
+		CompletableFuture<Void> firstRequest = new CompletableFuture<>();
+		CompletableFuture<Void> secondRequest = new CompletableFuture<>();
+		pendingChats.track(first, firstRequest);
+		pendingChats.track(second, secondRequest);
+
+		pendingChats.abort(first);
+
+		assertTrue(firstRequest.isCancelled());
+		assertFalse(pendingChats.isPending(first));
+		assertTrue(pendingChats.isPending(second));
+		assertTrue(pendingChats.isAnyPending());
+	}
+
+	@Test
+	void finishedRequestIsNotPending() {
+		PendingChats pendingChats = new PendingChats();
+		ChatConversation chat = new ChatConversation();
+		CompletableFuture<Void> request = new CompletableFuture<>();
+		pendingChats.track(chat, request);
+
+		request.complete(null);
+
+		assertFalse(pendingChats.isPending(chat));
+		assertFalse(pendingChats.isAnyPending());
+	}
+
+	@Test
+	void lateFinishOfPreviousRequestKeepsTheNextPending() {
+		PendingChats pendingChats = new PendingChats();
+		ChatConversation chat = new ChatConversation();
+		CompletableFuture<Void> previous = new CompletableFuture<>();
+		CompletableFuture<Void> next = new CompletableFuture<>();
+		pendingChats.track(chat, previous);
+		pendingChats.track(chat, next);
+
+		previous.complete(null);
+
+		assertTrue(pendingChats.isPending(chat));
+		pendingChats.abortAll();
+		assertTrue(next.isCancelled());
+		assertFalse(pendingChats.isPending(chat));
+	}
+
+	@Test
+	void abortedResponseNoLongerNotifiesTheListeners() {
+		PendingChats pendingChats = new PendingChats();
+		ChatConversation chat = new ChatConversation();
+		ChatMessage response = new ChatMessage(Role.ASSISTANT, "");
+		ChatMessage next = new ChatMessage(Role.ASSISTANT, "");
+		AtomicInteger events = new AtomicInteger();
+		chat.addListener(new ChatListener() {
+			@Override
+			public void onMessageAdded(ChatMessage message, boolean updating) {
+			}
+
+			@Override
+			public void onMessageUpdated(ChatMessage message) {
+				events.incrementAndGet();
+			}
+
+			@Override
+			public void onFunctionCall(ChatMessage message) {
+				events.incrementAndGet();
+			}
+
+			@Override
+			public void onChatResponseFinished(ChatMessage message) {
+				events.incrementAndGet();
+			}
+		});
+		CompletableFuture<Void> request = new CompletableFuture<>();
+		CompletableFuture<Void> processing = new CompletableFuture<>();
+		pendingChats.track(chat, response, request);
+		pendingChats.trackProcessing(chat, processing);
+
+		pendingChats.abort(chat);
+		chat.notifyMessageUpdated(response);
+		chat.notifyFunctionCalled(response);
+		chat.notifyChatResponseFinished(response);
+
+		assertTrue(request.isCancelled());
+		assertTrue(processing.isCancelled());
+		assertEquals(0, events.get());
+		chat.notifyChatResponseFinished(next);
+		assertEquals(1, events.get(), "Only the aborted response is muted");
+	}
+}
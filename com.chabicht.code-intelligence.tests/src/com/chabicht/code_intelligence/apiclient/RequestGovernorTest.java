@@ -0,0 +1,146 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.http.HttpHeaders;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.apiclient.RequestGovernor.Priority;
+
+public class RequestGovernorTest {
+	private static final long NOW = 1_700_000_000_000L;
+
+	@Test
+	void unlimitedConnectionGrantsImmediately() {
+		RequestGovernor governor = new RequestGovernor(() -> 0, () -> 0, () -> NOW, new Random(1));
+
+		for (int i = 0; i < 100; i++) {
+			assertTrue(governor.acquireAsync(Priority.BACKGROUND, 100_000).isDone());
+		}
+	}
+
+	@Test
+	void requestsWaitForTheBucketToRefill() {
+		AtomicLong clock = new AtomicLong(NOW);
+		RequestGovernor governor = new RequestGovernor(() -> 2, () -> 0, clock::get, new Random(1));
+
+		assertTrue(governor.acquireAsync(Priority.INTERACTIVE, 0).isDone());
+		assertTrue(governor.acquireAsync(Priority.INTERACTIVE, 0).isDone());
+		CompletableFuture<Void> third = governor.acquireAsync(Priority.INTERACTIVE, 0);
+		assertFalse(third.isDone());
+
+		// Two requests per minute: one permit every 30 seconds.
+		clock.addAndGet(29_000);
+		governor.drain();
+		assertFalse(third.isDone());
+		clock.addAndGet(1_000);
+		governor.drain();
+		assertTrue(third.isDone());
+	}
+
+	@Test
+	void interactiveRequestsGoFirst() {
+		AtomicLong clock = new AtomicLong(NOW);
+		RequestGovernor governor = new RequestGovernor(() -> 1, () -> 0, clock::get, new Random(1));
+
+		assertTrue(governor.acquireAsync(Priority.INTERACTIVE, 0).isDone());
+		CompletableFuture<Void> background = governor.acquireAsync(Priority.BACKGROUND, 0);
+		CompletableFuture<Void> interactive = governor.acquireAsync(Priority.INTERACTIVE, 0);
+
+		clock.addAndGet(60_000);
+		governor.drain();
+		assertTrue(interactive.isDone());
+		assertFalse(background.isDone());
+		assertEquals(1, governor.getWaitingCount());
+	}
+
+	@Test
+	void rateLimitResponseIsRetriedAfterRetryAfter() {
+		AtomicLong clock = new AtomicLong(NOW);
+		RequestGovernor governor = new RequestGovernor(() -> 0, () -> 0, clock::get, new Random(1));
+
+		assertEquals(2_000, governor.onResponse(429, headers(Map.of("retry-after", "2")), 0, Priority.NORMAL));
+		// The whole connection pauses until then.
+		CompletableFuture<Void> next = governor.acquireAsync(Priority.INTERACTIVE, 0);
+		assertFalse(next.isDone());
+		clock.addAndGet(2_000);
+		governor.drain();
+		assertTrue(next.isDone());
+
+		assertEquals(-1, governor.onResponse(429, headers(Map.of("retry-after", "600")), 0, Priority.NORMAL));
+		assertEquals(-1, governor.onResponse(429, headers(Map.of()), RequestGovernor.MAX_RETRIES, Priority.NORMAL));
+		assertEquals(-1, governor.onResponse(400, headers(Map.of()), 0, Priority.NORMAL));
+		assertEquals(-1, governor.onResponse(200, headers(Map.of()), 0, Priority.NORMAL));
+	}
+
+	@Test
+	void serverErrorsBackOffExponentiallyWithJitter() {
+		RequestGovernor governor = new RequestGovernor(() -> 0, () -> 0, () -> NOW, new Random(1));
+
+		for (int attempt = 0; attempt < RequestGovernor.MAX_RETRIES; attempt++) {
+			long backoff = 1000L << attempt;
+			long delay = governor.onResponse(503, headers(Map.of()), attempt, Priority.NORMAL);
+			assertTrue(delay >= backoff / 2 && delay <= backoff, "delay " + delay + " for attempt " + attempt);
+		}
+		// Server errors don't pause the other requests.
+		assertTrue(governor.acquireAsync(Priority.BACKGROUND, 0).isDone());
+	}
+
+	@Test
+	void interactiveRequestsAreNotRetried() {
+		AtomicLong clock = new AtomicLong(NOW);
+		RequestGovernor governor = new RequestGovernor(() -> 0, () -> 0, clock::get, new Random(1));
+
+		assertEquals(-1, governor.onResponse(503, headers(Map.of()), 0, Priority.INTERACTIVE));
+		assertEquals(-1, governor.onResponse(429, headers(Map.of("retry-after", "2")), 0, Priority.INTERACTIVE));
+		// The rate limit still pauses the other requests.
+		assertFalse(governor.acquireAsync(Priority.NORMAL, 0).isDone());
+	}
+
+	@Test
+	void exhaustedProviderLimitPausesUntilReset() {
+		AtomicLong clock = new AtomicLong(NOW);
+		RequestGovernor governor = new RequestGovernor(() -> 0, () -> 0, clock::get, new Random(1));
+
+		governor.onResponse(200,
+				headers(Map.of("x-ratelimit-remaining-requests", "0", "x-ratelimit-reset-requests", "1m30s")), 0,
+				Priority.NORMAL);
+		CompletableFuture<Void> next = governor.acquireAsync(Priority.NORMAL, 0);
+		assertFalse(next.isDone());
+		clock.addAndGet(60_000);
+		governor.drain();
+		assertTrue(next.isDone(), "waits at most a minute for a reset");
+	}
+
+	@Test
+	void parsesResetValues() {
+		assertEquals(20, RequestGovernor.parseResetMillis("20ms", NOW));
+		assertEquals(360_000, RequestGovernor.parseResetMillis("6m0s", NOW));
+		assertEquals(1_500, RequestGovernor.parseResetMillis("1.5s", NOW));
+		assertEquals(3_723_000, RequestGovernor.parseResetMillis("1h2m3s", NOW));
+		assertEquals(5_000, RequestGovernor.parseResetMillis("5", NOW));
+		assertEquals(10_000, RequestGovernor.parseResetMillis("2023-11-14T22:13:30Z", NOW));
+		assertEquals(-1, RequestGovernor.parseResetMillis("soon", NOW));
+		assertEquals(-1, RequestGovernor.parseResetMillis(null, NOW));
+
+		assertEquals(1_500, RequestGovernor.retryAfterMillis(headers(Map.of("retry-after-ms", "1500")), NOW));
+		assertEquals(10_000, RequestGovernor
+				.retryAfterMillis(headers(Map.of("retry-after", "Tue, 14 Nov 2023 22:13:30 GMT")), NOW));
+		assertEquals(-1, RequestGovernor.retryAfterMillis(headers(Map.of()), NOW));
+	}
+
+	private static HttpHeaders headers(Map<String, String> values) {
+		Map<String, List<String>> map = new HashMap<>();
+		values.forEach((k, v) -> map.put(k, List.of(v)));
+		return HttpHeaders.of(map, (k, v) -> true);
+	}
+}
@@ -0,0 +1,94 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+public class StreamingRequestBodyTest {
+	private final Gson gson = new Gson();
+
+	@Test
+	void bodyMatchesTreeSerialization() throws Exception {
+		StringBuilder longContent = new StringBuilder();
+		for (int i = 0; i < 100_000; i++) {
+			longContent.append(i % 3 == 0 ? "\u00e4" : i % 5 == 0 ? "\ud83d\ude00" : "x");
+		}
+
+		JsonObject request = new JsonObject();
+		request.addProperty("model", "test-model");
+		request.addProperty("stream", true);
+		JsonArray messages = new JsonArray();
+		JsonObject first = new JsonObject();
+		first.addProperty("role", "user");
+		first.addProperty("content", longContent.toString());
+		messages.add(first);
+		JsonObject second = new JsonObject();
+		second.addProperty("role", "assistant");
+		second.addProperty("content", "<b>\"quoted\" & escaped</b>");
+		messages.add(second);
+		request.add("messages", messages);
+		String expected = gson.toJson(request);
+
+		StreamingRequestBody body = StreamingRequestBody.ofRequest(gson, request.deepCopy(), "messages");
+
+		assertEquals(expected, body.toString());
+		assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, body.contentLength());
+		assertEquals(expected, new String(readAll(body.toBodyPublisher()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void emptyEnvelopeAndEmptyArray() {
+		assertEquals("{\"input\":[]}", StreamingRequestBody.of(gson, new JsonObject(), "input", List.of()).toString());
+		assertEquals("{\"input\":[1,{}]}",
+				StreamingRequestBody.of(gson, new JsonObject(), "input", List.of("1", "{}")).toString());
+	}
+
+	@Test
+	void utf8LengthCountsLoneSurrogatesAsReplacement() {
+		String s = "a\u00e4\u20ac\ud83d\ude00\ud83d";
+		assertEquals(s.getBytes(StandardCharsets.UTF_8).length, StreamingRequestBody.utf8Length(s));
+	}
+
+	private byte[] readAll(BodyPublisher publisher) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(ByteBuffer item) {
+				byte[] bytes = new byte[item.remaining()];
+				item.get(bytes);
+				out.write(bytes, 0, bytes.length);
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				done.completeExceptionally(throwable);
+			}
+
+			@Override
+			public void onComplete() {
+				done.complete(null);
+			}
+		});
+		done.get(10, TimeUnit.SECONDS);
+		return out.toByteArray();
+	}
+}
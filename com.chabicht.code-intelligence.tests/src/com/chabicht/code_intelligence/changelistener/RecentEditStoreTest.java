@@ -0,0 +1,78 @@
+package com.chabicht.code_intelligence.changelistener;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class RecentEditStoreTest {
+
+	private final AtomicLong clock = new AtomicLong(1_000_000);
+
+	@Test
+	void capsEditsPerFileAndInTotal() {
+		RecentEditStore store = new RecentEditStore(2, 3, clock::get);
+		store.add("A", 0, 0, "a0");
+		store.add("A", 10, 10, "a10");
+		store.add("B", 0, 0, "b0");
+		store.add("A", 20, 20, "a20");
+
+		assertEquals(List.of("a10", "b0", "a20"), texts(store.getEdits()));
+
+		store.add("C", 0, 0, "c0");
+		assertEquals(List.of("b0", "a20", "c0"), texts(store.getEdits()));
+	}
+
+	@Test
+	void newerEditReplacesOverlappingLines() {
+		RecentEditStore store = new RecentEditStore(10, 10, clock::get);
+		store.add("A", 5, 7, "old");
+		store.add("B", 5, 7, "other file");
+		store.add("A", 7, 8, "new");
+
+		assertEquals(List.of("other file", "new"), texts(store.getEdits()));
+	}
+
+	@Test
+	void selectsEditsNearTheCursorInTheSameFile() {
+		RecentEditStore store = new RecentEditStore(10, 10, clock::get);
+		store.add("A", 100, 100, "far");
+		clock.addAndGet(1000);
+		store.add("A", 12, 12, "near");
+		clock.addAndGet(1000);
+		store.add("B", 10, 10, "other file");
+		clock.addAndGet(1000);
+
+		assertEquals(List.of("far", "near"), texts(store.select("A", 10, 2, 1000)));
+		assertEquals(List.of("near"), texts(store.select("A", 10, 1, 1000)));
+		assertEquals(List.of("other file"), texts(store.select("B", 10, 1, 1000)));
+	}
+
+	@Test
+	void prefersRecentEditsOfOtherFiles() {
+		RecentEditStore store = new RecentEditStore(10, 10, clock::get);
+		store.add("B", 0, 0, "old");
+		clock.addAndGet(60 * 60 * 1000);
+		store.add("C", 0, 0, "new");
+
+		assertEquals(List.of("new"), texts(store.select("A", 0, 1, 1000)));
+	}
+
+	@Test
+	void respectsTokenBudget() {
+		RecentEditStore store = new RecentEditStore(10, 10, clock::get);
+		store.add("A", 0, 0, "x".repeat(400));
+		store.add("A", 50, 50, "y".repeat(40));
+
+		// The large edit next to the cursor doesn't fit, the smaller one does.
+		assertEquals(List.of("y".repeat(40)), texts(store.select("A", 0, 5, 50)));
+		assertEquals(2, store.select("A", 0, 5, 200).size());
+	}
+
+	private static List<String> texts(List<RecentEdit> edits) {
+		return edits.stream().map(RecentEdit::getText).collect(Collectors.toList());
+	}
+}
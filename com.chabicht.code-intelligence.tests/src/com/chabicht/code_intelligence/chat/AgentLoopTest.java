@@ -0,0 +1,310 @@
+package com.chabicht.code_intelligence.chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.apiclient.AiApiConnection.ApiType;
+import com.chabicht.code_intelligence.apiclient.IAiApiClient;
+import com.chabicht.code_intelligence.apiclient.MockLlmServer;
+import com.chabicht.code_intelligence.apiclient.MockLlmServer.Script;
+import com.chabicht.code_intelligence.apiclient.MockLlmServer.ToolCall;
+import com.chabicht.code_intelligence.chat.AgentLoop.StopReason;
+import com.chabicht.code_intelligence.chat.tools.FunctionCallSession.BatchExecutionReport;
+import com.chabicht.code_intelligence.chat.tools.FunctionCallSession.ChangeApplicationResult;
+import com.chabicht.code_intelligence.model.ChatConversation;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatListener;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCall;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCallBatch.FunctionCallItem;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionResult;
+import com.chabicht.code_intelligence.model.ChatConversation.Role;
+
+public class AgentLoopTest {
+	private static final Script READ_FILE = Script
+			.toolCalls(new ToolCall("call_1", "read_file_content", "{\"file_name\":\"A.java\"}"));
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final FakeTools tools = new FakeTools();
+	private final AtomicBoolean cancelled = new AtomicBoolean();
+	private final BlockingQueue<StopReason> stops = new LinkedBlockingQueue<>();
+	private final AtomicInteger continuations = new AtomicInteger();
+	private volatile Runnable onContinue = () -> {
+	};
+
+	@AfterEach
+	void shutDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void toolResultsAreSentUntilTheModelAnswers() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			server.enqueue(READ_FILE).enqueue(READ_FILE).enqueue(Script.text("Done."));
+
+			ChatConversation conversation = startChat(server, 10);
+
+			assertEquals(StopReason.ANSWERED, stops.poll(10, TimeUnit.SECONDS));
+			assertEquals(3, server.getRequests().size());
+			assertEquals(2, continuations.get());
+			assertEquals(2, tools.executedCalls.get());
+			assertEquals("Done.", conversation.getMessages().get(conversation.getMessages().size() - 1).getContent());
+		}
+	}
+
+	@Test
+	void loopStopsWhenTheTurnsAreUsedUp() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			server.setDefaultScript(READ_FILE);
+
+			startChat(server, 2);
+
+			assertEquals(StopReason.TURN_LIMIT, stops.poll(10, TimeUnit.SECONDS));
+			assertEquals(3, server.getRequests().size());
+			assertEquals(3, tools.executedCalls.get(), "The results of the last turn are kept for the next message");
+		}
+	}
+
+	@Test
+	void toolCallsOfACancelledResponseAreDiscarded() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			server.enqueue(READ_FILE);
+			cancelled.set(true);
+
+			startChat(server, 10);
+
+			assertEquals(StopReason.CANCELLED, stops.poll(10, TimeUnit.SECONDS));
+			assertEquals(0, tools.executedCalls.get());
+			assertEquals(1, tools.discarded.get());
+			assertEquals(1, server.getRequests().size());
+		}
+	}
+
+	@Test
+	void abortDuringToolExecutionStopsTheLoop() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			server.setDefaultScript(READ_FILE);
+			CountDownLatch executing = new CountDownLatch(1);
+			CountDownLatch aborted = new CountDownLatch(1);
+			tools.beforeExecution = () -> {
+				executing.countDown();
+				await(aborted);
+			};
+
+			AgentLoop loop = startChat(server, 10, false);
+			assertTrue(executing.await(10, TimeUnit.SECONDS));
+			assertTrue(loop.isRunning(), "The loop runs while the tools execute");
+			cancelled.set(true);
+			aborted.countDown();
+
+			assertEquals(StopReason.CANCELLED, stops.poll(10, TimeUnit.SECONDS));
+			assertFalse(loop.isRunning());
+			assertEquals(0, continuations.get());
+			assertEquals(1, server.getRequests().size());
+		}
+	}
+
+	@Test
+	void abortRightBeforeTheContinuationStopsTheLoop() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			server.setDefaultScript(READ_FILE);
+			onContinue = () -> cancelled.set(true);
+
+			AgentLoop loop = startChat(server, 10, false);
+
+			assertEquals(StopReason.CANCELLED, stops.poll(10, TimeUnit.SECONDS));
+			assertFalse(loop.isRunning());
+			assertEquals(0, continuations.get());
+			assertEquals(1, server.getRequests().size());
+		}
+	}
+
+	@Test
+	void abortedResponseStreamingAfterTheNextMessageIsIgnored() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			server.enqueue(Script.text("Let me read the file first.").withToolCall("call_1", "read_file_content",
+					"{\"file_name\":\"A.java\"}").tokensPerSecond(20)).enqueue(Script.text("Done."));
+			ChatConversation conversation = new ChatConversation();
+			CountDownLatch streaming = new CountDownLatch(1);
+			CountDownLatch abortedFinished = new CountDownLatch(1);
+			conversation.addListener(new ChatListener() {
+				@Override
+				public void onMessageAdded(ChatMessage message, boolean updating) {
+				}
+
+				@Override
+				public void onMessageUpdated(ChatMessage message) {
+					streaming.countDown();
+				}
+
+				@Override
+				public void onFunctionCall(ChatMessage message) {
+				}
+
+				@Override
+				public void onChatResponseFinished(ChatMessage message) {
+					if (message.getFunctionCallBatch().isPresent()) {
+						abortedFinished.countDown();
+					}
+				}
+			});
+
+			AgentLoop loop = startChat(server, conversation, 10, false);
+			assertTrue(streaming.await(10, TimeUnit.SECONDS));
+			// The stream of the aborted response isn't closed, like a client that is
+			// slow to notice the abort.
+			cancelled.set(true);
+			loop.cancel();
+			assertEquals(StopReason.CANCELLED, stops.poll(10, TimeUnit.SECONDS));
+
+			// Sending the next message resets the cancelled session.
+			cancelled.set(false);
+			conversation.addMessage(new ChatMessage(Role.USER, "Never mind."), false);
+			IAiApiClient client = server.createConnection(ApiType.OPENAI).getApiClient();
+			loop.start(() -> client.performChat("mock-model", conversation, 1024));
+
+			assertEquals(StopReason.ANSWERED, stops.poll(10, TimeUnit.SECONDS));
+			assertTrue(abortedFinished.await(10, TimeUnit.SECONDS));
+			executor.submit(() -> {
+			}).get(10, TimeUnit.SECONDS);
+			assertEquals(0, tools.executedCalls.get());
+			assertEquals(0, continuations.get());
+			assertEquals(2, server.getRequests().size());
+			assertTrue(stops.isEmpty(), stops.toString());
+			assertFalse(loop.isRunning());
+		}
+	}
+
+	@Test
+	void rejectedChangesStopTheLoop() throws Exception {
+		try (MockLlmServer server = new MockLlmServer()) {
+			server.setDefaultScript(READ_FILE);
+			tools.pendingChanges = true;
+
+			AgentLoop loop = startChat(server, 10, true);
+
+			assertEquals(StopReason.CHANGES_REJECTED, stops.poll(10, TimeUnit.SECONDS));
+			assertEquals(1, server.getRequests().size());
+			assertEquals(10, loop.getMaxTurns());
+		}
+	}
+
+	private ChatConversation startChat(MockLlmServer server, int maxTurns) {
+		ChatConversation conversation = new ChatConversation();
+		startChat(server, conversation, maxTurns, false);
+		return conversation;
+	}
+
+	private AgentLoop startChat(MockLlmServer server, int maxTurns, boolean applyChangesImmediately) {
+		return startChat(server, new ChatConversation(), maxTurns, applyChangesImmediately);
+	}
+
+	private AgentLoop startChat(MockLlmServer server, ChatConversation conversation, int maxTurns,
+			boolean applyChangesImmediately) {
+		IAiApiClient client = server.createConnection(ApiType.OPENAI).getApiClient();
+		AgentLoop loop = new AgentLoop(tools, executor, cancelled::get, () -> {
+			// Like ChatSession.continueChat(), nothing is sent once the session is cancelled.
+			if (cancelled.get()) {
+				return false;
+			}
+			continuations.incrementAndGet();
+			client.performChat("mock-model", conversation, 1024);
+			return true;
+		}, new AgentLoop.Listener() {
+			@Override
+			public void onContinue(int turn, BatchExecutionReport report) {
+				onContinue.run();
+			}
+
+			@Override
+			public void onStopped(StopReason reason) {
+				stops.add(reason);
+			}
+		});
+		loop.setMaxTurns(maxTurns);
+		loop.setApplyChangesImmediately(applyChangesImmediately);
+		conversation.addListener(loop);
+
+		conversation.addMessage(new ChatMessage(Role.USER, "Read A.java"), false);
+		loop.start(() -> client.performChat("mock-model", conversation, 1024));
+		return loop;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Answers every call with an empty result.
+	 */
+	private static class FakeTools implements AgentLoop.Tools {
+		private final List<ChatMessage> pending = new ArrayList<>();
+		private final AtomicInteger executedCalls = new AtomicInteger();
+		private final AtomicInteger discarded = new AtomicInteger();
+		private volatile boolean pendingChanges;
+		private volatile Runnable beforeExecution = () -> {
+		};
+
+		@Override
+		public synchronized void enqueueBatch(ChatMessage assistantMessage) {
+			pending.add(assistantMessage);
+		}
+
+		@Override
+		public void speculate(ChatMessage assistantMessage, FunctionCall call) {
+		}
+
+		@Override
+		public synchronized BatchExecutionReport executePendingBatchesSequentially() {
+			beforeExecution.run();
+			BatchExecutionReport report = new BatchExecutionReport();
+			for (ChatMessage message : pending) {
+				for (FunctionCallItem item : message.getFunctionCallBatch().get().getItems()) {
+					FunctionCall call = item.getCall();
+					FunctionResult result = new FunctionResult(call.getId(), call.getFunctionName());
+					result.setResultJson("{}");
+					item.setResult(result);
+					report.setCallsExecuted(report.getCallsExecuted() + 1);
+					executedCalls.incrementAndGet();
+				}
+				report.getUpdatedMessages().add(message);
+			}
+			pending.clear();
+			return report;
+		}
+
+		@Override
+		public synchronized void discardPendingBatches() {
+			discarded.addAndGet(pending.size());
+			pending.clear();
+		}
+
+		@Override
+		public boolean hasPendingChanges() {
+			return pendingChanges;
+		}
+
+		@Override
+		public ChangeApplicationResult applyPendingChanges() {
+			return ChangeApplicationResult.CANCEL;
+		}
+	}
+}
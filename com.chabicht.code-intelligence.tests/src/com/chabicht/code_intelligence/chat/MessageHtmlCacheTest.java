@@ -0,0 +1,61 @@
+package com.chabicht.code_intelligence.chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+public class MessageHtmlCacheTest {
+
+	@Test
+	void returnsHtmlOnlyForTheSameContent() {
+		MessageHtmlCache cache = new MessageHtmlCache();
+		UUID id = UUID.randomUUID();
+		cache.put(id, 1, "<p>old</p>");
+
+		assertEquals("<p>old</p>", cache.get(id, 1));
+		assertNull(cache.get(id, 2));
+
+		cache.put(id, 2, "<p>new</p>");
+		assertEquals("<p>new</p>", cache.get(id, 2));
+		assertNull(cache.get(id, 1));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedMessages() {
+		MessageHtmlCache cache = new MessageHtmlCache(2);
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+		UUID third = UUID.randomUUID();
+		cache.put(first, 1, "first");
+		cache.put(second, 1, "second");
+		cache.get(first, 1);
+		cache.put(third, 1, "third");
+
+		assertEquals("first", cache.get(first, 1));
+		assertNull(cache.get(second, 1));
+		assertEquals("third", cache.get(third, 1));
+	}
+
+	@Test
+	void cachesFragmentsByStringKey() {
+		MessageHtmlCache cache = new MessageHtmlCache();
+		long hash = MessageHtmlCache.hash("{\"path\":\"a\"}", true);
+		cache.put("call:1", hash, "<details>1</details>");
+
+		assertEquals("<details>1</details>", cache.get("call:1", MessageHtmlCache.hash("{\"path\":\"a\"}", true)));
+		assertNull(cache.get("call:1", MessageHtmlCache.hash("{\"path\":\"a\"}", false)));
+		assertNull(cache.get("call:2", hash));
+	}
+
+	@Test
+	void hashSeparatesParts() {
+		assertEquals(MessageHtmlCache.hash("ab", "c"), MessageHtmlCache.hash("ab", "c"));
+		assertNotEquals(MessageHtmlCache.hash("ab", "c"), MessageHtmlCache.hash("a", "bc"));
+		assertNotEquals(MessageHtmlCache.hash("abc"), MessageHtmlCache.hash("ab", "c"));
+	}
+}
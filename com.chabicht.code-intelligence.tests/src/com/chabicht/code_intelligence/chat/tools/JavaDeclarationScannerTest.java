@@ -0,0 +1,109 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class JavaDeclarationScannerTest {
+	private static final String SOURCE = """
+			package com.example;
+
+			import java.util.List;
+			import java.util.Map;
+
+			/**
+			 * A repository.
+			 */
+			public class Repository {
+				private final Map<String, Integer> counts = Map.of();
+
+				/**
+				 * Loads everything.
+				 */
+				public void load() {
+				}
+
+				public void load(Map<String, List<Integer>> values, int limit) {
+				}
+
+				public void load(String... names) {
+				}
+
+				static class Entry {
+					void load(Map.Entry<String, Integer> entry) {
+					}
+				}
+
+				enum Kind {
+					FILE, FOLDER
+				}
+			}
+			""";
+
+	private final List<Declaration> declarations = new JavaDeclarationScanner().scan(SOURCE);
+
+	@Test
+	void declarationsAreListedInTheOrderOfTheFile() {
+		assertEquals(List.of("Repository", "Repository.counts", "Repository.load", "Repository.load",
+				"Repository.load", "Repository.Entry", "Repository.Entry.load", "Repository.Kind",
+				"Repository.Kind.FILE", "Repository.Kind.FOLDER"),
+				declarations.stream().map(Declaration::getQualifiedName).toList());
+		assertEquals(List.of(0, 1, 1, 1, 1, 1, 2, 1, 2, 2),
+				declarations.stream().map(Declaration::getDepth).toList());
+	}
+
+	@Test
+	void rangesStartAtTheJavadoc() {
+		assertLines(declarations.get(0), 6, 32);
+		assertLines(declarations.get(2), 12, 16);
+		assertLines(declarations.get(3), 18, 19);
+		assertLines(declarations.get(5), 24, 27);
+		assertLines(declarations.get(6), 25, 26);
+		assertLines(declarations.get(9), 30, 30);
+	}
+
+	@Test
+	void signaturesLeaveOutJavadocBodyAndInitializer() {
+		assertEquals("public void load()", declarations.get(2).getSignature());
+		assertEquals("public void load(Map<String, List<Integer>> values, int limit)",
+				declarations.get(3).getSignature());
+		assertEquals("private final Map<String, Integer> counts", declarations.get(1).getSignature());
+	}
+
+	@Test
+	void parameterTypesAreSimpleNames() {
+		assertEquals(List.of(), declarations.get(2).getParameterTypes());
+		assertEquals(List.of("Map", "int"), declarations.get(3).getParameterTypes());
+		assertEquals(List.of("String[]"), declarations.get(4).getParameterTypes());
+		assertEquals(List.of("Entry"), declarations.get(6).getParameterTypes());
+	}
+
+	@Test
+	void overloadsAreSelectedByParameterTypes() {
+		assertEquals(4, Declaration.find(declarations, "load").size());
+		assertEquals(3, Declaration.find(declarations, "Repository.load").size());
+		assertEquals(List.of(declarations.get(2)), Declaration.find(declarations, "load()"));
+		assertEquals(List.of(declarations.get(3)),
+				Declaration.find(declarations, "Repository#load(Map<String, List<Integer>>, int)"));
+		assertEquals(List.of(declarations.get(3)),
+				Declaration.find(declarations, "load(java.util.Map<String, List<Integer>> values, int limit)"));
+		assertEquals(List.of(declarations.get(4)), Declaration.find(declarations, "load(String...)"));
+		assertEquals(List.of(declarations.get(4)), Declaration.find(declarations, "load(String[])"));
+		assertEquals(List.of(), Declaration.find(declarations, "load(int)"));
+	}
+
+	@Test
+	void nestedTypesAreQualifiedByTheirEnclosingTypes() {
+		assertEquals(List.of(declarations.get(5)), Declaration.find(declarations, "Repository.Entry"));
+		assertEquals(List.of(declarations.get(6)),
+				Declaration.find(declarations, "Entry.load(Map.Entry<String, Integer>)"));
+		assertEquals(List.of(declarations.get(9)), Declaration.find(declarations, "Kind#FOLDER"));
+	}
+
+	private static void assertLines(Declaration declaration, int startLine, int endLine) {
+		assertEquals(startLine, declaration.getStartLine(), declaration.toString());
+		assertEquals(endLine, declaration.getEndLine(), declaration.toString());
+	}
+}
@@ -0,0 +1,53 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.eclipse.jdt.core.IMethod;
+import org.junit.jupiter.api.Test;
+
+public class JavaStructureToolTest {
+
+	@Test
+	void sourceMethodsMatchSymbolsWithGenericsAndVarargs() {
+		IMethod method = method("QMap<QString;QList<QInteger;>;>;", "I", "[QString;");
+
+		assertEquals(List.of("Map", "int", "String[]"), JavaStructureTool.parameterTypes(method));
+		assertTrue(SymbolReference.parse("Foo#bar(Map<String, List<Integer>>, int, String...)")
+				.matchesParameters(JavaStructureTool.parameterTypes(method)));
+		assertTrue(SymbolReference.parse("Foo#bar(java.util.Map, int, String[])")
+				.matchesParameters(JavaStructureTool.parameterTypes(method)));
+		assertFalse(SymbolReference.parse("Foo#bar(Map, int)")
+				.matchesParameters(JavaStructureTool.parameterTypes(method)));
+	}
+
+	@Test
+	void binaryMethodsMatchSymbolsWithSimpleNames() {
+		IMethod method = method("Ljava.util.Map$Entry<Ljava.lang.String;Ljava.lang.Integer;>;", "[[J");
+
+		assertTrue(SymbolReference.parse("com.example.Foo.bar(Map.Entry<String, Integer>, long[][])")
+				.matchesParameters(JavaStructureTool.parameterTypes(method)));
+	}
+
+	@Test
+	void qualifiedParameterTypesDoNotSplitTheSymbolName() {
+		SymbolReference reference = SymbolReference.parse("com.example.Foo.bar(java.lang.String, int)");
+
+		assertEquals("com.example.Foo.bar", reference.getName());
+		assertEquals(List.of("String", "int"), reference.getParameterTypes());
+	}
+
+	private static IMethod method(String... parameterTypeSignatures) {
+		return (IMethod) Proxy.newProxyInstance(IMethod.class.getClassLoader(), new Class<?>[] { IMethod.class },
+				(proxy, m, args) -> {
+					if ("getParameterTypes".equals(m.getName())) {
+						return parameterTypeSignatures;
+					}
+					throw new UnsupportedOperationException(m.getName());
+				});
+	}
+}
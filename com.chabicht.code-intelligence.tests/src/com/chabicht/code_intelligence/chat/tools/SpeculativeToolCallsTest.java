@@ -0,0 +1,105 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCall;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionResult;
+
+public class SpeculativeToolCallsTest {
+	private final List<String> executed = new CopyOnWriteArrayList<>();
+	private final SpeculativeToolCalls speculativeCalls = new SpeculativeToolCalls((messageId, call) -> {
+		executed.add(call.getId());
+		call.addPrettyParam("file", "A.java", false);
+		FunctionResult result = new FunctionResult(call.getId(), call.getFunctionName());
+		result.setResultJson("{\"id\":\"" + call.getId() + "\"}");
+		return result;
+	}, Set.of("read_file_content", "find_files")::contains);
+
+	@Test
+	void readOnlyCallsAreExecutedOnceAndTheirResultsTaken() {
+		UUID messageId = UUID.randomUUID();
+		speculativeCalls.onCallComplete(messageId, call("call-1", "find_files", "{}"));
+		speculativeCalls.onCallComplete(messageId, call("call-2", "read_file_content", "{\"file_name\":\"A\"}"));
+
+		FunctionCall dispatched = call("call-2", "read_file_content", "{\"file_name\":\"A\"}");
+		FunctionResult result = speculativeCalls.take(dispatched);
+
+		assertEquals("{\"id\":\"call-2\"}", result.getResultJson());
+		assertEquals("A.java", dispatched.getPrettyParams().get("file").getValue());
+		assertEquals("{\"id\":\"call-1\"}", speculativeCalls.take(call("call-1", "find_files", "{}")).getResultJson());
+		assertEquals(List.of("call-1", "call-2"), executed);
+		assertNull(speculativeCalls.take(dispatched), "A result is only taken once");
+	}
+
+	@Test
+	void callsAfterAWritingCallAreNotExecuted() {
+		UUID messageId = UUID.randomUUID();
+		speculativeCalls.onCallComplete(messageId, call("call-1", "find_files", "{}"));
+		speculativeCalls.onCallComplete(messageId, call("call-2", "apply_change", "{}"));
+		speculativeCalls.onCallComplete(messageId, call("call-3", "read_file_content", "{}"));
+
+		assertEquals("{\"id\":\"call-1\"}", speculativeCalls.take(call("call-1", "find_files", "{}")).getResultJson());
+		assertNull(speculativeCalls.take(call("call-2", "apply_change", "{}")));
+		assertNull(speculativeCalls.take(call("call-3", "read_file_content", "{}")));
+		assertEquals(List.of("call-1"), executed);
+
+		// The next response starts over.
+		speculativeCalls.onCallComplete(UUID.randomUUID(), call("call-4", "read_file_content", "{}"));
+		assertEquals("{\"id\":\"call-4\"}",
+				speculativeCalls.take(call("call-4", "read_file_content", "{}")).getResultJson());
+	}
+
+	@Test
+	void resultsOfDifferentOrDiscardedCallsAreNotTaken() {
+		UUID messageId = UUID.randomUUID();
+		FunctionCall speculated = call("call-1", "read_file_content", "{\"file_name\":\"A\"}");
+		speculativeCalls.onCallComplete(messageId, speculated);
+
+		assertNull(speculativeCalls.take(call("call-1", "read_file_content", "{\"file_name\":\"B\"}")));
+		assertEquals(0, speculated.getPrettyParams().size(), "The streamed call isn't shared with the execution");
+
+		speculativeCalls.onCallComplete(messageId, call("call-2", "find_files", "{}"));
+		speculativeCalls.discard();
+		assertNull(speculativeCalls.take(call("call-2", "find_files", "{}")));
+	}
+
+	@Test
+	void readsOfDiscardedCallsAreNotReferencedLater() throws InterruptedException {
+		ToolResultEncoder encoder = new ToolResultEncoder();
+		List<String> earlierReads = new CopyOnWriteArrayList<>();
+		SpeculativeToolCalls reads = new SpeculativeToolCalls((messageId, call) -> {
+			earlierReads.add(String.valueOf(encoder.findEarlierRead(call.getId(), "/p/A.java", 1, 10, "content")));
+			return new FunctionResult(call.getId(), call.getFunctionName());
+		}, "read_file_content"::equals, encoder::forgetCalls);
+		reads.onCallComplete(UUID.randomUUID(), call("call-1", "read_file_content", "{\"file_name\":\"A\"}"));
+		for (int i = 0; i < 100 && earlierReads.isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(List.of("null"), earlierReads);
+
+		// The response is aborted, the model never sees the result of call-1.
+		reads.discard();
+
+		assertNull(encoder.findEarlierRead("call-2", "/p/A.java", 1, 10, "content"),
+				"The same read after the abort returns the content again");
+	}
+
+	@Test
+	void callsWithoutResultsAreNotTaken() {
+		assertNull(speculativeCalls.take(null));
+		assertNull(speculativeCalls.take(call("call-1", "find_files", "{}")));
+		assertEquals(List.of(), executed);
+	}
+
+	private static FunctionCall call(String id, String name, String args) {
+		return new FunctionCall(id, name, args);
+	}
+}
@@ -0,0 +1,66 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SymbolReferenceTest {
+
+	@Test
+	void nameWithoutParameterListMatchesAllOverloads() {
+		SymbolReference reference = SymbolReference.parse("  com.example.Foo#bar ");
+
+		assertEquals("com.example.Foo#bar", reference.getName());
+		assertNull(reference.getParameterTypes());
+		assertTrue(reference.matchesParameters(List.of("String")));
+		assertTrue(reference.matchesParameters(null));
+	}
+
+	@Test
+	void emptyParameterListMatchesOnlyMethodsWithoutParameters() {
+		SymbolReference reference = SymbolReference.parse("Foo.bar()");
+
+		assertEquals("Foo.bar", reference.getName());
+		assertEquals(List.of(), reference.getParameterTypes());
+		assertTrue(reference.matchesParameters(List.of()));
+		assertFalse(reference.matchesParameters(List.of("int")));
+		assertTrue(reference.matchesParameters(null), "Parameters of declarations may be unknown");
+	}
+
+	@Test
+	void typeArgumentsDoNotSplitParameters() {
+		SymbolReference reference = SymbolReference
+				.parse("Foo#bar(Map<String, List<Integer>>, java.util.function.BiFunction<A, B, C>, int)");
+
+		assertEquals("Foo#bar", reference.getName());
+		assertEquals(List.of("Map", "BiFunction", "int"), reference.getParameterTypes());
+	}
+
+	@Test
+	void parameterTypesAreSimpleNames() {
+		SymbolReference reference = SymbolReference.parse("bar(java.lang.String..., int [], Map.Entry<K, V>");
+
+		assertEquals("bar", reference.getName());
+		assertEquals(List.of("String[]", "int[]", "Entry"), reference.getParameterTypes(),
+				"Varargs are arrays, the closing parenthesis may be missing");
+	}
+
+	@Test
+	void parameterNamesAndModifiersAreIgnored() {
+		SymbolReference reference = SymbolReference.parse("bar(final String name, @Nullable List<String> values)");
+
+		assertEquals(List.of("String", "List"), reference.getParameterTypes());
+	}
+
+	@Test
+	void splitParametersKeepsNestedCommas() {
+		assertEquals(List.of("Map<String, Map<String, Integer>>", "int"),
+				SymbolReference.splitParameters("Map<String, Map<String, Integer>>, int"));
+		assertEquals(List.of(), SymbolReference.splitParameters(" "));
+	}
+}
@@ -0,0 +1,101 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TextDeclarationScannerTest {
+	private final TextDeclarationScanner scanner = new TextDeclarationScanner();
+
+	@Test
+	void pythonBlocksEndAtTheNextLineThatIsNotIndentedDeeper() {
+		String source = """
+				import os
+
+				class Repository:
+				    def __init__(self, path):
+				        self.path = path
+
+				    def load(self):
+				        if os.path.exists(self.path):
+				            return open(self.path).read()
+				        return None
+
+				def main():
+				    print(Repository(".").load())
+				""";
+
+		List<Declaration> declarations = scanner.scan(source);
+
+		assertEquals(List.of("Repository", "Repository.__init__", "Repository.load", "main"), names(declarations));
+		assertLines(declarations.get(0), 3, 10);
+		assertLines(declarations.get(2), 7, 10);
+		assertEquals(1, declarations.get(2).getDepth());
+		assertEquals("def load(self):", declarations.get(2).getSignature());
+		assertLines(declarations.get(3), 12, 13);
+	}
+
+	@Test
+	void braceBlocksEndAtTheMatchingBrace() {
+		String source = """
+				export class Cart {
+				  add(item) {
+				    if (item.price > 0) {
+				      this.items.push(item);
+				    }
+				  }
+
+				  total() {
+				    return this.items.reduce((a, b) => a + b.price, "{");
+				  }
+				}
+
+				export const format = (value) => {
+				  return `${value} EUR`;
+				};
+
+				func (c *Cart) Checkout(user string) error {
+					return nil
+				}
+				""";
+
+		List<Declaration> declarations = scanner.scan(source);
+
+		assertEquals(List.of("Cart", "Cart.add", "Cart.total", "format", "Checkout"), names(declarations));
+		assertLines(declarations.get(0), 1, 11);
+		assertLines(declarations.get(1), 2, 6);
+		assertLines(declarations.get(2), 8, 10);
+		assertLines(declarations.get(3), 13, 15);
+		assertLines(declarations.get(4), 17, 19);
+		assertEquals("add(item)", declarations.get(1).getSignature());
+	}
+
+	@Test
+	void symbolsMatchByQualifiedNameSuffixAndParameterTypes() {
+		List<Declaration> declarations = List.of(
+				new Declaration("Foo", "Foo", "class Foo", 1, 30, 0, null),
+				new Declaration("run", "Foo.run", "void run()", 3, 5, 1, List.of()),
+				new Declaration("run", "Foo.run", "void run(String name, int count)", 7, 9, 1,
+						List.of("String", "int")),
+				new Declaration("run", "Foo.Inner.run", "void run(List<String> names)", 12, 14, 2,
+						List.of("List")));
+
+		assertEquals(3, Declaration.find(declarations, "run").size());
+		assertEquals(2, Declaration.find(declarations, "Foo.run").size());
+		assertEquals(List.of(declarations.get(2)), Declaration.find(declarations, "Foo#run(java.lang.String, int)"));
+		assertEquals(List.of(declarations.get(3)), Declaration.find(declarations, "Inner.run(List<String>)"));
+		assertEquals(List.of(declarations.get(1)), Declaration.find(declarations, "run()"));
+		assertEquals(List.of(), Declaration.find(declarations, "oo.run"));
+	}
+
+	private static List<String> names(List<Declaration> declarations) {
+		return declarations.stream().map(Declaration::getQualifiedName).toList();
+	}
+
+	private static void assertLines(Declaration declaration, int startLine, int endLine) {
+		assertEquals(startLine, declaration.getStartLine(), declaration.toString());
+		assertEquals(endLine, declaration.getEndLine(), declaration.toString());
+	}
+}
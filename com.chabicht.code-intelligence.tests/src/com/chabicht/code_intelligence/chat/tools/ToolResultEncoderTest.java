@@ -0,0 +1,135 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.chat.tools.JavaStructureTool.StructureItem;
+import com.chabicht.code_intelligence.chat.tools.TextSearchTool.SearchResultItem;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+public class ToolResultEncoderTest {
+
+	@Test
+	void searchResultsAreGroupedByFile() {
+		List<SearchResultItem> items = List.of(new SearchResultItem("/p/src/A.java", 3, "foo(); foo();", "foo"),
+				new SearchResultItem("/p/src/A.java", 3, "foo(); foo();", "foo"),
+				new SearchResultItem("/p/src/A.java", 4, "return foo;", "foo"),
+				new SearchResultItem("/p/src/B.java", 10, "Foo.foo()", "Foo"));
+
+		JsonArray results = ToolResultEncoder.encodeSearchResults(items, "foo");
+
+		assertEquals(2, results.size());
+		JsonObject a = results.get(0).getAsJsonObject();
+		assertEquals("/p/src/A.java", a.get("file").getAsString());
+		assertEquals("3: foo(); foo();\n4: return foo;", a.get("lines").getAsString());
+		assertFalse(a.has("matched"));
+		JsonObject b = results.get(1).getAsJsonObject();
+		assertEquals("10: Foo.foo()", b.get("lines").getAsString());
+		assertEquals("[\"Foo\"]", b.get("matched").toString());
+	}
+
+	@Test
+	void groupedSearchResultsAreSmallerThanTheItems() {
+		List<SearchResultItem> items = new java.util.ArrayList<>();
+		for (int i = 1; i <= 20; i++) {
+			items.add(new SearchResultItem("/project/src/com/example/SomeService.java", i * 2, "service.call();",
+					"call"));
+		}
+
+		String grouped = new Gson().toJson(ToolResultEncoder.encodeSearchResults(items, "call"));
+		String plain = new Gson().toJson(items);
+
+		assertTrue(grouped.length() * 3 < plain.length(), grouped.length() + " vs. " + plain.length());
+	}
+
+	@Test
+	void structureItemsAreGroupedByFileInOrder() {
+		List<StructureItem> items = List.of(new StructureItem("/p/src/A.java", 5, 40, "public class A"),
+				new StructureItem("/p/src/A.java", 12, 20, "  public void run()"),
+				new StructureItem("/p/src/B.java", 7, 7, "a.run();  // in B.start()"),
+				new StructureItem("/jdk/lib/jrt-fs.jar!Runnable.class", 0, 0, "interface: java.lang.Runnable"));
+
+		JsonArray results = ToolResultEncoder.encodeStructureItems(items);
+
+		assertEquals(3, results.size());
+		assertEquals("/p/src/A.java", results.get(0).getAsJsonObject().get("file").getAsString());
+		assertEquals("5-40: public class A\n12-20:   public void run()",
+				results.get(0).getAsJsonObject().get("lines").getAsString());
+		assertEquals("7: a.run();  // in B.start()", results.get(1).getAsJsonObject().get("lines").getAsString());
+		assertEquals("interface: java.lang.Runnable", results.get(2).getAsJsonObject().get("lines").getAsString());
+	}
+
+	@Test
+	void unchangedContentIsReferencedByTheEarlierCall() {
+		ToolResultEncoder encoder = new ToolResultEncoder();
+
+		assertNull(encoder.findEarlierRead("call-1", "/p/A.java", 1, 10, "content"));
+		assertEquals("call-1", encoder.findEarlierRead("call-2", "/p/A.java", 1, 10, "content"));
+		assertNull(encoder.findEarlierRead("call-3", "/p/A.java", 1, 20, "content"));
+		assertNull(encoder.findEarlierRead("call-4", "/p/A.java", 1, 10, "changed content"));
+		assertEquals("call-4", encoder.findEarlierRead("call-5", "/p/A.java", 1, 10, "changed content"));
+	}
+
+	@Test
+	void forgottenCallsAreNotReferenced() {
+		ToolResultEncoder encoder = new ToolResultEncoder();
+		encoder.findEarlierRead("call-1", "/p/A.java", 1, 10, "content");
+
+		encoder.forgetCalls(List.of("call-1"));
+		assertNull(encoder.findEarlierRead("call-1", "/p/A.java", 1, 10, "content"));
+
+		encoder.reset();
+		assertNull(encoder.findEarlierRead("call-2", "/p/A.java", 1, 10, "content"));
+	}
+
+	@Test
+	void plainTextKeepsContentVerbatim() {
+		JsonObject result = new JsonObject();
+		result.addProperty("status", "Success");
+		result.addProperty("file_path", "/p/A.java");
+		result.addProperty("content", "1: class A {\n2: \tString s = \"\\\\\";\n3: }");
+		result.addProperty("actual_end_line", 3);
+
+		String text = ToolResultEncoder.toPlainText(new Gson().toJson(result));
+
+		assertEquals("status: Success\nfile_path: /p/A.java\ncontent:\n1: class A {\n2: \tString s = \"\\\\\";\n3: }\n"
+				+ "actual_end_line: 3", text);
+	}
+
+	@Test
+	void plainTextListsNestedObjects() {
+		List<SearchResultItem> items = List.of(new SearchResultItem("/p/A.java", 3, "foo();", "foo"),
+				new SearchResultItem("/p/A.java", 4, "bar(foo);", "foo"),
+				new SearchResultItem("/p/B.java", 1, "Foo", "Foo"));
+		JsonObject result = new JsonObject();
+		result.addProperty("status", "Success");
+		result.add("results", ToolResultEncoder.encodeSearchResults(items, "foo"));
+
+		String text = ToolResultEncoder.toPlainText(new Gson().toJson(result));
+
+		assertEquals("status: Success\n" //
+				+ "results:\n" //
+				+ "  - file: /p/A.java\n" //
+				+ "    lines:\n" //
+				+ "      3: foo();\n" //
+				+ "      4: bar(foo);\n" //
+				+ "  - file: /p/B.java\n" //
+				+ "    lines: 1: Foo\n" //
+				+ "    matched: [\"Foo\"]", text);
+	}
+
+	@Test
+	void plainTextLeavesOtherPayloadsAlone() {
+		assertEquals("not json", ToolResultEncoder.toPlainText("not json"));
+		assertEquals("[1,2]", ToolResultEncoder.toPlainText("[1,2]"));
+		assertEquals("", ToolResultEncoder.toPlainText(""));
+	}
+}
@@ -0,0 +1,62 @@
+package com.chabicht.code_intelligence.completion;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Java model elements for tests that answer only the methods they are given.
+ */
+class FakeJavaElements {
+	private FakeJavaElements() {
+		// No instances.
+	}
+
+	/** Computes the result of a method from its arguments. */
+	interface Answer {
+		Object answer(Object[] args) throws Exception;
+	}
+
+	/**
+	 * @param answers the results by method name, {@link Answer}s are called with
+	 *                the arguments.
+	 * @return a proxy that is only equal to itself. Other methods return false,
+	 *         zero, an empty array or null.
+	 */
+	static <T> T fake(Class<T> type, Map<String, ?> answers) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "equals":
+						return proxy == args[0];
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "toString":
+						return type.getSimpleName();
+					default:
+						break;
+					}
+					Object answer = answers.get(method.getName());
+					if (answer instanceof Answer a) {
+						return a.answer(args);
+					} else if (answer != null) {
+						return answer;
+					}
+					Class<?> returnType = method.getReturnType();
+					if (returnType == boolean.class) {
+						return false;
+					} else if (returnType == int.class) {
+						return 0;
+					} else if (returnType == long.class) {
+						return 0L;
+					} else if (returnType.isArray()) {
+						return Array.newInstance(returnType.getComponentType(), 0);
+					}
+					return null;
+				}));
+	}
+
+	static <T> T fake(Class<T> type) {
+		return fake(type, Map.of());
+	}
+}
@@ -0,0 +1,99 @@
+package com.chabicht.code_intelligence.completion;
+
+import static com.chabicht.code_intelligence.completion.FakeJavaElements.fake;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IType;
+import org.junit.jupiter.api.Test;
+
+public class JavaContextBuilderTest {
+	private static final int CONTENT_CHANGED = IJavaElementDelta.F_CONTENT | IJavaElementDelta.F_FINE_GRAINED;
+
+	@Test
+	void findBodyStartSkipsBracesInParentheses() {
+		String source = "void run(@A({ 1 }) int a) {\n}";
+
+		assertEquals(source.indexOf(") {") + 2, JavaContextBuilder.findBodyStart(source, 0, source.length()));
+	}
+
+	@Test
+	void findBodyStartReturnsMinusOneWithoutBody() {
+		String source = "abstract void run(int a); void other() {}";
+
+		assertEquals(-1, JavaContextBuilder.findBodyStart(source, 0, source.length()));
+		assertEquals(-1, JavaContextBuilder.findBodyStart("void run()", 0, 10));
+	}
+
+	@Test
+	void findBodyStartOnlySearchesTheRange() {
+		String source = "int a; void run() {}";
+
+		assertEquals(-1, JavaContextBuilder.findBodyStart(source, 7, 17));
+		assertEquals(source.length() - 2, JavaContextBuilder.findBodyStart(source, 7, source.length()));
+	}
+
+	@Test
+	void extractRemovesTheIndentationOfTheFirstLine() {
+		String source = "class A {\n\tvoid run(int a,\n\t\t\tint b) {\n\t\tif (a > b) {\n\t\t\treturn;\n\t\t}\n\t}\n}";
+		int start = source.indexOf("\tvoid");
+		int end = source.lastIndexOf("}");
+
+		assertEquals("void run(int a,\n\t\tint b) {\n\tif (a > b) {\n\t\treturn;\n\t}\n}",
+				JavaContextBuilder.extract(source, start, end));
+	}
+
+	@Test
+	void dedentKeepsLinesWithLessIndentation() {
+		assertEquals("a\nb\n  c\n", JavaContextBuilder.dedent("a\n    b\n      c\n", 4));
+		assertEquals("a\nb", JavaContextBuilder.dedent("a\nb", 2));
+	}
+
+	@Test
+	void changedMethodBodiesAreCollected() {
+		IMethod method = fake(IMethod.class);
+		IJavaElementDelta delta = delta(fake(ICompilationUnit.class), IJavaElementDelta.CHANGED,
+				IJavaElementDelta.F_CHILDREN | IJavaElementDelta.F_FINE_GRAINED,
+				delta(fake(IType.class), IJavaElementDelta.CHANGED, IJavaElementDelta.F_CHILDREN,
+						delta(method, IJavaElementDelta.CHANGED, CONTENT_CHANGED)));
+
+		Set<IJavaElement> changedMembers = new HashSet<>();
+		assertFalse(JavaContextBuilder.collectChangedMembers(delta, true, changedMembers));
+		assertEquals(Set.of(method), changedMembers);
+	}
+
+	@Test
+	void structuralChangesRequireAFullExtraction() {
+		IJavaElementDelta added = delta(fake(ICompilationUnit.class), IJavaElementDelta.CHANGED,
+				IJavaElementDelta.F_CHILDREN | IJavaElementDelta.F_FINE_GRAINED,
+				delta(fake(IMethod.class), IJavaElementDelta.ADDED, 0));
+		IJavaElementDelta modifiers = delta(fake(ICompilationUnit.class), IJavaElementDelta.CHANGED,
+				IJavaElementDelta.F_CHILDREN | IJavaElementDelta.F_FINE_GRAINED,
+				delta(fake(IMethod.class), IJavaElementDelta.CHANGED, IJavaElementDelta.F_MODIFIERS));
+		IJavaElementDelta typeHeader = delta(fake(ICompilationUnit.class), IJavaElementDelta.CHANGED,
+				IJavaElementDelta.F_CHILDREN | IJavaElementDelta.F_FINE_GRAINED,
+				delta(fake(IType.class), IJavaElementDelta.CHANGED, CONTENT_CHANGED));
+		IJavaElementDelta coarse = delta(fake(ICompilationUnit.class), IJavaElementDelta.CHANGED,
+				IJavaElementDelta.F_CONTENT);
+
+		assertTrue(JavaContextBuilder.collectChangedMembers(added, true, new HashSet<>()));
+		assertTrue(JavaContextBuilder.collectChangedMembers(modifiers, true, new HashSet<>()));
+		assertTrue(JavaContextBuilder.collectChangedMembers(typeHeader, true, new HashSet<>()));
+		assertTrue(JavaContextBuilder.collectChangedMembers(coarse, true, new HashSet<>()));
+	}
+
+	private static IJavaElementDelta delta(IJavaElement element, int kind, int flags,
+			IJavaElementDelta... children) {
+		return fake(IJavaElementDelta.class,
+				Map.of("getElement", element, "getKind", kind, "getFlags", flags, "getAffectedChildren", children));
+	}
+}
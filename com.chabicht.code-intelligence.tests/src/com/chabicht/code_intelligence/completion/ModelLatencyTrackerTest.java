@@ -0,0 +1,35 @@
+package com.chabicht.code_intelligence.completion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+public class ModelLatencyTrackerTest {
+
+	@Test
+	void averagesLatencyPerModel() {
+		ModelLatencyTracker tracker = new ModelLatencyTracker();
+		assertEquals(-1, tracker.getAverageMillis("a"));
+
+		tracker.record("a", 1000);
+		assertEquals(1000, tracker.getAverageMillis("a"));
+		tracker.record("a", 2000);
+		assertEquals(1300, tracker.getAverageMillis("a"));
+		assertEquals(-1, tracker.getAverageMillis("b"));
+	}
+
+	@Test
+	void sortsUnmeasuredFirstAndSlowModelsLast() {
+		ModelLatencyTracker tracker = new ModelLatencyTracker();
+		tracker.record("Hosted/large", 2500);
+		tracker.record("Ollama/small", 200);
+
+		List<String> sorted = tracker.sortByLatency(List.of("Hosted/large", "New/unmeasured", "Ollama/small"),
+				Function.identity());
+
+		assertEquals(List.of("New/unmeasured", "Ollama/small", "Hosted/large"), sorted);
+	}
+}
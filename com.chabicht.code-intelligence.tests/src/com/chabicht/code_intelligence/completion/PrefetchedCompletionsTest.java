@@ -0,0 +1,63 @@
+package com.chabicht.code_intelligence.completion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.model.CompletionResult;
+
+public class PrefetchedCompletionsTest {
+	private final AtomicLong now = new AtomicLong(1000);
+	private final PrefetchedCompletions completions = new PrefetchedCompletions(2, 100, now::get);
+
+	@Test
+	void returnsPendingAndCompletedEntries() throws Exception {
+		CompletableFuture<CompletionResult> pending = new CompletableFuture<>();
+		completions.put("a", pending);
+
+		assertTrue(completions.contains("a"));
+		assertSame(pending, completions.get("a").orElseThrow());
+		assertFalse(completions.get("b").isPresent());
+
+		CompletionResult result = new CompletionResult("foo();");
+		pending.complete(result);
+		assertSame(result, completions.get("a").orElseThrow().get());
+	}
+
+	@Test
+	void dropsFailedAndExpiredEntries() {
+		CompletableFuture<CompletionResult> failing = new CompletableFuture<>();
+		completions.put("failed", failing);
+		failing.completeExceptionally(new IllegalStateException("no connection"));
+		assertFalse(completions.contains("failed"));
+
+		completions.put("old", CompletableFuture.completedFuture(new CompletionResult("x")));
+		now.addAndGet(101);
+		assertFalse(completions.get("old").isPresent());
+		assertEquals(0, completions.size());
+	}
+
+	@Test
+	void evictsLeastRecentlyUsed() {
+		completions.put("a", CompletableFuture.completedFuture(new CompletionResult("a")));
+		completions.put("b", CompletableFuture.completedFuture(new CompletionResult("b")));
+		completions.get("a");
+		completions.put("c", CompletableFuture.completedFuture(new CompletionResult("c")));
+
+		assertTrue(completions.contains("a"));
+		assertFalse(completions.contains("b"));
+		assertTrue(completions.contains("c"));
+	}
+
+	@Test
+	void keyContainsModelAndPrompt() {
+		assertFalse(PrefetchedCompletions.key("conn/model-a", "prompt")
+				.equals(PrefetchedCompletions.key("conn/model-b", "prompt")));
+	}
+}
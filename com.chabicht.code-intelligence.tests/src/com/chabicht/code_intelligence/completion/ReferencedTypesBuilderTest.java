@@ -0,0 +1,72 @@
+package com.chabicht.code_intelligence.completion;
+
+import static com.chabicht.code_intelligence.completion.FakeJavaElements.fake;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.SourceRange;
+import org.junit.jupiter.api.Test;
+
+public class ReferencedTypesBuilderTest {
+	private final List<String> lookups = new ArrayList<>();
+	private final Map<String, IType> types = new HashMap<>();
+
+	@Test
+	void fallbackResolvesTheNamesClosestToTheCursor() throws Exception {
+		StringBuilder source = new StringBuilder("void run() {");
+		for (int i = 0; i < 15; i++) {
+			source.append(" T").append(i).append(".call();");
+		}
+		source.append(" }");
+
+		Map<IType, Integer> distances = collectFromNames(source.toString(), 0);
+
+		assertEquals(ReferencedTypesBuilder.MAX_UNRESOLVED_NAMES, lookups.size());
+		assertEquals(List.of("T0", "T1", "T2", "T3", "T4", "T5", "T6", "T7", "T8", "T9"), lookups);
+		assertEquals(lookups, distances.keySet().stream().map(IType::getElementName).toList());
+		assertEquals(Integer.valueOf(source.indexOf("T3")), distances.get(types.get("T3")));
+	}
+
+	@Test
+	void fallbackSkipsUnresolvableNames() throws Exception {
+		Map<IType, Integer> distances = collectFromNames("void run() { Unknown.call(); List.of(); }", 0);
+
+		assertEquals(List.of("Unknown", "List"), lookups);
+		assertEquals(List.of("List"), distances.keySet().stream().map(IType::getElementName).toList());
+	}
+
+	/**
+	 * Runs the name based lookup for a method with the given source. Every name
+	 * but "Unknown" resolves to a type in package p.
+	 */
+	private Map<IType, Integer> collectFromNames(String source, int offset) throws Exception {
+		IJavaProject project = fake(IJavaProject.class, Map.of("findType", (FakeJavaElements.Answer) args -> types
+				.computeIfAbsent((String) args[1], name -> fake(IType.class, Map.of("getElementName", name)))));
+		IType declaringType = fake(IType.class, Map.of("getJavaProject", project, "resolveType",
+				(FakeJavaElements.Answer) args -> {
+					String name = (String) args[0];
+					lookups.add(name);
+					return "Unknown".equals(name) ? null : new String[][] { { "p", name } };
+				}));
+		IMethod method = fake(IMethod.class, Map.of("getDeclaringType", declaringType, "getSourceRange",
+				new SourceRange(0, source.length()), "getSource", source));
+		ICompilationUnit cu = fake(ICompilationUnit.class, Map.of("getElementAt", method));
+
+		Map<IType, Integer> distances = new LinkedHashMap<>();
+		Method m = ReferencedTypesBuilder.class.getDeclaredMethod("collectFromNames", ICompilationUnit.class,
+				int.class, Map.class);
+		m.setAccessible(true);
+		m.invoke(null, cu, offset, distances);
+		return distances;
+	}
+}
@@ -0,0 +1,44 @@
+package com.chabicht.code_intelligence.completion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class SourceSkeletonTest {
+
+	@Test
+	void rendersFragmentsInSourceOrderWithIndentation() {
+		SourceSkeleton skeleton = new SourceSkeleton();
+		skeleton.add(100, 0, "}", SourceSkeleton.REQUIRED, 0);
+		skeleton.add(20, 1, "void b();", 4, 0);
+		skeleton.add(0, 0, "class A {", SourceSkeleton.REQUIRED, 0);
+		skeleton.add(10, 1, "int a;", 3, 0);
+
+		assertEquals("class A {\n\tint a;\n\tvoid b();\n}\n", skeleton.build(1000));
+	}
+
+	@Test
+	void keepsRequiredFragmentsAndFillsByPriorityAndDistance() {
+		SourceSkeleton skeleton = new SourceSkeleton();
+		skeleton.add(0, 0, "class A {", SourceSkeleton.REQUIRED, 0);
+		skeleton.add(10, 1, "void far();", 4, 500);
+		skeleton.add(20, 1, "void near();", 4, -10);
+		skeleton.add(30, 1, "void current() { }", 1, 0);
+		skeleton.add(100, 0, "}", SourceSkeleton.REQUIRED, 0);
+
+		// The type takes 4 tokens, the methods 4 to 6, only the two most important fit.
+		assertEquals("class A {\n\tvoid near();\n\tvoid current() { }\n}\n", skeleton.build(14));
+		// Required fragments are kept even if they exceed the budget.
+		assertEquals("class A {\n}\n", skeleton.build(0));
+	}
+
+	@Test
+	void indentsEveryLineOfMultiLineFragments() {
+		SourceSkeleton skeleton = new SourceSkeleton();
+		skeleton.add(0, 0, "class A {", SourceSkeleton.REQUIRED, 0);
+		skeleton.add(10, 1, "void run() {\n\tcall(1,\n\t\t\t2);\n\n}", 1, 0);
+		skeleton.add(100, 0, "}", SourceSkeleton.REQUIRED, 0);
+
+		assertEquals("class A {\n\tvoid run() {\n\t\tcall(1,\n\t\t\t\t2);\n\n\t}\n}\n", skeleton.build(1000));
+	}
+}
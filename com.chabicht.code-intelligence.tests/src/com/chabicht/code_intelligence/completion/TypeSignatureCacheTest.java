@@ -0,0 +1,63 @@
+package com.chabicht.code_intelligence.completion;
+
+import static com.chabicht.code_intelligence.completion.FakeJavaElements.fake;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jdt.core.Flags;
+import org.eclipse.jdt.core.IBuffer;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IField;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IType;
+import org.junit.jupiter.api.Test;
+
+public class TypeSignatureCacheTest {
+	private final AtomicReference<String> contents = new AtomicReference<>("class A {}");
+	private final AtomicInteger extractions = new AtomicInteger();
+
+	@Test
+	void signaturesAreExtractedOnce() throws Exception {
+		IType type = createType("=p/src<p{A.java[A");
+
+		String signatures = TypeSignatureCache.getInstance().getSignatures(type);
+
+		assertEquals("public class p.A {\n\tpublic String name;\n}\n", signatures);
+		assertEquals(signatures, TypeSignatureCache.getInstance().getSignatures(type));
+		assertEquals(1, extractions.get());
+	}
+
+	@Test
+	void changedSourceIsExtractedAgain() throws Exception {
+		IType type = createType("=p/src<p{B.java[A");
+		TypeSignatureCache.getInstance().getSignatures(type);
+
+		contents.set("class A { String name; }");
+		TypeSignatureCache.getInstance().getSignatures(type);
+		TypeSignatureCache.getInstance().getSignatures(type);
+
+		assertEquals(2, extractions.get());
+	}
+
+	/**
+	 * @return a public class p.A with a public field in a working copy with
+	 *         unsaved changes, so the content of its buffer tells if it changed.
+	 */
+	private IType createType(String handleIdentifier) {
+		IBuffer buffer = fake(IBuffer.class, Map.of("getContents", (FakeJavaElements.Answer) args -> contents.get()));
+		ICompilationUnit cu = fake(ICompilationUnit.class,
+				Map.of("isWorkingCopy", true, "hasUnsavedChanges", true, "getBuffer", buffer));
+		IField field = fake(IField.class,
+				Map.of("getFlags", Flags.AccPublic, "getTypeSignature", "QString;", "getElementName", "name"));
+		return fake(IType.class,
+				Map.of("getHandleIdentifier", handleIdentifier, "getCompilationUnit", cu, "getFlags", Flags.AccPublic,
+						"isClass", true, "getFullyQualifiedName", "p.A", "getFields", new IField[] { field },
+						"getMethods", (FakeJavaElements.Answer) args -> {
+							extractions.incrementAndGet();
+							return new IMethod[0];
+						}));
+	}
+}
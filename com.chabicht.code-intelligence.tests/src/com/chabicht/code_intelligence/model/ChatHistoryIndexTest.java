@@ -0,0 +1,98 @@
+package com.chabicht.code_intelligence.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCall;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCallBatch;
+import com.chabicht.code_intelligence.model.ChatConversation.MessageContext;
+import com.chabicht.code_intelligence.model.ChatConversation.Role;
+import com.chabicht.code_intelligence.model.ChatHistoryIndex.Hit;
+import com.chabicht.code_intelligence.util.GsonUtil;
+
+public class ChatHistoryIndexTest {
+
+	@Test
+	void findsConversationsByContentToolCallsAndContextFiles() {
+		ChatHistoryEntry kafka = entry("Consumer lag", "The KafkaConsumer stops polling after a rebalance.");
+		ChatHistoryEntry gradle = entry("Build", "Why does the Gradle build fail?");
+		ChatMessage message = gradle.getConversation().getMessages().get(0);
+		message.getContext().add(new MessageContext("/app/src/OrderService.java", 1, 10, "class OrderService {}"));
+		FunctionCallBatch batch = new FunctionCallBatch();
+		batch.setCalls(List.of(new FunctionCall("1", "read_file_content", "{\"path\":\"build.gradle\"}")));
+		message.setFunctionCallBatch(batch);
+
+		ChatHistoryIndex index = new ChatHistoryIndex();
+		assertTrue(index.update(List.of(kafka, gradle)));
+
+		assertEquals(List.of(kafka.getId()), ids(index.search("kafka consumer", 10)));
+		assertEquals(List.of(kafka.getId()), ids(index.search("kafka cons", 10)));
+		assertEquals(List.of(gradle.getId()), ids(index.search("OrderService", 10)));
+		assertEquals(List.of(gradle.getId()), ids(index.search("read_file_content", 10)));
+		assertTrue(index.search("kafka gradle", 10).isEmpty());
+	}
+
+	@Test
+	void ranksTitleMatchesFirst() {
+		ChatHistoryEntry mentioned = entry("Logging", "Maybe the consumer is slow because of logging.");
+		ChatHistoryEntry titled = entry("Consumer", "It stops after a while.");
+
+		ChatHistoryIndex index = new ChatHistoryIndex();
+		index.update(List.of(mentioned, titled));
+
+		assertEquals(List.of(titled.getId(), mentioned.getId()), ids(index.search("consumer", 10)));
+	}
+
+	@Test
+	void indexesOnlyChangedEntriesAndRemovesDeletedOnes() {
+		ChatHistoryEntry first = entry("First", "apples");
+		ChatHistoryEntry second = entry("Second", "pears");
+		ChatHistoryIndex index = new ChatHistoryIndex();
+		index.update(List.of(first, second));
+
+		assertFalse(index.update(List.of(first, second)));
+
+		first.getConversation().addMessage(new ChatMessage(Role.ASSISTANT, "oranges"), false);
+		first.setUpdatedAt(Instant.now().plusSeconds(1));
+		assertTrue(index.update(List.of(first, second)));
+		assertEquals(List.of(first.getId()), ids(index.search("oranges", 10)));
+
+		assertTrue(index.update(List.of(first)));
+		assertEquals(1, index.size());
+		assertTrue(index.search("pears", 10).isEmpty());
+	}
+
+	@Test
+	void survivesSerialization() {
+		ChatHistoryEntry entry = entry("Consumer lag", "The KafkaConsumer stops polling.");
+		ChatHistoryIndex index = new ChatHistoryIndex();
+		index.update(List.of(entry));
+
+		String json = GsonUtil.createGson().toJson(index);
+		ChatHistoryIndex restored = GsonUtil.createGson().fromJson(json, ChatHistoryIndex.class);
+
+		assertTrue(restored.isCurrentVersion());
+		assertFalse(restored.update(List.of(entry)));
+		assertEquals(List.of(entry.getId()), ids(restored.search("polling", 10)));
+	}
+
+	private static ChatHistoryEntry entry(String title, String content) {
+		ChatConversation conversation = new ChatConversation();
+		conversation.addMessage(new ChatMessage(Role.USER, content), false);
+		ChatHistoryEntry entry = new ChatHistoryEntry(conversation);
+		entry.setTitle(title);
+		return entry;
+	}
+
+	private static List<UUID> ids(List<Hit> hits) {
+		return hits.stream().map(Hit::entryId).toList();
+	}
+}
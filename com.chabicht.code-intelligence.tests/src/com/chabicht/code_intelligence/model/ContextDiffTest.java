@@ -0,0 +1,163 @@
+package com.chabicht.code_intelligence.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.model.ChatConversation.MessageContext;
+
+public class ContextDiffTest {
+
+	@Test
+	void unchangedRangeNeedsNoUpdate() {
+		String file = file(40);
+
+		assertNull(ContextDiff.compute(lines(10, 20) + "\n", 10, file));
+		assertNull(ContextDiff.compute(lines(10, 20), 10, file.replace("\n", "\r\n")));
+	}
+
+	@Test
+	void linesInsertedAboveMoveTheRange() {
+		String file = "import a;\nimport b;\n" + file(40);
+
+		ContextDiff change = ContextDiff.compute(lines(10, 20), 10, file);
+
+		assertEquals(12, change.getStartLine());
+		assertEquals(22, change.getEndLine());
+		assertEquals(lines(10, 20), change.getContent());
+		assertEquals("", change.getDiff());
+	}
+
+	@Test
+	void changesInsideTheRangeAreADiffWithFileLineNumbers() {
+		String file = "import a;\n" + file(100).replace("line 15\n", "line 15 changed\nline 15a\n");
+
+		ContextDiff change = ContextDiff.compute(lines(10, 40), 10, file);
+
+		assertEquals(11, change.getStartLine());
+		assertEquals(42, change.getEndLine());
+		assertEquals("""
+				@@ -13,5 +14,6 @@
+				 line 13
+				 line 14
+				-line 15
+				+line 15 changed
+				+line 15a
+				 line 16
+				 line 17""", change.getDiff());
+		assertTrue(change.getContent().contains("line 15 changed\nline 15a\nline 16"), change.getContent());
+	}
+
+	@Test
+	void changedFirstAndLastLinesStayInTheRange() {
+		String file = file(60).replace("line 10\n", "line ten\n").replace("line 40\n", "line forty\n");
+
+		ContextDiff change = ContextDiff.compute(lines(10, 40), 10, file);
+
+		assertEquals(10, change.getStartLine());
+		assertEquals(40, change.getEndLine());
+		assertTrue(change.getDiff().startsWith("@@ -10,"), change.getDiff());
+		assertTrue(change.getDiff().contains("-line 10\n+line ten"), change.getDiff());
+		assertTrue(change.getDiff().contains("-line 40\n+line forty"), change.getDiff());
+	}
+
+	@Test
+	void rewrittenRangeIsSentAgain() {
+		String file = file(40).replace(lines(10, 13), "completely\ndifferent\ncontent\nnow");
+
+		ContextDiff change = ContextDiff.compute(lines(10, 13), 10, file);
+
+		assertNull(change.getDiff());
+		assertEquals(10, change.getStartLine());
+		assertEquals(13, change.getEndLine());
+		assertEquals("completely\ndifferent\ncontent\nnow", change.getContent());
+	}
+
+	@Test
+	void updatesReplaceTheSnapshotAndCompileToTheDiff() {
+		MessageContext attachment = new MessageContext("/p/A.java", 10, 40, lines(10, 40));
+		String file = "import a;\n" + file(100).replace("line 15\n", "line 15 changed\n");
+
+		MessageContext update = MessageContext.createUpdate(attachment,
+				ContextDiff.compute(lines(10, 40), 10, file));
+		MessageContext next = MessageContext.createUpdate(update,
+				ContextDiff.compute(update.getSnapshot(), update.getStart(), "import b;\n" + file));
+
+		assertEquals(attachment.getUuid(), update.getUpdateOf());
+		assertEquals(11, update.getStart());
+		assertTrue(update.getSnapshot().contains("line 15 changed"), update.getSnapshot());
+		assertTrue(update.compile(true).contains("now covers line 11 to 41"), update.compile(true));
+		assertTrue(update.compile(true).contains("```diff\n@@ -13,5 +14,5 @@\n line 13\n"), update.compile(true));
+		assertEquals(attachment.getUuid(), next.getUpdateOf());
+		assertEquals("The attachment /p/A.java moved to line 12 to 42, its content is unchanged.\n",
+				next.compile(true));
+		assertEquals("/p/A.java:l12-42 (changed)", next.getLabel());
+	}
+
+	@Test
+	void rangeStartingWithABlankLineMovesAsAWhole() {
+		String method = String.join("\n", "", "\t@Override", "\tpublic String toString() {", "\t\treturn \"\";",
+				"\t}");
+		String before = "class A {\n\tint x;\n\n\tvoid a() {\n\t\tx++;\n\t}\n" + method + "\n}\n";
+		String after = before.replace("\tint x;\n", "\tint x;\n\tint y;\n\n\tint z;\n");
+
+		ContextDiff change = ContextDiff.compute(method, 7, after);
+
+		assertEquals(10, change.getStartLine());
+		assertEquals(14, change.getEndLine());
+		assertEquals(method, change.getContent());
+		assertEquals("", change.getDiff());
+	}
+
+	@Test
+	void repeatedLinesAreNotAlignedWithEarlierCopies() {
+		String hashCode = String.join("\n", "\t@Override", "\tpublic int hashCode() {", "\t\treturn 1;", "\t}");
+		String toString = String.join("\n", "", "\t@Override", "\tpublic String toString() {",
+				"\t\tStringBuilder res = new StringBuilder();", "\t\tres.append(\"a\");", "\t\tres.append(\"b\");",
+				"\t\tres.append(\"c\");", "\t\tres.append(\"d\");", "\t\treturn res.toString();", "\t}");
+		String file = "class A {\n\tint x;\n\n" + hashCode + "\n"
+				+ toString.replace("append(\"b\")", "append(\"B\")") + "\n}\n";
+
+		ContextDiff change = ContextDiff.compute(toString, 6, file);
+
+		assertEquals(8, change.getStartLine());
+		assertEquals(17, change.getEndLine());
+		assertEquals("""
+				@@ -9,5 +11,5 @@
+				 \t\tStringBuilder res = new StringBuilder();
+				 \t\tres.append("a");
+				-\t\tres.append("b");
+				+\t\tres.append("B");
+				 \t\tres.append("c");
+				 \t\tres.append("d");""", change.getDiff());
+	}
+
+	@Test
+	void theCopyNearestToThePreviousPositionIsTheRange() {
+		String block = "}\n\n" + lines(1, 3);
+		String file = block + "\n" + lines(4, 20) + "\nline inserted\n" + block + "\n" + lines(21, 30) + "\n";
+
+		ContextDiff change = ContextDiff.compute(block, 20, file);
+
+		assertEquals(24, change.getStartLine());
+		assertEquals(28, change.getEndLine());
+		assertEquals("", change.getDiff());
+	}
+
+	private static String file(int lineCount) {
+		return lines(1, lineCount) + "\n";
+	}
+
+	private static String lines(int from, int to) {
+		List<String> res = new ArrayList<>();
+		for (int i = from; i <= to; i++) {
+			res.add("line " + i);
+		}
+		return String.join("\n", res);
+	}
+}
@@ -0,0 +1,121 @@
+package com.chabicht.code_intelligence.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCall;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCallBatch;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionResult;
+import com.chabicht.code_intelligence.model.ChatConversation.MessageContext;
+import com.chabicht.code_intelligence.model.ChatConversation.Role;
+import com.chabicht.code_intelligence.util.ConversationCodec;
+import com.chabicht.code_intelligence.util.GsonUtil;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+public class ConversationCodecCompatibilityTest {
+	private static final Type HISTORY_TYPE = new TypeToken<List<ChatHistoryEntry>>() {
+	}.getType();
+
+	private final Gson gson = GsonUtil.createGson();
+	private final ConversationCodec codec = new ConversationCodec(gson);
+
+	@Test
+	void roundTripsHistoryInCompactFormat() throws IOException {
+		List<ChatHistoryEntry> history = List.of(createEntry());
+
+		byte[] encoded = encode(history);
+		List<ChatHistoryEntry> decoded = codec.read(new ByteArrayInputStream(encoded), HISTORY_TYPE);
+
+		assertTrue(ConversationCodec.hasHeader(encoded));
+		assertTrue(encoded.length < gson.toJson(history, HISTORY_TYPE).getBytes(StandardCharsets.UTF_8).length);
+		assertEquals(gson.toJson(history, HISTORY_TYPE), gson.toJson(decoded, HISTORY_TYPE));
+	}
+
+	@Test
+	void readsLegacyJsonHistory() throws IOException {
+		String json = """
+				[
+				  {
+				    "id": "6f1c2f3e-4b5a-4c6d-8e7f-9a0b1c2d3e4f",
+				    "title": "Legacy chat",
+				    "createdAt": "2025-01-01T10:00:00Z",
+				    "updatedAt": "2025-01-01T10:05:00Z",
+				    "conversation": {
+				      "messages": [
+				        {
+				          "role": "ASSISTANT",
+				          "content": "",
+				          "functionCall": {
+				            "id": "call-1",
+				            "functionName": "read_file_content",
+				            "argsJson": "{\\"file_name\\":\\"Example.java\\"}"
+				          }
+				        }
+				      ]
+				    }
+				  }
+				]
+				""";
+		byte[] data = json.getBytes(StandardCharsets.UTF_8);
+		assertFalse(ConversationCodec.hasHeader(data));
+
+		List<ChatHistoryEntry> history = codec.read(new ByteArrayInputStream(data), HISTORY_TYPE);
+
+		assertEquals(1, history.size());
+		assertEquals("Legacy chat", history.get(0).getTitle());
+		ChatMessage message = history.get(0).getConversation().getMessages().get(0);
+		assertEquals("read_file_content",
+				message.getFunctionCallBatch().get().getItems().get(0).getCall().getFunctionName());
+
+		// Migrated by writing it again.
+		List<ChatHistoryEntry> migrated = codec.read(new ByteArrayInputStream(encode(history)), HISTORY_TYPE);
+		assertEquals(gson.toJson(history, HISTORY_TYPE), gson.toJson(migrated, HISTORY_TYPE));
+	}
+
+	@Test
+	void rejectsNewerVersions() throws IOException {
+		byte[] encoded = encode(List.of(createEntry()));
+		encoded[7] = (byte) (ConversationCodec.VERSION + 1);
+
+		assertThrows(IOException.class, () -> codec.read(new ByteArrayInputStream(encoded), HISTORY_TYPE));
+	}
+
+	private byte[] encode(List<ChatHistoryEntry> history) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.write(out, history, HISTORY_TYPE);
+		return out.toByteArray();
+	}
+
+	private static ChatHistoryEntry createEntry() {
+		ChatConversation conversation = new ChatConversation();
+		ChatMessage question = new ChatMessage(Role.USER, "Why does the consumer stop?");
+		question.getContext().add(new MessageContext("Consumer.java", 1, 3, "class Consumer {\n}\n"));
+		conversation.addMessage(question, false);
+
+		ChatMessage answer = new ChatMessage(Role.ASSISTANT, "Let me look at the file.");
+		answer.setThinkingContent("The user asks about the consumer.");
+		FunctionCallBatch batch = new FunctionCallBatch("batch-1");
+		batch.addCall(new FunctionCall("call-1", "read_file_content", "{\"file_name\":\"Consumer.java\"}"));
+		FunctionResult result = new FunctionResult("call-1", "read_file_content");
+		result.setResultJson("{\"status\":\"Success\"}");
+		result.addPrettyResult("content", "class Consumer {}", true);
+		batch.setResultForCall(0, result);
+		answer.setFunctionCallBatch(batch);
+		conversation.addMessage(answer, false);
+
+		return new ChatHistoryEntry(conversation);
+	}
+}
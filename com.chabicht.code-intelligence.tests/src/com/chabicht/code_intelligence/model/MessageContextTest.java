@@ -0,0 +1,38 @@
+package com.chabicht.code_intelligence.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.model.ChatConversation.MessageContext;
+
+public class MessageContextTest {
+
+	@Test
+	void lineNumbersArePaddedToTheLastLineNumber() {
+		MessageContext ctx = new MessageContext("A.java", 8, 11, "a\r\nb\n\nd");
+
+		String compiled = ctx.compile(true);
+
+		assertTrue(compiled.contains("\n 8: a\n 9: b\n10: \n11: d\n```\n"), compiled);
+	}
+
+	@Test
+	void trailingNewLineGetsANumberedEmptyLine() {
+		MessageContext ctx = new MessageContext("A.java", 1, 2, "a\n");
+
+		assertTrue(ctx.compile(true).contains("\n1: a\n2: \n```\n"), ctx.compile(true));
+		assertTrue(ctx.compile(false).contains("\na\n\n```\n"), ctx.compile(false));
+	}
+
+	@Test
+	void compiledTextIsReused() {
+		MessageContext ctx = new MessageContext("A.java", 1, 1, "class A {}");
+
+		assertSame(ctx.compile(true), ctx.compile());
+		assertSame(ctx.compile(false), ctx.compile(false));
+		assertEquals(ctx.compile(true), new MessageContext("A.java", 1, 1, "class A {}").compile(true));
+	}
+}
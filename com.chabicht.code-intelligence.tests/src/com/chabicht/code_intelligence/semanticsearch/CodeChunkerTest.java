@@ -0,0 +1,71 @@
+package com.chabicht.code_intelligence.semanticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.semanticsearch.CodeChunker.Member;
+
+public class CodeChunkerTest {
+	private final CodeChunker chunker = new CodeChunker();
+
+	@Test
+	void membersBecomeChunksWithTheirLabel() {
+		String content = lines(1, 80);
+		List<CodeChunk> chunks = chunker.chunk("/p/A.java", content,
+				List.of(new Member("A.first()", 3, 30), new Member("A.second()", 32, 58)));
+
+		assertEquals(3, chunks.size(), chunks.toString());
+		// The lines between the members are too short for a chunk of their own.
+		assertRange(chunks.get(0), 1, 30, "A.first()");
+		assertRange(chunks.get(1), 31, 58, "A.second()");
+		assertRange(chunks.get(2), 59, 80, "");
+		assertTrue(chunks.get(1).getText().startsWith("/p/A.java\nA.second()\nline 31\n"), chunks.get(1).getText());
+	}
+
+	@Test
+	void smallMembersAreMerged() {
+		String content = lines(1, 20);
+		List<CodeChunk> chunks = chunker.chunk("/p/A.java", content,
+				List.of(new Member("A.a", 1, 1), new Member("A.b", 2, 2), new Member("A.run()", 4, 20)));
+
+		assertEquals(1, chunks.size(), chunks.toString());
+		assertRange(chunks.get(0), 1, 20, "A.a, A.b, A.run()");
+	}
+
+	@Test
+	void longFilesAreSplitIntoOverlappingWindows() {
+		String content = lines(1, 130);
+		List<CodeChunk> chunks = chunker.chunk("/p/notes.txt", content, List.of());
+
+		assertEquals(3, chunks.size(), chunks.toString());
+		assertRange(chunks.get(0), 1, 60, "");
+		assertRange(chunks.get(1), 51, 110, "");
+		assertRange(chunks.get(2), 101, 130, "");
+	}
+
+	@Test
+	void blankLinesBetweenMembersAreSkipped() {
+		String content = lines(1, 15) + "\n\n\n\n" + lines(19, 40);
+		List<CodeChunk> chunks = chunker.chunk("/p/A.java", content,
+				List.of(new Member("A.x()", 1, 15), new Member("A.y()", 19, 40)));
+
+		assertEquals(2, chunks.size(), chunks.toString());
+		assertRange(chunks.get(1), 19, 40, "A.y()");
+	}
+
+	private static void assertRange(CodeChunk chunk, int startLine, int endLine, String label) {
+		assertEquals(startLine, chunk.getStartLine(), chunk.toString());
+		assertEquals(endLine, chunk.getEndLine(), chunk.toString());
+		assertEquals(label, chunk.getLabel(), chunk.toString());
+	}
+
+	private static String lines(int from, int to) {
+		return IntStream.rangeClosed(from, to).mapToObj(i -> "line " + i).collect(Collectors.joining("\n"));
+	}
+}
@@ -0,0 +1,104 @@
+package com.chabicht.code_intelligence.semanticsearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.chabicht.code_intelligence.semanticsearch.VectorIndex.Hit;
+
+public class VectorIndexTest {
+
+	@Test
+	void hitsAreRankedByCosineSimilarity() {
+		VectorIndex index = new VectorIndex("model");
+		index.put("/p/A.java", 1, List.of(chunk("/p/A.java", 1), chunk("/p/A.java", 20)),
+				List.of(new float[] { 1, 0, 0 }, new float[] { 0, 10, 0 }));
+		index.put("/p/B.java", 1, List.of(chunk("/p/B.java", 1)), List.of(new float[] { 3, 3, 0 }));
+
+		List<Hit> hits = index.search(new float[] { 0, 2, 0 }, 2, p -> true);
+
+		assertEquals(2, hits.size());
+		assertEquals("/p/A.java", hits.get(0).getChunk().getPath());
+		assertEquals(20, hits.get(0).getChunk().getStartLine());
+		assertEquals(1f, hits.get(0).getScore(), 1e-6);
+		assertEquals("/p/B.java", hits.get(1).getChunk().getPath());
+		assertEquals((float) Math.sqrt(0.5), hits.get(1).getScore(), 1e-6);
+	}
+
+	@Test
+	void pathFilterRestrictsTheHits() {
+		VectorIndex index = new VectorIndex("model");
+		index.put("/p/A.java", 1, List.of(chunk("/p/A.java", 1)), List.of(new float[] { 1, 0 }));
+		index.put("/p/b.xml", 1, List.of(chunk("/p/b.xml", 1)), List.of(new float[] { 1, 0 }));
+
+		List<Hit> hits = index.search(new float[] { 1, 0 }, 10, p -> p.endsWith(".xml"));
+
+		assertEquals(1, hits.size());
+		assertEquals("/p/b.xml", hits.get(0).getChunk().getPath());
+	}
+
+	@Test
+	void putReplacesAndRemoveDropsTheChunksOfAFile() {
+		VectorIndex index = new VectorIndex("model");
+		index.put("/p/A.java", 1, List.of(chunk("/p/A.java", 1), chunk("/p/A.java", 20)),
+				List.of(new float[] { 1, 0 }, new float[] { 0, 1 }));
+		index.put("/p/A.java", 2, List.of(chunk("/p/A.java", 5)), List.of(new float[] { 1, 1 }));
+
+		assertEquals(1, index.size());
+		assertEquals(2, index.getModificationStamp("/p/A.java"));
+
+		assertEquals(true, index.remove("/p/A.java"));
+		assertEquals(0, index.size());
+		assertEquals(-1, index.getModificationStamp("/p/A.java"));
+	}
+
+	@Test
+	void indexSurvivesWriteAndRead() throws IOException {
+		VectorIndex index = new VectorIndex("Ollama/embed");
+		index.put("/p/A.java", 42, List.of(new CodeChunk("/p/A.java", 3, 9, "A.run()", "text")),
+				List.of(new float[] { 0, 3, 4 }));
+
+		VectorIndex read = VectorIndex.read(new ByteArrayInputStream(write(index)), "Ollama/embed");
+
+		assertEquals(42, read.getModificationStamp("/p/A.java"));
+		List<Hit> hits = read.search(new float[] { 0, 3, 4 }, 1, p -> true);
+		assertEquals(1, hits.size());
+		assertEquals("A.run()", hits.get(0).getChunk().getLabel());
+		assertEquals(3, hits.get(0).getChunk().getStartLine());
+		assertEquals(9, hits.get(0).getChunk().getEndLine());
+		assertEquals(1f, hits.get(0).getScore(), 1e-6);
+	}
+
+	@Test
+	void indexOfAnotherModelIsReadAsEmpty() throws IOException {
+		VectorIndex index = new VectorIndex("Ollama/embed");
+		index.put("/p/A.java", 42, List.of(chunk("/p/A.java", 1)), List.of(new float[] { 1, 0 }));
+
+		VectorIndex read = VectorIndex.read(new ByteArrayInputStream(write(index)), "OpenAI/embed");
+
+		assertEquals(0, read.size());
+		assertEquals("OpenAI/embed", read.getModelId());
+	}
+
+	@Test
+	void otherDataIsRejected() {
+		assertThrows(IOException.class,
+				() -> VectorIndex.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }), "model"));
+	}
+
+	private static byte[] write(VectorIndex index) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		index.write(out);
+		return out.toByteArray();
+	}
+
+	private static CodeChunk chunk(String path, int startLine) {
+		return new CodeChunk(path, startLine, startLine + 5, "", "text");
+	}
+}
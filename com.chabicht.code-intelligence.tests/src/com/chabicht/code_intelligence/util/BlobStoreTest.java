@@ -0,0 +1,144 @@
+package com.chabicht.code_intelligence.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCall;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCallBatch;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionResult;
+import com.chabicht.code_intelligence.model.ChatConversation.MessageContext;
+import com.chabicht.code_intelligence.model.ChatConversation.Role;
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+public class BlobStoreTest {
+	private static final String FILE_CONTENT = "class Example {\n}\n".repeat(200);
+
+	@Test
+	void storesEqualTextsOnce(@TempDir Path directory) throws IOException {
+		BlobStore store = new BlobStore(directory);
+
+		String hash = store.put(FILE_CONTENT);
+		assertEquals(hash, store.put(new String(FILE_CONTENT)));
+
+		assertEquals(1, countBlobs(directory));
+		assertEquals(FILE_CONTENT, new BlobStore(directory).get(hash));
+		assertNull(store.get(HashUtil.sha256("unknown")));
+	}
+
+	@Test
+	void deletesBlobsThatAreNotReferencedAnymore(@TempDir Path directory) throws IOException {
+		BlobStore store = new BlobStore(directory);
+		String kept = store.put(FILE_CONTENT);
+		String deleted = store.put("deleted " + FILE_CONTENT);
+
+		// Nothing is deleted if references weren't counted.
+		assertEquals(0, store.deleteUnreferenced());
+
+		store.resetReferenceCounts();
+		store.put(FILE_CONTENT);
+		store.put(FILE_CONTENT);
+		assertEquals(2, store.getReferenceCount(kept));
+		assertEquals(1, store.deleteUnreferenced());
+
+		assertEquals(FILE_CONTENT, new BlobStore(directory).get(kept));
+		assertNull(new BlobStore(directory).get(deleted));
+	}
+
+	@Test
+	void chatMessagesReferenceLongTexts(@TempDir Path directory) throws IOException {
+		Gson gson = GsonUtil.createGson(new BlobStore(directory));
+
+		ChatMessage first = new ChatMessage(Role.USER, "Explain this");
+		first.getContext().add(new MessageContext("Example.java", 1, 400, FILE_CONTENT));
+		first.getContext().add(new MessageContext("Short.java", 1, 1, "class Short {}"));
+		ChatMessage second = new ChatMessage(Role.ASSISTANT, "");
+		FunctionResult result = new FunctionResult("call-1", "read_file_content");
+		result.setResultJson(FILE_CONTENT);
+		result.addPrettyResult("content", FILE_CONTENT, true);
+		FunctionCallBatch batch = new FunctionCallBatch("batch");
+		batch.addCall(new FunctionCall("call-1", "read_file_content", "{\"file_name\":\"Example.java\"}"));
+		batch.setResultForCall(0, result);
+		second.setFunctionCallBatch(batch);
+
+		String json = gson.toJson(List.of(first, second));
+
+		assertFalse(json.contains("class Example"));
+		assertTrue(json.contains("class Short"));
+		assertEquals(1, countBlobs(directory));
+
+		List<ChatMessage> restored = GsonUtil.createGson(new BlobStore(directory)).fromJson(json,
+				new TypeToken<List<ChatMessage>>() {
+				}.getType());
+		assertEquals(FILE_CONTENT, restored.get(0).getContext().get(0).getContent());
+		assertEquals("class Short {}", restored.get(0).getContext().get(1).getContent());
+		FunctionResult restoredResult = restored.get(1).getFunctionCallBatch().get().getItems().get(0).getResult();
+		assertEquals(FILE_CONTENT, restoredResult.getResultJson());
+		assertEquals(FILE_CONTENT, restoredResult.getPrettyResults().get("content").getValue());
+	}
+
+	@Test
+	void missingBlobsAreReplacedByAPlaceholder(@TempDir Path directory) throws IOException {
+		ChatMessage message = new ChatMessage(Role.ASSISTANT, "");
+		message.getContext().add(new MessageContext("Example.java", 1, 400, FILE_CONTENT));
+		FunctionResult result = new FunctionResult("call-1", "read_file_content");
+		result.setResultJson(FILE_CONTENT);
+		FunctionCallBatch batch = new FunctionCallBatch("batch");
+		batch.addCall(new FunctionCall("call-1", "read_file_content", "{\"file_name\":\"Example.java\"}"));
+		batch.setResultForCall(0, result);
+		message.setFunctionCallBatch(batch);
+		String json = GsonUtil.createGson(new BlobStore(directory)).toJson(message);
+
+		ChatMessage restored = GsonUtil.createGson(new BlobStore(directory.resolve("empty"))).fromJson(json,
+				ChatMessage.class);
+
+		assertEquals(ChatMessageTypeAdapterFactory.MISSING_BLOB_TEXT, restored.getContext().get(0).getContent());
+		String resultJson = restored.getFunctionCallBatch().get().getItems().get(0).getResult().getResultJson();
+		assertEquals(ChatMessageTypeAdapterFactory.MISSING_BLOB_TEXT,
+				JsonParser.parseString(resultJson).getAsJsonObject().get("error").getAsString());
+	}
+
+	@Test
+	void blobsOfAnUnreadableHistoryAreKeptWhenTheNextHistoryIsSaved(@TempDir Path directory) throws IOException {
+		BlobStore store = new BlobStore(directory.resolve("blobs"));
+		Gson gson = GsonUtil.createGson(store);
+		ChatMessage old = new ChatMessage(Role.USER, "Explain this");
+		old.getContext().add(new MessageContext("Example.java", 1, 400, FILE_CONTENT));
+		store.resetReferenceCounts();
+		String unreadableJson = gson.toJson(old);
+		store.deleteUnreferenced();
+
+		// Loading the history failed, it was moved aside together with its blobs.
+		store.moveTo(directory.resolve("blobs.unreadable"));
+		ChatMessage next = new ChatMessage(Role.USER, "Explain that");
+		next.getContext().add(new MessageContext("Other.java", 1, 400, "other " + FILE_CONTENT));
+		store.resetReferenceCounts();
+		gson.toJson(next);
+		assertEquals(0, store.deleteUnreferenced());
+
+		assertEquals(1, countBlobs(directory.resolve("blobs")));
+		assertEquals(1, countBlobs(directory.resolve("blobs.unreadable")));
+		ChatMessage restored = GsonUtil.createGson(new BlobStore(directory.resolve("blobs.unreadable")))
+				.fromJson(unreadableJson, ChatMessage.class);
+		assertEquals(FILE_CONTENT, restored.getContext().get(0).getContent());
+	}
+
+	private static long countBlobs(Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			return files.filter(p -> p.toString().endsWith(".gz")).count();
+		}
+	}
+}
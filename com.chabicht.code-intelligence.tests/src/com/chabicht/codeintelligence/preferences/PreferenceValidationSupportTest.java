@@ -44,6 +44,21 @@ public class PreferenceValidationSupportTest {
 		assertTrue(result.isOk());
 	}
 
+	@Test
+	void validateModelListReportsFirstInvalidModel() {
+		AiApiConnection connection = createConnection("X.ai", true, "grok-4");
+
+		assertTrue(PreferenceValidationSupport.validateModelList("", "Additional Models", List.of(connection)).isOk());
+		assertTrue(PreferenceValidationSupport
+				.validateModelList("X.ai/grok-4, ", "Additional Models", List.of(connection)).isOk());
+
+		PreferenceValidationSupport.ValidationResult result = PreferenceValidationSupport
+				.validateModelList("X.ai/grok-4, Ollama/qwen", "Additional Models", List.of(connection));
+
+		assertTrue(result.isWarning());
+		assertEquals("Connection 'Ollama' not found for Additional Models", result.message());
+	}
+
 	@Test
 	void validateIntReturnsErrorForNonInteger() {
 		PreferenceValidationSupport.ValidationResult result = PreferenceValidationSupport.validateInt("abc",
@@ -7,10 +7,16 @@ import java.beans.PropertyChangeSupport;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -19,6 +25,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.core.runtime.IStatus;
@@ -31,10 +41,17 @@ import org.osgi.framework.BundleContext;
 
 import com.chabicht.code_intelligence.apiclient.AiApiConnection;
 import com.chabicht.code_intelligence.apiclient.AiApiConnection.ApiType;
+import com.chabicht.code_intelligence.chat.AgentLoop;
+import com.chabicht.code_intelligence.chat.ChatSessionManager;
+import com.chabicht.code_intelligence.completion.JavaContextBuilder;
 import com.chabicht.code_intelligence.model.ChatConversation;
 import com.chabicht.code_intelligence.model.ChatHistoryEntry;
+import com.chabicht.code_intelligence.model.ChatHistoryIndex;
 import com.chabicht.code_intelligence.model.PromptTemplate;
 import com.chabicht.code_intelligence.model.ProviderDefaults;
+import com.chabicht.code_intelligence.semanticsearch.SemanticSearchIndex;
+import com.chabicht.code_intelligence.util.BlobStore;
+import com.chabicht.code_intelligence.util.ConversationCodec;
 import com.chabicht.code_intelligence.util.GsonUtil;
 import com.chabicht.codeintelligence.preferences.PreferenceConstants;
 import com.google.gson.Gson;
@@ -51,8 +68,15 @@ public class Activator extends AbstractUIPlugin {
 
 	private static final String API_CONNECTIONS_FILE = "api-connections.json";
 
+	/** Format of the history before {@link #CHAT_HISTORY_COMPACT_FILE}, read for migration. */
 	public static final String CHAT_HISTORY_FILE = "chat-history.json";
 
+	public static final String CHAT_HISTORY_COMPACT_FILE = "chat-history.dat";
+
+	public static final String CHAT_HISTORY_INDEX_FILE = "chat-history-index.json";
+
+	public static final String CHAT_HISTORY_BLOBS_DIRECTORY = "chat-history-blobs";
+
 	public static final String CUSTOM_CONFIGURATION_PARAMETERS_FILE = "custom-config.json";
 
 	// The plug-in ID
@@ -65,6 +89,17 @@ public class Activator extends AbstractUIPlugin {
 
 	private final Map<String, ProviderDefaults> SUPPORTED_PROVIDERS = consSupportedProviders();
 
+	private ChatHistoryIndex chatHistoryIndex;
+
+	/** Updates and stores the chat history index one history after the other. */
+	private final ExecutorService chatHistoryIndexExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Chat history index");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private BlobStore chatHistoryBlobStore;
+
 	/**
 	 * The constructor
 	 */
@@ -79,6 +114,10 @@ public class Activator extends AbstractUIPlugin {
 
 	@Override
 	public void stop(BundleContext context) throws Exception {
+		SemanticSearchIndex.shutdown();
+		JavaContextBuilder.shutdown();
+		ChatSessionManager.shutdown();
+		chatHistoryIndexExecutor.shutdown();
 		plugin = null;
 		super.stop(context);
 	}
@@ -145,19 +184,178 @@ public class Activator extends AbstractUIPlugin {
 	public List<ChatHistoryEntry> loadChatHistory() {
 		TypeToken<List<ChatHistoryEntry>> typeToken = new TypeToken<List<ChatHistoryEntry>>() {
 		};
-		List<ChatHistoryEntry> history = readFile(CHAT_HISTORY_FILE, typeToken);
+		List<ChatHistoryEntry> history;
+		File file = null;
+		try {
+			file = new File(getConfigLocationAsFile(), CHAT_HISTORY_COMPACT_FILE);
+			if (file.exists()) {
+				try (InputStream in = new FileInputStream(file)) {
+					history = new ConversationCodec(createChatHistoryGson()).read(in, typeToken.getType());
+				}
+			} else {
+				// Written to the compact file with the next save.
+				history = readFile(CHAT_HISTORY_FILE, typeToken, createChatHistoryGson());
+			}
+		} catch (IOException | RuntimeException e) {
+			Activator.logError("The chat history could not be read, starting with an empty history.", e);
+			if (moveAside(file)) {
+				moveAsideBlobs(file);
+			}
+			history = null;
+		}
 		return history != null ? history : new ArrayList<>();
 	}
 
+	/**
+	 * Renames a history file that could not be read (corrupt, or written by a
+	 * newer version), so the next save doesn't overwrite it.
+	 *
+	 * @return true if the file was moved.
+	 */
+	private static boolean moveAside(File file) {
+		if (file == null || !file.exists()) {
+			return false;
+		}
+		Path target = file.toPath().resolveSibling(file.getName() + ".unreadable");
+		try {
+			Files.move(file.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+			Activator.logWarn("The unreadable chat history was moved to " + target);
+			return true;
+		} catch (IOException e) {
+			Activator.logError("The unreadable chat history could not be moved to " + target, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Moves the blobs of a history file that was moved aside next to it. The next
+	 * save would delete them, the new history doesn't reference them.
+	 */
+	private void moveAsideBlobs(File file) {
+		Path target = file.toPath().resolveSibling(CHAT_HISTORY_BLOBS_DIRECTORY + ".unreadable");
+		try {
+			getChatHistoryBlobStore().moveTo(target);
+			Activator.logWarn("The blobs of the unreadable chat history were moved to " + target);
+		} catch (IOException | RuntimeException e) {
+			Activator.logError("The blobs of the unreadable chat history could not be moved to " + target, e);
+		}
+	}
+
 	public void saveChatHistory(List<ChatHistoryEntry> history) {
 		// Limit the size of the history if preference is set.
 		int limit = getPreferenceStore().getInt(PreferenceConstants.CHAT_HISTORY_SIZE_LIMIT);
 		if (limit > 0 && history.size() > limit) {
 			history = history.subList(0, limit);
 		}
-		writeFileAsync(CHAT_HISTORY_FILE, history);
+		List<ChatHistoryEntry> historyToSave = history;
+		Display.getDefault().asyncExec(() -> {
+			try {
+				File parentDirectory = getConfigLocationAsFile();
+				Path file = new File(parentDirectory, CHAT_HISTORY_COMPACT_FILE).toPath();
+				Path tempFile = file.resolveSibling(CHAT_HISTORY_COMPACT_FILE + ".tmp");
+				BlobStore blobStore = getChatHistoryBlobStore();
+				// References are counted while writing, blobs only referenced by
+				// deleted conversations are removed afterwards.
+				synchronized (blobStore) {
+					blobStore.resetReferenceCounts();
+					try (OutputStream out = Files.newOutputStream(tempFile)) {
+						new ConversationCodec(createChatHistoryGson()).write(out, historyToSave,
+								new TypeToken<List<ChatHistoryEntry>>() {
+								}.getType());
+					}
+					Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					blobStore.deleteUnreferenced();
+				}
+
+				// The history was migrated, keep the old file as backup.
+				File legacyFile = new File(parentDirectory, CHAT_HISTORY_FILE);
+				if (legacyFile.exists()) {
+					Files.move(legacyFile.toPath(), legacyFile.toPath().resolveSibling(CHAT_HISTORY_FILE + ".bak"),
+							StandardCopyOption.REPLACE_EXISTING);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		updateChatHistoryIndex(history);
 	}
-	
+
+	/**
+	 * @return a Gson instance that stores long texts of chat messages (file
+	 *         contents, tool results) in the blob store of the history, so each
+	 *         of them is only stored once.
+	 */
+	private Gson createChatHistoryGson() {
+		return GsonUtil.createGson(getChatHistoryBlobStore());
+	}
+
+	private synchronized BlobStore getChatHistoryBlobStore() {
+		if (chatHistoryBlobStore == null) {
+			try {
+				chatHistoryBlobStore = new BlobStore(
+						getConfigLocationAsFile().toPath().resolve(CHAT_HISTORY_BLOBS_DIRECTORY));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return chatHistoryBlobStore;
+	}
+
+	/**
+	 * Updates the full-text index of the chat history to the given history in the
+	 * background and stores it if it changed. Only new and changed conversations
+	 * are indexed again.
+	 *
+	 * @return the index, completed when it is up to date.
+	 */
+	public CompletableFuture<ChatHistoryIndex> updateChatHistoryIndex(List<ChatHistoryEntry> history) {
+		List<ChatHistoryEntry> snapshot = new ArrayList<>(history);
+		try {
+			return CompletableFuture.supplyAsync(() -> updateChatHistoryIndexNow(snapshot), chatHistoryIndexExecutor);
+		} catch (RejectedExecutionException e) {
+			// The plug-in is stopping.
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private synchronized ChatHistoryIndex updateChatHistoryIndexNow(List<ChatHistoryEntry> history) {
+		if (chatHistoryIndex == null) {
+			chatHistoryIndex = loadChatHistoryIndex();
+		}
+		if (chatHistoryIndex.update(history)) {
+			try {
+				Path file = new File(getConfigLocationAsFile(), CHAT_HISTORY_INDEX_FILE).toPath();
+				Path tempFile = file.resolveSibling(CHAT_HISTORY_INDEX_FILE + ".tmp");
+				try (BufferedWriter writer = Files.newBufferedWriter(tempFile)) {
+					synchronized (chatHistoryIndex) {
+						createGson().toJson(chatHistoryIndex, writer);
+					}
+				}
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException | JsonIOException e) {
+				Activator.logWarn("Chat history index could not be stored: " + e.getMessage());
+			}
+		}
+		return chatHistoryIndex;
+	}
+
+	private ChatHistoryIndex loadChatHistoryIndex() {
+		try {
+			File file = new File(getConfigLocationAsFile(), CHAT_HISTORY_INDEX_FILE);
+			if (file.exists()) {
+				try (BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 18)) {
+					ChatHistoryIndex index = createGson().fromJson(reader, ChatHistoryIndex.class);
+					if (index != null && index.isCurrentVersion()) {
+						return index;
+					}
+				}
+			}
+		} catch (IOException | JsonIOException | JsonSyntaxException e) {
+			Activator.logWarn("Chat history index could not be read, it is rebuilt: " + e.getMessage());
+		}
+		return new ChatHistoryIndex();
+	}
+
 	static interface IFileReadCallback<T> {
 		void onSuccess(List<T> list);
 		void onError(String message, Throwable t);
@@ -339,8 +537,10 @@ public class Activator extends AbstractUIPlugin {
 	}
 
 	private <T> List<T> readFile(String filename, TypeToken<List<T>> token) {
+		return readFile(filename, token, createGson());
+	}
 
-
+	private <T> List<T> readFile(String filename, TypeToken<List<T>> token, Gson gson) {
 		try {
 			File parentDirectory = getConfigLocationAsFile();
 			File file = new File(parentDirectory, filename);
@@ -350,7 +550,7 @@ public class Activator extends AbstractUIPlugin {
 			} else {
 				try (BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 18)) {
 					Type listType = token.getType();
-					List<T> res = createGson().fromJson(reader, listType);
+					List<T> res = gson.fromJson(reader, listType);
 
 					return res;
 				}
@@ -419,6 +619,14 @@ public class Activator extends AbstractUIPlugin {
 		return res;
 	}
 
+	public int getMaxChatToolTurns() {
+		int res = getPreferenceStore().getInt(PreferenceConstants.CHAT_TOOLS_MAX_TURNS);
+		if (res <= 0) {
+			res = AgentLoop.DEFAULT_MAX_TURNS;
+		}
+		return res;
+	}
+
 	/**
 	 * Creates a mapping of all supported AI providers (not just the ones whose
 	 * <i>protocols</i> are supported).
@@ -8,6 +8,7 @@ import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.IStartup;
 
+import com.chabicht.code_intelligence.semanticsearch.SemanticSearchIndex;
 import com.chabicht.codeintelligence.preferences.setupwizard.ConnectionSetupWizard;
 
 public class Startup implements IStartup {
@@ -29,6 +30,8 @@ public class Startup implements IStartup {
 				}
 			}
 		});
+
+		SemanticSearchIndex.getInstance().start();
 	}
 
 }
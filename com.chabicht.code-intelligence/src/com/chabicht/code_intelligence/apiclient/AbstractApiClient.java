@@ -1,19 +1,47 @@
 package com.chabicht.code_intelligence.apiclient;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import com.chabicht.code_intelligence.Activator;
 import com.chabicht.code_intelligence.CustomConfigurationParameters;
+import com.chabicht.code_intelligence.apiclient.RequestGovernor.Priority;
+import com.chabicht.code_intelligence.chat.tools.ToolResultEncoder;
+import com.chabicht.code_intelligence.model.ChatConversation;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionResult;
 import com.chabicht.code_intelligence.model.PromptType;
+import com.chabicht.code_intelligence.util.Log;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 public class AbstractApiClient {
+	/**
+	 * Shared by all clients and conversations, so concurrent chats reuse its
+	 * connection pool and selector thread instead of creating them per request.
+	 */
+	private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 
 	protected final AiApiConnection apiConnection;
 	protected final transient Gson gson = initGson();
+	protected final transient MessageFragmentCache messageFragments = new MessageFragmentCache(gson);
+	protected final transient PendingChats pendingChats = new PendingChats();
 
 	private static Gson initGson() {
 		Activator activator = Activator.getDefault();
@@ -25,6 +53,119 @@ public class AbstractApiClient {
 		this.apiConnection = apiConnection;
 	}
 
+	public boolean isChatPending() {
+		return pendingChats.isAnyPending();
+	}
+
+	public boolean isChatPending(ChatConversation chat) {
+		return pendingChats.isPending(chat);
+	}
+
+	public void abortChat() {
+		pendingChats.abortAll();
+	}
+
+	public void abortChat(ChatConversation chat) {
+		pendingChats.abort(chat);
+	}
+
+	/**
+	 * @return the content of the tool result message for a function result: its
+	 *         JSON, or plain text if the connection is configured so.
+	 */
+	protected String toolResultContent(FunctionResult functionResult) {
+		String json = functionResult.getResultJson();
+		return json != null && apiConnection.isPlainTextToolResults() ? ToolResultEncoder.toPlainText(json) : json;
+	}
+
+	protected static float[] toFloatArray(JsonArray array) {
+		float[] res = new float[array.size()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = array.get(i).getAsFloat();
+		}
+		return res;
+	}
+
+	/**
+	 * Sends a request through the {@link RequestGovernor} of the connection: waits
+	 * until the rate limits allow it and retries it if it is rate limited or fails
+	 * with a server error. Interactive requests (completions) aren't retried, so
+	 * the calling thread doesn't sleep for a result that is no longer needed.
+	 */
+	protected <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> handler)
+			throws IOException, InterruptedException {
+		RequestGovernor governor = apiConnection.getRequestGovernor();
+		Priority priority = RequestGovernor.currentPriority();
+		long tokens = RequestGovernor.estimateTokens(request);
+		for (int attempt = 0;; attempt++) {
+			governor.acquire(priority, tokens);
+			HttpResponse<T> response = HTTP_CLIENT.send(request, handler);
+			long delay = governor.onResponse(response.statusCode(), response.headers(), attempt, priority);
+			if (delay < 0) {
+				return response;
+			}
+			retrying(response, delay, attempt, ApiCall.current());
+			Thread.sleep(delay);
+		}
+	}
+
+	/**
+	 * Sends a streaming chat request through the {@link RequestGovernor} of the
+	 * connection, see {@link #send(HttpRequest, BodyHandler)}. Waiting and retrying
+	 * stop when the chat is aborted. So does the streamed body, and the listeners
+	 * of the conversation aren't notified about the response anymore.
+	 * <p>
+	 * The caller keeps the chat pending until the response is processed, see
+	 * {@link PendingChats#trackProcessing(ChatConversation, CompletableFuture)}.
+	 *
+	 * @param response the message the response is streamed into.
+	 */
+	protected CompletableFuture<HttpResponse<InputStream>> sendAsync(ChatConversation chat, ChatMessage response,
+			HttpRequest request, BodyHandler<InputStream> handler) {
+		CompletableFuture<HttpResponse<InputStream>> result = new CompletableFuture<>();
+		PendingChats.Request pending = pendingChats.track(chat, response, result);
+		sendAsync(chat, request, pending.abortable(handler), RequestGovernor.currentPriority(),
+				RequestGovernor.estimateTokens(request), ApiCall.current(), 0, result);
+		return result;
+	}
+
+	private <T> void sendAsync(ChatConversation chat, HttpRequest request, BodyHandler<T> handler, Priority priority,
+			long tokens, ApiCall call, int attempt, CompletableFuture<HttpResponse<T>> result) {
+		RequestGovernor governor = apiConnection.getRequestGovernor();
+		governor.acquireAsync(priority, tokens).thenCompose(v -> {
+			if (!pendingChats.isPending(chat)) {
+				throw new CancellationException("Chat aborted");
+			}
+			return HTTP_CLIENT.sendAsync(request, handler);
+		}).whenComplete((response, e) -> {
+			if (e != null) {
+				result.completeExceptionally(e);
+				return;
+			}
+			long delay = governor.onResponse(response.statusCode(), response.headers(), attempt, priority);
+			if (delay < 0 || !pendingChats.isPending(chat)) {
+				result.complete(response);
+				return;
+			}
+			retrying(response, delay, attempt, call);
+			CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(
+					() -> sendAsync(chat, request, handler, priority, tokens, call, attempt + 1, result));
+		});
+	}
+
+	private void retrying(HttpResponse<?> response, long delay, int attempt, ApiCall call) {
+		if (response.body() instanceof Closeable body) {
+			try {
+				body.close();
+			} catch (IOException e) {
+				// The response is discarded anyway.
+			}
+		}
+		call.retrying();
+		Log.logWarn(String.format("%s: request failed with status %d, retrying in %d ms (%d/%d)",
+				apiConnection.getName(), response.statusCode(), delay, attempt + 1, RequestGovernor.MAX_RETRIES));
+	}
+
 	protected JsonObject createFromPresets(PromptType type) {
 		Map<String, String> customConfig = CustomConfigurationParameters.getInstance().get(apiConnection.getName());
 		if (customConfig.containsKey(type.name())) {
@@ -54,6 +195,19 @@ public class AbstractApiClient {
 		}
 	}
 
+	/**
+	 * Asks a chat completions API to send the token usage in the last chunk of the
+	 * stream, streamed responses don't report it otherwise. A provider that rejects
+	 * the option can be configured with "include_usage": false in the custom
+	 * parameters.
+	 */
+	protected void addStreamUsageOption(JsonObject req) {
+		JsonObject streamOptions = getOrAddJsonObject(req, "stream_options");
+		if (!hasNonNullProperty(streamOptions, "include_usage")) {
+			streamOptions.addProperty("include_usage", true);
+		}
+	}
+
 	protected boolean hasNonNullProperty(JsonObject object, String propertyName) {
 		return object != null && propertyName != null && object.has(propertyName)
 				&& !object.get(propertyName).isJsonNull();
@@ -69,4 +223,14 @@ public class AbstractApiClient {
 		}
 	}
 
+	/**
+	 * Reads the body of a failed streaming request for error reporting.
+	 */
+	protected String readErrorBody(InputStream body) {
+		try (InputStream in = body) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return "(could not read response body: " + e.getMessage() + ")";
+		}
+	}
 }
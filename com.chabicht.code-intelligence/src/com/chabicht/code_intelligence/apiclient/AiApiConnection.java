@@ -1,10 +1,17 @@
 package com.chabicht.code_intelligence.apiclient;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 import com.chabicht.code_intelligence.Bean;
+import com.chabicht.code_intelligence.apiclient.RequestGovernor.Priority;
 import com.chabicht.code_intelligence.model.ChatConversation;
 import com.chabicht.code_intelligence.model.CompletionPrompt;
 import com.chabicht.code_intelligence.model.CompletionResult;
 import com.chabicht.code_intelligence.model.DefaultPrompts;
+import com.chabicht.code_intelligence.model.PromptType;
 
 public class AiApiConnection extends Bean {
 	public static enum ApiType {
@@ -45,8 +52,16 @@ public class AiApiConnection extends Bean {
 	private String apiKey;
 	private boolean enabled;
 	private boolean legacyFormat;
+	/** Rate limits of the connection, 0 means no limit. */
+	private int requestsPerMinute;
+	private int tokensPerMinute;
+	/** Sends tool results as plain text instead of JSON strings. */
+	private boolean plainTextToolResults;
 
 	private transient IAiApiClient apiClient;
+	private transient RequestGovernor requestGovernor;
+	/** Telemetry of the pending chat request of each conversation. */
+	private transient Map<ChatConversation, ApiCall> pendingChats;
 
 	public AiApiConnection() {
 		type = ApiType.OPENAI;
@@ -101,6 +116,47 @@ public class AiApiConnection extends Bean {
 				this.legacyFormat = openAiLegacyApi);
 	}
 
+	public int getRequestsPerMinute() {
+		return requestsPerMinute;
+	}
+
+	public void setRequestsPerMinute(int requestsPerMinute) {
+		propertyChangeSupport.firePropertyChange("requestsPerMinute", this.requestsPerMinute,
+				this.requestsPerMinute = requestsPerMinute);
+	}
+
+	public int getTokensPerMinute() {
+		return tokensPerMinute;
+	}
+
+	public void setTokensPerMinute(int tokensPerMinute) {
+		propertyChangeSupport.firePropertyChange("tokensPerMinute", this.tokensPerMinute,
+				this.tokensPerMinute = tokensPerMinute);
+	}
+
+	public boolean isPlainTextToolResults() {
+		return plainTextToolResults;
+	}
+
+	public void setPlainTextToolResults(boolean plainTextToolResults) {
+		propertyChangeSupport.firePropertyChange("plainTextToolResults", this.plainTextToolResults,
+				this.plainTextToolResults = plainTextToolResults);
+		// Cached messages were encoded with the old setting.
+		if (apiClient instanceof AbstractApiClient client) {
+			client.messageFragments.clear();
+		}
+	}
+
+	/**
+	 * @return the governor all requests of this connection are sent through.
+	 */
+	public synchronized RequestGovernor getRequestGovernor() {
+		if (requestGovernor == null) {
+			requestGovernor = new RequestGovernor(this::getRequestsPerMinute, this::getTokensPerMinute);
+		}
+		return requestGovernor;
+	}
+
 	public IAiApiClient getApiClient() {
 		return getApiClient(false);
 	}
@@ -138,7 +194,17 @@ public class AiApiConnection extends Bean {
 			throw new RuntimeException("API connection disabled!");
 		}
 
-		return getApiClient().performCompletion(modelName, completionPrompt);
+		ApiCall call = ApiCallTelemetry.getInstance().start(name, modelName, PromptType.INSTRUCT, "completion").bind();
+		try {
+			return RequestGovernor.withPriority(Priority.INTERACTIVE,
+					() -> getApiClient().performCompletion(modelName, completionPrompt));
+		} catch (RuntimeException e) {
+			call.failed(e);
+			throw e;
+		} finally {
+			call.unbind();
+			call.finish();
+		}
 	}
 
 	public void performChat(String modelName, ChatConversation chat, int maxResponseTokens) {
@@ -146,25 +212,110 @@ public class AiApiConnection extends Bean {
 			throw new RuntimeException("API connection disabled!");
 		}
 
-		getApiClient().performChat(modelName, chat, maxResponseTokens);
+		// The call is finished by the listener on the chat when the response is
+		// complete, or when it is aborted.
+		ApiCall call = ApiCallTelemetry.getInstance().start(name, modelName, PromptType.CHAT, "chat");
+		call.observe(chat);
+		synchronized (this) {
+			if (pendingChats == null) {
+				pendingChats = new IdentityHashMap<>();
+			}
+			pendingChats.values().removeIf(ApiCall::isFinished);
+			pendingChats.put(chat, call.bind());
+		}
+		try {
+			getApiClient().performChat(modelName, chat, maxResponseTokens);
+		} catch (RuntimeException e) {
+			call.failed(e);
+			call.finish();
+			throw e;
+		} finally {
+			call.unbind();
+		}
 	}
 
+	/**
+	 * Aborts the chat requests of all conversations.
+	 */
 	public void abortChat() {
 		if (apiClient != null) {
 			apiClient.abortChat();
 		}
+		List<ApiCall> calls;
+		synchronized (this) {
+			calls = pendingChats == null ? List.of() : new ArrayList<>(pendingChats.values());
+			pendingChats = null;
+		}
+		calls.forEach(this::finishAborted);
+	}
+
+	/**
+	 * Aborts the chat request of the conversation, other conversations continue.
+	 */
+	public void abortChat(ChatConversation chat) {
+		if (apiClient != null) {
+			apiClient.abortChat(chat);
+		}
+		ApiCall call;
+		synchronized (this) {
+			call = pendingChats == null ? null : pendingChats.remove(chat);
+		}
+		finishAborted(call);
+	}
+
+	private void finishAborted(ApiCall call) {
+		if (call != null && !call.isFinished()) {
+			call.failed("aborted");
+			call.finish();
+		}
 	}
 
 	public boolean isChatPending() {
 		return apiClient == null ? false : apiClient.isChatPending();
 	}
 
+	public boolean isChatPending(ChatConversation chat) {
+		return apiClient == null ? false : apiClient.isChatPending(chat);
+	}
+
 	public String caption(String modelName, String content) {
 		if (!enabled) {
 			throw new RuntimeException("API connection disabled!");
 		}
 
-		return getApiClient().caption(modelName, DefaultPrompts.CAPTION_PROMPT + content);
+		ApiCall call = ApiCallTelemetry.getInstance().start(name, modelName, PromptType.INSTRUCT, "caption").bind();
+		try {
+			return RequestGovernor.withPriority(Priority.BACKGROUND,
+					() -> getApiClient().caption(modelName, DefaultPrompts.CAPTION_PROMPT + content));
+		} catch (RuntimeException e) {
+			call.failed(e);
+			throw e;
+		} finally {
+			call.unbind();
+			call.finish();
+		}
+	}
+
+	/**
+	 * Computes embedding vectors, with the priority of the calling thread.
+	 *
+	 * @see IAiApiClient#embed(String, List)
+	 */
+	public List<float[]> embed(String modelName, List<String> texts) {
+		if (!enabled) {
+			throw new RuntimeException("API connection disabled!");
+		}
+
+		ApiCall call = ApiCallTelemetry.getInstance().start(name, modelName, PromptType.INSTRUCT, "embedding").bind();
+		try {
+			return getApiClient().embed(modelName, texts);
+		} catch (RuntimeException e) {
+			call.failed(e);
+			throw e;
+		} finally {
+			call.unbind();
+			call.finish();
+		}
 	}
 
 }
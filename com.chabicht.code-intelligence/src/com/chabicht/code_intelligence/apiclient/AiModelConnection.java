@@ -1,5 +1,7 @@
 package com.chabicht.code_intelligence.apiclient;
 
+import java.util.List;
+
 import com.chabicht.code_intelligence.model.ChatConversation;
 import com.chabicht.code_intelligence.model.CompletionPrompt;
 import com.chabicht.code_intelligence.model.CompletionResult;
@@ -33,6 +35,10 @@ public class AiModelConnection {
 		return conn.caption(modelName, content);
 	}
 
+	public List<float[]> embed(List<String> texts) {
+		return conn.embed(modelName, texts);
+	}
+
 	public void abortChat() {
 		conn.abortChat();
 	}
@@ -40,4 +46,12 @@ public class AiModelConnection {
 	public boolean isChatPending() {
 		return conn.isChatPending();
 	}
+
+	public void abortChat(ChatConversation chat) {
+		conn.abortChat(chat);
+	}
+
+	public boolean isChatPending(ChatConversation chat) {
+		return conn.isChatPending(chat);
+	}
 }
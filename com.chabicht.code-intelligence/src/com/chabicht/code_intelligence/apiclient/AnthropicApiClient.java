@@ -6,24 +6,22 @@ import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.T
 import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.TOOL_PROFILE;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpClient.Redirect;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 
 import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.apiclient.EventStreamDecoder.Format;
 import com.chabicht.code_intelligence.chat.tools.ToolDefinitions;
 import com.chabicht.code_intelligence.chat.tools.ToolProfile;
 import com.chabicht.code_intelligence.model.ChatConversation;
@@ -47,7 +45,6 @@ import com.google.gson.JsonSyntaxException;
 
 public class AnthropicApiClient extends AbstractApiClient implements IAiApiClient {
 
-	private CompletableFuture<Void> asyncRequest;
 
 	private static final String ANTHROPIC_VERSION = "2023-06-01";
 
@@ -71,9 +68,6 @@ public class AnthropicApiClient extends AbstractApiClient implements IAiApiClien
 		int statusCode = -1;
 		String responseBody = "(nothing)";
 		try {
-			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-					.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
-
 			HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
 					.uri(URI.create(apiConnection.getBaseUri() + "/").resolve(relPath)).GET()
 					.header("x-api-key", apiConnection.getApiKey()).header("anthropic-version", ANTHROPIC_VERSION);
@@ -83,7 +77,7 @@ public class AnthropicApiClient extends AbstractApiClient implements IAiApiClien
 			}
 
 			HttpRequest request = requestBuilder.build();
-			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
 
 			statusCode = response.statusCode();
 			responseBody = response.body();
@@ -116,9 +110,6 @@ public class AnthropicApiClient extends AbstractApiClient implements IAiApiClien
 		req.add("messages", messages);
 
 		JsonObject res = performPost(JsonObject.class, "messages", req);
-		if (res.has("usage")) {
-			logApiUsage(modelName, res.getAsJsonObject("usage"), "completion");
-		}
 		return new CompletionResult(
 				res.get("content").getAsJsonArray().get(0).getAsJsonObject().get("text").getAsString());
 	}
@@ -143,8 +134,7 @@ public class AnthropicApiClient extends AbstractApiClient implements IAiApiClien
 			}
 		}
 
-		// Add messages array
-		req.add("messages", createMessagesArray(chat));
+		List<String> messageFragments = createMessageFragments(chat);
 
 		// Set max tokens
 		if (options.containsKey(REASONING_ENABLED) && Boolean.TRUE.equals(options.get(REASONING_ENABLED))) {
@@ -164,253 +154,278 @@ public class AnthropicApiClient extends AbstractApiClient implements IAiApiClien
 		chat.addMessage(assistantMessage, true);
 
 		// Build request and initiate streaming
-		String requestBody = gson.toJson(req);
-		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-				.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
+		StreamingRequestBody requestBody = StreamingRequestBody.of(gson, req, "messages", messageFragments);
 
 		HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
 				.uri(URI.create(apiConnection.getBaseUri() + "/messages"))
-				.POST(HttpRequest.BodyPublishers.ofString(requestBody)).header("x-api-key", apiConnection.getApiKey())
+				.POST(requestBody.toBodyPublisher()).header("x-api-key", apiConnection.getApiKey())
 				.header("Content-Type", "application/json").header("anthropic-version", ANTHROPIC_VERSION);
 
 		HttpRequest request = requestBuilder.build();
 		AtomicBoolean responseFinished = new AtomicBoolean(false);
 		Map<Integer, ToolUseInfo> activeToolUses = new TreeMap<>();
+		ApiCall call = ApiCall.current();
 
-		asyncRequest = client.sendAsync(request, HttpResponse.BodyHandlers.ofLines()).thenAccept(response -> {
+		CompletableFuture<HttpResponse<InputStream>> sent = sendAsync(chat, assistantMessage, request,
+				call.trackInputStream());
+		pendingChats.trackProcessing(chat, sent.thenAccept(response -> {
 			try {
 				if (response.statusCode() >= 200 && response.statusCode() < 300) {
-					AtomicReference<String> currentEvent = new AtomicReference<>("");
-
-					response.body().forEach(line -> {
-						if (line == null || line.isEmpty()) {
-							return;
-						}
-
-						if (line.startsWith("event: ")) {
-							currentEvent.set(line.substring("event: ".length()).trim());
-						} else if (line.startsWith("data: ")) {
-							String data = line.substring("data: ".length()).trim();
-
-							try {
-								JsonObject jsonResponse = JsonParser.parseString(data).getAsJsonObject();
-
-								if (jsonResponse.has("usage")) {
-									logApiUsage(modelName, jsonResponse.getAsJsonObject("usage"), "chat");
-								} else if (jsonResponse.has("message")) {
-									JsonObject message = jsonResponse.get("message").getAsJsonObject();
-									if (message.has("usage")) {
-										logApiUsage(modelName, message.getAsJsonObject("usage"), "chat");
-									}
-								}
+					new EventStreamDecoder(Format.SSE).decode(response.body(), (event, data) -> {
+						try {
+							// Text and thinking deltas make up most of the stream, they are extracted
+							// without building a JSON tree.
+							if ("content_block_delta".equals(event)) {
+								StreamDeltaParser.parseAnthropicContentBlockDelta(data,
+										delta -> handleContentBlockDelta(delta, activeToolUses, assistantMessage, chat));
+								return;
+							}
 
-								// Extract the event type from the JSON response
-								if (jsonResponse.has("type")) {
-									String eventType = jsonResponse.get("type").getAsString();
-									currentEvent.set(eventType);
-
-									switch (eventType) {
-									case "content_block_delta":
-										if (jsonResponse.has("delta")) {
-											JsonObject delta = jsonResponse.getAsJsonObject("delta");
-											String deltaType = delta.get("type").getAsString();
-
-											if (deltaType.equals("text_delta")) {
-												if (assistantMessage.getThinkingContent() != null && !assistantMessage.isThinkingComplete()) {
-													assistantMessage.setThinkingComplete(true);
-												}
-												String text = delta.get("text").getAsString();
-												assistantMessage.setContent(assistantMessage.getContent() + text);
-												chat.notifyMessageUpdated(assistantMessage);
-											} else if (deltaType.equals("thinking_delta")) {
-												// Handle thinking delta
-												String thinking = delta.get("thinking").getAsString();
-												assistantMessage.setThinkingContent(
-														(assistantMessage.getThinkingContent() == null ? ""
-																: assistantMessage.getThinkingContent()) + thinking);
-												chat.notifyMessageUpdated(assistantMessage);
-											} else if (deltaType.equals("input_json_delta")) {
-												// Accumulate tool input JSON
-												if (jsonResponse.has("index")) {
-													int index = jsonResponse.get("index").getAsInt();
-													ToolUseInfo toolUse = activeToolUses.get(index);
-													if (toolUse != null) {
-														String partialJson = delta.get("partial_json").getAsString();
-														toolUse.addInputJson(partialJson);
-													}
-												}
-											} else if (deltaType.equals("signature_delta")) {
-												assistantMessage.setMetadata("anthropic_signature",
-														delta.get("signature").getAsString());
+							JsonObject jsonResponse = JsonParser.parseString(data).getAsJsonObject();
+							// message_start carries the input tokens, message_delta the output tokens.
+							call.usage(jsonResponse);
+
+							// Extract the event type from the JSON response
+							if (jsonResponse.has("type")) {
+								String eventType = jsonResponse.get("type").getAsString();
+
+								switch (eventType) {
+								case "content_block_start":
+									if (jsonResponse.has("content_block")) {
+										JsonObject contentBlock = jsonResponse.getAsJsonObject("content_block");
+										String blockType = contentBlock.get("type").getAsString();
+
+										if (blockType.equals("tool_use")) {
+											int index = jsonResponse.has("index") ? jsonResponse.get("index").getAsInt()
+													: activeToolUses.size();
+											String id = contentBlock.get("id").getAsString();
+											String name = contentBlock.get("name").getAsString();
+											String initialInputJson = "{}";
+											if (contentBlock.has("input") && contentBlock.get("input").isJsonObject()
+													&& contentBlock.getAsJsonObject("input").size() > 0) {
+												initialInputJson = gson.toJson(contentBlock.getAsJsonObject("input"));
 											}
+											activeToolUses.put(index, new ToolUseInfo(id, name, initialInputJson));
+										} else if (blockType.equals("thinking")) {
+											// Thinking block started
 										}
-										break;
-
-									case "content_block_start":
-										if (jsonResponse.has("content_block")) {
-											JsonObject contentBlock = jsonResponse.getAsJsonObject("content_block");
-											String blockType = contentBlock.get("type").getAsString();
-
-											if (blockType.equals("tool_use")) {
-												int index = jsonResponse.has("index") ? jsonResponse.get("index").getAsInt()
-														: activeToolUses.size();
-												String id = contentBlock.get("id").getAsString();
-												String name = contentBlock.get("name").getAsString();
-												String initialInputJson = "{}";
-												if (contentBlock.has("input") && contentBlock.get("input").isJsonObject()
-														&& contentBlock.getAsJsonObject("input").size() > 0) {
-													initialInputJson = gson.toJson(contentBlock.getAsJsonObject("input"));
-												}
-												activeToolUses.put(index, new ToolUseInfo(id, name, initialInputJson));
-											} else if (blockType.equals("thinking")) {
-												// Thinking block started
-											}
+									}
+									break;
+
+								case "content_block_stop":
+									// Tool use blocks are finalized at the message stop/tool_use stop_reason so
+									// one assistant turn becomes one FunctionCallBatch. Their input is complete
+									// here already, listeners can start working on it.
+									if (jsonResponse.has("index")) {
+										ToolUseInfo toolUse = activeToolUses.get(jsonResponse.get("index").getAsInt());
+										FunctionCall functionCall = toolUse != null ? toolUse.toFunctionCall() : null;
+										if (functionCall != null) {
+											chat.notifyFunctionCallComplete(assistantMessage, functionCall);
 										}
-										break;
-
-									case "content_block_stop":
-										// Tool use blocks are finalized at the message stop/tool_use stop_reason so
-										// one assistant turn becomes one FunctionCallBatch.
-										break;
-
-									case "message_delta":
-										if (jsonResponse.has("delta")) {
-											JsonObject delta = jsonResponse.getAsJsonObject("delta");
-											if (delta.has("stop_reason")
-													&& "tool_use".equals(delta.get("stop_reason").getAsString())) {
-												finalizeToolUses(activeToolUses, assistantMessage);
-												finalizeAssistantMessage(assistantMessage, chat, responseFinished);
-											}
+									}
+									break;
+
+								case "message_delta":
+									if (jsonResponse.has("delta")) {
+										JsonObject delta = jsonResponse.getAsJsonObject("delta");
+										if (delta.has("stop_reason")
+												&& "tool_use".equals(delta.get("stop_reason").getAsString())) {
+											finalizeToolUses(activeToolUses, assistantMessage);
+											finalizeAssistantMessage(assistantMessage, chat, responseFinished);
 										}
-										break;
-
-									case "message_stop":
-										// Handle end of message
-										finalizeToolUses(activeToolUses, assistantMessage);
-										finalizeAssistantMessage(assistantMessage, chat, responseFinished);
-										break;
-
-									case "message_start":
-									case "ping":
-										// These events can be handled if needed
-										break;
-
-									default:
-										Activator.logError("Unknown event type in stream: " + eventType
-												+ "\nOriginal line: " + line, null);
 									}
+									break;
+
+								case "message_stop":
+									// Handle end of message
+									finalizeToolUses(activeToolUses, assistantMessage);
+									finalizeAssistantMessage(assistantMessage, chat, responseFinished);
+									break;
+
+								case "message_start":
+								case "ping":
+									// These events can be handled if needed
+									break;
+
+								default:
+									Activator.logError("Unknown event type in stream: " + eventType
+											+ "\nOriginal data: " + data, null);
 								}
-							} catch (JsonSyntaxException e) {
-								Activator.logError("Error parsing stream chunk: " + data, e);
 							}
-
+						} catch (IOException | IllegalStateException | JsonSyntaxException e) {
+							Activator.logError("Error parsing stream chunk: " + data, e);
 						}
 					});
 				} else {
 					Activator.logError("Streaming chat failed with status: " + response.statusCode() + "\n"
-							+ response.body().collect(Collectors.joining()) + "\n\nRequest JSON:\n" + requestBody,
-							null);
+							+ readErrorBody(response.body()) + "\n\nRequest JSON:\n" + requestBody, null);
 				}
+			} catch (IOException e) {
+				Activator.logError("Exception while reading chat stream", e);
+				call.failed(e);
 			} finally {
 				finalizeToolUses(activeToolUses, assistantMessage);
 				finalizeAssistantMessage(assistantMessage, chat, responseFinished);
-				asyncRequest = null;
 			}
 		}).exceptionally(e -> {
 			Activator.logError("Exception during streaming chat", e);
+			call.failed(e);
 			finalizeToolUses(activeToolUses, assistantMessage);
 			finalizeAssistantMessage(assistantMessage, chat, responseFinished);
-			asyncRequest = null;
 			return null;
-		});
+		}));
+	}
+
+	private void handleContentBlockDelta(StreamEvent delta, Map<Integer, ToolUseInfo> activeToolUses,
+			ChatMessage assistantMessage, ChatConversation chat) {
+		switch (delta.getType()) {
+		case TEXT_DELTA:
+			if (assistantMessage.getThinkingContent() != null && !assistantMessage.isThinkingComplete()) {
+				assistantMessage.setThinkingComplete(true);
+			}
+			assistantMessage.setContent(assistantMessage.getContent() + delta.getText());
+			chat.notifyMessageUpdated(assistantMessage);
+			break;
+		case REASONING_DELTA:
+			assistantMessage.setThinkingContent(
+					StringUtils.defaultString(assistantMessage.getThinkingContent()) + delta.getText());
+			chat.notifyMessageUpdated(assistantMessage);
+			break;
+		case TOOL_CALL_DELTA:
+			// Accumulate tool input JSON
+			ToolUseInfo toolUse = activeToolUses.get(delta.getIndex());
+			if (toolUse != null) {
+				toolUse.addInputJson(delta.getArguments());
+			}
+			break;
+		case REASONING_SIGNATURE:
+			assistantMessage.setMetadata("anthropic_signature", delta.getText());
+			break;
+		default:
+			break;
+		}
 	}
 
 	/**
-	 * @param chat
-	 * @return
+	 * Creates the encoded "messages" array elements for the conversation.
+	 * <p>
+	 * All messages except the last one are taken from the fragment cache. The
+	 * last message carries the prompt cache breakpoint and is therefore always
+	 * encoded fresh.
 	 */
-	private JsonArray createMessagesArray(ChatConversation chat) {
-		JsonArray messagesJson = new JsonArray();
-
-		for (ChatMessage msg : new ArrayList<>(chat.getMessages())) {
-			// Skip system messages, they're handled separately
-			if (Role.SYSTEM.equals(msg.getRole())) {
-				continue;
-			}
-			// Skip TOOL_SUMMARY messages, they are for internal use only
-			if (Role.TOOL_SUMMARY.equals(msg.getRole())) {
-				continue;
+	private List<String> createMessageFragments(ChatConversation chat) {
+		List<ChatMessage> messages = new ArrayList<>(chat.getMessages());
+
+		int lastIndex = -1;
+		JsonArray lastEncoded = null;
+		for (int i = messages.size() - 1; i >= 0 && lastEncoded == null; i--) {
+			JsonArray encoded = encodeMessage(messages.get(i));
+			if (!encoded.isEmpty()) {
+				lastIndex = i;
+				lastEncoded = encoded;
 			}
+		}
 
-			// Build message text with context
-			StringBuilder contentBuilder = new StringBuilder();
-			if (!msg.getContext().isEmpty()) {
-				contentBuilder.append("Context information:\n\n");
-				for (MessageContext ctx : msg.getContext()) {
-					contentBuilder.append(ctx.compile(true));
-					contentBuilder.append("\n");
-				}
+		List<String> fragments = new ArrayList<>();
+		for (int i = 0; i < lastIndex; i++) {
+			ChatMessage msg = messages.get(i);
+			if (!isSkipped(msg)) {
+				fragments.addAll(messageFragments.encode(msg, this::encodeMessage));
 			}
-			contentBuilder.append(msg.getContent());
+		}
 
-			String messageContent = contentBuilder.toString();
+		if (lastEncoded != null) {
+			// Cache conversation with default TTL (5 minutes).
+			JsonObject lastMessage = lastEncoded.get(lastEncoded.size() - 1).getAsJsonObject();
+			JsonArray contentArray = lastMessage.get("content").getAsJsonArray();
+			JsonObject content = contentArray.get(0).getAsJsonObject();
+			JsonObject cacheControlObj = new JsonObject();
+			cacheControlObj.addProperty("type", "ephemeral");
+			content.add("cache_control", cacheControlObj);
 
-			// Skip if both message content and thinking content are blank
-			if (StringUtils.isBlank(messageContent) && StringUtils.isBlank(msg.getThinkingContent())
-					&& msg.getFunctionCallBatch().isEmpty()) {
-				continue;
+			for (JsonElement element : lastEncoded) {
+				fragments.add(gson.toJson(element));
 			}
+		}
 
-			// Create the message JSON object
-			JsonObject jsonMsg = new JsonObject();
-			jsonMsg.addProperty("role", msg.getRole().toString().toLowerCase());
-
-			JsonArray contentArray = new JsonArray();
+		return fragments;
+	}
 
-			// For assistant messages, add thinking content first if available
-			if (Role.ASSISTANT.equals(msg.getRole()) && StringUtils.isNotBlank(msg.getThinkingContent())) {
-				JsonObject thinkingContent = new JsonObject();
-				thinkingContent.addProperty("type", "thinking");
-				thinkingContent.addProperty("thinking", msg.getThinkingContent());
+	private boolean isSkipped(ChatMessage msg) {
+		// System messages are handled separately, TOOL_SUMMARY messages are for
+		// internal use only.
+		return Role.SYSTEM.equals(msg.getRole()) || Role.TOOL_SUMMARY.equals(msg.getRole());
+	}
 
-				// Add signature field required by Anthropic API
-				// If the field is missing we assume the user switched models. In that case we
-				// can't send the thoughts "back" to the API.
-				Object signature = msg.getMetadata("anthropic_signature");
-				if (signature != null) {
-					thinkingContent.addProperty("signature", (String) signature);
+	/**
+	 * Encodes a single chat message, followed by a user turn with the tool
+	 * results if the message contains function calls.
+	 *
+	 * @return the encoded messages, empty if the message is not sent to the API.
+	 */
+	private JsonArray encodeMessage(ChatMessage msg) {
+		JsonArray res = new JsonArray();
+		if (isSkipped(msg)) {
+			return res;
+		}
 
-					contentArray.add(thinkingContent);
-				}
+		// Build message text with context
+		StringBuilder contentBuilder = new StringBuilder();
+		if (!msg.getContext().isEmpty()) {
+			contentBuilder.append("Context information:\n\n");
+			for (MessageContext ctx : msg.getContext()) {
+				contentBuilder.append(ctx.compile(true));
+				contentBuilder.append("\n");
 			}
+		}
+		contentBuilder.append(msg.getContent());
 
-			// Add text content block if message content is not blank
-			if (StringUtils.isNotBlank(messageContent)) {
-				JsonObject textContent = new JsonObject();
-				textContent.addProperty("type", "text");
-				textContent.addProperty("text", messageContent);
-				contentArray.add(textContent);
-			}
+		String messageContent = contentBuilder.toString();
+
+		// Skip if both message content and thinking content are blank
+		if (StringUtils.isBlank(messageContent) && StringUtils.isBlank(msg.getThinkingContent())
+				&& msg.getFunctionCallBatch().isEmpty()) {
+			return res;
+		}
+
+		// Create the message JSON object
+		JsonObject jsonMsg = new JsonObject();
+		jsonMsg.addProperty("role", msg.getRole().toString().toLowerCase());
 
-			appendAssistantToolUses(contentArray, msg);
+		JsonArray contentArray = new JsonArray();
 
-			jsonMsg.add("content", contentArray);
-			messagesJson.add(jsonMsg);
+		// For assistant messages, add thinking content first if available
+		if (Role.ASSISTANT.equals(msg.getRole()) && StringUtils.isNotBlank(msg.getThinkingContent())) {
+			JsonObject thinkingContent = new JsonObject();
+			thinkingContent.addProperty("type", "thinking");
+			thinkingContent.addProperty("thinking", msg.getThinkingContent());
 
-			appendToolResultTurn(messagesJson, msg);
+			// Add signature field required by Anthropic API
+			// If the field is missing we assume the user switched models. In that case we
+			// can't send the thoughts "back" to the API.
+			Object signature = msg.getMetadata("anthropic_signature");
+			if (signature != null) {
+				thinkingContent.addProperty("signature", (String) signature);
+
+				contentArray.add(thinkingContent);
+			}
 		}
 
-		// Cache conversation with default TTL (5 minutes).
-		if (messagesJson.size() > 0) {
-			JsonObject lastMessage = messagesJson.get(messagesJson.size() - 1).getAsJsonObject();
-			JsonArray contentArray = lastMessage.get("content").getAsJsonArray();
-			JsonObject content = contentArray.get(0).getAsJsonObject();
-			JsonObject cacheControlObj = new JsonObject();
-			cacheControlObj.addProperty("type", "ephemeral");
-			content.add("cache_control", cacheControlObj);
+		// Add text content block if message content is not blank
+		if (StringUtils.isNotBlank(messageContent)) {
+			JsonObject textContent = new JsonObject();
+			textContent.addProperty("type", "text");
+			textContent.addProperty("text", messageContent);
+			contentArray.add(textContent);
 		}
 
-		return messagesJson;
+		appendAssistantToolUses(contentArray, msg);
+
+		jsonMsg.add("content", contentArray);
+		res.add(jsonMsg);
+
+		appendToolResultTurn(res, msg);
+		return res;
 	}
 
 	private void appendAssistantToolUses(JsonArray contentArray, ChatMessage message) {
@@ -475,7 +490,7 @@ public class AnthropicApiClient extends AbstractApiClient implements IAiApiClien
 		JsonObject toolResult = new JsonObject();
 		toolResult.addProperty("type", "tool_result");
 		toolResult.addProperty("tool_use_id", functionResult.getId());
-		toolResult.addProperty("content", StringUtils.defaultString(functionResult.getResultJson()));
+		toolResult.addProperty("content", StringUtils.defaultString(toolResultContent(functionResult)));
 		return toolResult;
 	}
 
@@ -525,8 +540,6 @@ public class AnthropicApiClient extends AbstractApiClient implements IAiApiClien
 		String requestBodyString = "(nothing)";
 		try {
 			requestBodyString = gson.toJson(requestBody);
-			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-					.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 
 			HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
 					.uri(URI.create(apiConnection.getBaseUri() + "/").resolve(relPath))
@@ -539,7 +552,7 @@ public class AnthropicApiClient extends AbstractApiClient implements IAiApiClien
 			}
 
 			HttpRequest request = requestBuilder.build();
-			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			HttpResponse<String> response = send(request, ApiCall.trackResponse(HttpResponse.BodyHandlers.ofString()));
 
 			statusCode = response.statusCode();
 			responseBody = response.body();
@@ -548,7 +561,11 @@ public class AnthropicApiClient extends AbstractApiClient implements IAiApiClien
 				throw new RuntimeException(
 						String.format("API request failed with code %s:\n%s", statusCode, responseBody));
 			}
-			return (T) JsonParser.parseString(responseBody);
+			JsonElement res = JsonParser.parseString(responseBody);
+			if (res.isJsonObject()) {
+				ApiCall.current().usage(res.getAsJsonObject());
+			}
+			return (T) res;
 		} catch (JsonSyntaxException | IOException | InterruptedException e) {
 			Activator.logError(String.format("""
 					Error during API request:
@@ -579,48 +596,9 @@ public class AnthropicApiClient extends AbstractApiClient implements IAiApiClien
 		req.add("messages", messages);
 
 		JsonObject res = performPost(JsonObject.class, "messages", req);
-		if (res.has("usage")) {
-			logApiUsage(modelName, res.getAsJsonObject("usage"), "caption");
-		}
 		return res.get("content").getAsJsonArray().get(0).getAsJsonObject().get("text").getAsString();
 	}
 
-	@Override
-	public synchronized boolean isChatPending() {
-		return asyncRequest != null;
-	}
-
-	@Override
-	public synchronized void abortChat() {
-		if (asyncRequest != null) {
-			asyncRequest.cancel(true);
-			asyncRequest = null;
-		}
-	}
-
-	private void logApiUsage(String modelName, JsonObject usage, String apiCallType) {
-//		int inputTokens = 0;
-//		if (usage.has("input_tokens") && !usage.get("input_tokens").isJsonNull()) {
-//			inputTokens = usage.get("input_tokens").getAsInt();
-//		}
-//		int outputTokens = 0;
-//		if (usage.has("output_tokens") && !usage.get("output_tokens").isJsonNull()) {
-//			outputTokens = usage.get("output_tokens").getAsInt();
-//		}
-//		int cacheReadTokens = 0;
-//		if (usage.has("cache_read_input_tokens") && !usage.get("cache_read_input_tokens").isJsonNull()) {
-//			cacheReadTokens = usage.get("cache_read_input_tokens").getAsInt();
-//		}
-//		int cacheCreationTokens = 0;
-//		if (usage.has("cache_creation_input_tokens") && !usage.get("cache_creation_input_tokens").isJsonNull()) {
-//			cacheCreationTokens = usage.get("cache_creation_input_tokens").getAsInt();
-//		}
-//		String logMessage = String.format(
-//				"Anthropic API usage for %s (model: %s): input_tokens=%d, output_tokens=%d, cache_read_tokens=%d, cache_creation_tokens=%d",
-//				apiCallType, modelName, inputTokens, outputTokens, cacheReadTokens, cacheCreationTokens);
-//		Log.logInfo(logMessage);
-	}
-
 	private void finalizeToolUses(Map<Integer, ToolUseInfo> activeToolUses, ChatMessage assistantMessage) {
 		if (assistantMessage == null || activeToolUses == null || activeToolUses.isEmpty()
 				|| assistantMessage.getFunctionCallBatch().isPresent()) {
@@ -0,0 +1,306 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import java.io.InputStream;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.chabicht.code_intelligence.model.ChatConversation;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatListener;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.PromptType;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Collects the measurements of one model call while it is running and hands
+ * them to {@link ApiCallTelemetry} when it is finished.
+ * <p>
+ * Synchronous calls bind the call to the calling thread (see {@link #bind()}),
+ * so the API clients can reach it via {@link #current()} without changing
+ * their signatures. Streaming chats capture the call when the request is sent
+ * and observe the conversation to detect the first token and the end of the
+ * response.
+ */
+public class ApiCall {
+	private static final ThreadLocal<ApiCall> CURRENT = new ThreadLocal<>();
+
+	/** Sink for calls made outside of a tracked scope, ignores everything. */
+	private static final ApiCall UNTRACKED = new ApiCall(null, () -> 0L, null, null, null, null);
+
+	private final ApiCallTelemetry telemetry;
+	private final LongSupplier clock;
+	private final String connection;
+	private final String model;
+	private final PromptType promptType;
+	private final String operation;
+	private final long startedAt;
+
+	private long headersAt = -1;
+	private long firstTokenAt = -1;
+	private long inputTokens = -1;
+	private long outputTokens = -1;
+	private long cachedTokens = -1;
+	private String error;
+	private boolean finished;
+
+	ApiCall(ApiCallTelemetry telemetry, LongSupplier clock, String connection, String model, PromptType promptType,
+			String operation) {
+		this.telemetry = telemetry;
+		this.clock = clock;
+		this.connection = connection;
+		this.model = model;
+		this.promptType = promptType;
+		this.operation = operation;
+		this.startedAt = clock.getAsLong();
+	}
+
+	/**
+	 * @return the call bound to the current thread, or a call that is not
+	 *         recorded if there is none.
+	 */
+	public static ApiCall current() {
+		ApiCall res = CURRENT.get();
+		return res != null ? res : UNTRACKED;
+	}
+
+	/**
+	 * Wraps a body handler of the call bound to the current thread so the arrival
+	 * of the response headers is recorded.
+	 */
+	public static <T> BodyHandler<T> trackResponse(BodyHandler<T> delegate) {
+		return current().track(delegate);
+	}
+
+	public ApiCall bind() {
+		if (telemetry != null) {
+			CURRENT.set(this);
+		}
+		return this;
+	}
+
+	public void unbind() {
+		if (CURRENT.get() == this) {
+			CURRENT.remove();
+		}
+	}
+
+	public <T> BodyHandler<T> track(BodyHandler<T> delegate) {
+		if (telemetry == null) {
+			return delegate;
+		}
+		return responseInfo -> {
+			responseReceived(responseInfo.statusCode());
+			return delegate.apply(responseInfo);
+		};
+	}
+
+	/**
+	 * @return a body handler for streamed responses that records the arrival of
+	 *         the response headers.
+	 */
+	public BodyHandler<InputStream> trackInputStream() {
+		return track(BodyHandlers.ofInputStream());
+	}
+
+	/**
+	 * Records the arrival of the response headers. Error status codes mark the
+	 * call as failed.
+	 */
+	public synchronized void responseReceived(int statusCode) {
+		if (headersAt < 0) {
+			headersAt = clock.getAsLong();
+		}
+		if (statusCode >= 400) {
+			failed("HTTP " + statusCode);
+		}
+	}
+
+	/**
+	 * Records the arrival of the first generated token, later calls are ignored.
+	 */
+	public synchronized void firstToken() {
+		if (firstTokenAt < 0) {
+			firstTokenAt = clock.getAsLong();
+		}
+	}
+
+	/**
+	 * Records token counts. Negative values are ignored, so usage reported in
+	 * several parts (e.g. input tokens at the start and output tokens at the end
+	 * of a stream) is merged.
+	 */
+	public synchronized void usage(long inputTokens, long outputTokens, long cachedTokens) {
+		if (inputTokens >= 0) {
+			this.inputTokens = inputTokens;
+		}
+		if (outputTokens >= 0) {
+			this.outputTokens = outputTokens;
+		}
+		if (cachedTokens >= 0) {
+			this.cachedTokens = cachedTokens;
+		}
+	}
+
+	/**
+	 * Records the token usage contained in a response or stream chunk of any of
+	 * the supported APIs. Does nothing if it contains none.
+	 */
+	public void usage(JsonObject response) {
+		long[] tokens = extractUsage(response);
+		if (tokens != null) {
+			usage(tokens[0], tokens[1], tokens[2]);
+		}
+	}
+
+	/**
+	 * Records usage events of a decoded stream.
+	 */
+	public void onStreamEvent(StreamEvent event) {
+		if (event.getType() == StreamEvent.Type.USAGE) {
+			usage(event.getInputTokens(), event.getOutputTokens(), event.getCachedTokens());
+		}
+	}
+
+	public void failed(Throwable t) {
+		Throwable cause = t;
+		while (cause.getCause() != null && cause.getCause() != cause) {
+			cause = cause.getCause();
+		}
+		failed(StringUtils.defaultIfBlank(cause.getMessage(), cause.getClass().getSimpleName()));
+	}
+
+	/**
+	 * Marks the call as failed. Only the first error is kept.
+	 */
+	public synchronized void failed(String error) {
+		if (this.error == null) {
+			this.error = StringUtils.defaultIfBlank(error, "unknown error");
+		}
+	}
+
+	/**
+	 * Clears the error of an attempt that is retried, e.g. after HTTP 429.
+	 */
+	public synchronized void retrying() {
+		error = null;
+	}
+
+	/**
+	 * Finishes the call when the response to the chat is complete. The first
+	 * text, reasoning or tool call update of the response counts as first token.
+	 */
+	public void observe(ChatConversation chat) {
+		if (telemetry == null) {
+			return;
+		}
+		chat.addListener(new ChatListener() {
+			@Override
+			public void onMessageAdded(ChatMessage message, boolean updating) {
+				// The empty assistant message is added before the request is sent.
+			}
+
+			@Override
+			public void onMessageUpdated(ChatMessage message) {
+				if (StringUtils.isNotEmpty(message.getContent())
+						|| StringUtils.isNotEmpty(message.getThinkingContent())) {
+					firstToken();
+				}
+			}
+
+			@Override
+			public void onFunctionCall(ChatMessage message) {
+				firstToken();
+			}
+
+			@Override
+			public void onChatResponseFinished(ChatMessage message) {
+				chat.removeListener(this);
+				finish();
+			}
+		});
+	}
+
+	/**
+	 * Ends the measurement and records the call. Later calls are ignored.
+	 */
+	public void finish() {
+		ApiCallRecord record;
+		synchronized (this) {
+			if (finished || telemetry == null) {
+				return;
+			}
+			finished = true;
+			long end = clock.getAsLong();
+			long firstToken = firstTokenAt >= 0 ? firstTokenAt : error == null ? end : -1;
+			record = new ApiCallRecord(startedAt, connection, model, promptType, operation, relative(headersAt),
+					relative(firstToken), end - startedAt, inputTokens, outputTokens, cachedTokens, error);
+		}
+		telemetry.record(record);
+	}
+
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+
+	private long relative(long timestamp) {
+		return timestamp < 0 ? -1 : timestamp - startedAt;
+	}
+
+	/**
+	 * Extracts input, output and cached input tokens from the usage information
+	 * of the OpenAI (chat completions and responses), Anthropic, Gemini and Ollama
+	 * APIs.
+	 *
+	 * @return the three counts (-1 for missing ones), or null if the object
+	 *         contains no usage information.
+	 */
+	static long[] extractUsage(JsonObject response) {
+		if (response == null) {
+			return null;
+		}
+
+		JsonObject usage = null;
+		if (response.has("usage") && response.get("usage").isJsonObject()) {
+			usage = response.getAsJsonObject("usage");
+		} else if (response.has("usageMetadata") && response.get("usageMetadata").isJsonObject()) {
+			usage = response.getAsJsonObject("usageMetadata");
+		} else if (response.has("prompt_eval_count") || response.has("eval_count")) {
+			usage = response;
+		} else {
+			// Anthropic's message_start and the Responses API's response.completed event
+			// wrap the usage in the message/response object.
+			for (String wrapper : new String[] { "message", "response" }) {
+				if (response.has(wrapper) && response.get(wrapper).isJsonObject()) {
+					long[] res = extractUsage(response.getAsJsonObject(wrapper));
+					if (res != null) {
+						return res;
+					}
+				}
+			}
+			return null;
+		}
+
+		long input = firstLong(usage, "prompt_tokens", "input_tokens", "promptTokenCount", "prompt_eval_count");
+		long output = firstLong(usage, "completion_tokens", "output_tokens", "candidatesTokenCount", "eval_count");
+		long cached = firstLong(usage, "cache_read_input_tokens", "cachedContentTokenCount");
+		for (String details : new String[] { "prompt_tokens_details", "input_tokens_details" }) {
+			if (cached < 0 && usage.has(details) && usage.get(details).isJsonObject()) {
+				cached = firstLong(usage.getAsJsonObject(details), "cached_tokens");
+			}
+		}
+		return new long[] { input, output, cached };
+	}
+
+	private static long firstLong(JsonObject obj, String... names) {
+		for (String name : names) {
+			JsonElement value = obj.get(name);
+			if (value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber()) {
+				return value.getAsLong();
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,121 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import com.chabicht.code_intelligence.model.PromptType;
+
+/**
+ * Measurements of one finished model call. Durations are in milliseconds and
+ * relative to the start of the call, -1 means not measured / not reported by
+ * the provider.
+ */
+public class ApiCallRecord {
+	private final long startedAt;
+	private final String connection;
+	private final String model;
+	private final PromptType promptType;
+	private final String operation;
+	private final long headersMillis;
+	private final long firstTokenMillis;
+	private final long totalMillis;
+	private final long inputTokens;
+	private final long outputTokens;
+	private final long cachedTokens;
+	private final String error;
+
+	public ApiCallRecord(long startedAt, String connection, String model, PromptType promptType, String operation,
+			long headersMillis, long firstTokenMillis, long totalMillis, long inputTokens, long outputTokens,
+			long cachedTokens, String error) {
+		this.startedAt = startedAt;
+		this.connection = connection;
+		this.model = model;
+		this.promptType = promptType;
+		this.operation = operation;
+		this.headersMillis = headersMillis;
+		this.firstTokenMillis = firstTokenMillis;
+		this.totalMillis = totalMillis;
+		this.inputTokens = inputTokens;
+		this.outputTokens = outputTokens;
+		this.cachedTokens = cachedTokens;
+		this.error = error;
+	}
+
+	/**
+	 * @return the start of the call in milliseconds since the epoch.
+	 */
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	public String getConnection() {
+		return connection;
+	}
+
+	public String getModel() {
+		return model;
+	}
+
+	public PromptType getPromptType() {
+		return promptType;
+	}
+
+	/**
+	 * @return what the call was made for, e.g. "completion", "chat" or "caption".
+	 */
+	public String getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return the time until the response headers arrived. This includes
+	 *         connection setup and the time the provider needs to accept the
+	 *         request.
+	 */
+	public long getHeadersMillis() {
+		return headersMillis;
+	}
+
+	/**
+	 * @return the time until the first generated token (text, reasoning or tool
+	 *         call) arrived. For non-streaming calls this is the total time.
+	 */
+	public long getFirstTokenMillis() {
+		return firstTokenMillis;
+	}
+
+	public long getTotalMillis() {
+		return totalMillis;
+	}
+
+	public long getInputTokens() {
+		return inputTokens;
+	}
+
+	public long getOutputTokens() {
+		return outputTokens;
+	}
+
+	public long getCachedTokens() {
+		return cachedTokens;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public boolean isError() {
+		return error != null;
+	}
+
+	/**
+	 * @return output tokens per second of generation time (after the first
+	 *         token for streaming calls), -1 if unknown.
+	 */
+	public double getTokensPerSecond() {
+		if (outputTokens <= 0 || totalMillis <= 0) {
+			return -1;
+		}
+		long generationMillis = firstTokenMillis >= 0 && firstTokenMillis < totalMillis
+				? totalMillis - firstTokenMillis
+				: totalMillis;
+		return outputTokens * 1000d / generationMillis;
+	}
+}
@@ -0,0 +1,122 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import com.chabicht.code_intelligence.model.PromptType;
+
+/**
+ * Aggregated measurements of all calls to one model of a connection for one
+ * prompt type.
+ */
+public class ApiCallStats {
+	private final String connection;
+	private final String model;
+	private final PromptType promptType;
+
+	private final LatencyHistogram totalLatency = new LatencyHistogram();
+	private final LatencyHistogram firstTokenLatency = new LatencyHistogram();
+	private final LatencyHistogram headersLatency = new LatencyHistogram();
+
+	private long calls;
+	private long errors;
+	private long inputTokens;
+	private long outputTokens;
+	private long cachedTokens;
+	private double tokensPerSecondSum;
+	private long tokensPerSecondCount;
+	private String lastError;
+
+	ApiCallStats(String connection, String model, PromptType promptType) {
+		this.connection = connection;
+		this.model = model;
+		this.promptType = promptType;
+	}
+
+	static String key(String connection, String model, PromptType promptType) {
+		return connection + "/" + model + "/" + promptType;
+	}
+
+	synchronized void add(ApiCallRecord record) {
+		calls++;
+		if (record.isError()) {
+			errors++;
+			lastError = record.getError();
+			return;
+		}
+
+		totalLatency.record(record.getTotalMillis());
+		firstTokenLatency.record(record.getFirstTokenMillis());
+		headersLatency.record(record.getHeadersMillis());
+		inputTokens += Math.max(0, record.getInputTokens());
+		outputTokens += Math.max(0, record.getOutputTokens());
+		cachedTokens += Math.max(0, record.getCachedTokens());
+		double tokensPerSecond = record.getTokensPerSecond();
+		if (tokensPerSecond >= 0) {
+			tokensPerSecondSum += tokensPerSecond;
+			tokensPerSecondCount++;
+		}
+	}
+
+	public String getConnection() {
+		return connection;
+	}
+
+	public String getModel() {
+		return model;
+	}
+
+	public PromptType getPromptType() {
+		return promptType;
+	}
+
+	/**
+	 * @return latency of successful calls until the response was complete.
+	 */
+	public LatencyHistogram getTotalLatency() {
+		return totalLatency;
+	}
+
+	/**
+	 * @return latency of successful calls until the first token.
+	 */
+	public LatencyHistogram getFirstTokenLatency() {
+		return firstTokenLatency;
+	}
+
+	/**
+	 * @return latency of successful calls until the response headers arrived.
+	 */
+	public LatencyHistogram getHeadersLatency() {
+		return headersLatency;
+	}
+
+	public synchronized long getCalls() {
+		return calls;
+	}
+
+	public synchronized long getErrors() {
+		return errors;
+	}
+
+	public synchronized long getInputTokens() {
+		return inputTokens;
+	}
+
+	public synchronized long getOutputTokens() {
+		return outputTokens;
+	}
+
+	public synchronized long getCachedTokens() {
+		return cachedTokens;
+	}
+
+	/**
+	 * @return the mean generation speed of the calls that reported output
+	 *         tokens, -1 if none did.
+	 */
+	public synchronized double getMeanTokensPerSecond() {
+		return tokensPerSecondCount == 0 ? -1 : tokensPerSecondSum / tokensPerSecondCount;
+	}
+
+	public synchronized String getLastError() {
+		return lastError;
+	}
+}
@@ -0,0 +1,149 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.chabicht.code_intelligence.model.PromptType;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * In-memory store of the latency and token usage of model calls: the most
+ * recent calls and aggregated statistics per connection, model and prompt type.
+ * Nothing is persisted, the data can be exported as JSON.
+ */
+public class ApiCallTelemetry {
+	private static final int MAX_RECENT_CALLS = 1000;
+
+	private static ApiCallTelemetry INSTANCE = null;
+
+	private final int maxRecentCalls;
+	private final Deque<ApiCallRecord> recentCalls = new ArrayDeque<>();
+	private final Map<String, ApiCallStats> stats = new LinkedHashMap<>();
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+	ApiCallTelemetry(int maxRecentCalls) {
+		this.maxRecentCalls = maxRecentCalls;
+	}
+
+	public static synchronized ApiCallTelemetry getInstance() {
+		if (INSTANCE == null)
+			INSTANCE = new ApiCallTelemetry(MAX_RECENT_CALLS);
+		return INSTANCE;
+	}
+
+	/**
+	 * Starts measuring a call.
+	 *
+	 * @param operation what the call is made for, e.g. "completion".
+	 */
+	public ApiCall start(String connection, String model, PromptType promptType, String operation) {
+		return new ApiCall(this, System::currentTimeMillis, connection, model, promptType, operation);
+	}
+
+	void record(ApiCallRecord record) {
+		synchronized (this) {
+			recentCalls.addLast(record);
+			while (recentCalls.size() > maxRecentCalls) {
+				recentCalls.removeFirst();
+			}
+			stats.computeIfAbsent(ApiCallStats.key(record.getConnection(), record.getModel(), record.getPromptType()),
+					k -> new ApiCallStats(record.getConnection(), record.getModel(), record.getPromptType()))
+					.add(record);
+		}
+		fireChanged();
+	}
+
+	public synchronized List<ApiCallStats> getStats() {
+		return new ArrayList<>(stats.values());
+	}
+
+	/**
+	 * @return the most recent calls, oldest first.
+	 */
+	public synchronized List<ApiCallRecord> getRecentCalls() {
+		return new ArrayList<>(recentCalls);
+	}
+
+	public void reset() {
+		synchronized (this) {
+			recentCalls.clear();
+			stats.clear();
+		}
+		fireChanged();
+	}
+
+	/**
+	 * Adds a listener notified (in the thread of the finished call) whenever the
+	 * data changed.
+	 */
+	public void addListener(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+
+	private void fireChanged() {
+		for (Runnable listener : listeners) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * @return the statistics and the recent calls as pretty printed JSON.
+	 */
+	public String toJson() {
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		JsonObject res = new JsonObject();
+		res.addProperty("exportedAt", System.currentTimeMillis());
+
+		JsonArray statsArray = new JsonArray();
+		for (ApiCallStats s : getStats()) {
+			JsonObject o = new JsonObject();
+			o.addProperty("connection", s.getConnection());
+			o.addProperty("model", s.getModel());
+			o.addProperty("promptType", String.valueOf(s.getPromptType()));
+			o.addProperty("calls", s.getCalls());
+			o.addProperty("errors", s.getErrors());
+			o.addProperty("inputTokens", s.getInputTokens());
+			o.addProperty("outputTokens", s.getOutputTokens());
+			o.addProperty("cachedTokens", s.getCachedTokens());
+			o.addProperty("meanTokensPerSecond", s.getMeanTokensPerSecond());
+			o.add("totalLatency", toJson(s.getTotalLatency()));
+			o.add("firstTokenLatency", toJson(s.getFirstTokenLatency()));
+			o.add("headersLatency", toJson(s.getHeadersLatency()));
+			statsArray.add(o);
+		}
+		res.add("stats", statsArray);
+		res.add("calls", gson.toJsonTree(getRecentCalls()));
+		return gson.toJson(res);
+	}
+
+	private static JsonObject toJson(LatencyHistogram histogram) {
+		JsonObject res = new JsonObject();
+		res.addProperty("count", histogram.getCount());
+		res.addProperty("mean", histogram.getMean());
+		res.addProperty("p50", histogram.getPercentile(50));
+		res.addProperty("p90", histogram.getPercentile(90));
+		res.addProperty("p99", histogram.getPercentile(99));
+		res.addProperty("max", histogram.getMax());
+
+		JsonObject buckets = new JsonObject();
+		long[] bounds = LatencyHistogram.getBounds();
+		long[] counts = histogram.getCounts();
+		for (int i = 0; i < counts.length; i++) {
+			buckets.addProperty(i < bounds.length ? "<=" + bounds[i] : ">" + bounds[bounds.length - 1], counts[i]);
+		}
+		res.add("buckets", buckets);
+		return res;
+	}
+}
@@ -17,6 +17,14 @@ public class ConnectionFactory {
 	public static AiModelConnection forCompletions() {
 		String completionModelName = Activator.getDefault().getPreferenceStore()
 				.getString(PreferenceConstants.COMPLETION_MODEL_NAME);
+		return forCompletions(completionModelName);
+	}
+
+	/**
+	 * @param completionModelName configured model in the form
+	 *                            <code>connectionName/modelId</code>.
+	 */
+	public static AiModelConnection forCompletions(String completionModelName) {
 		Tuple<String, String> configuredModel = requireConfiguredModel(completionModelName, "completion");
 		String completionConnectionName = configuredModel.getFirst();
 		String modelName = configuredModel.getSecond();
@@ -49,6 +57,25 @@ public class ConnectionFactory {
 		throw new IllegalStateException("No connection found for chat model '" + chatModelId + "'. Check your preferences.");
 	}
 
+	/**
+	 * @param embeddingModelId configured model in the form
+	 *                         <code>connectionName/modelId</code>.
+	 */
+	public static AiModelConnection forEmbeddings(String embeddingModelId) {
+		Tuple<String, String> configuredModel = requireConfiguredModel(embeddingModelId, "embedding");
+		String connectionName = configuredModel.getFirst();
+		String modelName = configuredModel.getSecond();
+
+		for (AiApiConnection conn : getApis()) {
+			if (conn.getName().equals(connectionName)) {
+				return new AiModelConnection(conn, modelName);
+			}
+		}
+
+		throw new IllegalStateException(
+				"No connection found for embedding model '" + embeddingModelId + "'. Check your preferences.");
+	}
+
 	private static Tuple<String, String> requireConfiguredModel(String configuredModel, String fieldName) {
 		return ModelUtil.getProviderModelTuple(configuredModel)
 				.orElseThrow(() -> new IllegalStateException("Invalid " + fieldName + " model setting '"
@@ -0,0 +1,141 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the body of a streaming API response into events.
+ * <p>
+ * Two wire formats are supported:
+ * <ul>
+ * <li>{@link Format#SSE}: Server-sent events as used by OpenAI, Anthropic,
+ * Gemini and xAI. Fields of an event are collected until an empty line
+ * dispatches it, multiple <code>data:</code> lines are joined with a newline as
+ * required by the specification. Comment lines (starting with ':') are
+ * ignored.</li>
+ * <li>{@link Format#NDJSON}: Newline delimited JSON as used by Ollama. Every
+ * non-blank line is one event without a name.</li>
+ * </ul>
+ * The decoder reads directly from the response InputStream, so no intermediate
+ * line stream or list is created.
+ */
+public class EventStreamDecoder {
+
+	public enum Format {
+		SSE, NDJSON
+	}
+
+	@FunctionalInterface
+	public interface EventHandler {
+		/**
+		 * Called for each complete event.
+		 *
+		 * @param event the event name, empty if the event did not have one.
+		 * @param data  the event payload.
+		 */
+		void onEvent(String event, String data);
+	}
+
+	private static final String DONE_MARKER = "[DONE]";
+
+	private final Format format;
+
+	public EventStreamDecoder(Format format) {
+		this.format = format;
+	}
+
+	/**
+	 * Reads the stream until it ends and passes every event to the handler. The
+	 * OpenAI style <code>[DONE]</code> terminator is swallowed. The stream is
+	 * closed afterwards.
+	 */
+	public void decode(InputStream in, EventHandler handler) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			if (format == Format.NDJSON) {
+				decodeNdJson(reader, handler);
+			} else {
+				decodeSse(reader, handler);
+			}
+		}
+	}
+
+	private void decodeNdJson(BufferedReader reader, EventHandler handler) throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (!line.isBlank()) {
+				handler.onEvent("", line);
+			}
+		}
+	}
+
+	private void decodeSse(BufferedReader reader, EventHandler handler) throws IOException {
+		String eventName = "";
+		StringBuilder data = null;
+		boolean first = true;
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (first) {
+				// Ignore a leading byte order mark.
+				if (line.startsWith("\uFEFF")) {
+					line = line.substring(1);
+				}
+				first = false;
+			}
+
+			if (line.isEmpty()) {
+				dispatch(eventName, data, handler);
+				eventName = "";
+				data = null;
+				continue;
+			}
+			if (line.charAt(0) == ':') {
+				continue;
+			}
+
+			String field;
+			String value;
+			int colon = line.indexOf(':');
+			if (colon < 0) {
+				field = line;
+				value = "";
+			} else {
+				field = line.substring(0, colon);
+				int valueStart = colon + 1;
+				if (valueStart < line.length() && line.charAt(valueStart) == ' ') {
+					valueStart++;
+				}
+				value = line.substring(valueStart);
+			}
+
+			if ("data".equals(field)) {
+				if (data == null) {
+					data = new StringBuilder(value.length());
+				} else {
+					data.append('\n');
+				}
+				data.append(value);
+			} else if ("event".equals(field)) {
+				eventName = value.trim();
+			}
+			// "id" and "retry" are irrelevant for single requests.
+		}
+
+		// Some servers close the connection without a trailing empty line.
+		dispatch(eventName, data, handler);
+	}
+
+	private void dispatch(String eventName, StringBuilder data, EventHandler handler) {
+		if (data == null) {
+			return;
+		}
+		String payload = data.toString().trim();
+		if (payload.isEmpty() || DONE_MARKER.equals(payload)) {
+			return;
+		}
+		handler.onEvent(eventName, payload);
+	}
+}
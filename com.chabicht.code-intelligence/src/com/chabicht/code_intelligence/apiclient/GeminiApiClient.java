@@ -7,19 +7,19 @@ import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.T
 
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 
 import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.apiclient.EventStreamDecoder.Format;
 import com.chabicht.code_intelligence.chat.tools.ToolDefinitions;
 import com.chabicht.code_intelligence.chat.tools.ToolProfile;
 import com.chabicht.code_intelligence.model.ChatConversation;
@@ -42,7 +42,6 @@ import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 
 public class GeminiApiClient extends AbstractApiClient implements IAiApiClient {
-	private CompletableFuture<Void> asyncRequest;
 	private static final String BASE_URL = "https://generativelanguage.googleapis.com/v1beta/";
 
 	public GeminiApiClient(AiApiConnection apiConnection) {
@@ -93,7 +92,7 @@ public class GeminiApiClient extends AbstractApiClient implements IAiApiClient {
 			systemInstruction.add("parts", parts);
 			req.add("system_instruction", systemInstruction);
 		}
-		req.add("contents", createChatContentsArray(chat));
+		List<String> contentFragments = createChatContentFragments(chat);
 
 		JsonObject genConfig = getOrAddJsonObject(req, "generationConfig");
 		setPropertyIfNotPresent(genConfig, "temperature", 0.1);
@@ -117,24 +116,25 @@ public class GeminiApiClient extends AbstractApiClient implements IAiApiClient {
 				ChatConversation.Role.ASSISTANT, "");
 		chat.addMessage(assistantMessage, true);
 
-		String requestBody = gson.toJson(req);
-		HttpRequest request = buildHttpRequest(modelName + ":streamGenerateContent?alt=sse&", requestBody);
+		StreamingRequestBody requestBody = StreamingRequestBody.of(gson, req, "contents", contentFragments);
+		HttpRequest request = buildHttpRequest(modelName + ":streamGenerateContent?alt=sse&",
+				requestBody.toBodyPublisher());
 
 		AtomicBoolean responseFinished = new AtomicBoolean(false);
 		AtomicBoolean functionCallEventSent = new AtomicBoolean(false);
 		FunctionCallBatch functionCallBatch = new FunctionCallBatch();
-		asyncRequest = HttpClient.newHttpClient().sendAsync(request, HttpResponse.BodyHandlers.ofLines())
+		ApiCall call = ApiCall.current();
+		pendingChats.trackProcessing(chat, sendAsync(chat, assistantMessage, request, call.trackInputStream())
 				.thenAccept(response -> {
 					if (response.statusCode() >= 200 && response.statusCode() < 300) {
-						response.body().forEach(line -> {
-							if (responseFinished.get()) {
-								return;
-							}
-							// Activator.logInfo("Gemini: " + line);
-							if (line.startsWith("data: ")) {
-								String data = line.substring(6).trim();
+						try {
+							new EventStreamDecoder(Format.SSE).decode(response.body(), (event, data) -> {
+								if (responseFinished.get()) {
+									return;
+								}
 								try {
 									JsonObject jsonChunk = JsonParser.parseString(data).getAsJsonObject();
+									call.usage(jsonChunk);
 									JsonArray candidates = jsonChunk.getAsJsonArray("candidates");
 									if (candidates != null && !candidates.isEmpty()) {
 										JsonObject candidate = candidates.get(0).getAsJsonObject();
@@ -163,53 +163,44 @@ public class GeminiApiClient extends AbstractApiClient implements IAiApiClient {
 												}
 												chat.notifyChatResponseFinished(assistantMessage);
 												responseFinished.set(true);
-												asyncRequest = null;
 											}
 									}
 								} catch (Exception e) {
 									Activator.logError("Exception processing streaming chat chunk: " + data, e);
-									if (asyncRequest != null) {
-										if (!responseFinished.get()) {
-											if (assistantMessage.getThinkingContent() != null && !assistantMessage.isThinkingComplete()) {
-												assistantMessage.setThinkingComplete(true);
-											}
-											chat.notifyChatResponseFinished(assistantMessage);
-											responseFinished.set(true);
-										}
-										asyncRequest = null;
-									}
+									call.failed(e);
+									finishAfterError(chat, assistantMessage, responseFinished);
 								}
-							}
-						});
+							});
+						} catch (IOException e) {
+							Activator.logError("Exception while reading chat stream", e);
+							call.failed(e);
+							finishAfterError(chat, assistantMessage, responseFinished);
+						}
 					} else {
-						String body = response.body().collect(Collectors.joining("\n"));
+						String body = readErrorBody(response.body());
 						Activator.logError("Error " + response.statusCode() + " in API call:\n" + body
 								+ "\n\nRequest JSON:\n" + requestBody);
-						if (asyncRequest != null) {
-							if (!responseFinished.get()) {
-								if (assistantMessage.getThinkingContent() != null && !assistantMessage.isThinkingComplete()) {
-									assistantMessage.setThinkingComplete(true);
-								}
-								chat.notifyChatResponseFinished(assistantMessage);
-								responseFinished.set(true);
-							}
-							asyncRequest = null;
-						}
+						finishAfterError(chat, assistantMessage, responseFinished);
 					}
 				}).exceptionally(e -> {
 					Activator.logError("Exception during streaming chat request", e);
-					if (asyncRequest != null) {
-						if (!responseFinished.get()) {
-							if (assistantMessage.getThinkingContent() != null && !assistantMessage.isThinkingComplete()) {
-								assistantMessage.setThinkingComplete(true);
-							}
-							chat.notifyChatResponseFinished(assistantMessage);
-							responseFinished.set(true);
-						}
-						asyncRequest = null;
-					}
+					call.failed(e);
+					finishAfterError(chat, assistantMessage, responseFinished);
 					return null;
-				});
+				}));
+	}
+
+	private void finishAfterError(ChatConversation chat, ChatMessage assistantMessage,
+			AtomicBoolean responseFinished) {
+		if (pendingChats.isPending(chat)) {
+			if (!responseFinished.get()) {
+				if (assistantMessage.getThinkingContent() != null && !assistantMessage.isThinkingComplete()) {
+					assistantMessage.setThinkingComplete(true);
+				}
+				chat.notifyChatResponseFinished(assistantMessage);
+				responseFinished.set(true);
+			}
+		}
 	}
 
 	private String getSystemPrompt(ChatConversation chat) {
@@ -239,19 +230,6 @@ public class GeminiApiClient extends AbstractApiClient implements IAiApiClient {
 		return completion;
 	}
 
-	@Override
-	public synchronized boolean isChatPending() {
-		return asyncRequest != null;
-	}
-
-	@Override
-	public synchronized void abortChat() {
-		if (asyncRequest != null) {
-			asyncRequest.cancel(true);
-			asyncRequest = null;
-		}
-	}
-
 	private JsonArray createContentsArray(String text) {
 		JsonObject part = new JsonObject();
 		part.addProperty("text", text);
@@ -264,34 +242,44 @@ public class GeminiApiClient extends AbstractApiClient implements IAiApiClient {
 		return contents;
 	}
 
-	private JsonArray createChatContentsArray(ChatConversation chat) {
-		JsonArray messagesJson = new JsonArray();
-		for (ChatConversation.ChatMessage msg : chat.getMessages()) {
-			if (Role.SYSTEM.equals(msg.getRole())) {
-				continue;
-			}
-			// Skip TOOL_SUMMARY messages, they are for internal use only
-			if (Role.TOOL_SUMMARY.equals(msg.getRole())) {
-				continue;
+	/**
+	 * Encodes the messages of the conversation as JSON strings, reusing the
+	 * encodings of messages already sent in previous turns.
+	 */
+	private List<String> createChatContentFragments(ChatConversation chat) {
+		List<String> fragments = new ArrayList<>();
+		for (ChatConversation.ChatMessage msg : new ArrayList<>(chat.getMessages())) {
+			if (isContentMessage(msg)) {
+				fragments.addAll(messageFragments.encode(msg, this::encodeMessage));
 			}
+		}
+		return fragments;
+	}
 
-			JsonObject jsonMsg = createMessage(msg.getRole());
-			boolean hasBatchCalls = fillFunctionCallBatch(jsonMsg, msg);
-			if (!hasBatchCalls) {
-				fillTextMessage(jsonMsg, msg);
-			}
-			messagesJson.add(jsonMsg);
-
-			if (hasBatchCalls) {
-				FunctionCallBatch batch = msg.getFunctionCallBatch().get();
-				if (hasBatchResults(batch)) {
-					JsonObject resultUserMessage = createMessage(Role.USER);
-					fillFunctionResultsFromBatchItems(resultUserMessage, batch.getItems());
-					messagesJson.add(resultUserMessage);
-				}
+	private boolean isContentMessage(ChatMessage msg) {
+		// System messages go to system_instruction, TOOL_SUMMARY messages are for
+		// internal use only
+		return !Role.SYSTEM.equals(msg.getRole()) && !Role.TOOL_SUMMARY.equals(msg.getRole());
+	}
+
+	private JsonArray encodeMessage(ChatMessage msg) {
+		JsonArray res = new JsonArray();
+		JsonObject jsonMsg = createMessage(msg.getRole());
+		boolean hasBatchCalls = fillFunctionCallBatch(jsonMsg, msg);
+		if (!hasBatchCalls) {
+			fillTextMessage(jsonMsg, msg);
+		}
+		res.add(jsonMsg);
+
+		if (hasBatchCalls) {
+			FunctionCallBatch batch = msg.getFunctionCallBatch().get();
+			if (hasBatchResults(batch)) {
+				JsonObject resultUserMessage = createMessage(Role.USER);
+				fillFunctionResultsFromBatchItems(resultUserMessage, batch.getItems());
+				res.add(resultUserMessage);
 			}
 		}
-		return messagesJson;
+		return res;
 	}
 
 	private boolean fillFunctionCallBatch(JsonObject jsonMsg, ChatMessage msg) {
@@ -380,6 +368,8 @@ public class GeminiApiClient extends AbstractApiClient implements IAiApiClient {
 		JsonObject functionCallObj = new JsonObject();
 		functionCallObj.addProperty("id", fr.getId());
 		functionCallObj.addProperty("name", fr.getFunctionName());
+		// The response has to be an object, so the result is sent as JSON even if the
+		// connection prefers plain text tool results.
 		functionCallObj.add("response", parseJsonObjectOrEmpty(fr.getResultJson()));
 		JsonObject partObj = new JsonObject();
 		partObj.add("functionResponse", functionCallObj);
@@ -535,20 +525,33 @@ public class GeminiApiClient extends AbstractApiClient implements IAiApiClient {
 		return jsonMsg;
 	}
 
+	/**
+	 * @return the base URI of the connection, the public API if none is set.
+	 */
+	private String getBaseUrl() {
+		if (StringUtils.isBlank(apiConnection.getBaseUri())) {
+			return BASE_URL;
+		}
+		return StringUtils.appendIfMissing(apiConnection.getBaseUri(), "/");
+	}
+
 	private HttpRequest buildHttpRequest(String relPath, String body) {
+		return buildHttpRequest(relPath, HttpRequest.BodyPublishers.ofString(body));
+	}
+
+	private HttpRequest buildHttpRequest(String relPath, HttpRequest.BodyPublisher body) {
 		String separator = relPath.endsWith("&") ? "" : "?";
 		return HttpRequest.newBuilder()
-				.uri(URI.create(BASE_URL + relPath + separator + "key=" + apiConnection.getApiKey()))
-				.header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(body)).build();
+				.uri(URI.create(getBaseUrl() + relPath + separator + "key=" + apiConnection.getApiKey()))
+				.header("Content-Type", "application/json").POST(body).build();
 	}
 
 	@SuppressWarnings("unchecked")
 	private <T extends JsonElement> T performGet(Class<T> clazz, String relPath) {
 		try {
 			HttpRequest request = HttpRequest.newBuilder()
-					.uri(URI.create(BASE_URL + relPath + "?key=" + apiConnection.getApiKey())).GET().build();
-			HttpResponse<String> response = HttpClient.newHttpClient().send(request,
-					HttpResponse.BodyHandlers.ofString());
+					.uri(URI.create(getBaseUrl() + relPath + "?key=" + apiConnection.getApiKey())).GET().build();
+			HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
 			return (T) JsonParser.parseString(response.body());
 		} catch (IOException | InterruptedException e) {
 			throw new RuntimeException(e);
@@ -560,9 +563,12 @@ public class GeminiApiClient extends AbstractApiClient implements IAiApiClient {
 			U requestBody) {
 		try {
 			HttpRequest request = buildHttpRequest(relPath, gson.toJson(requestBody));
-			HttpResponse<String> response = HttpClient.newHttpClient().send(request,
-					HttpResponse.BodyHandlers.ofString());
-			return (T) JsonParser.parseString(response.body());
+			HttpResponse<String> response = send(request, ApiCall.trackResponse(HttpResponse.BodyHandlers.ofString()));
+			JsonElement res = JsonParser.parseString(response.body());
+			if (res.isJsonObject()) {
+				ApiCall.current().usage(res.getAsJsonObject());
+			}
+			return (T) res;
 		} catch (IOException | InterruptedException e) {
 			throw new RuntimeException(e);
 		}
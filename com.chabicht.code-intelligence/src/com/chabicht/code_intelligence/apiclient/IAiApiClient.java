@@ -45,12 +45,41 @@ public interface IAiApiClient {
 	 */
 	void performChat(String modelName, ChatConversation chat, int maxResponseTokens);
 
+	/**
+	 * Aborts the pending chat requests of all conversations.
+	 */
 	void abortChat();
 
+	/**
+	 * Aborts the pending chat request of the conversation, requests of other
+	 * conversations continue.
+	 */
+	default void abortChat(ChatConversation chat) {
+		abortChat();
+	}
+
+	/**
+	 * @return true if a chat request of any conversation is pending.
+	 */
 	boolean isChatPending();
 
+	default boolean isChatPending(ChatConversation chat) {
+		return isChatPending();
+	}
+
 	/**
 	 * Creates a short caption for e.g. a conversation.
 	 */
 	String caption(String modelName, String content);
+
+	/**
+	 * Computes the embedding vectors of the given texts with an embedding model.
+	 *
+	 * @return one vector per text, in the order of the texts.
+	 * @throws UnsupportedOperationException if the API doesn't provide
+	 *                                       embeddings.
+	 */
+	default List<float[]> embed(String modelName, List<String> texts) {
+		throw new UnsupportedOperationException("Embeddings are not supported by " + getClass().getSimpleName());
+	}
 }
@@ -0,0 +1,82 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of durations with fixed, roughly logarithmic bucket bounds.
+ * <p>
+ * Percentiles are approximated by the upper bound of the bucket that contains
+ * the requested rank, which is precise enough to compare providers.
+ */
+public class LatencyHistogram {
+	/** Upper bounds (inclusive) of the buckets in milliseconds. */
+	static final long[] BOUNDS_MS = { 50, 100, 200, 300, 500, 750, 1000, 1500, 2000, 3000, 5000, 10000, 20000,
+			30000, 60000, 120000 };
+
+	/** One count per bound plus one for everything above the last bound. */
+	private final long[] counts = new long[BOUNDS_MS.length + 1];
+	private long count;
+	private long sum;
+	private long max;
+
+	public synchronized void record(long millis) {
+		if (millis < 0) {
+			return;
+		}
+		int bucket = Arrays.binarySearch(BOUNDS_MS, millis);
+		if (bucket < 0) {
+			bucket = -bucket - 1;
+		}
+		counts[bucket]++;
+		count++;
+		sum += millis;
+		max = Math.max(max, millis);
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean in milliseconds, -1 if nothing was recorded.
+	 */
+	public synchronized long getMean() {
+		return count == 0 ? -1 : Math.round((double) sum / count);
+	}
+
+	public synchronized long getMax() {
+		return count == 0 ? -1 : max;
+	}
+
+	/**
+	 * @param percentile between 0 and 100.
+	 * @return the upper bound of the bucket containing the percentile, the
+	 *         maximum for the overflow bucket, -1 if nothing was recorded.
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if (count == 0) {
+			return -1;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100d * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return i < BOUNDS_MS.length ? Math.min(BOUNDS_MS[i], max) : max;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * @return a copy of the bucket counts, the last element counts durations
+	 *         above the last bound of {@link #getBounds()}.
+	 */
+	public synchronized long[] getCounts() {
+		return counts.clone();
+	}
+
+	public static long[] getBounds() {
+		return BOUNDS_MS.clone();
+	}
+}
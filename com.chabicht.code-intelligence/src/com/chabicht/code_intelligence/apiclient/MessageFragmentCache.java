@@ -0,0 +1,103 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+/**
+ * Cache for the provider specific JSON encoding of chat messages.
+ * <p>
+ * Each API client owns one instance, so the cached fragments are always in the
+ * wire format of that provider. A chat message may be encoded into several
+ * JSON elements (e.g. an assistant message followed by one tool result message
+ * per function call), hence a list of fragments is stored per message.
+ * <p>
+ * Entries are keyed by the message id and validated with the
+ * {@link ChatMessage#getVersion() version} of the message and the number of its
+ * context entries. Messages of earlier turns do not change anymore, so only the
+ * newest messages of a conversation have to be encoded again for every request.
+ */
+public class MessageFragmentCache {
+	private static final int MAX_ENTRIES = 1024;
+
+	private final Gson gson;
+	private final Map<UUID, Entry> entries = new LinkedHashMap<>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	public MessageFragmentCache(Gson gson) {
+		this.gson = gson;
+	}
+
+	/**
+	 * Returns the encoded JSON fragments for the given message, using the cached
+	 * ones if the message did not change since it was last encoded.
+	 *
+	 * @param message the message to encode.
+	 * @param encoder creates the provider specific JSON elements for the message.
+	 * @return the JSON strings of the elements created by the encoder.
+	 */
+	public List<String> encode(ChatMessage message, Function<ChatMessage, JsonArray> encoder) {
+		// Taken before encoding, a message changing meanwhile is encoded again next
+		// time.
+		long version = message.getVersion();
+		int contextSize = message.getContext().size();
+		synchronized (entries) {
+			Entry entry = entries.get(message.getId());
+			if (entry != null && entry.version == version && entry.contextSize == contextSize) {
+				return entry.fragments;
+			}
+		}
+
+		List<String> fragments = encodeUncached(message, encoder);
+		synchronized (entries) {
+			entries.put(message.getId(), new Entry(version, contextSize, fragments));
+		}
+		return fragments;
+	}
+
+	/**
+	 * Encodes the message without consulting or updating the cache. Used for
+	 * messages whose encoding depends on their position in the conversation.
+	 */
+	public List<String> encodeUncached(ChatMessage message, Function<ChatMessage, JsonArray> encoder) {
+		JsonArray elements = encoder.apply(message);
+		List<String> fragments = new ArrayList<>(elements.size());
+		for (JsonElement element : elements) {
+			fragments.add(gson.toJson(element));
+		}
+		return Collections.unmodifiableList(fragments);
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	private static class Entry {
+		private final long version;
+		private final int contextSize;
+		private final List<String> fragments;
+
+		private Entry(long version, int contextSize, List<String> fragments) {
+			this.version = version;
+			this.contextSize = contextSize;
+			this.fragments = fragments;
+		}
+	}
+}
@@ -5,9 +5,8 @@ import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.T
 import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.TOOL_PROFILE;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpClient.Redirect;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
@@ -24,6 +23,7 @@ import java.util.stream.Collectors;
 import org.apache.commons.lang3.StringUtils;
 
 import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.apiclient.EventStreamDecoder.Format;
 import com.chabicht.code_intelligence.chat.ChatSettings;
 import com.chabicht.code_intelligence.chat.ChatSettings.ReasoningControlMode;
 import com.chabicht.code_intelligence.chat.ChatSettings.ReasoningEffort;
@@ -55,7 +55,6 @@ public class OllamaApiClient extends AbstractApiClient implements IAiApiClient {
 	private static final String CHAT = "chat";
 	private static final int[] MIN_THINKING_API_VERSION = new int[] { 0, 9, 0 };
 
-	private CompletableFuture<Void> asyncRequest;
 	private volatile Boolean thinkingRequestSupported;
 	private final Map<String, Boolean> modelThinkingSupport = new ConcurrentHashMap<>();
 
@@ -91,11 +90,9 @@ public class OllamaApiClient extends AbstractApiClient implements IAiApiClient {
 		int statusCode = -1;
 		String responseBody = "(nothing)";
 		try {
-			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-					.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 			HttpRequest request = createRequestBuilder(relPath).GET().build();
 
-			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
 
 			statusCode = response.statusCode();
 			responseBody = response.body();
@@ -113,12 +110,10 @@ public class OllamaApiClient extends AbstractApiClient implements IAiApiClient {
 		String responseBody = "(nothing)";
 		String requestBodyString = gson.toJson(requestBodyJson);
 		try {
-			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-					.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 			HttpRequest request = createRequestBuilder(relPath).POST(HttpRequest.BodyPublishers.ofString(requestBodyString))
 					.header("Content-Type", "application/json").build();
 
-			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			HttpResponse<String> response = send(request, ApiCall.trackResponse(HttpResponse.BodyHandlers.ofString()));
 
 			statusCode = response.statusCode();
 			responseBody = response.body();
@@ -126,7 +121,11 @@ public class OllamaApiClient extends AbstractApiClient implements IAiApiClient {
 				throw new RuntimeException(
 						String.format("API request failed with code %s:\n%s", statusCode, responseBody));
 			}
-			return (T) JsonParser.parseString(responseBody);
+			JsonElement res = JsonParser.parseString(responseBody);
+			if (res.isJsonObject()) {
+				ApiCall.current().usage(res.getAsJsonObject());
+			}
+			return (T) res;
 		} catch (JsonSyntaxException | IOException | InterruptedException e) {
 			throw new RuntimeException(
 					String.format("Error during API request:\nURI: %s\nStatus code: %d\nRequest: %s\nResponse: %s",
@@ -183,7 +182,7 @@ public class OllamaApiClient extends AbstractApiClient implements IAiApiClient {
 	 */
 	@Override
 	public void performChat(String modelName, ChatConversation chat, int maxResponseTokens) {
-		JsonArray messagesJson = buildMessagesJson(chat);
+		List<String> messageFragments = buildMessageFragments(chat);
 
 		JsonObject req = createFromPresets(PromptType.CHAT);
 		req.addProperty("model", modelName);
@@ -195,95 +194,59 @@ public class OllamaApiClient extends AbstractApiClient implements IAiApiClient {
 			ToolProfile profile = (ToolProfile) chatOptions.getOrDefault(TOOL_PROFILE, ToolProfile.ALL);
 			patchMissingProperties(req, ToolDefinitions.getInstance().getToolDefinitionsOllama(profile));
 		}
-		req.add("messages", messagesJson);
 
 		JsonObject options = getOrAddJsonObject(req, "options");
 		// setPropertyIfNotPresent(options, NUM_CTX, DEFAULT_CONTEXT_SIZE);
 		setPropertyIfNotPresent(options, "num_predict", maxResponseTokens);
+		StreamingRequestBody requestBody = StreamingRequestBody.of(gson, req, "messages", messageFragments);
 
 		ChatConversation.ChatMessage assistantMessage = new ChatConversation.ChatMessage(
 				ChatConversation.Role.ASSISTANT, "");
 		chat.addMessage(assistantMessage, true);
 
-		String requestBody = gson.toJson(req);
-		// Activator.logInfo("Client: " + requestBody);
-		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-				.connectTimeout(Duration.ofSeconds(5)).followRedirects(HttpClient.Redirect.ALWAYS).build();
-		HttpRequest request = createRequestBuilder("api/chat").POST(HttpRequest.BodyPublishers.ofString(requestBody))
+		HttpRequest request = createRequestBuilder("api/chat").POST(requestBody.toBodyPublisher())
 				.header("Content-Type", "application/json").build();
 
 		final AtomicBoolean responseFinished = new AtomicBoolean(false);
 		final Map<Integer, FunctionCall> pendingToolCalls = new TreeMap<>();
+		ApiCall call = ApiCall.current();
 
-		asyncRequest = client.sendAsync(request, HttpResponse.BodyHandlers.ofLines()).thenAccept(response -> {
+		CompletableFuture<HttpResponse<InputStream>> sent = sendAsync(chat, assistantMessage, request,
+				call.trackInputStream());
+		pendingChats.trackProcessing(chat, sent.thenAccept(response -> {
 			try {
 				if (response.statusCode() >= 200 && response.statusCode() < 300) {
-					response.body().forEach(line -> {
-						if (line != null && !line.trim().isEmpty()) {
-							try {
-								// Activator.logInfo("Ollama: " + line);
-								JsonObject jsonChunk = JsonParser.parseString(line).getAsJsonObject();
-								if (jsonChunk.has("message")) {
-									JsonObject messageObj = jsonChunk.getAsJsonObject("message");
-
-									// Handle tool_calls
-									if (messageObj.has("tool_calls")) {
-										mergeToolCalls(messageObj.getAsJsonArray("tool_calls"), pendingToolCalls,
-												assistantMessage);
-									}
-
-									// Handle thinking content
-									if (messageObj.has("thinking")
-											&& !StringUtils.isEmpty(messageObj.get("thinking").getAsString())) {
-										String thinking = messageObj.get("thinking").getAsString();
-										assistantMessage
-												.setThinkingContent((assistantMessage.getThinkingContent() == null ? ""
-														: assistantMessage.getThinkingContent()) + thinking);
-										chat.notifyMessageUpdated(assistantMessage);
-									}
-
-									// Handle content
-									if (messageObj.has("content")
-											&& !StringUtils.isEmpty(messageObj.get("content").getAsString())) {
-										if (assistantMessage.getThinkingContent() != null && !assistantMessage.isThinkingComplete()) {
-											assistantMessage.setThinkingComplete(true);
-										}
-										String chunk = messageObj.get("content").getAsString();
-										assistantMessage.setContent(assistantMessage.getContent() + chunk);
-
-										chat.notifyMessageUpdated(assistantMessage);
-									}
-								}
-								if (jsonChunk.has("done") && jsonChunk.get("done").getAsBoolean()) {
-									finalizeAssistantMessage(assistantMessage, chat, responseFinished);
-									return; // End of stream for this line processor
-								}
-							} catch (JsonSyntaxException e) {
-								Activator.logError("Error parsing stream chunk: " + line, e);
-								finalizeAssistantMessage(assistantMessage, chat, responseFinished);
-								asyncRequest = null;
-							}
+					new EventStreamDecoder(Format.NDJSON).decode(response.body(), (event, line) -> {
+						try {
+							StreamDeltaParser.parseOllamaChunk(line, delta -> {
+								call.onStreamEvent(delta);
+								handleStreamEvent(delta, pendingToolCalls, assistantMessage, chat, responseFinished);
+							});
+						} catch (IOException | IllegalStateException e) {
+							Activator.logError("Error parsing stream chunk: " + line, e);
+							finalizeAssistantMessage(assistantMessage, chat, responseFinished);
 						}
 					});
 				} else {
 					Activator.logError("Streaming chat failed with status: " + response.statusCode()
-							+ "\nResponse body: " + response.body().collect(Collectors.joining("\n")), null);
+							+ "\nResponse body: " + readErrorBody(response.body()), null);
 					finalizeAssistantMessage(assistantMessage, chat, responseFinished);
-					asyncRequest = null;
 				}
+			} catch (IOException e) {
+				Activator.logError("Exception while reading chat stream", e);
+				call.failed(e);
 			} finally {
 				finalizeAssistantMessage(assistantMessage, chat, responseFinished);
-				asyncRequest = null;
 			}
 		}).exceptionally(e -> {
 			Activator.logError("Exception during streaming chat", e);
+			call.failed(e);
 			// Ensure assistant message is finalized in case of error before stream
 			// completion
 			finalizeAssistantMessage(assistantMessage, chat, responseFinished);
-			asyncRequest = null;
 			return null;
 
-		});
+		}));
 	}
 
 	private void applyReasoningEffort(JsonObject req, String modelName, Map<ChatOption, Object> options) {
@@ -421,36 +384,44 @@ public class OllamaApiClient extends AbstractApiClient implements IAiApiClient {
 	}
 
 	@Override
-	public synchronized boolean isChatPending() {
-		return asyncRequest != null;
-	}
+	public List<float[]> embed(String modelName, List<String> texts) {
+		JsonObject req = new JsonObject();
+		req.addProperty("model", modelName);
+		JsonArray input = new JsonArray();
+		texts.forEach(input::add);
+		req.add("input", input);
 
-	@Override
-	public synchronized void abortChat() {
-		if (asyncRequest != null) {
-			asyncRequest.cancel(true);
-			asyncRequest = null;
+		JsonObject res = performPost(JsonObject.class, "api/embed", req);
+		List<float[]> vectors = new ArrayList<>();
+		for (JsonElement embedding : res.getAsJsonArray("embeddings")) {
+			vectors.add(toFloatArray(embedding.getAsJsonArray()));
 		}
+		return vectors;
 	}
 
-	private JsonArray buildMessagesJson(ChatConversation chat) {
-		JsonArray messagesJson = new JsonArray();
+	private List<String> buildMessageFragments(ChatConversation chat) {
+		List<String> fragments = new ArrayList<>();
 		for (ChatMessage message : new ArrayList<>(chat.getMessages())) {
 			if (Role.TOOL_SUMMARY.equals(message.getRole())) {
 				continue;
 			}
+			fragments.addAll(messageFragments.encode(message, this::encodeMessage));
+		}
+		return fragments;
+	}
 
-			JsonObject jsonMsg = new JsonObject();
-			jsonMsg.addProperty("role", message.getRole().toString().toLowerCase());
-			jsonMsg.addProperty("content", compileMessageContent(message));
-			if (StringUtils.isNotBlank(message.getThinkingContent())) {
-				jsonMsg.addProperty("thinking", message.getThinkingContent());
-			}
-			appendAssistantToolCalls(jsonMsg, message);
-			messagesJson.add(jsonMsg);
-			appendToolResultMessages(messagesJson, message);
+	private JsonArray encodeMessage(ChatMessage message) {
+		JsonArray res = new JsonArray();
+		JsonObject jsonMsg = new JsonObject();
+		jsonMsg.addProperty("role", message.getRole().toString().toLowerCase());
+		jsonMsg.addProperty("content", compileMessageContent(message));
+		if (StringUtils.isNotBlank(message.getThinkingContent())) {
+			jsonMsg.addProperty("thinking", message.getThinkingContent());
 		}
-		return messagesJson;
+		appendAssistantToolCalls(jsonMsg, message);
+		res.add(jsonMsg);
+		appendToolResultMessages(res, message);
+		return res;
 	}
 
 	private String compileMessageContent(ChatMessage message) {
@@ -524,106 +495,75 @@ public class OllamaApiClient extends AbstractApiClient implements IAiApiClient {
 	private JsonObject buildToolResultMessage(FunctionResult functionResult) {
 		JsonObject toolResultMsgJson = new JsonObject();
 		toolResultMsgJson.addProperty("role", "tool");
-		toolResultMsgJson.addProperty("content", StringUtils.defaultString(functionResult.getResultJson()));
+		toolResultMsgJson.addProperty("content", StringUtils.defaultString(toolResultContent(functionResult)));
 		toolResultMsgJson.addProperty("tool_name", functionResult.getFunctionName());
 		return toolResultMsgJson;
 	}
 
-	private void mergeToolCalls(JsonArray toolCallsArray, Map<Integer, FunctionCall> pendingToolCalls,
-			ChatMessage assistantMessage) {
-		if (toolCallsArray == null || toolCallsArray.isEmpty()) {
-			return;
-		}
-
-		for (int i = 0; i < toolCallsArray.size(); i++) {
-			JsonElement toolCallElement = toolCallsArray.get(i);
-			if (!toolCallElement.isJsonObject()) {
-				continue;
+	private void handleStreamEvent(StreamEvent event, Map<Integer, FunctionCall> pendingToolCalls,
+			ChatMessage assistantMessage, ChatConversation chat, AtomicBoolean responseFinished) {
+		switch (event.getType()) {
+		case TOOL_CALL_DELTA:
+			mergeToolCall(event, pendingToolCalls, assistantMessage);
+			break;
+		case REASONING_DELTA:
+			if (StringUtils.isNotEmpty(event.getText())) {
+				assistantMessage.setThinkingContent(
+						StringUtils.defaultString(assistantMessage.getThinkingContent()) + event.getText());
+				chat.notifyMessageUpdated(assistantMessage);
 			}
-
-			JsonObject toolCallObj = toolCallElement.getAsJsonObject();
-			FunctionCall functionCall = parseToolCall(toolCallObj);
-			if (functionCall == null) {
-				continue;
+			break;
+		case TEXT_DELTA:
+			if (StringUtils.isNotEmpty(event.getText())) {
+				if (assistantMessage.getThinkingContent() != null && !assistantMessage.isThinkingComplete()) {
+					assistantMessage.setThinkingComplete(true);
+				}
+				assistantMessage.setContent(assistantMessage.getContent() + event.getText());
+				chat.notifyMessageUpdated(assistantMessage);
 			}
-
-			pendingToolCalls.put(extractToolCallIndex(toolCallObj, i), functionCall);
-		}
-
-		if (pendingToolCalls.isEmpty()) {
-			return;
-		}
-
-		FunctionCallBatch batch = new FunctionCallBatch();
-		for (FunctionCall functionCall : pendingToolCalls.values()) {
-			batch.addCall(functionCall);
-		}
-		if (batch.getItems().isEmpty()) {
-			return;
+			break;
+		case FINISH:
+			finalizeAssistantMessage(assistantMessage, chat, responseFinished);
+			break;
+		default:
+			break;
 		}
-
-		assistantMessage.setFunctionCallBatch(batch);
 	}
 
-	private FunctionCall parseToolCall(JsonObject toolCallObj) {
-		if (toolCallObj == null || !toolCallObj.has("function") || !toolCallObj.get("function").isJsonObject()) {
-			return null;
-		}
-
-		JsonObject functionDetails = toolCallObj.getAsJsonObject("function");
-		if (!functionDetails.has("name") || functionDetails.get("name").isJsonNull()) {
-			return null;
-		}
-
-		String functionName = functionDetails.get("name").getAsString();
-		if (StringUtils.isBlank(functionName)) {
-			return null;
+	/**
+	 * Ollama sends tool calls complete, so every call replaces the pending call
+	 * with the same index and the batch of the assistant message is rebuilt.
+	 */
+	private void mergeToolCall(StreamEvent event, Map<Integer, FunctionCall> pendingToolCalls,
+			ChatMessage assistantMessage) {
+		if (StringUtils.isBlank(event.getToolName())) {
+			return;
 		}
 
-		String callId = null;
-		if (toolCallObj.has("id") && !toolCallObj.get("id").isJsonNull()) {
-			callId = toolCallObj.get("id").getAsString();
-		}
+		String callId = event.getToolCallId();
 		if (StringUtils.isBlank(callId)) {
 			callId = UUID.randomUUID().toString();
 		}
+		pendingToolCalls.put(event.getIndex(),
+				new FunctionCall(callId, event.getToolName(), buildArgumentsJson(event.getArguments())));
 
-		JsonElement argumentsElement = functionDetails.get("arguments");
-		String argsJsonString = buildArgumentsJson(argumentsElement);
-		return new FunctionCall(callId, functionName, argsJsonString);
-	}
-
-	private int extractToolCallIndex(JsonObject toolCallObj, int defaultIndex) {
-		if (toolCallObj != null && toolCallObj.has("function") && toolCallObj.get("function").isJsonObject()) {
-			JsonObject functionDetails = toolCallObj.getAsJsonObject("function");
-			if (functionDetails.has("index") && !functionDetails.get("index").isJsonNull()) {
-				try {
-					return functionDetails.get("index").getAsInt();
-				} catch (Exception e) {
-					Activator.logError("Invalid Ollama tool_call index: " + functionDetails.get("index"), e);
-				}
-			}
+		FunctionCallBatch batch = new FunctionCallBatch();
+		for (FunctionCall functionCall : pendingToolCalls.values()) {
+			batch.addCall(functionCall);
 		}
-		return defaultIndex;
+		assistantMessage.setFunctionCallBatch(batch);
 	}
 
-	private String buildArgumentsJson(JsonElement argumentsElement) {
-		if (argumentsElement == null || argumentsElement.isJsonNull()) {
+	private String buildArgumentsJson(String serializedArguments) {
+		if (StringUtils.isBlank(serializedArguments)) {
 			return "{}";
 		}
-		if (argumentsElement.isJsonPrimitive() && argumentsElement.getAsJsonPrimitive().isString()) {
-			String serializedArguments = argumentsElement.getAsString();
-			if (StringUtils.isBlank(serializedArguments)) {
-				return "{}";
-			}
-			try {
-				return gson.toJson(JsonParser.parseString(serializedArguments));
-			} catch (Exception e) {
-				Activator.logError("Failed to parse Ollama tool arguments: " + serializedArguments, e);
-				return "{}";
-			}
+		try {
+			return gson.toJson(JsonParser.parseString(serializedArguments));
+		} catch (Exception e) {
+			Activator.logError("Failed to parse Ollama tool arguments: " + serializedArguments, e);
+			return "{}";
 		}
-		return gson.toJson(argumentsElement);
 	}
 
 	private JsonElement parseJsonElementOrEmptyObject(String json) {
@@ -5,13 +5,13 @@ import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.T
 import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.TOOL_PROFILE;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpClient.Redirect;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -22,6 +22,7 @@ import java.util.stream.Collectors;
 import org.apache.commons.lang3.StringUtils;
 
 import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.apiclient.EventStreamDecoder.Format;
 import com.chabicht.code_intelligence.chat.ChatSettings.ReasoningEffort;
 import com.chabicht.code_intelligence.chat.tools.ToolDefinitions;
 import com.chabicht.code_intelligence.chat.tools.ToolProfile;
@@ -50,8 +51,6 @@ import com.google.gson.JsonSyntaxException;
  */
 public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 
-	private CompletableFuture<Void> asyncRequest;
-
 	public OpenAiApiClient(AiApiConnection apiConnection) {
 		super(apiConnection);
 	}
@@ -75,8 +74,6 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 		int statusCode = -1;
 		String responseBody = "(nothing)";
 		try {
-			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-					.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 			HttpRequest.Builder requestBuilder = HttpRequest.newBuilder().timeout(Duration.ofMinutes(10))
 					.uri(URI.create(apiConnection.getBaseUri() + "/").resolve(relPath)).GET();
 			if (StringUtils.isNotBlank(apiConnection.getApiKey())) {
@@ -84,7 +81,7 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 			}
 			HttpRequest request = requestBuilder.build();
 
-			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
 			statusCode = response.statusCode();
 			responseBody = response.body();
 			return (T) JsonParser.parseString(responseBody);
@@ -108,8 +105,6 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 		String requestBodyString = "(nothing)";
 		try {
 			requestBodyString = gson.toJson(requestBody);
-			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-					.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 			HttpRequest.Builder requestBuilder = HttpRequest.newBuilder().timeout(Duration.ofMinutes(10))
 					.uri(URI.create(apiConnection.getBaseUri() + "/").resolve(relPath))
 					.POST(HttpRequest.BodyPublishers.ofString(requestBodyString));
@@ -119,7 +114,7 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 			}
 			HttpRequest request = requestBuilder.build();
 
-			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			HttpResponse<String> response = send(request, ApiCall.trackResponse(HttpResponse.BodyHandlers.ofString()));
 			statusCode = response.statusCode();
 			responseBody = response.body();
 
@@ -127,7 +122,11 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 				throw new RuntimeException(
 						String.format("API request failed with code %s:\n%s", statusCode, responseBody));
 			}
-			return (T) JsonParser.parseString(responseBody);
+			JsonElement res = JsonParser.parseString(responseBody);
+			if (res.isJsonObject()) {
+				ApiCall.current().usage(res.getAsJsonObject());
+			}
+			return (T) res;
 		} catch (JsonSyntaxException | IOException | InterruptedException e) {
 			Activator.logError(String.format("""
 					Error during API request:
@@ -190,7 +189,7 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 	 */
 	@Override
 	public void performChat(String modelName, ChatConversation chat, int maxResponseTokens) {
-		JsonArray messagesJson = buildMessagesJson(chat);
+		List<String> messageFragments = buildMessageFragments(chat);
 
 		// Create the JSON request object.
 		JsonObject req = createFromPresets(PromptType.CHAT);
@@ -200,6 +199,7 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 			req.addProperty("max_completion_tokens", maxResponseTokens);
 		}
 		req.addProperty("stream", true);
+		addStreamUsageOption(req);
 
 		Map<ChatOption, Object> options = chat.getOptions();
 		applyReasoningEffort(req, options);
@@ -217,7 +217,7 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 				patchMissingProperties(req, toolDefinitionsOpenAi);
 			}
 		}
-		req.add("messages", messagesJson);
+		StreamingRequestBody requestBody = StreamingRequestBody.of(gson, req, "messages", messageFragments);
 
 		// Add a new (empty) assistant message to the conversation.
 		// This is the message that will be updated as new text is streamed in.
@@ -226,13 +226,9 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 		chat.addMessage(assistantMessage, true);
 
 		// Prepare the HTTP request.
-		String requestBody = gson.toJson(req);
-		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-				.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
-
 		HttpRequest.Builder requestBuilder = HttpRequest.newBuilder().timeout(Duration.ofMinutes(10))
 				.uri(URI.create(apiConnection.getBaseUri() + "/").resolve("chat/completions"))
-				.POST(HttpRequest.BodyPublishers.ofString(requestBody)).header("Content-Type", "application/json");
+				.POST(requestBody.toBodyPublisher()).header("Content-Type", "application/json");
 		if (StringUtils.isNotBlank(apiConnection.getApiKey())) {
 			requestBuilder.header("Authorization", "Bearer " + apiConnection.getApiKey());
 		}
@@ -240,86 +236,32 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 
 		// Map to keep track of tool calls by their index
 		Map<Integer, ToolCallInfo> activeToolCalls = new TreeMap<>();
+		ApiCall call = ApiCall.current();
 
 		// Send the request asynchronously and process the streamed response
-		// line-by-line.
-		asyncRequest = client.sendAsync(request, HttpResponse.BodyHandlers.ofLines()).thenAccept(response -> {
+		// event by event.
+		CompletableFuture<HttpResponse<InputStream>> sent = sendAsync(chat, assistantMessage, request,
+				call.trackInputStream());
+		pendingChats.trackProcessing(chat, sent.thenAccept(response -> {
 			try {
 				if (response.statusCode() >= 200 && response.statusCode() < 300) {
-					response.body().forEach(line -> {
-						// Each chunk from the API is prefixed with "data: ".
-						if (line != null && line.startsWith("data: ")) {
-							String data = line.substring("data: ".length()).trim();
-							if ("[DONE]".equals(data)) {
-								// End of stream.
-								return;
-							}
-
-							try {
-								JsonObject jsonChunk = JsonParser.parseString(data).getAsJsonObject();
-								JsonArray choices = jsonChunk.getAsJsonArray("choices");
-								for (JsonElement choiceElement : choices) {
-									JsonObject choice = choiceElement.getAsJsonObject();
-									if (choice.has("delta")) {
-										JsonObject delta = choice.getAsJsonObject("delta");
-										String chunk = "";
-										// Special case for DeepSeek: reasoning is in another field than regular
-										// content.
-										if (delta.has("content") && !delta.get("content").isJsonNull()) {
-											chunk = delta.get("content").getAsString();
-											if (assistantMessage.getThinkingContent() != null && !assistantMessage.isThinkingComplete()) {
-												assistantMessage.setThinkingComplete(true);
-											}
-										} else if (delta.has("reasoning_content")
-												&& !delta.get("reasoning_content").isJsonNull()) {
-											String thinkingChunk = delta.get("reasoning_content").getAsString();
-											assistantMessage.setThinkingContent((assistantMessage.getThinkingContent() == null ? "" : assistantMessage.getThinkingContent()) + thinkingChunk);
-											chat.notifyMessageUpdated(assistantMessage);
-										} else {
-											chunk = "";
-										}
-
-										// Check for tool_calls in the delta
-										if (delta.has("tool_calls") && !delta.get("tool_calls").isJsonNull()) {
-											// Process tool calls
-											handleToolCallDelta(delta.getAsJsonArray("tool_calls"), activeToolCalls,
-													assistantMessage, chat);
-										}
-
-										// Check for function_call in the delta (deprecated format)
-										if (delta.has("function_call") && !delta.get("function_call").isJsonNull()) {
-											// Process function call (deprecated format)
-											handleFunctionCallDelta(delta.getAsJsonObject("function_call"),
-													activeToolCalls, assistantMessage, chat);
-										}
-
-										if (StringUtils.isNotEmpty(chunk)) {
-											// Append the received chunk to the assistant message.
-											assistantMessage.setContent(assistantMessage.getContent() + chunk);
-											// Notify the conversation listeners that the assistant message was updated.
-											chat.notifyMessageUpdated(assistantMessage);
-										}
-									}
-
-									// Check for finish_reason to detect completed tool calls or function calls
-									if (choice.has("finish_reason") && !choice.get("finish_reason").isJsonNull()) {
-										String finishReason = choice.get("finish_reason").getAsString();
-										if ("tool_calls".equals(finishReason) || "function_call".equals(finishReason)) {
-											// All tool calls or function calls are complete - finalize any pending
-											// calls
-											finalizeToolCalls(activeToolCalls, assistantMessage, chat);
-										}
-									}
-								}
-							} catch (JsonSyntaxException e) {
-								Activator.logError("Error parsing stream chunk: " + data, e);
-							}
+					new EventStreamDecoder(Format.SSE).decode(response.body(), (event, data) -> {
+						try {
+							StreamDeltaParser.parseChatCompletionChunk(data, delta -> {
+								call.onStreamEvent(delta);
+								handleStreamEvent(delta, activeToolCalls, assistantMessage, chat);
+							});
+						} catch (IOException | IllegalStateException e) {
+							Activator.logError("Error parsing stream chunk: " + data, e);
 						}
 					});
 				} else {
 					Activator.logError("Streaming chat failed with status: " + response.statusCode() + "\n"
-							+ response.body().collect(Collectors.joining("\n")), null);
+							+ readErrorBody(response.body()), null);
 				}
+			} catch (IOException e) {
+				Activator.logError("Exception while reading chat stream", e);
+				call.failed(e);
 			} finally {
 				// Check if any tool calls are still pending finalization
 				if (!activeToolCalls.isEmpty()) {
@@ -330,10 +272,10 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 					assistantMessage.setThinkingComplete(true);
 				}
 				chat.notifyChatResponseFinished(assistantMessage);
-				asyncRequest = null;
 			}
 		}).exceptionally(e -> {
 			Activator.logError("Exception during streaming chat", e);
+			call.failed(e);
 
 			// Clean up any pending tool/function calls
 			if (!activeToolCalls.isEmpty()) {
@@ -344,9 +286,43 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 				assistantMessage.setThinkingComplete(true);
 			}
 			chat.notifyChatResponseFinished(assistantMessage);
-			asyncRequest = null;
 			return null;
-		});
+		}));
+	}
+
+	private void handleStreamEvent(StreamEvent event, Map<Integer, ToolCallInfo> activeToolCalls,
+			ChatMessage assistantMessage, ChatConversation chat) {
+		switch (event.getType()) {
+		case TEXT_DELTA:
+			if (assistantMessage.getThinkingContent() != null && !assistantMessage.isThinkingComplete()) {
+				assistantMessage.setThinkingComplete(true);
+			}
+			if (StringUtils.isNotEmpty(event.getText())) {
+				// Append the received chunk to the assistant message.
+				assistantMessage.setContent(assistantMessage.getContent() + event.getText());
+				// Notify the conversation listeners that the assistant message was updated.
+				chat.notifyMessageUpdated(assistantMessage);
+			}
+			break;
+		case REASONING_DELTA:
+			assistantMessage.setThinkingContent(
+					StringUtils.defaultString(assistantMessage.getThinkingContent()) + event.getText());
+			chat.notifyMessageUpdated(assistantMessage);
+			break;
+		case TOOL_CALL_DELTA:
+			completeToolCallsBefore(activeToolCalls, event.getIndex(), assistantMessage, chat);
+			applyToolCallDelta(activeToolCalls, event.getIndex(), event.getToolCallId(), event.getToolName(),
+					event.getArguments());
+			break;
+		case FINISH:
+			if ("tool_calls".equals(event.getText()) || "function_call".equals(event.getText())) {
+				// All tool calls or function calls are complete - finalize any pending calls
+				finalizeToolCalls(activeToolCalls, assistantMessage, chat);
+			}
+			break;
+		default:
+			break;
+		}
 	}
 
 	private void removeStrictFlag(JsonObject toolDefinitionsOpenAi) {
@@ -366,24 +342,37 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 		}
 	}
 
-	private JsonArray buildMessagesJson(ChatConversation chat) {
-		JsonArray messagesJson = new JsonArray();
+	/**
+	 * Encodes the messages of the conversation as JSON strings, reusing the
+	 * encodings of messages that were already sent in previous turns.
+	 */
+	private List<String> buildMessageFragments(ChatConversation chat) {
+		List<String> fragments = new ArrayList<>();
 		List<ChatMessage> messagesToSend = new ArrayList<>(chat.getMessages());
 		for (ChatMessage msg : messagesToSend) {
 			if (Role.TOOL_SUMMARY.equals(msg.getRole())) {
 				continue;
 			}
-
-			JsonObject jsonMsg = new JsonObject();
-			jsonMsg.addProperty("role", msg.getRole().toString().toLowerCase());
-			jsonMsg.addProperty("content", compileMessageContent(msg));
-			appendAssistantToolCalls(jsonMsg, msg);
-			messagesJson.add(jsonMsg);
-			appendToolResultMessages(messagesJson, msg);
+			fragments.addAll(messageFragments.encode(msg, this::encodeMessage));
 		}
 
-		logDebugMessagesSummary(messagesJson);
-		return messagesJson;
+		logDebugMessagesSummary(fragments.size(), messagesToSend);
+		return fragments;
+	}
+
+	/**
+	 * Encodes a single chat message. Assistant messages with function calls are
+	 * followed by one "tool" message per function result.
+	 */
+	private JsonArray encodeMessage(ChatMessage msg) {
+		JsonArray res = new JsonArray();
+		JsonObject jsonMsg = new JsonObject();
+		jsonMsg.addProperty("role", msg.getRole().toString().toLowerCase());
+		jsonMsg.addProperty("content", compileMessageContent(msg));
+		appendAssistantToolCalls(jsonMsg, msg);
+		res.add(jsonMsg);
+		appendToolResultMessages(res, msg);
+		return res;
 	}
 
 	private String compileMessageContent(ChatMessage message) {
@@ -462,34 +451,37 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 		JsonObject toolMessage = new JsonObject();
 		toolMessage.addProperty("role", "tool");
 		toolMessage.addProperty("tool_call_id", functionResult.getId());
-		toolMessage.addProperty("content", functionResult.getResultJson());
+		toolMessage.addProperty("content", toolResultContent(functionResult));
 		return toolMessage;
 	}
 
-	private void logDebugMessagesSummary(JsonArray messagesJson) {
+	private void logDebugMessagesSummary(int messageCount, List<ChatMessage> messages) {
 		if (!isDebugToolBatchLoggingEnabled()) {
 			return;
 		}
 
 		int assistantToolCallCount = 0;
 		int toolResultMessageCount = 0;
-		for (JsonElement messageElement : messagesJson) {
-			if (!messageElement.isJsonObject()) {
+		for (ChatMessage message : messages) {
+			if (Role.TOOL_SUMMARY.equals(message.getRole()) || message.getFunctionCallBatch().isEmpty()) {
 				continue;
 			}
-			JsonObject messageObject = messageElement.getAsJsonObject();
-			if (messageObject.has("tool_calls") && messageObject.get("tool_calls").isJsonArray()) {
-				assistantToolCallCount += messageObject.getAsJsonArray("tool_calls").size();
-			}
-			if (messageObject.has("role") && !messageObject.get("role").isJsonNull()
-					&& "tool".equals(messageObject.get("role").getAsString())) {
-				toolResultMessageCount++;
+			for (FunctionCallItem item : message.getFunctionCallBatch().get().getItems()) {
+				if (item == null) {
+					continue;
+				}
+				if (item.getCall() != null && Role.ASSISTANT.equals(message.getRole())) {
+					assistantToolCallCount++;
+				}
+				if (item.getResult() != null) {
+					toolResultMessageCount++;
+				}
 			}
 		}
 
 		Activator.logInfo(String.format(
-				"openai chat request built: messages=%d, assistant_tool_calls=%d, tool_results=%d",
-				messagesJson.size(), assistantToolCallCount, toolResultMessageCount));
+				"openai chat request built: messages=%d, assistant_tool_calls=%d, tool_results=%d", messageCount,
+				assistantToolCallCount, toolResultMessageCount));
 	}
 
 	private boolean isDebugToolBatchLoggingEnabled() {
@@ -518,56 +510,47 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 	}
 
 	@Override
-	public synchronized boolean isChatPending() {
-		return asyncRequest != null;
-	}
+	public List<float[]> embed(String modelName, List<String> texts) {
+		JsonObject req = new JsonObject();
+		req.addProperty("model", modelName);
+		JsonArray input = new JsonArray();
+		texts.forEach(input::add);
+		req.add("input", input);
 
-	@Override
-	public synchronized void abortChat() {
-		if (asyncRequest != null) {
-			asyncRequest.cancel(true);
-			asyncRequest = null;
+		JsonObject res = performPost(JsonObject.class, "embeddings", req);
+		float[][] vectors = new float[texts.size()][];
+		for (JsonElement e : res.getAsJsonArray("data")) {
+			JsonObject data = e.getAsJsonObject();
+			vectors[data.get("index").getAsInt()] = toFloatArray(data.getAsJsonArray("embedding"));
 		}
+		return Arrays.asList(vectors);
+	}
+
+	private void applyToolCallDelta(Map<Integer, ToolCallInfo> activeToolCalls, int index, String id, String name,
+			String argumentChunk) {
+		ToolCallInfo toolCallInfo = activeToolCalls.computeIfAbsent(index, ToolCallInfo::new);
+		toolCallInfo.setId(id);
+		toolCallInfo.setName(name);
+		toolCallInfo.appendArguments(argumentChunk);
 	}
 
 	/**
-	 * Processes tool call deltas from the streaming API response.
-	 * 
-	 * @param toolCallDeltas   The tool call deltas from the current chunk
-	 * @param activeToolCalls  Map of active tool calls being tracked
-	 * @param assistantMessage The assistant message to update
-	 * @param chat             The chat conversation
+	 * Tool calls are streamed one after the other, so when a call with a new index
+	 * starts, the calls before it are complete. Listeners are notified of them, the
+	 * batch is still created when the stream ends.
 	 */
-	private void handleToolCallDelta(JsonArray toolCallDeltas, Map<Integer, ToolCallInfo> activeToolCalls,
-			ChatConversation.ChatMessage assistantMessage, ChatConversation chat) {
-		for (JsonElement toolCallElement : toolCallDeltas) {
-			JsonObject toolCallDelta = toolCallElement.getAsJsonObject();
-
-			try {
-				if (!toolCallDelta.has("index") || toolCallDelta.get("index").isJsonNull()) {
-					continue;
-				}
-
-				int index = toolCallDelta.get("index").getAsInt();
-				ToolCallInfo toolCallInfo = activeToolCalls.computeIfAbsent(index, ToolCallInfo::new);
-
-				if (toolCallDelta.has("id") && !toolCallDelta.get("id").isJsonNull()) {
-					toolCallInfo.setId(toolCallDelta.get("id").getAsString());
-				}
-
-				if (toolCallDelta.has("function") && toolCallDelta.get("function").isJsonObject()) {
-					JsonObject function = toolCallDelta.getAsJsonObject("function");
-					if (function.has("name") && !function.get("name").isJsonNull()) {
-						toolCallInfo.setName(function.get("name").getAsString());
-					}
-					if (function.has("arguments") && !function.get("arguments").isJsonNull()) {
-						String argumentChunk = function.get("arguments").getAsString();
-						toolCallInfo.appendArguments(argumentChunk);
-					}
+	private void completeToolCallsBefore(Map<Integer, ToolCallInfo> activeToolCalls, int index,
+			ChatMessage assistantMessage, ChatConversation chat) {
+		if (activeToolCalls.containsKey(index)) {
+			return;
+		}
+		for (ToolCallInfo toolCall : activeToolCalls.values()) {
+			if (toolCall.getIndex() < index && !toolCall.isComplete()) {
+				toolCall.markComplete();
+				FunctionCall functionCall = toolCall.toFunctionCall();
+				if (functionCall != null) {
+					chat.notifyFunctionCallComplete(assistantMessage, functionCall);
 				}
-			} catch (Exception e) {
-				Activator.logError("Error processing tool call delta: " + toolCallDelta, e);
-				// We catch the exception but don't rethrow to allow processing to continue
 			}
 		}
 	}
@@ -603,39 +586,6 @@ public class OpenAiApiClient extends AbstractApiClient implements IAiApiClient {
 		activeToolCalls.clear();
 	}
 
-	/**
-	 * Processes function call deltas from the streaming API response (deprecated
-	 * format).
-	 * 
-	 * @param functionCallDelta The function call delta from the current chunk
-	 * @param activeToolCalls   Map of active tool calls being tracked
-	 * @param assistantMessage  The assistant message to update
-	 * @param chat              The chat conversation
-	 */
-	private void handleFunctionCallDelta(JsonObject functionCallDelta, Map<Integer, ToolCallInfo> activeToolCalls,
-			ChatConversation.ChatMessage assistantMessage, ChatConversation chat) {
-		try {
-			// For the deprecated function_call format, we always use index 0
-			// (there is only one function call in this format)
-			int index = 0;
-			ToolCallInfo toolCallInfo = activeToolCalls.computeIfAbsent(index, ToolCallInfo::new);
-
-			if (functionCallDelta.has("name") && !functionCallDelta.get("name").isJsonNull()) {
-				toolCallInfo.setName(functionCallDelta.get("name").getAsString());
-				if (StringUtils.isBlank(toolCallInfo.getId())) {
-					toolCallInfo.setId("call_func_" + System.currentTimeMillis());
-				}
-			}
-
-			if (functionCallDelta.has("arguments") && !functionCallDelta.get("arguments").isJsonNull()) {
-				String argumentChunk = functionCallDelta.get("arguments").getAsString();
-				toolCallInfo.appendArguments(argumentChunk);
-			}
-		} catch (Exception e) {
-			Activator.logError("Error processing function call delta: " + functionCallDelta, e);
-		}
-	}
-
 	private void logDebugBatchParsed(ChatMessage message, FunctionCallBatch batch) {
 		if (!isDebugToolBatchLoggingEnabled()) {
 			return;
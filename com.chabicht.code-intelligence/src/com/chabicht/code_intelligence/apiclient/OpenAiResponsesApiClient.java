@@ -4,9 +4,9 @@ import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.R
 import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.TOOLS_ENABLED;
 import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.TOOL_PROFILE;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpClient.Redirect;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
@@ -19,12 +19,12 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 
 import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.apiclient.EventStreamDecoder.Format;
 import com.chabicht.code_intelligence.chat.ChatSettings.ReasoningEffort;
 import com.chabicht.code_intelligence.chat.tools.ToolDefinitions;
 import com.chabicht.code_intelligence.chat.tools.ToolProfile;
@@ -51,11 +51,11 @@ public class OpenAiResponsesApiClient extends AbstractApiClient implements IAiAp
 
 	private static final String RESPONSES_REL_PATH = "responses";
 	private static final String META_OPENAI_RESPONSE_ID = "openai_response_id";
+	private static final String OUTPUT_TEXT_DELTA_EVENT = "response.output_text.delta";
 
 	private static final Set<String> INCOMPATIBLE_PRESET_KEYS = Set.of("messages", "functions", "function_call",
 			"max_completion_tokens", "stream_options");
 
-	private CompletableFuture<Void> asyncRequest;
 
 	public OpenAiResponsesApiClient(AiApiConnection apiConnection) {
 		super(apiConnection);
@@ -100,95 +100,87 @@ public class OpenAiResponsesApiClient extends AbstractApiClient implements IAiAp
 			ChatConversation.ChatMessage assistantMessage, boolean retryWithoutPreviousResponseId) {
 		ChatRequestBuildResult buildResult = buildResponsesChatRequest(modelName, chat, maxResponseTokens,
 				!retryWithoutPreviousResponseId);
-		String requestBody = gson.toJson(buildResult.requestBody());
+		StreamingRequestBody requestBody = StreamingRequestBody.ofRequest(gson, buildResult.requestBody(), "input");
 
-		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-				.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 		HttpRequest.Builder requestBuilder = HttpRequest.newBuilder().timeout(Duration.ofMinutes(10))
 				.uri(URI.create(apiConnection.getBaseUri() + "/").resolve(RESPONSES_REL_PATH))
-				.POST(HttpRequest.BodyPublishers.ofString(requestBody)).header("Content-Type", "application/json");
+				.POST(requestBody.toBodyPublisher()).header("Content-Type", "application/json");
 		if (StringUtils.isNotBlank(apiConnection.getApiKey())) {
 			requestBuilder = requestBuilder.header("Authorization", "Bearer " + apiConnection.getApiKey());
 		}
 		HttpRequest request = requestBuilder.build();
 
-		AtomicReference<String> currentEvent = new AtomicReference<>("");
 		ToolCallAccumulator toolCallAccumulator = new ToolCallAccumulator();
 		AtomicBoolean retryStarted = new AtomicBoolean(false);
+		ApiCall call = ApiCall.current();
 
-		asyncRequest = client.sendAsync(request, HttpResponse.BodyHandlers.ofLines()).thenAccept(response -> {
+		CompletableFuture<HttpResponse<InputStream>> sent = sendAsync(chat, assistantMessage, request,
+				call.trackInputStream());
+		pendingChats.trackProcessing(chat, sent.thenAccept(response -> {
 			try {
 				if (response.statusCode() >= 200 && response.statusCode() < 300) {
-					response.body().forEach(line -> {
-						if (line == null || line.isBlank()) {
-							return;
-						}
-						if (line.startsWith("event: ")) {
-							currentEvent.set(line.substring("event: ".length()).trim());
-							return;
-						}
-						if (!line.startsWith("data: ")) {
-							return;
-						}
-
-						String data = line.substring("data: ".length()).trim();
-						if ("[DONE]".equals(data)) {
-							return;
-						}
+					new EventStreamDecoder(Format.SSE).decode(response.body(), (event, data) -> {
 						try {
+							// Text deltas make up most of the stream, they are extracted without
+							// building a JSON tree.
+							if (OUTPUT_TEXT_DELTA_EVENT.equals(event)) {
+								StreamDeltaParser.parseResponsesTextDelta(data, delta -> {
+									assistantMessage.setContent(assistantMessage.getContent() + delta.getText());
+									chat.notifyMessageUpdated(assistantMessage);
+								});
+								return;
+							}
+
 							JsonObject payload = JsonParser.parseString(data).getAsJsonObject();
-							handleStreamingEvent(currentEvent.get(), payload, assistantMessage, chat,
-									toolCallAccumulator);
-						} catch (JsonSyntaxException e) {
+							call.usage(payload);
+							handleStreamingEvent(event, payload, assistantMessage, chat, toolCallAccumulator);
+						} catch (JsonSyntaxException | IOException e) {
 							Activator.logWarn("Could not parse streaming payload: " + data);
 						} catch (Exception e) {
 							Activator.logError("Error handling responses stream event:\n" + data, e);
 						}
 					});
 				} else {
-					String body = response.body().collect(Collectors.joining("\n"));
+					String body = readErrorBody(response.body());
 					if (buildResult.usedPreviousResponseId() && !retryWithoutPreviousResponseId
 							&& isPreviousResponseNotFound(body)) {
 						Activator.logWarn("Retrying /responses chat once without previous_response_id.");
 						retryStarted.set(true);
-						performChat(modelName, chat, maxResponseTokens, assistantMessage, true);
+						call.finish();
+						ApiCall retryCall = ApiCallTelemetry.getInstance()
+								.start(apiConnection.getName(), modelName, PromptType.CHAT, "chat").bind();
+						retryCall.observe(chat);
+						try {
+							performChat(modelName, chat, maxResponseTokens, assistantMessage, true);
+						} finally {
+							retryCall.unbind();
+						}
 						return;
 					}
 
 					Activator.logError("Streaming chat failed with status: " + response.statusCode() + "\n" + body
 							+ "\n\nRequest JSON:\n" + requestBody, null);
 				}
+			} catch (IOException e) {
+				Activator.logError("Exception while reading chat stream", e);
+				call.failed(e);
 			} finally {
 				if (!retryStarted.get()) {
 					toolCallAccumulator.markStreamFinished();
 					toolCallAccumulator.finalizeIfComplete(assistantMessage, chat);
 					chat.notifyChatResponseFinished(assistantMessage);
-					asyncRequest = null;
 				}
 			}
 		}).exceptionally(e -> {
 			Activator.logError("Exception during streaming chat request", e);
+			call.failed(e);
 			if (!retryStarted.get()) {
 				toolCallAccumulator.markStreamFinished();
 				toolCallAccumulator.finalizeIfComplete(assistantMessage, chat);
 				chat.notifyChatResponseFinished(assistantMessage);
-				asyncRequest = null;
 			}
 			return null;
-		});
-	}
-
-	@Override
-	public void abortChat() {
-		if (asyncRequest != null) {
-			asyncRequest.cancel(true);
-			asyncRequest = null;
-		}
-	}
-
-	@Override
-	public boolean isChatPending() {
-		return asyncRequest != null;
+		}));
 	}
 
 	@Override
@@ -211,8 +203,6 @@ public class OpenAiResponsesApiClient extends AbstractApiClient implements IAiAp
 		int statusCode = -1;
 		String responseBody = "(nothing)";
 		try {
-			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-					.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 			HttpRequest.Builder requestBuilder = HttpRequest.newBuilder().timeout(Duration.ofMinutes(10))
 					.uri(URI.create(apiConnection.getBaseUri() + "/").resolve(relPath)).GET();
 			if (StringUtils.isNotBlank(apiConnection.getApiKey())) {
@@ -220,7 +210,7 @@ public class OpenAiResponsesApiClient extends AbstractApiClient implements IAiAp
 			}
 			HttpRequest request = requestBuilder.build();
 
-			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
 			statusCode = response.statusCode();
 			responseBody = response.body();
 			if (statusCode < 200 || statusCode >= 300) {
@@ -249,8 +239,6 @@ public class OpenAiResponsesApiClient extends AbstractApiClient implements IAiAp
 		String requestBodyString = "(nothing)";
 		try {
 			requestBodyString = gson.toJson(requestBody);
-			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-					.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 			HttpRequest.Builder requestBuilder = HttpRequest.newBuilder().timeout(Duration.ofMinutes(10))
 					.uri(URI.create(apiConnection.getBaseUri() + "/").resolve(relPath))
 					.POST(HttpRequest.BodyPublishers.ofString(requestBodyString))
@@ -260,14 +248,18 @@ public class OpenAiResponsesApiClient extends AbstractApiClient implements IAiAp
 			}
 			HttpRequest request = requestBuilder.build();
 
-			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			HttpResponse<String> response = send(request, ApiCall.trackResponse(HttpResponse.BodyHandlers.ofString()));
 			statusCode = response.statusCode();
 			responseBody = response.body();
 			if (statusCode < 200 || statusCode >= 300) {
 				throw new RuntimeException(
 						String.format("API request failed with code %s:\n%s", statusCode, responseBody));
 			}
-			return (T) JsonParser.parseString(responseBody);
+			JsonElement res = JsonParser.parseString(responseBody);
+			if (res.isJsonObject()) {
+				ApiCall.current().usage(res.getAsJsonObject());
+			}
+			return (T) res;
 		} catch (Exception e) {
 			Activator.logError(String.format("""
 					Error during API request:
@@ -436,7 +428,7 @@ public class OpenAiResponsesApiClient extends AbstractApiClient implements IAiAp
 		JsonObject item = new JsonObject();
 		item.addProperty("type", "function_call_output");
 		item.addProperty("call_id", functionResult.getId());
-		item.addProperty("output", StringUtils.defaultString(functionResult.getResultJson()));
+		item.addProperty("output", StringUtils.defaultString(toolResultContent(functionResult)));
 		return item;
 	}
 
@@ -518,7 +510,7 @@ public class OpenAiResponsesApiClient extends AbstractApiClient implements IAiAp
 		String type = payload.has("type") && !payload.get("type").isJsonNull() ? payload.get("type").getAsString()
 				: currentEventName;
 
-		if ("response.output_text.delta".equals(type)) {
+		if (OUTPUT_TEXT_DELTA_EVENT.equals(type)) {
 			if (payload.has("delta") && !payload.get("delta").isJsonNull()) {
 				assistantMessage.setContent(assistantMessage.getContent() + payload.get("delta").getAsString());
 				chat.notifyMessageUpdated(assistantMessage);
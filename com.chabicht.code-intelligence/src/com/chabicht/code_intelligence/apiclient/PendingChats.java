@@ -0,0 +1,188 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.chabicht.code_intelligence.model.ChatConversation;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+
+/**
+ * Streaming chat requests of an API client by conversation, so one client can
+ * stream the responses of several conversations at the same time and each of
+ * them can be aborted on its own.
+ * <p>
+ * A request is pending until its future, or the processing of its response, is
+ * done or it is aborted. Finished requests are removed lazily. This way a
+ * request that finishes late can't remove the next request of the same
+ * conversation, e.g. the one sending the function results.
+ */
+class PendingChats {
+	private final Map<ChatConversation, Request> requests = new IdentityHashMap<>();
+
+	/**
+	 * A request and the processing of its streamed response. Aborting it closes
+	 * the stream and the listeners of the conversation aren't notified about the
+	 * response anymore.
+	 */
+	static class Request {
+		private final ChatConversation chat;
+		private final ChatMessage response;
+		private final CompletableFuture<?> future;
+		private volatile CompletableFuture<?> processing;
+		private volatile boolean aborted;
+		private InputStream body;
+
+		private Request(ChatConversation chat, ChatMessage response, CompletableFuture<?> future) {
+			this.chat = chat;
+			this.response = response;
+			this.future = future;
+		}
+
+		private boolean isDone() {
+			CompletableFuture<?> p = processing;
+			return aborted || (p != null ? p : future).isDone();
+		}
+
+		/**
+		 * @return a handler that ends the streamed body once the request is aborted,
+		 *         instead of reading it to the end.
+		 */
+		BodyHandler<InputStream> abortable(BodyHandler<InputStream> handler) {
+			return responseInfo -> BodySubscribers.mapping(handler.apply(responseInfo), this::open);
+		}
+
+		private synchronized InputStream open(InputStream in) {
+			body = in;
+			if (aborted) {
+				close(in);
+			}
+			return new FilterInputStream(in) {
+				@Override
+				public int read() throws IOException {
+					if (aborted) {
+						return -1;
+					}
+					try {
+						return super.read();
+					} catch (IOException e) {
+						if (aborted) {
+							// Closed by abort().
+							return -1;
+						}
+						throw e;
+					}
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (aborted) {
+						return -1;
+					}
+					try {
+						return super.read(b, off, len);
+					} catch (IOException e) {
+						if (aborted) {
+							// Closed by abort().
+							return -1;
+						}
+						throw e;
+					}
+				}
+			};
+		}
+
+		private void abort() {
+			InputStream in;
+			synchronized (this) {
+				aborted = true;
+				in = body;
+			}
+			if (response != null) {
+				chat.abortResponse(response);
+			}
+			future.cancel(true);
+			CompletableFuture<?> p = processing;
+			if (p != null) {
+				p.cancel(true);
+			}
+			if (in != null) {
+				close(in);
+			}
+		}
+
+		private static void close(InputStream in) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// The response is discarded anyway.
+			}
+		}
+	}
+
+	Request track(ChatConversation chat, CompletableFuture<?> request) {
+		return track(chat, null, request);
+	}
+
+	/**
+	 * @param response the message the response is streamed into, its listeners
+	 *                 aren't notified anymore once the request is aborted.
+	 */
+	synchronized Request track(ChatConversation chat, ChatMessage response, CompletableFuture<?> request) {
+		requests.values().removeIf(Request::isDone);
+		Request res = new Request(chat, response, request);
+		requests.put(chat, res);
+		return res;
+	}
+
+	/**
+	 * Keeps the last request of the conversation pending until its response was
+	 * processed.
+	 */
+	synchronized void trackProcessing(ChatConversation chat, CompletableFuture<?> processing) {
+		Request request = requests.get(chat);
+		if (request == null) {
+			return;
+		}
+		if (request.aborted) {
+			// Aborted before the response arrived.
+			processing.cancel(true);
+		} else {
+			request.processing = processing;
+		}
+	}
+
+	synchronized boolean isPending(ChatConversation chat) {
+		Request request = requests.get(chat);
+		return request != null && !request.isDone();
+	}
+
+	synchronized boolean isAnyPending() {
+		return requests.values().stream().anyMatch(request -> !request.isDone());
+	}
+
+	void abort(ChatConversation chat) {
+		Request request;
+		synchronized (this) {
+			request = requests.get(chat);
+		}
+		if (request != null) {
+			request.abort();
+		}
+	}
+
+	void abortAll() {
+		List<Request> toAbort;
+		synchronized (this) {
+			toAbort = new ArrayList<>(requests.values());
+		}
+		toAbort.forEach(Request::abort);
+	}
+}
@@ -0,0 +1,433 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the requests of one {@link AiApiConnection} within the rate limits of
+ * the provider, so bursts of completions and agent turns are delayed instead of
+ * failing.
+ * <p>
+ * A request waits for a permit from two token buckets, one for requests and
+ * one for (estimated) tokens per minute. The limits are configured on the
+ * connection, 0 means no limit. The rate limit headers of the responses
+ * (OpenAI and Anthropic style) pause all requests of the connection when a
+ * limit is exhausted, until it resets.
+ * <p>
+ * Waiting requests are served by {@link Priority}, so a completion the user is
+ * waiting for goes before chats and background calls. Requests that aren't
+ * interactive also leave a reserve in the buckets.
+ * <p>
+ * Rate limited (429) and failed (5xx) requests are retried with exponential
+ * backoff and jitter, honoring Retry-After, see
+ * {@link #onResponse(int, HttpHeaders, int, Priority)}. Interactive requests
+ * aren't retried, their result would come too late.
+ */
+public class RequestGovernor {
+	public enum Priority {
+		/** Code completions, the user is waiting for them while typing. */
+		INTERACTIVE,
+		/** Chat requests. */
+		NORMAL,
+		/** Captions and the embeddings of the semantic search index. */
+		BACKGROUND
+	}
+
+	static final int MAX_RETRIES = 3;
+	private static final long BASE_BACKOFF_MILLIS = 1000;
+	private static final long MAX_BACKOFF_MILLIS = 30_000;
+	/** Longer Retry-After values aren't waited for, the request fails. */
+	private static final long MAX_RETRY_AFTER_MILLIS = 60_000;
+	/** Share of the buckets that requests which aren't interactive leave. */
+	private static final double INTERACTIVE_RESERVE = 0.1;
+	private static final long MILLIS_PER_MINUTE = 60_000;
+
+	private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+	private static final ThreadLocal<Priority> PRIORITY = new ThreadLocal<>();
+
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "Code Intelligence request governor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final IntSupplier requestsPerMinute;
+	private final IntSupplier tokensPerMinute;
+	private final LongSupplier clock;
+	private final Random random;
+
+	private final Bucket requests = new Bucket();
+	private final Bucket tokens = new Bucket();
+	private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+	private long sequence;
+	private long pausedUntil;
+	private ScheduledFuture<?> scheduledDrain;
+
+	public RequestGovernor(IntSupplier requestsPerMinute, IntSupplier tokensPerMinute) {
+		this(requestsPerMinute, tokensPerMinute, System::currentTimeMillis, new Random());
+	}
+
+	RequestGovernor(IntSupplier requestsPerMinute, IntSupplier tokensPerMinute, LongSupplier clock, Random random) {
+		this.requestsPerMinute = requestsPerMinute;
+		this.tokensPerMinute = tokensPerMinute;
+		this.clock = clock;
+		this.random = random;
+	}
+
+	/**
+	 * @return the priority of requests sent by the current thread,
+	 *         {@link Priority#NORMAL} unless set with
+	 *         {@link #withPriority(Priority, Supplier)}.
+	 */
+	public static Priority currentPriority() {
+		Priority res = PRIORITY.get();
+		return res != null ? res : Priority.NORMAL;
+	}
+
+	/**
+	 * Runs the action with the given priority for the requests it sends.
+	 */
+	public static <T> T withPriority(Priority priority, Supplier<T> action) {
+		Priority previous = PRIORITY.get();
+		PRIORITY.set(priority);
+		try {
+			return action.get();
+		} finally {
+			if (previous != null) {
+				PRIORITY.set(previous);
+			} else {
+				PRIORITY.remove();
+			}
+		}
+	}
+
+	/**
+	 * Estimates the input tokens of a request from the length of its body (about
+	 * four bytes per token).
+	 */
+	public static long estimateTokens(HttpRequest request) {
+		long length = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+		return Math.max(0, length / 4);
+	}
+
+	/**
+	 * Waits for a permit to send a request.
+	 *
+	 * @throws InterruptedException if interrupted while waiting, no permit is
+	 *                              taken in this case.
+	 */
+	public void acquire(Priority priority, long estimatedTokens) throws InterruptedException {
+		CompletableFuture<Void> permit = acquireAsync(priority, estimatedTokens);
+		try {
+			permit.get();
+		} catch (InterruptedException e) {
+			permit.cancel(false);
+			throw e;
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return a future that completes when the request may be sent. Cancelling it
+	 *         gives up the place in the queue.
+	 */
+	public CompletableFuture<Void> acquireAsync(Priority priority, long estimatedTokens) {
+		CompletableFuture<Void> permit = new CompletableFuture<>();
+		synchronized (this) {
+			waiters.add(new Waiter(priority, Math.max(0, estimatedTokens), sequence++, permit));
+		}
+		drain();
+		return permit;
+	}
+
+	/**
+	 * Updates the limits from the rate limit headers of a response and decides
+	 * whether the request is retried. A 429 response pauses all requests of the
+	 * connection for the retry delay.
+	 *
+	 * @param attempt  number of retries of the request so far.
+	 * @param priority the priority of the request, {@link Priority#INTERACTIVE}
+	 *                 requests are never retried.
+	 * @return the delay in milliseconds before the request is sent again, or -1
+	 *         if the response is final.
+	 */
+	public long onResponse(int statusCode, HttpHeaders headers, int attempt, Priority priority) {
+		long delay = -1;
+		synchronized (this) {
+			long now = clock.getAsLong();
+			requests.refill(requestsPerMinute.getAsInt(), now);
+			tokens.refill(tokensPerMinute.getAsInt(), now);
+			applyRateLimitHeaders(requests, headers, now, "x-ratelimit-remaining-requests",
+					"anthropic-ratelimit-requests-remaining", "x-ratelimit-reset-requests",
+					"anthropic-ratelimit-requests-reset");
+			applyRateLimitHeaders(tokens, headers, now, "x-ratelimit-remaining-tokens",
+					"anthropic-ratelimit-tokens-remaining", "x-ratelimit-reset-tokens",
+					"anthropic-ratelimit-tokens-reset");
+
+			if (isRetryable(statusCode) && attempt < MAX_RETRIES) {
+				delay = retryDelay(headers, attempt, now);
+				if (statusCode == 429 && delay >= 0) {
+					pausedUntil = Math.max(pausedUntil, now + delay);
+				}
+			}
+		}
+		drain();
+		return priority == Priority.INTERACTIVE ? -1 : delay;
+	}
+
+	static boolean isRetryable(int statusCode) {
+		return switch (statusCode) {
+		case 408, 429, 500, 502, 503, 504, 529 -> true;
+		default -> false;
+		};
+	}
+
+	/**
+	 * @return the Retry-After delay if the response has one (-1 if it is too long
+	 *         to wait for), else an exponential backoff with jitter.
+	 */
+	private long retryDelay(HttpHeaders headers, int attempt, long now) {
+		long retryAfter = retryAfterMillis(headers, now);
+		if (retryAfter >= 0) {
+			return retryAfter <= MAX_RETRY_AFTER_MILLIS ? retryAfter : -1;
+		}
+		long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << attempt);
+		return backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+	}
+
+	private void applyRateLimitHeaders(Bucket bucket, HttpHeaders headers, long now, String openAiRemaining,
+			String anthropicRemaining, String openAiReset, String anthropicReset) {
+		long remaining = parseLong(firstValue(headers, openAiRemaining, anthropicRemaining));
+		if (remaining < 0) {
+			return;
+		}
+		bucket.limitTo(remaining);
+		if (remaining == 0) {
+			long reset = parseResetMillis(firstValue(headers, openAiReset, anthropicReset).orElse(null), now);
+			if (reset > 0) {
+				pausedUntil = Math.max(pausedUntil, now + Math.min(reset, MAX_RETRY_AFTER_MILLIS));
+			}
+		}
+	}
+
+	/**
+	 * Grants permits to the waiting requests in order of priority as long as the
+	 * limits allow it, and schedules the next run otherwise.
+	 */
+	void drain() {
+		List<CompletableFuture<Void>> granted = new ArrayList<>();
+		synchronized (this) {
+			long now = clock.getAsLong();
+			requests.refill(requestsPerMinute.getAsInt(), now);
+			tokens.refill(tokensPerMinute.getAsInt(), now);
+			while (!waiters.isEmpty()) {
+				Waiter next = waiters.peek();
+				if (next.permit().isDone()) {
+					waiters.poll();
+					continue;
+				}
+
+				double reserve = next.priority() == Priority.INTERACTIVE ? 0 : INTERACTIVE_RESERVE;
+				long wait = Math.max(pausedUntil - now,
+						Math.max(requests.waitMillis(1, reserve), tokens.waitMillis(next.tokens(), reserve)));
+				if (wait > 0) {
+					scheduleDrain(wait);
+					break;
+				}
+
+				waiters.poll();
+				requests.take(1);
+				tokens.take(next.tokens());
+				granted.add(next.permit());
+			}
+		}
+		granted.forEach(permit -> permit.complete(null));
+	}
+
+	private void scheduleDrain(long delayMillis) {
+		if (scheduledDrain != null && !scheduledDrain.isDone()) {
+			if (scheduledDrain.getDelay(TimeUnit.MILLISECONDS) <= delayMillis) {
+				return;
+			}
+			scheduledDrain.cancel(false);
+		}
+		scheduledDrain = SCHEDULER.schedule(this::drain, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	synchronized int getWaitingCount() {
+		return (int) waiters.stream().filter(w -> !w.permit().isDone()).count();
+	}
+
+	private static Optional<String> firstValue(HttpHeaders headers, String... names) {
+		for (String name : names) {
+			Optional<String> value = headers.firstValue(name);
+			if (value.isPresent()) {
+				return value;
+			}
+		}
+		return Optional.empty();
+	}
+
+	private static long parseLong(Optional<String> value) {
+		try {
+			return value.isPresent() ? Long.parseLong(value.get().trim()) : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Parses Retry-After (seconds or HTTP date) and OpenAI's retry-after-ms.
+	 *
+	 * @return the delay in milliseconds, or -1 if there is none.
+	 */
+	static long retryAfterMillis(HttpHeaders headers, long now) {
+		Optional<String> millis = headers.firstValue("retry-after-ms");
+		if (millis.isPresent()) {
+			try {
+				return Math.max(0, (long) Double.parseDouble(millis.get().trim()));
+			} catch (NumberFormatException e) {
+				// Fall through to Retry-After.
+			}
+		}
+
+		Optional<String> retryAfter = headers.firstValue("retry-after");
+		if (retryAfter.isEmpty()) {
+			return -1;
+		}
+		String value = retryAfter.get().trim();
+		try {
+			return Math.max(0, (long) (Double.parseDouble(value) * 1000));
+		} catch (NumberFormatException e) {
+			try {
+				ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+				return Math.max(0, date.toInstant().toEpochMilli() - now);
+			} catch (DateTimeParseException e1) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Parses the reset value of a rate limit: a duration like OpenAI's "6m0s" or
+	 * "20ms", a timestamp like Anthropic's "2025-01-01T00:00:00Z", or seconds.
+	 *
+	 * @return the milliseconds until the reset, or -1 if the value can't be
+	 *         parsed.
+	 */
+	static long parseResetMillis(String value, long now) {
+		if (value == null || value.isBlank()) {
+			return -1;
+		}
+		value = value.trim();
+
+		Matcher m = DURATION_PART.matcher(value);
+		double millis = 0;
+		int end = 0;
+		while (m.find() && m.start() == end) {
+			double amount = Double.parseDouble(m.group(1));
+			millis += switch (m.group(2)) {
+			case "h" -> amount * 3_600_000;
+			case "m" -> amount * 60_000;
+			case "s" -> amount * 1000;
+			default -> amount;
+			};
+			end = m.end();
+		}
+		if (end > 0 && end == value.length()) {
+			return (long) Math.ceil(millis);
+		}
+
+		try {
+			return Math.max(0, Instant.parse(value).toEpochMilli() - now);
+		} catch (DateTimeParseException e) {
+			try {
+				return (long) (Double.parseDouble(value) * 1000);
+			} catch (NumberFormatException e1) {
+				return -1;
+			}
+		}
+	}
+
+	private record Waiter(Priority priority, long tokens, long sequence, CompletableFuture<Void> permit)
+			implements Comparable<Waiter> {
+		@Override
+		public int compareTo(Waiter o) {
+			int res = priority.compareTo(o.priority);
+			return res != 0 ? res : Long.compare(sequence, o.sequence);
+		}
+	}
+
+	/**
+	 * Token bucket that refills continuously to its capacity within a minute. A
+	 * capacity of 0 means no limit.
+	 */
+	private static class Bucket {
+		private int capacity;
+		private double available;
+		private long refilledAt;
+
+		void refill(int limit, long now) {
+			limit = Math.max(0, limit);
+			if (limit != capacity) {
+				available = capacity == 0 ? limit : Math.min(available, limit);
+				capacity = limit;
+			} else if (capacity > 0) {
+				available = Math.min(capacity, available + (now - refilledAt) * (double) capacity / MILLIS_PER_MINUTE);
+			}
+			refilledAt = now;
+		}
+
+		/**
+		 * @return the milliseconds until the amount plus the reserve is available.
+		 *         Amounts larger than the bucket wait until it is full.
+		 */
+		long waitMillis(double amount, double reserve) {
+			if (capacity == 0) {
+				return 0;
+			}
+			double needed = Math.min(amount + reserve * capacity, capacity);
+			if (available >= needed) {
+				return 0;
+			}
+			return (long) Math.ceil((needed - available) * MILLIS_PER_MINUTE / capacity);
+		}
+
+		void take(double amount) {
+			if (capacity > 0) {
+				available -= amount;
+			}
+		}
+
+		/**
+		 * Corrects the bucket with the remaining amount reported by the provider.
+		 */
+		void limitTo(long remaining) {
+			if (capacity > 0) {
+				available = Math.min(available, remaining);
+			}
+		}
+	}
+}
@@ -0,0 +1,489 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Extracts {@link StreamEvent}s from the payloads of streaming chat responses
+ * with a {@link JsonReader}, without building a JSON tree for every chunk.
+ * <p>
+ * Only the fields needed for the chat are read, everything else is skipped.
+ * Malformed payloads result in an {@link IOException}, the events that were
+ * already complete at that point have been delivered.
+ */
+public class StreamDeltaParser {
+	private StreamDeltaParser() {
+		// No instances.
+	}
+
+	/**
+	 * Parses a chunk of the OpenAI compatible <code>chat/completions</code>
+	 * stream (also used by xAI). Tool call deltas without an index get their
+	 * position in the <code>tool_calls</code> array as index.
+	 */
+	public static void parseChatCompletionChunk(String data, Consumer<StreamEvent> sink) throws IOException {
+		try (JsonReader reader = new JsonReader(new StringReader(data))) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+				case "choices":
+					if (!skipIfNull(reader)) {
+						reader.beginArray();
+						while (reader.hasNext()) {
+							readChatCompletionChoice(reader, sink);
+						}
+						reader.endArray();
+					}
+					break;
+				case "usage":
+					if (!skipIfNull(reader)) {
+						readOpenAiUsage(reader, sink);
+					}
+					break;
+				default:
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+	}
+
+	private static void readChatCompletionChoice(JsonReader reader, Consumer<StreamEvent> sink) throws IOException {
+		String finishReason = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "delta":
+				if (!skipIfNull(reader)) {
+					readChatCompletionDelta(reader, sink);
+				}
+				break;
+			case "finish_reason":
+				finishReason = nextStringOrNull(reader);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		// The finish reason is reported after the delta of the same choice,
+		// regardless of the order of the properties.
+		if (finishReason != null) {
+			sink.accept(StreamEvent.finish(finishReason));
+		}
+	}
+
+	private static void readChatCompletionDelta(JsonReader reader, Consumer<StreamEvent> sink) throws IOException {
+		String content = null;
+		String reasoning = null;
+		List<StreamEvent> toolCalls = null;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "content":
+				content = nextStringOrNull(reader);
+				break;
+			case "reasoning_content":
+				// DeepSeek and others: reasoning is in another field than regular content.
+				reasoning = nextStringOrNull(reader);
+				break;
+			case "tool_calls":
+				if (!skipIfNull(reader)) {
+					toolCalls = new ArrayList<>();
+					reader.beginArray();
+					for (int position = 0; reader.hasNext(); position++) {
+						StreamEvent toolCall = readChatCompletionToolCall(reader, position);
+						if (toolCall != null) {
+							toolCalls.add(toolCall);
+						}
+					}
+					reader.endArray();
+				}
+				break;
+			case "function_call":
+				// Deprecated single function call format, always index 0.
+				if (!skipIfNull(reader)) {
+					String[] nameAndArgs = readFunction(reader);
+					String id = nameAndArgs[0] != null ? "call_func_" + System.currentTimeMillis() : null;
+					toolCalls = toolCalls == null ? new ArrayList<>() : toolCalls;
+					toolCalls.add(StreamEvent.toolCall(0, id, nameAndArgs[0], nameAndArgs[1]));
+				}
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (content != null) {
+			sink.accept(StreamEvent.text(content));
+		} else if (reasoning != null) {
+			sink.accept(StreamEvent.reasoning(reasoning));
+		}
+		if (toolCalls != null) {
+			toolCalls.forEach(sink);
+		}
+	}
+
+	private static StreamEvent readChatCompletionToolCall(JsonReader reader, int position) throws IOException {
+		if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+			reader.skipValue();
+			return null;
+		}
+
+		int index = position;
+		String id = null;
+		String[] nameAndArgs = new String[2];
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "index":
+				index = (int) nextLongOrDefault(reader, position);
+				break;
+			case "id":
+				id = nextStringOrNull(reader);
+				break;
+			case "function":
+				if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+					nameAndArgs = readFunction(reader);
+				} else {
+					reader.skipValue();
+				}
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		return StreamEvent.toolCall(index, id, nameAndArgs[0], nameAndArgs[1]);
+	}
+
+	private static String[] readFunction(JsonReader reader) throws IOException {
+		String[] res = new String[2];
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "name":
+				res[0] = nextStringOrNull(reader);
+				break;
+			case "arguments":
+				res[1] = nextStringOrNull(reader);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return res;
+	}
+
+	private static void readOpenAiUsage(JsonReader reader, Consumer<StreamEvent> sink) throws IOException {
+		long input = -1;
+		long output = -1;
+		long cached = -1;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "prompt_tokens":
+				input = nextLongOrDefault(reader, -1);
+				break;
+			case "completion_tokens":
+				output = nextLongOrDefault(reader, -1);
+				break;
+			case "prompt_tokens_details":
+				if (!skipIfNull(reader)) {
+					reader.beginObject();
+					while (reader.hasNext()) {
+						if ("cached_tokens".equals(reader.nextName())) {
+							cached = nextLongOrDefault(reader, -1);
+						} else {
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+				}
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		sink.accept(StreamEvent.usage(input, output, cached));
+	}
+
+	/**
+	 * Parses the payload of an Anthropic <code>content_block_delta</code> event.
+	 * Tool call argument chunks are reported with the index of the content block.
+	 */
+	public static void parseAnthropicContentBlockDelta(String data, Consumer<StreamEvent> sink) throws IOException {
+		int index = -1;
+		String deltaType = null;
+		String value = null;
+		try (JsonReader reader = new JsonReader(new StringReader(data))) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+				case "index":
+					index = (int) nextLongOrDefault(reader, -1);
+					break;
+				case "delta":
+					if (skipIfNull(reader)) {
+						break;
+					}
+					reader.beginObject();
+					while (reader.hasNext()) {
+						switch (reader.nextName()) {
+						case "type":
+							deltaType = nextStringOrNull(reader);
+							break;
+						case "text":
+						case "thinking":
+						case "partial_json":
+						case "signature":
+							value = nextStringOrNull(reader);
+							break;
+						default:
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+					break;
+				default:
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+
+		if (deltaType == null || value == null) {
+			return;
+		}
+		switch (deltaType) {
+		case "text_delta":
+			sink.accept(StreamEvent.text(value));
+			break;
+		case "thinking_delta":
+			sink.accept(StreamEvent.reasoning(value));
+			break;
+		case "input_json_delta":
+			sink.accept(StreamEvent.toolCall(index, null, null, value));
+			break;
+		case "signature_delta":
+			sink.accept(StreamEvent.reasoningSignature(value));
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Parses the payload of a Responses API <code>response.output_text.delta</code>
+	 * event.
+	 */
+	public static void parseResponsesTextDelta(String data, Consumer<StreamEvent> sink) throws IOException {
+		try (JsonReader reader = new JsonReader(new StringReader(data))) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if ("delta".equals(reader.nextName())) {
+					String delta = nextStringOrNull(reader);
+					if (delta != null) {
+						sink.accept(StreamEvent.text(delta));
+					}
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+	}
+
+	/**
+	 * Parses one line of the Ollama <code>api/chat</code> NDJSON stream.
+	 * <p>
+	 * Ollama sends complete tool calls. Their arguments are reported as JSON text,
+	 * either as sent (if the server sent a string) or serialized from the JSON
+	 * object. Tool calls without <code>function.index</code> get their position in
+	 * the array as index. The end of the response is reported as
+	 * {@link StreamEvent.Type#FINISH} with the reason "stop".
+	 */
+	public static void parseOllamaChunk(String data, Consumer<StreamEvent> sink) throws IOException {
+		List<StreamEvent> toolCalls = new ArrayList<>();
+		String thinking = null;
+		String content = null;
+		boolean done = false;
+		long input = -1;
+		long output = -1;
+
+		try (JsonReader reader = new JsonReader(new StringReader(data))) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+				case "message":
+					if (skipIfNull(reader)) {
+						break;
+					}
+					reader.beginObject();
+					while (reader.hasNext()) {
+						switch (reader.nextName()) {
+						case "content":
+							content = nextStringOrNull(reader);
+							break;
+						case "thinking":
+							thinking = nextStringOrNull(reader);
+							break;
+						case "tool_calls":
+							if (!skipIfNull(reader)) {
+								readOllamaToolCalls(reader, toolCalls);
+							}
+							break;
+						default:
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+					break;
+				case "done":
+					done = reader.peek() == JsonToken.BOOLEAN ? reader.nextBoolean() : skipValue(reader);
+					break;
+				case "prompt_eval_count":
+					input = nextLongOrDefault(reader, -1);
+					break;
+				case "eval_count":
+					output = nextLongOrDefault(reader, -1);
+					break;
+				default:
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+
+		toolCalls.forEach(sink);
+		if (thinking != null) {
+			sink.accept(StreamEvent.reasoning(thinking));
+		}
+		if (content != null) {
+			sink.accept(StreamEvent.text(content));
+		}
+		if (input >= 0 || output >= 0) {
+			sink.accept(StreamEvent.usage(input, output, -1));
+		}
+		if (done) {
+			sink.accept(StreamEvent.finish("stop"));
+		}
+	}
+
+	private static void readOllamaToolCalls(JsonReader reader, List<StreamEvent> toolCalls) throws IOException {
+		reader.beginArray();
+		int position = 0;
+		while (reader.hasNext()) {
+			if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+				reader.skipValue();
+				position++;
+				continue;
+			}
+
+			String id = null;
+			String name = null;
+			String arguments = null;
+			Integer index = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+				case "id":
+					id = nextStringOrNull(reader);
+					break;
+				case "function":
+					if (skipIfNull(reader)) {
+						break;
+					}
+					reader.beginObject();
+					while (reader.hasNext()) {
+						switch (reader.nextName()) {
+						case "name":
+							name = nextStringOrNull(reader);
+							break;
+						case "index":
+							if (reader.peek() == JsonToken.NUMBER) {
+								index = reader.nextInt();
+							} else {
+								reader.skipValue();
+							}
+							break;
+						case "arguments":
+							JsonToken token = reader.peek();
+							if (token == JsonToken.STRING) {
+								arguments = reader.nextString();
+							} else if (token == JsonToken.NULL) {
+								reader.nextNull();
+							} else {
+								arguments = JsonParser.parseReader(reader).toString();
+							}
+							break;
+						default:
+							reader.skipValue();
+						}
+					}
+					reader.endObject();
+					break;
+				default:
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+
+			if (name != null) {
+				toolCalls.add(StreamEvent.toolCall(index != null ? index : position, id, name, arguments));
+			}
+			position++;
+		}
+		reader.endArray();
+	}
+
+	private static boolean skipIfNull(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean skipValue(JsonReader reader) throws IOException {
+		reader.skipValue();
+		return false;
+	}
+
+	private static String nextStringOrNull(JsonReader reader) throws IOException {
+		switch (reader.peek()) {
+		case STRING:
+		case NUMBER:
+			return reader.nextString();
+		case BOOLEAN:
+			return Boolean.toString(reader.nextBoolean());
+		case NULL:
+			reader.nextNull();
+			return null;
+		default:
+			reader.skipValue();
+			return null;
+		}
+	}
+
+	private static long nextLongOrDefault(JsonReader reader, long defaultValue) throws IOException {
+		if (reader.peek() == JsonToken.NUMBER) {
+			return reader.nextLong();
+		}
+		reader.skipValue();
+		return defaultValue;
+	}
+}
@@ -0,0 +1,120 @@
+package com.chabicht.code_intelligence.apiclient;
+
+/**
+ * A typed event extracted from a streaming chat response by
+ * {@link StreamDeltaParser}.
+ */
+public final class StreamEvent {
+
+	public enum Type {
+		/** A chunk of the answer text. */
+		TEXT_DELTA,
+		/** A chunk of reasoning/thinking text. */
+		REASONING_DELTA,
+		/** The signature of the reasoning content (Anthropic). */
+		REASONING_SIGNATURE,
+		/** A (partial) tool call. Arguments are a chunk of the JSON arguments. */
+		TOOL_CALL_DELTA,
+		/** Token usage of the request. */
+		USAGE,
+		/** The model finished generating, the text contains the finish reason. */
+		FINISH
+	}
+
+	private final Type type;
+	private final String text;
+	private final int index;
+	private final String toolCallId;
+	private final String toolName;
+	private final long inputTokens;
+	private final long outputTokens;
+	private final long cachedTokens;
+
+	private StreamEvent(Type type, String text, int index, String toolCallId, String toolName, long inputTokens,
+			long outputTokens, long cachedTokens) {
+		this.type = type;
+		this.text = text;
+		this.index = index;
+		this.toolCallId = toolCallId;
+		this.toolName = toolName;
+		this.inputTokens = inputTokens;
+		this.outputTokens = outputTokens;
+		this.cachedTokens = cachedTokens;
+	}
+
+	public static StreamEvent text(String text) {
+		return new StreamEvent(Type.TEXT_DELTA, text, -1, null, null, -1, -1, -1);
+	}
+
+	public static StreamEvent reasoning(String text) {
+		return new StreamEvent(Type.REASONING_DELTA, text, -1, null, null, -1, -1, -1);
+	}
+
+	public static StreamEvent reasoningSignature(String signature) {
+		return new StreamEvent(Type.REASONING_SIGNATURE, signature, -1, null, null, -1, -1, -1);
+	}
+
+	public static StreamEvent toolCall(int index, String id, String name, String arguments) {
+		return new StreamEvent(Type.TOOL_CALL_DELTA, arguments, index, id, name, -1, -1, -1);
+	}
+
+	/**
+	 * @param inputTokens  number of prompt tokens, -1 if unknown.
+	 * @param outputTokens number of generated tokens, -1 if unknown.
+	 * @param cachedTokens number of prompt tokens read from cache, -1 if unknown.
+	 */
+	public static StreamEvent usage(long inputTokens, long outputTokens, long cachedTokens) {
+		return new StreamEvent(Type.USAGE, null, -1, null, null, inputTokens, outputTokens, cachedTokens);
+	}
+
+	public static StreamEvent finish(String reason) {
+		return new StreamEvent(Type.FINISH, reason, -1, null, null, -1, -1, -1);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the text for text and reasoning deltas, the signature, the finish
+	 *         reason or the arguments chunk of a tool call.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	public String getArguments() {
+		return text;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public String getToolCallId() {
+		return toolCallId;
+	}
+
+	public String getToolName() {
+		return toolName;
+	}
+
+	public long getInputTokens() {
+		return inputTokens;
+	}
+
+	public long getOutputTokens() {
+		return outputTokens;
+	}
+
+	public long getCachedTokens() {
+		return cachedTokens;
+	}
+
+	@Override
+	public String toString() {
+		return "StreamEvent [type=" + type + ", text=" + text + ", index=" + index + ", toolCallId=" + toolCallId
+				+ ", toolName=" + toolName + ", inputTokens=" + inputTokens + ", outputTokens=" + outputTokens
+				+ ", cachedTokens=" + cachedTokens + "]";
+	}
+}
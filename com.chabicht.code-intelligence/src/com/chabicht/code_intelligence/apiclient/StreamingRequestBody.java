@@ -0,0 +1,187 @@
+package com.chabicht.code_intelligence.apiclient;
+
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * JSON request body for chat requests that is assembled from already encoded
+ * fragments instead of a single JSON tree.
+ * <p>
+ * The body consists of an envelope object (model, options, tools, ...) and one
+ * array property holding the conversation. The array elements are kept as the
+ * strings they were encoded to (usually taken from a
+ * {@link MessageFragmentCache}), so a request is never materialized as one big
+ * String or byte array. {@link #toBodyPublisher()} encodes the fragments to
+ * UTF-8 chunk by chunk while the HTTP client is writing them to the connection.
+ */
+public class StreamingRequestBody {
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final List<String> parts;
+	private final long contentLength;
+
+	private StreamingRequestBody(List<String> parts) {
+		this.parts = Collections.unmodifiableList(parts);
+		long length = 0;
+		for (String part : parts) {
+			length += utf8Length(part);
+		}
+		this.contentLength = length;
+	}
+
+	/**
+	 * Creates a request body of the form
+	 * <code>{...envelope, "arrayProperty": [element, element, ...]}</code>.
+	 * <p>
+	 * If the envelope already contains <code>arrayProperty</code> it is removed
+	 * from the envelope and replaced by the given elements.
+	 *
+	 * @param gson          Gson instance used to serialize the envelope.
+	 * @param envelope      all properties of the request except the array.
+	 * @param arrayProperty name of the array property, e.g. "messages".
+	 * @param elements      the already JSON encoded array elements.
+	 */
+	public static StreamingRequestBody of(Gson gson, JsonObject envelope, String arrayProperty,
+			List<String> elements) {
+		envelope.remove(arrayProperty);
+		String envelopeJson = gson.toJson(envelope).stripTrailing();
+		if (!envelopeJson.endsWith("}")) {
+			throw new IllegalArgumentException("Envelope is not a JSON object: " + envelopeJson);
+		}
+
+		List<String> parts = new ArrayList<>(elements.size() * 2 + 2);
+		StringBuilder prefix = new StringBuilder(envelopeJson.length() + arrayProperty.length() + 8);
+		prefix.append(envelopeJson, 0, envelopeJson.length() - 1);
+		if (envelope.size() > 0) {
+			prefix.append(',');
+		}
+		prefix.append(gson.toJson(arrayProperty)).append(":[");
+		parts.add(prefix.toString());
+
+		boolean first = true;
+		for (String element : elements) {
+			if (!first) {
+				parts.add(",");
+			}
+			parts.add(element);
+			first = false;
+		}
+		parts.add("]}");
+		return new StreamingRequestBody(parts);
+	}
+
+	/**
+	 * Variant of {@link #of(Gson, JsonObject, String, List)} for requests that
+	 * were built as a complete tree. The array property is taken out of the
+	 * request and its elements are encoded one by one, which still avoids holding
+	 * the whole request as a single String.
+	 */
+	public static StreamingRequestBody ofRequest(Gson gson, JsonObject request, String arrayProperty) {
+		List<String> elements = new ArrayList<>();
+		JsonElement array = request.get(arrayProperty);
+		if (array != null && array.isJsonArray()) {
+			for (JsonElement element : array.getAsJsonArray()) {
+				elements.add(gson.toJson(element));
+			}
+		}
+		return of(gson, request, arrayProperty, elements);
+	}
+
+	/**
+	 * @return the length of the UTF-8 encoded body in bytes.
+	 */
+	public long contentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * @return a publisher that encodes the body lazily in chunks of at most
+	 *         {@value #CHUNK_SIZE} characters.
+	 */
+	public BodyPublisher toBodyPublisher() {
+		return BodyPublishers.fromPublisher(BodyPublishers.ofByteArrays(ChunkIterator::new), contentLength);
+	}
+
+	/**
+	 * Materializes the complete body. Only meant for error and debug logging.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, contentLength));
+		parts.forEach(sb::append);
+		return sb.toString();
+	}
+
+	/**
+	 * Computes the number of bytes the given string occupies in UTF-8. Unpaired
+	 * surrogates count as one byte because the encoder replaces them with '?'.
+	 */
+	static long utf8Length(CharSequence s) {
+		long length = 0;
+		int n = s.length();
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length += 1;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private class ChunkIterator implements Iterator<byte[]> {
+		private int partIndex = 0;
+		private int offset = 0;
+
+		@Override
+		public boolean hasNext() {
+			while (partIndex < parts.size() && offset >= parts.get(partIndex).length()) {
+				partIndex++;
+				offset = 0;
+			}
+			return partIndex < parts.size();
+		}
+
+		@Override
+		public byte[] next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			String part = parts.get(partIndex);
+			int end = Math.min(part.length(), offset + CHUNK_SIZE);
+			// Never split a surrogate pair between two chunks.
+			if (end < part.length() && Character.isHighSurrogate(part.charAt(end - 1))
+					&& Character.isLowSurrogate(part.charAt(end))) {
+				end++;
+			}
+
+			ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(part, offset, end));
+			offset = end;
+
+			byte[] res = new byte[encoded.remaining()];
+			encoded.get(res);
+			return res;
+		}
+	}
+}
@@ -4,12 +4,10 @@ import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.T
 import static com.chabicht.code_intelligence.model.ChatConversation.ChatOption.TOOL_PROFILE;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpClient.Redirect;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +18,7 @@ import java.util.stream.Collectors;
 import org.apache.commons.lang3.StringUtils;
 
 import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.apiclient.EventStreamDecoder.Format;
 import com.chabicht.code_intelligence.chat.tools.ToolDefinitions;
 import com.chabicht.code_intelligence.chat.tools.ToolProfile;
 import com.chabicht.code_intelligence.model.ChatConversation;
@@ -46,7 +45,6 @@ import com.google.gson.JsonSyntaxException;
  */
 public class XAiApiClient extends AbstractApiClient implements IAiApiClient {
 
-	private CompletableFuture<Void> asyncRequest;
 
 	/**
 	 * Constructs an XAiApiClient with the provided API connection. The
@@ -78,8 +76,6 @@ public class XAiApiClient extends AbstractApiClient implements IAiApiClient {
 		int statusCode = -1;
 		String responseBody = "(nothing)";
 		try {
-			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-					.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 			HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
 					.uri(URI.create(apiConnection.getBaseUri() + "/").resolve(relPath)).GET();
 			if (StringUtils.isNotBlank(apiConnection.getApiKey())) {
@@ -87,7 +83,7 @@ public class XAiApiClient extends AbstractApiClient implements IAiApiClient {
 			}
 			HttpRequest request = requestBuilder.build();
 
-			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			HttpResponse<String> response = send(request, HttpResponse.BodyHandlers.ofString());
 			statusCode = response.statusCode();
 			responseBody = response.body();
 			return (T) JsonParser.parseString(responseBody);
@@ -112,8 +108,6 @@ public class XAiApiClient extends AbstractApiClient implements IAiApiClient {
 		String requestBodyString = "(nothing)";
 		try {
 			requestBodyString = gson.toJson(requestBody);
-			HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-					.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 			HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
 					.uri(URI.create(apiConnection.getBaseUri() + "/").resolve(relPath))
 					.POST(HttpRequest.BodyPublishers.ofString(requestBodyString));
@@ -123,7 +117,7 @@ public class XAiApiClient extends AbstractApiClient implements IAiApiClient {
 			}
 			HttpRequest request = requestBuilder.build();
 
-			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+			HttpResponse<String> response = send(request, ApiCall.trackResponse(HttpResponse.BodyHandlers.ofString()));
 			statusCode = response.statusCode();
 			responseBody = response.body();
 
@@ -131,7 +125,11 @@ public class XAiApiClient extends AbstractApiClient implements IAiApiClient {
 				throw new RuntimeException(
 						String.format("API request failed with code %s:\n%s", statusCode, responseBody));
 			}
-			return (T) JsonParser.parseString(responseBody);
+			JsonElement res = JsonParser.parseString(responseBody);
+			if (res.isJsonObject()) {
+				ApiCall.current().usage(res.getAsJsonObject());
+			}
+			return (T) res;
 		} catch (JsonSyntaxException | IOException | InterruptedException e) {
 			Activator.logError(String.format("""
 					Error during API request:
@@ -169,13 +167,13 @@ public class XAiApiClient extends AbstractApiClient implements IAiApiClient {
 
 	@Override
 	public void performChat(String modelName, ChatConversation chat, int maxResponseTokens) {
-		JsonArray messagesJson = buildMessagesJson(chat);
+		List<String> messageFragments = buildMessageFragments(chat);
 
 		JsonObject req = createFromPresets(PromptType.CHAT);
 		req.addProperty("model", modelName);
 		req.addProperty("stream", true);
+		addStreamUsageOption(req);
 		req.addProperty("max_completion_tokens", maxResponseTokens); // Corrected parameter name
-		req.add("messages", messagesJson);
 
 		Map<ChatOption, Object> options = chat.getOptions();
 		if (options.containsKey(TOOLS_ENABLED) && Boolean.TRUE.equals(options.get(TOOLS_ENABLED))) {
@@ -183,70 +181,42 @@ public class XAiApiClient extends AbstractApiClient implements IAiApiClient {
 			patchMissingProperties(req, ToolDefinitions.getInstance().getToolDefinitionsXAi(profile));
 			req.addProperty("parallel_tool_calls", true);
 		}
+		StreamingRequestBody requestBody = StreamingRequestBody.of(gson, req, "messages", messageFragments);
 
 		ChatConversation.ChatMessage assistantMessage = new ChatConversation.ChatMessage(
 				ChatConversation.Role.ASSISTANT, "");
 		chat.addMessage(assistantMessage, true);
 
-		String requestBody = gson.toJson(req); // For logging
-		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
-				.connectTimeout(Duration.ofSeconds(5)).followRedirects(Redirect.ALWAYS).build();
 
 		HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
 				.uri(URI.create(apiConnection.getBaseUri() + "/").resolve("chat/completions"))
-				.POST(HttpRequest.BodyPublishers.ofString(requestBody)).header("Content-Type", "application/json");
+				.POST(requestBody.toBodyPublisher()).header("Content-Type", "application/json");
 		if (StringUtils.isNotBlank(apiConnection.getApiKey())) {
 			requestBuilder.header("Authorization", "Bearer " + apiConnection.getApiKey());
 		}
 		HttpRequest request = requestBuilder.build();
+		ApiCall call = ApiCall.current();
 
-		asyncRequest = client.sendAsync(request, HttpResponse.BodyHandlers.ofLines()).thenAccept(response -> {
+		CompletableFuture<HttpResponse<InputStream>> sent = sendAsync(chat, assistantMessage, request,
+				call.trackInputStream());
+		pendingChats.trackProcessing(chat, sent.thenAccept(response -> {
 			Map<Integer, ToolCallInfo> activeToolCalls = new TreeMap<>();
 
 			try {
 				if (response.statusCode() >= 200 && response.statusCode() < 300) {
-					response.body().forEach(line -> {
-						if (line != null && line.startsWith("data: ")) {
-							String data = line.substring("data: ".length()).trim();
-							if ("[DONE]".equals(data)) {
-								return;
-							}
-							try {
-								JsonObject jsonChunk = JsonParser.parseString(data).getAsJsonObject();
-								JsonArray choices = jsonChunk.getAsJsonArray("choices");
-								if (choices != null && !choices.isEmpty()) {
-									JsonObject choice = choices.get(0).getAsJsonObject(); // Process first choice
-									if (choice.has("delta")) {
-										JsonObject delta = choice.getAsJsonObject("delta");
-										if (delta.has("content") && !delta.get("content").isJsonNull()) {
-											String chunk = delta.get("content").getAsString();
-											assistantMessage.setContent(assistantMessage.getContent() + chunk);
-										}
-
-										if (delta.has("tool_calls")) {
-											handleToolCallDelta(delta.getAsJsonArray("tool_calls"), activeToolCalls);
-										}
-									}
-
-									if (choice.has("finish_reason") && !choice.get("finish_reason").isJsonNull()) {
-										String finishReason = choice.get("finish_reason").getAsString();
-										// TODO: Consider storing finishReason on assistantMessage if needed by
-										// UI/controller after stream
-										// e.g., assistantMessage.setLastFinishReason(finishReason);
-
-										if ("tool_calls".equals(finishReason)) {
-											finalizeToolCalls(activeToolCalls, assistantMessage, chat);
-										}
-									}
-									chat.notifyMessageUpdated(assistantMessage);
-								}
-							} catch (JsonSyntaxException e) {
-								Activator.logError("Error parsing stream chunk: " + data, e);
-							}
+					new EventStreamDecoder(Format.SSE).decode(response.body(), (event, data) -> {
+						try {
+							StreamDeltaParser.parseChatCompletionChunk(data, delta -> {
+								call.onStreamEvent(delta);
+								handleStreamEvent(delta, activeToolCalls, assistantMessage, chat);
+							});
+							chat.notifyMessageUpdated(assistantMessage);
+						} catch (IOException | IllegalStateException e) {
+							Activator.logError("Error parsing stream chunk: " + data, e);
 						}
 					});
 				} else {
-					String errorBody = response.body().collect(Collectors.joining("\n"));
+					String errorBody = readErrorBody(response.body());
 					Activator.logError(String.format("Streaming chat failed with status: %d. Response: %s. Request: %s",
 							response.statusCode(), errorBody, requestBody), null);
 					assistantMessage
@@ -254,36 +224,43 @@ public class XAiApiClient extends AbstractApiClient implements IAiApiClient {
 					// TODO: Consider storing "error" as finishReason on assistantMessage if needed
 					// e.g., assistantMessage.setLastFinishReason("error");
 				}
+			} catch (IOException e) {
+				Activator.logError("Exception while reading chat stream", e);
+				call.failed(e);
 			} finally {
 				chat.notifyChatResponseFinished(assistantMessage);
-				asyncRequest = null;
 			}
 		}).exceptionally(e -> {
 			Activator.logError("Exception during streaming chat. Request: " + requestBody, e);
+			call.failed(e);
 			// TODO: Consider storing "exception" as finishReason on assistantMessage if
 			// needed
 			// e.g., assistantMessage.setLastFinishReason("exception");
 			chat.notifyChatResponseFinished(assistantMessage); // Ensure this is called
-			asyncRequest = null;
 			return null;
-		});
+		}));
 	}
 
-	private JsonArray buildMessagesJson(ChatConversation chat) {
-		JsonArray messagesJson = new JsonArray();
+	private List<String> buildMessageFragments(ChatConversation chat) {
+		List<String> fragments = new ArrayList<>();
 		for (ChatMessage message : new ArrayList<>(chat.getMessages())) {
 			if (Role.TOOL_SUMMARY.equals(message.getRole())) {
 				continue;
 			}
-
-			JsonObject jsonMsg = new JsonObject();
-			jsonMsg.addProperty("role", message.getRole().toString().toLowerCase());
-			jsonMsg.addProperty("content", compileMessageContent(message));
-			appendAssistantToolCalls(jsonMsg, message);
-			messagesJson.add(jsonMsg);
-			appendToolResultMessages(messagesJson, message);
+			fragments.addAll(messageFragments.encode(message, this::encodeMessage));
 		}
-		return messagesJson;
+		return fragments;
+	}
+
+	private JsonArray encodeMessage(ChatMessage message) {
+		JsonArray res = new JsonArray();
+		JsonObject jsonMsg = new JsonObject();
+		jsonMsg.addProperty("role", message.getRole().toString().toLowerCase());
+		jsonMsg.addProperty("content", compileMessageContent(message));
+		appendAssistantToolCalls(jsonMsg, message);
+		res.add(jsonMsg);
+		appendToolResultMessages(res, message);
+		return res;
 	}
 
 	private String compileMessageContent(ChatMessage message) {
@@ -360,39 +337,37 @@ public class XAiApiClient extends AbstractApiClient implements IAiApiClient {
 	private JsonObject buildToolResultMessage(FunctionResult functionResult) {
 		JsonObject toolMsg = new JsonObject();
 		toolMsg.addProperty("role", "tool");
-		toolMsg.addProperty("content", StringUtils.defaultString(functionResult.getResultJson()));
+		toolMsg.addProperty("content", StringUtils.defaultString(toolResultContent(functionResult)));
 		toolMsg.addProperty("tool_call_id", functionResult.getId());
 		return toolMsg;
 	}
 
-	private void handleToolCallDelta(JsonArray toolCallDeltas, Map<Integer, ToolCallInfo> activeToolCalls) {
-		if (toolCallDeltas == null) {
-			return;
-		}
-		for (int i = 0; i < toolCallDeltas.size(); i++) {
-			JsonElement toolCallElement = toolCallDeltas.get(i);
-			if (!toolCallElement.isJsonObject()) {
-				continue;
+	private void handleStreamEvent(StreamEvent event, Map<Integer, ToolCallInfo> activeToolCalls,
+			ChatMessage assistantMessage, ChatConversation chat) {
+		switch (event.getType()) {
+		case TEXT_DELTA:
+			assistantMessage.setContent(assistantMessage.getContent() + event.getText());
+			break;
+		case TOOL_CALL_DELTA:
+			ToolCallInfo toolCallInfo = activeToolCalls.computeIfAbsent(event.getIndex(), ToolCallInfo::new);
+			if (event.getToolCallId() != null) {
+				toolCallInfo.setId(event.getToolCallId());
 			}
-
-			JsonObject toolCallDelta = toolCallElement.getAsJsonObject();
-			int index = toolCallDelta.has("index") && !toolCallDelta.get("index").isJsonNull()
-					? toolCallDelta.get("index").getAsInt()
-					: i;
-			ToolCallInfo toolCallInfo = activeToolCalls.computeIfAbsent(index, ToolCallInfo::new);
-
-			if (toolCallDelta.has("id") && !toolCallDelta.get("id").isJsonNull()) {
-				toolCallInfo.setId(toolCallDelta.get("id").getAsString());
+			if (event.getToolName() != null) {
+				toolCallInfo.setName(event.getToolName());
 			}
-			if (toolCallDelta.has("function") && toolCallDelta.get("function").isJsonObject()) {
-				JsonObject functionChunk = toolCallDelta.getAsJsonObject("function");
-				if (functionChunk.has("name") && !functionChunk.get("name").isJsonNull()) {
-					toolCallInfo.setName(functionChunk.get("name").getAsString());
-				}
-				if (functionChunk.has("arguments") && !functionChunk.get("arguments").isJsonNull()) {
-					toolCallInfo.appendArguments(functionChunk.get("arguments").getAsString());
-				}
+			toolCallInfo.appendArguments(event.getArguments());
+			break;
+		case FINISH:
+			// TODO: Consider storing finishReason on assistantMessage if needed by
+			// UI/controller after stream
+			// e.g., assistantMessage.setLastFinishReason(finishReason);
+			if ("tool_calls".equals(event.getText())) {
+				finalizeToolCalls(activeToolCalls, assistantMessage, chat);
 			}
+			break;
+		default:
+			break;
 		}
 	}
 
@@ -476,16 +451,5 @@ public class XAiApiClient extends AbstractApiClient implements IAiApiClient {
 				.get("content").getAsString();
 	}
 
-	@Override
-	public synchronized boolean isChatPending() {
-		return asyncRequest != null;
-	}
 
-	@Override
-	public synchronized void abortChat() {
-		if (asyncRequest != null) {
-			asyncRequest.cancel(true);
-			asyncRequest = null;
-		}
-	}
 }
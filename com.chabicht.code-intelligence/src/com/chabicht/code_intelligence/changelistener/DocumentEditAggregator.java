@@ -1,5 +1,7 @@
 package com.chabicht.code_intelligence.changelistener;
 
+import java.lang.ref.WeakReference;
+
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.DocumentEvent;
@@ -19,7 +21,7 @@ import org.eclipse.jface.text.IDocument;
  */
 public class DocumentEditAggregator {
 
-	private final IDocument document;
+	private final WeakReference<IDocument> document;
 
 	/**
 	 * Represents one contiguous chunk of edits.
@@ -55,7 +57,7 @@ public class DocumentEditAggregator {
 	private final LastEditsDocumentListener listener;
 
 	public DocumentEditAggregator(IDocument doc, LastEditsDocumentListener listener) {
-		this.document = doc;
+		this.document = new WeakReference<>(doc);
 		this.listener = listener;
 	}
 
@@ -91,8 +93,8 @@ public class DocumentEditAggregator {
 		int startOffset = offset;
 		int endOffset = offset + length;
 		try {
-			int startLine = document.getLineOfOffset(offset);
-			int endLine = document.getLineOfOffset(offset + length);
+			int startLine = event.getDocument().getLineOfOffset(offset);
+			int endLine = event.getDocument().getLineOfOffset(offset + length);
 			currentChunk = new EditChunk(startOffset, endOffset, startLine, endLine, newText);
 		} catch (BadLocationException e) {
 			// fallback if something goes wrong
@@ -108,8 +110,8 @@ public class DocumentEditAggregator {
 	 */
 	private boolean isContiguous(DocumentEvent event) {
 		try {
-			int eventStartLine = document.getLineOfOffset(event.fOffset);
-			int eventEndLine = document.getLineOfOffset(event.fOffset + event.fLength);
+			int eventStartLine = event.getDocument().getLineOfOffset(event.fOffset);
+			int eventEndLine = event.getDocument().getLineOfOffset(event.fOffset + event.fLength);
 
 			// If the event is within or near the line range of the current chunk, treat as
 			// contiguous.
@@ -141,8 +143,8 @@ public class DocumentEditAggregator {
 
 		// Update chunk lines
 		try {
-			int eventStartLine = document.getLineOfOffset(offset);
-			int eventEndLine = document.getLineOfOffset(offset + length);
+			int eventStartLine = event.getDocument().getLineOfOffset(offset);
+			int eventEndLine = event.getDocument().getLineOfOffset(offset + length);
 			currentChunk.startLine = Math.min(currentChunk.startLine, eventStartLine);
 			currentChunk.endLine = Math.max(currentChunk.endLine, eventEndLine);
 		} catch (BadLocationException e) {
@@ -154,11 +156,12 @@ public class DocumentEditAggregator {
 	}
 
 	/**
-	 * Finalize the current chunk (if any), e.g., log or store it. Then reset
-	 * currentChunk to null.
+	 * Finalize the current chunk (if any) and store it in the recent edits. Then
+	 * reset currentChunk to null.
 	 */
 	public void finalizeCurrentChunk() {
-		if (currentChunk != null && currentChunk.text.length() > 0) {
+		IDocument document = getDocument();
+		if (document != null && currentChunk != null && currentChunk.text.length() > 0) {
 			// System.out.println("Finalizing chunk: [" + currentChunk.startOffset + "," +
 			// currentChunk.endOffset + "]\n"
 			// + "Lines [" + currentChunk.startLine + "," + currentChunk.endLine + "]\n" +
@@ -170,7 +173,8 @@ public class DocumentEditAggregator {
 					String currentChunkText = document.get(start, end - start);
 					int lineCount = countLines(currentChunkText);
 					if (lineCount < 50) {
-						listener.getLastEdits().add(currentChunkText);
+						listener.getRecentEdits().add(LastEditsDocumentListener.getFileKey(document),
+								currentChunk.startLine, currentChunk.endLine, currentChunkText);
 					}
 				}
 			} catch (BadLocationException e) {
@@ -192,8 +196,11 @@ public class DocumentEditAggregator {
 		return (currentChunk == null || currentChunk.text.length() == 0);
 	}
 
+	/**
+	 * @return the document, null if it was garbage collected.
+	 */
 	public IDocument getDocument() {
-		return document;
+		return document.get();
 	}
 
 	public long getLastChangeTimestamp() {
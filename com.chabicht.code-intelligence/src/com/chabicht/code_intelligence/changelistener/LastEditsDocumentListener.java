@@ -1,10 +1,11 @@
 package com.chabicht.code_intelligence.changelistener;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
+import java.util.WeakHashMap;
 
+import org.eclipse.core.filebuffers.FileBuffers;
+import org.eclipse.core.filebuffers.ITextFileBuffer;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentListener;
@@ -12,21 +13,25 @@ import org.eclipse.ui.IPropertyListener;
 import org.eclipse.ui.IWorkbenchPartConstants;
 import org.eclipse.ui.texteditor.ITextEditor;
 
+import com.chabicht.code_intelligence.completion.CompletionPrefetcher;
+
 public class LastEditsDocumentListener implements IDocumentListener, IPropertyListener {
 
 	private static LastEditsDocumentListener INSTANCE = null;
 
-	private static final long DEBOUNCE_DELAY_MS = 1000;
-
-	private Map<IDocument, DocumentEditAggregator> aggregators = new HashMap<>();
+	/**
+	 * Weak keys, so aggregators of closed documents don't keep the documents
+	 * alive. The aggregators only reference their document weakly as well.
+	 */
+	private final Map<IDocument, DocumentEditAggregator> aggregators = Collections
+			.synchronizedMap(new WeakHashMap<>());
 
-	private final Deque<String> lastEdits;
+	private final RecentEditStore recentEdits = new RecentEditStore();
 
 	private LastEditsDocumentListener() {
-		lastEdits = new ArrayDeque<>(25);
 	}
 
-	public static LastEditsDocumentListener getInstance() {
+	public static synchronized LastEditsDocumentListener getInstance() {
 		if (INSTANCE == null)
 			INSTANCE = new LastEditsDocumentListener();
 		return INSTANCE;
@@ -42,17 +47,27 @@ public class LastEditsDocumentListener implements IDocumentListener, IPropertyLi
 		IDocument doc = event.getDocument();
 
 		// Find or create aggregator for this doc
-		DocumentEditAggregator aggregator = aggregators.get(doc);
-		if (aggregator == null) {
-			aggregator = new DocumentEditAggregator(doc, this);
-			aggregators.put(doc, aggregator);
-		}
+		DocumentEditAggregator aggregator = aggregators.computeIfAbsent(doc,
+				d -> new DocumentEditAggregator(d, this));
 
 		aggregator.addChange(event);
+		CompletionPrefetcher.getInstance().documentChanged(aggregator);
 	}
 
-	public Deque<String> getLastEdits() {
-		return lastEdits;
+	public RecentEditStore getRecentEdits() {
+		return recentEdits;
+	}
+
+	/**
+	 * @return the location of the file of the document, or an identifier unique
+	 *         to the document if it is not backed by a file buffer.
+	 */
+	public static String getFileKey(IDocument document) {
+		ITextFileBuffer buffer = FileBuffers.getTextFileBufferManager().getTextFileBuffer(document);
+		if (buffer != null && buffer.getLocation() != null) {
+			return buffer.getLocation().toString();
+		}
+		return "document@" + Integer.toHexString(System.identityHashCode(document));
 	}
 
 	@Override
@@ -66,7 +81,7 @@ public class LastEditsDocumentListener implements IDocumentListener, IPropertyLi
 	public void update(Object source) {
 		if (source instanceof ITextEditor texteditor) {
 			IDocument doc = texteditor.getDocumentProvider().getDocument(texteditor.getEditorInput());
-			DocumentEditAggregator aggregator = aggregators.get(doc);
+			DocumentEditAggregator aggregator = doc != null ? aggregators.get(doc) : null;
 			if (aggregator != null) {
 				aggregator.finalizeCurrentChunk();
 			}
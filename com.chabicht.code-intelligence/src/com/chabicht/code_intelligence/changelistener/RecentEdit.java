@@ -0,0 +1,70 @@
+package com.chabicht.code_intelligence.changelistener;
+
+/**
+ * A finalized edit chunk: the text of the edited lines after the edit.
+ */
+public class RecentEdit {
+	private final String file;
+	private final int startLine;
+	private final int endLine;
+	private final String text;
+	private final long timestamp;
+
+	/**
+	 * @param file      identifies the edited file (usually its location).
+	 * @param startLine first edited line (0-based).
+	 * @param endLine   last edited line (0-based, inclusive).
+	 * @param text      content of the edited lines.
+	 * @param timestamp time of the edit in milliseconds.
+	 */
+	public RecentEdit(String file, int startLine, int endLine, String text, long timestamp) {
+		this.file = file;
+		this.startLine = startLine;
+		this.endLine = endLine;
+		this.text = text;
+		this.timestamp = timestamp;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public int getStartLine() {
+		return startLine;
+	}
+
+	public int getEndLine() {
+		return endLine;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return number of lines between the edit and the given line, 0 if the line
+	 *         is part of the edit.
+	 */
+	public int distanceTo(int line) {
+		if (line < startLine) {
+			return startLine - line;
+		}
+		return Math.max(0, line - endLine);
+	}
+
+	boolean overlaps(RecentEdit other) {
+		return file.equals(other.file) && other.startLine <= endLine && other.endLine >= startLine;
+	}
+
+	/**
+	 * @return a rough estimate of the number of tokens of the text (4 characters
+	 *         per token).
+	 */
+	public int estimateTokens() {
+		return (text.length() + 3) / 4;
+	}
+}
@@ -0,0 +1,122 @@
+package com.chabicht.code_intelligence.changelistener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded history of the most recent edits, capped per file and in total.
+ * <p>
+ * Completion prompts don't get the whole history but only the edits most
+ * relevant to the cursor position (see {@link #select(String, int, int, int)}).
+ */
+public class RecentEditStore {
+	static final int MAX_EDITS_PER_FILE = 10;
+	static final int MAX_EDITS = 50;
+
+	/** After this time an edit counts half as recent as a new one. */
+	private static final long RECENCY_HALF_LIFE_MS = 10 * 60 * 1000;
+	/** Distance in lines at which an edit counts half as close as the cursor line. */
+	private static final double PROXIMITY_HALF_DISTANCE_LINES = 20;
+
+	private final int maxEditsPerFile;
+	private final int maxEdits;
+	private final LongSupplier clock;
+
+	/** Oldest edit first. */
+	private final Deque<RecentEdit> edits = new ArrayDeque<>();
+
+	public RecentEditStore() {
+		this(MAX_EDITS_PER_FILE, MAX_EDITS, System::currentTimeMillis);
+	}
+
+	RecentEditStore(int maxEditsPerFile, int maxEdits, LongSupplier clock) {
+		this.maxEditsPerFile = maxEditsPerFile;
+		this.maxEdits = maxEdits;
+		this.clock = clock;
+	}
+
+	/**
+	 * Adds an edit. Older edits of overlapping lines in the same file are
+	 * replaced, since the new edit contains the current content of these lines.
+	 * The oldest edits are dropped when the per file or the total cap is reached.
+	 */
+	public synchronized void add(String file, int startLine, int endLine, String text) {
+		RecentEdit edit = new RecentEdit(Objects.requireNonNull(file), startLine, endLine, text, clock.getAsLong());
+		edits.removeIf(e -> e.overlaps(edit));
+		edits.addLast(edit);
+
+		long editsOfFile = edits.stream().filter(e -> e.getFile().equals(file)).count();
+		for (Iterator<RecentEdit> it = edits.iterator(); it.hasNext() && editsOfFile > maxEditsPerFile;) {
+			if (it.next().getFile().equals(file)) {
+				it.remove();
+				editsOfFile--;
+			}
+		}
+		while (edits.size() > maxEdits) {
+			edits.removeFirst();
+		}
+	}
+
+	/**
+	 * @return all stored edits, oldest first.
+	 */
+	public synchronized List<RecentEdit> getEdits() {
+		return new ArrayList<>(edits);
+	}
+
+	public synchronized void clear() {
+		edits.clear();
+	}
+
+	/**
+	 * Selects the edits most relevant for a completion at the given position.
+	 * Edits are ranked by recency and, for edits of the same file, by their
+	 * distance to the cursor line. The best ranked edits are taken as long as
+	 * they fit into the token budget.
+	 *
+	 * @param file        the file of the completion.
+	 * @param caretLine   the line of the cursor (0-based).
+	 * @param maxCount    maximum number of edits.
+	 * @param tokenBudget maximum estimated number of tokens of all edits.
+	 * @return the selected edits, oldest first.
+	 */
+	public List<RecentEdit> select(String file, int caretLine, int maxCount, int tokenBudget) {
+		List<RecentEdit> candidates = getEdits();
+		long now = clock.getAsLong();
+		candidates.sort(Comparator.comparingDouble((RecentEdit e) -> score(e, file, caretLine, now)).reversed());
+
+		List<RecentEdit> res = new ArrayList<>();
+		int remainingTokens = tokenBudget;
+		for (RecentEdit edit : candidates) {
+			if (res.size() >= maxCount) {
+				break;
+			}
+			int tokens = edit.estimateTokens();
+			if (tokens <= remainingTokens) {
+				res.add(edit);
+				remainingTokens -= tokens;
+			}
+		}
+		res.sort(Comparator.comparingLong(RecentEdit::getTimestamp));
+		return res;
+	}
+
+	/**
+	 * @return the relevance of the edit between 0 and 3: up to 1 for recency, 1
+	 *         for being in the same file and up to 1 for proximity to the cursor.
+	 */
+	static double score(RecentEdit edit, String file, int caretLine, long now) {
+		long age = Math.max(0, now - edit.getTimestamp());
+		double res = Math.pow(0.5, (double) age / RECENCY_HALF_LIFE_MS);
+		if (edit.getFile().equals(file)) {
+			res += 1 + 1 / (1 + edit.distanceTo(caretLine) / PROXIMITY_HALF_DISTANCE_LINES);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,333 @@
+package com.chabicht.code_intelligence.chat;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+
+import com.chabicht.code_intelligence.chat.tools.FunctionCallSession.BatchExecutionReport;
+import com.chabicht.code_intelligence.chat.tools.FunctionCallSession.ChangeApplicationResult;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatListener;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCall;
+import com.chabicht.code_intelligence.model.ChatConversation.Role;
+import com.chabicht.code_intelligence.util.Log;
+
+/**
+ * Drives the tool loop of a conversation: when a response with tool calls
+ * finished, the calls are executed and the results are sent back to the model,
+ * until it answers without tool calls or the turn budget is used up.
+ * <p>
+ * Everything runs on the given executor, usually the one of the
+ * {@link ChatSession}, so neither executing the tools nor building the next
+ * request waits for the UI thread. The UI is only told what happened through
+ * the {@link Listener} and has to switch to its thread itself.
+ * <p>
+ * The loop is registered as a {@link ChatListener} of the conversation, or
+ * called by one. Each {@link #start(Runnable)} and {@link #cancel()} begins a
+ * new generation, events of responses from an earlier generation are ignored.
+ * So a response that keeps streaming after it was aborted can't execute its
+ * tool calls or send a continuation, even if the user sent the next message
+ * meanwhile.
+ */
+public class AgentLoop implements ChatListener {
+	public static final int DEFAULT_MAX_TURNS = 50;
+
+	/**
+	 * Executes the tool calls of the responses, implemented by
+	 * {@link com.chabicht.code_intelligence.chat.tools.FunctionCallSession}.
+	 */
+	public interface Tools {
+		void enqueueBatch(ChatMessage assistantMessage);
+
+		void speculate(ChatMessage assistantMessage, FunctionCall call);
+
+		BatchExecutionReport executePendingBatchesSequentially();
+
+		void discardPendingBatches();
+
+		boolean hasPendingChanges();
+
+		ChangeApplicationResult applyPendingChanges();
+	}
+
+	/**
+	 * Why the loop stopped sending tool results to the model.
+	 */
+	public static enum StopReason {
+		/** The model answered without tool calls. */
+		ANSWERED,
+		/** The maximum number of turns was reached, the last results weren't sent. */
+		TURN_LIMIT,
+		/** The session was cancelled, the tool calls of the response were dropped. */
+		CANCELLED,
+		/** The user didn't accept the changes of the tool calls. */
+		CHANGES_REJECTED;
+	}
+
+	/**
+	 * Events of the loop. They are published on the thread of the loop, not the
+	 * UI thread.
+	 */
+	public interface Listener {
+		/**
+		 * The tool calls of the finished response were executed, the messages of the
+		 * report have their results.
+		 */
+		default void onToolsExecuted(BatchExecutionReport report) {
+		}
+
+		/**
+		 * The results are about to be sent to the model.
+		 *
+		 * @param turn the number of the continuation since the last user message,
+		 *             starting at 1.
+		 */
+		default void onContinue(int turn, BatchExecutionReport report) {
+		}
+
+		/**
+		 * The loop stopped, nothing is sent anymore until the user sends the next
+		 * message.
+		 */
+		default void onStopped(StopReason reason) {
+		}
+
+		/**
+		 * The response and its tool calls are done, called after the other events
+		 * of the turn.
+		 */
+		default void onTurnFinished(ChatMessage message) {
+		}
+	}
+
+	private final Tools tools;
+	private final Executor executor;
+	private final BooleanSupplier cancelled;
+	private final BooleanSupplier continuation;
+	private final Listener listener;
+
+	private volatile int maxTurns = DEFAULT_MAX_TURNS;
+	private volatile boolean applyChangesImmediately;
+	private volatile boolean running;
+	private int turns;
+	private int generation;
+	// The responses of the current generation.
+	private final Set<UUID> responses = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param tools        executes the tool calls.
+	 * @param executor     runs the turns one after the other.
+	 * @param cancelled    tells if the response was aborted.
+	 * @param continuation sends the conversation with the tool results to the
+	 *                     model again, returns false if nothing was sent because
+	 *                     the session was cancelled meanwhile.
+	 * @param listener     receives the events of the loop.
+	 */
+	public AgentLoop(Tools tools, Executor executor, BooleanSupplier cancelled, BooleanSupplier continuation,
+			Listener listener) {
+		this.tools = tools;
+		this.executor = executor;
+		this.cancelled = cancelled;
+		this.continuation = continuation;
+		this.listener = listener;
+	}
+
+	/**
+	 * Sends the message of the user, the loop runs until it stops.
+	 *
+	 * @param send sends the conversation to the model.
+	 */
+	public synchronized void start(Runnable send) {
+		generation++;
+		responses.clear();
+		turns = 0;
+		running = true;
+		try {
+			send.run();
+		} catch (RuntimeException e) {
+			running = false;
+			throw e;
+		}
+	}
+
+	/**
+	 * Aborts the loop. Events of the responses sent so far are ignored from now
+	 * on, the loop stops with {@link StopReason#CANCELLED} after the tools that
+	 * are still executing.
+	 */
+	public void cancel() {
+		int cancelled;
+		synchronized (this) {
+			cancelled = ++generation;
+			responses.clear();
+			if (!running) {
+				return;
+			}
+		}
+		executor.execute(() -> {
+			if (isGeneration(cancelled)) {
+				tools.discardPendingBatches();
+				stop(cancelled, StopReason.CANCELLED);
+			}
+		});
+	}
+
+	/**
+	 * @return true from {@link #start(Runnable)} until the loop stopped, i.e. also
+	 *         while the tools are executing and no response is streaming.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @param maxTurns how many times in a row the tool results are sent to the
+	 *                 model before the loop stops and waits for the user.
+	 */
+	public void setMaxTurns(int maxTurns) {
+		this.maxTurns = maxTurns;
+	}
+
+	public int getMaxTurns() {
+		return maxTurns;
+	}
+
+	/**
+	 * @param applyChangesImmediately true if changes of the tools are applied
+	 *                                after each turn, false if they are collected
+	 *                                until the loop stops.
+	 */
+	public void setApplyChangesImmediately(boolean applyChangesImmediately) {
+		this.applyChangesImmediately = applyChangesImmediately;
+	}
+
+	@Override
+	public void onMessageAdded(ChatMessage message, boolean updating) {
+		if (Role.ASSISTANT.equals(message.getRole())) {
+			responses.add(message.getId());
+		}
+	}
+
+	@Override
+	public void onMessageUpdated(ChatMessage message) {
+		// Only responses are handled.
+	}
+
+	@Override
+	public void onFunctionCall(ChatMessage message) {
+		if (message.getFunctionCallBatch().isEmpty() || generationOf(message) < 0) {
+			return;
+		}
+
+		message.setMetadata("tool_execution_state", "queued");
+		tools.enqueueBatch(message);
+	}
+
+	@Override
+	public void onFunctionCallComplete(ChatMessage message, FunctionCall call) {
+		if (!cancelled.getAsBoolean() && generationOf(message) >= 0) {
+			tools.speculate(message, call);
+		}
+	}
+
+	@Override
+	public void onChatResponseFinished(ChatMessage message) {
+		int turnGeneration = generationOf(message);
+		if (turnGeneration < 0) {
+			// A response of an aborted turn, cancel() stops the loop.
+			return;
+		}
+		executor.execute(() -> {
+			try {
+				finishTurn(message, turnGeneration);
+			} catch (RuntimeException e) {
+				Log.logError("Tool loop failed", e);
+				stop(turnGeneration, StopReason.ANSWERED);
+			} finally {
+				listener.onTurnFinished(message);
+			}
+		});
+	}
+
+	private void finishTurn(ChatMessage message, int turnGeneration) {
+		if (!isGeneration(turnGeneration)) {
+			return;
+		}
+		if (cancelled.getAsBoolean()) {
+			// The response was aborted, its tool calls aren't executed.
+			tools.discardPendingBatches();
+			stop(turnGeneration, StopReason.CANCELLED);
+			return;
+		}
+
+		BatchExecutionReport report = tools.executePendingBatchesSequentially();
+		for (ChatMessage updatedMessage : report.getUpdatedMessages()) {
+			updatedMessage.setMetadata("tool_execution_state", "completed");
+		}
+		listener.onToolsExecuted(report);
+
+		if (!isGeneration(turnGeneration)) {
+			// Aborted while the tools were executing, cancel() stops the loop.
+			return;
+		}
+		if (report.getCallsExecuted() == 0) {
+			stop(turnGeneration, StopReason.ANSWERED);
+			return;
+		}
+		if (turns >= maxTurns) {
+			stop(turnGeneration, StopReason.TURN_LIMIT);
+			return;
+		}
+		if (applyChangesImmediately && tools.hasPendingChanges()
+				&& tools.applyPendingChanges() != ChangeApplicationResult.SUCCESS) {
+			stop(turnGeneration, StopReason.CHANGES_REJECTED);
+			return;
+		}
+		if (cancelled.getAsBoolean()) {
+			// Aborted while the tools were executing, sending would reset the session.
+			stop(turnGeneration, StopReason.CANCELLED);
+			return;
+		}
+
+		turns++;
+		listener.onContinue(turns, report);
+		if (!continueTurn(turnGeneration)) {
+			// Aborted after the checks above.
+			stop(turnGeneration, StopReason.CANCELLED);
+		}
+	}
+
+	/**
+	 * Sends the continuation unless the turn was aborted meanwhile. Holds the lock
+	 * of the loop, so the user can't start the next generation in between.
+	 */
+	private synchronized boolean continueTurn(int turnGeneration) {
+		return generation == turnGeneration && continuation.getAsBoolean();
+	}
+
+	private void stop(int turnGeneration, StopReason reason) {
+		synchronized (this) {
+			if (generation != turnGeneration || !running) {
+				// Stopped already, or the user started the next generation.
+				return;
+			}
+			turns = 0;
+			running = false;
+		}
+		listener.onStopped(reason);
+	}
+
+	private synchronized boolean isGeneration(int turnGeneration) {
+		return generation == turnGeneration;
+	}
+
+	/**
+	 * @return the generation of a response, -1 if it was sent before the last
+	 *         {@link #start(Runnable)} or {@link #cancel()}.
+	 */
+	private synchronized int generationOf(ChatMessage message) {
+		return responses.contains(message.getId()) ? generation : -1;
+	}
+}
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.regex.Matcher;
@@ -28,6 +29,8 @@ import org.eclipse.swt.widgets.Composite;
 
 import com.chabicht.code_intelligence.Activator;
 import com.chabicht.code_intelligence.util.ThemeUtil;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 
 public class ChatComponent extends Composite {
 	private static final RGB BLACK = new RGB(0, 0, 0);
@@ -169,6 +172,37 @@ public class ChatComponent extends Composite {
 				updating ? "true" : "false"));
 	}
 
+	/**
+	 * A message of the transcript that is rendered on demand.
+	 *
+	 * @param estimatedHeight height in pixels reserved for the message until it is
+	 *                        rendered.
+	 */
+	public record Placeholder(UUID messageId, String role, int estimatedHeight) {
+	}
+
+	/**
+	 * Adds messages without content. The page requests their content with the
+	 * <code>renderRequested</code> browser function when they come near the
+	 * viewport, it has to be set with {@link #fillPlaceholder(UUID, String)}.
+	 */
+	public void addPlaceholders(List<Placeholder> placeholders) {
+		JsonArray json = new JsonArray();
+		for (Placeholder placeholder : placeholders) {
+			knownMessages.add(placeholder.messageId());
+			JsonObject item = new JsonObject();
+			item.addProperty("id", placeholder.messageId().toString());
+			item.addProperty("role", placeholder.role());
+			item.addProperty("height", placeholder.estimatedHeight());
+			json.add(item);
+		}
+		bChat.execute(String.format("addPlaceholders('%s');", escapeForJavaScript(json.toString())));
+	}
+
+	public void fillPlaceholder(UUID messageId, String html) {
+		bChat.execute(String.format("fillPlaceholder('%s', '%s');", messageId, escapeForJavaScript(html)));
+	}
+
 	public void updateMessage(UUID messageId, String html) {
 		bChat.execute(String.format("updateMessage('%s', '%s');", messageId, escapeForJavaScript(html)));
 	}
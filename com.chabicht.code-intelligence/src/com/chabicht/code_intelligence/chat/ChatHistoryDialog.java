@@ -6,6 +6,12 @@ import java.time.format.FormatStyle;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jface.dialogs.Dialog;
@@ -30,20 +36,27 @@ import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.MenuItem;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.Text;
 
 import com.chabicht.code_intelligence.Activator;
 import com.chabicht.code_intelligence.model.ChatHistoryEntry;
+import com.chabicht.code_intelligence.model.ChatHistoryIndex;
 
 public class ChatHistoryDialog extends Dialog {
 	public enum ResultMode {
 		LOAD, REUSE_AS_NEW
 	}
 
+	private static final int MAX_SEARCH_RESULTS = 200;
+
 	private List<ChatHistoryEntry> chatHistory;
+	private CompletableFuture<ChatHistoryIndex> chatHistoryIndex;
+	private Text searchText;
 	private TableViewer tableViewer;
 	private ChatHistoryEntry selectedEntry;
 	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofLocalizedDateTime(FormatStyle.SHORT)
@@ -53,6 +66,7 @@ public class ChatHistoryDialog extends Dialog {
 	public ChatHistoryDialog(Shell parentShell, List<ChatHistoryEntry> chatHistory) {
 		super(parentShell);
 		this.chatHistory = chatHistory;
+		this.chatHistoryIndex = Activator.getDefault().updateChatHistoryIndex(chatHistory);
 		setShellStyle(SWT.DIALOG_TRIM | SWT.RESIZE | SWT.APPLICATION_MODAL);
 	}
 
@@ -67,6 +81,11 @@ public class ChatHistoryDialog extends Dialog {
 		Composite container = (Composite) super.createDialogArea(parent);
 		container.setLayout(new GridLayout(1, true));
 
+		searchText = new Text(container, SWT.SEARCH | SWT.ICON_SEARCH | SWT.ICON_CANCEL);
+		searchText.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+		searchText.setMessage("Search messages, tool calls and context files");
+		searchText.addModifyListener(e -> applySearch());
+
 		// Add SWT.MULTI to allow multiple selection
 		tableViewer = new TableViewer(container, SWT.BORDER | SWT.V_SCROLL | SWT.FULL_SELECTION | SWT.MULTI);
 		Table table = tableViewer.getTable();
@@ -202,7 +221,7 @@ public class ChatHistoryDialog extends Dialog {
 
 				if (MessageDialog.openConfirm(getShell(), "Delete Entries", message)) {
 					chatHistory.removeAll(entriesToDelete);
-					tableViewer.refresh();
+					applySearch();
 				}
 			}
 
@@ -210,6 +229,38 @@ public class ChatHistoryDialog extends Dialog {
 		}
 	}
 
+	/**
+	 * Shows the entries matching the search text, best match first, or the whole
+	 * history if there is no search text. Until the index is up to date, only the
+	 * titles are searched and the search is repeated when it is ready.
+	 */
+	private void applySearch() {
+		String query = searchText.getText();
+		if (StringUtils.isBlank(query)) {
+			tableViewer.setInput(chatHistory);
+			return;
+		}
+		ChatHistoryIndex index = chatHistoryIndex.isCompletedExceptionally() ? null : chatHistoryIndex.getNow(null);
+		if (index == null) {
+			tableViewer.setInput(chatHistory.stream()
+					.filter(entry -> StringUtils.containsIgnoreCase(entry.getTitle(), query.trim())).toList());
+			if (!chatHistoryIndex.isDone()) {
+				Display display = searchText.getDisplay();
+				chatHistoryIndex.thenRun(() -> display.asyncExec(() -> {
+					if (!searchText.isDisposed() && query.equals(searchText.getText())) {
+						applySearch();
+					}
+				}));
+			}
+			return;
+		}
+		Map<UUID, ChatHistoryEntry> entriesById = chatHistory.stream()
+				.collect(Collectors.toMap(ChatHistoryEntry::getId, Function.identity(), (a, b) -> a));
+		List<ChatHistoryEntry> matches = index.search(query, MAX_SEARCH_RESULTS).stream()
+				.map(hit -> entriesById.get(hit.entryId())).filter(Objects::nonNull).toList();
+		tableViewer.setInput(matches);
+	}
+
 	private void reuseSelectedEntryAsNew() {
 		IStructuredSelection selection = (IStructuredSelection) tableViewer.getSelection();
 		if (selection.size() == 1) {
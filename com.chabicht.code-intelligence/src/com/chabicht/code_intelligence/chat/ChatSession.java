@@ -0,0 +1,135 @@
+package com.chabicht.code_intelligence.chat;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.chabicht.code_intelligence.apiclient.AiModelConnection;
+import com.chabicht.code_intelligence.chat.tools.FunctionCallSession;
+import com.chabicht.code_intelligence.model.ChatConversation;
+
+/**
+ * State of one conversation that streams and executes tools independently of
+ * other conversations, e.g. a long running agent in one chat view while quick
+ * questions are asked in another.
+ * <p>
+ * Each session has its own {@link FunctionCallSession}, an executor for its
+ * background work and a cancellation flag. The HTTP layer is shared, aborting
+ * a session only aborts the request of its own conversation.
+ * <p>
+ * Sessions are created and closed with {@link ChatSessionManager}.
+ */
+public class ChatSession {
+	private final UUID id = UUID.randomUUID();
+	private final String name;
+	private final ExecutorService executor;
+	private final FunctionCallSession functionCallSession = new FunctionCallSession();
+
+	private volatile AiModelConnection connection;
+	private volatile ChatConversation conversation;
+	private volatile boolean cancelled;
+
+	ChatSession(String name) {
+		this.name = name;
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "Chat session " + name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public UUID getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public FunctionCallSession getFunctionCallSession() {
+		return functionCallSession;
+	}
+
+	/**
+	 * Sends the conversation to the model. Resets the cancellation, a response
+	 * that is still streaming for the conversation is aborted first.
+	 */
+	public synchronized void chat(AiModelConnection connection, ChatConversation conversation,
+			int maxResponseTokens) {
+		if (this.connection != null && this.conversation != null && this.connection.isChatPending(this.conversation)) {
+			this.connection.abortChat(this.conversation);
+		}
+		this.connection = connection;
+		this.conversation = conversation;
+		this.cancelled = false;
+		connection.chat(conversation, maxResponseTokens);
+	}
+
+	/**
+	 * Sends the conversation to the model again with the connection of the last
+	 * {@link #chat(AiModelConnection, ChatConversation, int)}, e.g. with the
+	 * results of tool calls. Nothing is sent if the session was cancelled, also
+	 * if that happens while this method is called.
+	 *
+	 * @return true if the conversation was sent.
+	 */
+	public synchronized boolean continueChat(int maxResponseTokens) {
+		if (cancelled || connection == null || conversation == null) {
+			return false;
+		}
+		connection.chat(conversation, maxResponseTokens);
+		return true;
+	}
+
+	/**
+	 * @return true if a response is streaming for the conversation of the session.
+	 */
+	public boolean isChatPending() {
+		AiModelConnection c = connection;
+		ChatConversation conv = conversation;
+		return c != null && conv != null && c.isChatPending(conv);
+	}
+
+	/**
+	 * Aborts the response of the session's conversation and marks the session as
+	 * cancelled, so tool calls of the aborted response aren't executed.
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		AiModelConnection c = connection;
+		ChatConversation conv = conversation;
+		if (c != null && conv != null) {
+			c.abortChat(conv);
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Runs background work of the session, e.g. creating a caption. Tasks of one
+	 * session run one after the other.
+	 *
+	 * @return the future of the task, or null if the session is closed.
+	 */
+	public Future<?> submit(Runnable task) {
+		try {
+			return executor.submit(task);
+		} catch (RejectedExecutionException e) {
+			return null;
+		}
+	}
+
+	void close() {
+		cancel();
+		executor.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "ChatSession [" + name + ", " + id + "]";
+	}
+}
@@ -0,0 +1,61 @@
+package com.chabicht.code_intelligence.chat;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps track of the open {@link ChatSession}s of the chat views and of
+ * background agents, so several conversations can stream and execute tools at
+ * the same time.
+ */
+public class ChatSessionManager {
+	private static ChatSessionManager INSTANCE = null;
+
+	private final Map<UUID, ChatSession> sessions = new LinkedHashMap<>();
+
+	private ChatSessionManager() {
+		// Singleton.
+	}
+
+	public static synchronized ChatSessionManager getInstance() {
+		if (INSTANCE == null) {
+			INSTANCE = new ChatSessionManager();
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * Closes the sessions that are still open, e.g. of views that weren't disposed
+	 * before the plug-in stops.
+	 */
+	public static synchronized void shutdown() {
+		if (INSTANCE != null) {
+			List<ChatSession> open;
+			synchronized (INSTANCE) {
+				open = new ArrayList<>(INSTANCE.sessions.values());
+				INSTANCE.sessions.clear();
+			}
+			open.forEach(ChatSession::close);
+			INSTANCE = null;
+		}
+	}
+
+	public synchronized ChatSession open(String name) {
+		ChatSession session = new ChatSession(name);
+		sessions.put(session.getId(), session);
+		return session;
+	}
+
+	/**
+	 * Cancels the session and stops its background work.
+	 */
+	public void close(ChatSession session) {
+		synchronized (this) {
+			sessions.remove(session.getId());
+		}
+		session.close();
+	}
+}
@@ -19,7 +19,6 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
@@ -39,6 +38,8 @@ import org.eclipse.core.databinding.observable.list.ListDiffEntry;
 import org.eclipse.core.databinding.observable.list.WritableList;
 import org.eclipse.jdt.core.ToolFactory;
 import org.eclipse.jdt.core.formatter.CodeFormatter;
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IToolBarManager;
 import org.eclipse.jface.dialogs.Dialog;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.layout.GridDataFactory;
@@ -102,6 +103,7 @@ import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IFileEditorInput;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PartInitException;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.part.ViewPart;
 import org.eclipse.ui.texteditor.ITextEditor;
@@ -110,9 +112,10 @@ import com.chabicht.code_intelligence.Activator;
 import com.chabicht.code_intelligence.Tuple;
 import com.chabicht.code_intelligence.apiclient.AiModelConnection;
 import com.chabicht.code_intelligence.apiclient.ConnectionFactory;
+import com.chabicht.code_intelligence.chat.AgentLoop.StopReason;
+import com.chabicht.code_intelligence.chat.ChatComponent.Placeholder;
 import com.chabicht.code_intelligence.chat.tools.FunctionCallSession;
 import com.chabicht.code_intelligence.chat.tools.FunctionCallSession.BatchExecutionReport;
-import com.chabicht.code_intelligence.chat.tools.FunctionCallSession.ChangeApplicationResult;
 import com.chabicht.code_intelligence.model.ChatConversation;
 import com.chabicht.code_intelligence.model.ChatConversation.ChatListener;
 import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
@@ -148,14 +151,36 @@ public class ChatView extends ViewPart {
 	private static final int BUTTON_SIZE = 40;
 	private static final int ATTACHMENT_COMP_HEIGHT = 30;
 	private static final long MESSAGE_UPDATE_THROTTLE_MS = 150L;
+	private static final int PLACEHOLDER_BASE_HEIGHT = 60;
+	private static final int PLACEHOLDER_LINE_HEIGHT = 20;
+	private static final int PLACEHOLDER_MAX_HEIGHT = 4000;
+	private static final int PLACEHOLDER_CHARS_PER_LINE = 100;
+	private static final int FRAGMENT_CACHE_ENTRIES = 2000;
 
-	private static final WritableList<MessageContext> externallyAddedContext = new WritableList<>();
+	public static final String ID = "com.chabicht.code_intelligence.chat.ChatView";
 
-	private static final ExecutorService executorService = Executors.newSingleThreadExecutor();
+	/** The open chat views, the one that was active last at the end. */
+	private static final List<ChatView> openViews = new ArrayList<>();
+
+	/** Context added while no chat view is open, taken by the next one. */
+	private static final List<MessageContext> contextWithoutView = new ArrayList<>();
+
+	/** Context for the next message, added from outside, e.g. the editor. */
+	private final WritableList<MessageContext> externallyAddedContext = new WritableList<>();
+	private IListChangeListener<MessageContext> externallyAddedContextListener;
+
+	private final ChatSession session = ChatSessionManager.getInstance().open("Chat");
 
 	private final ChatSettings settings = new ChatSettings();
 	private final ScheduledExecutorService messageRenderExecutor = Executors.newSingleThreadScheduledExecutor();
 	private final Map<UUID, PendingMessageUpdate> pendingMessageUpdates = new ConcurrentHashMap<>();
+	private final MessageHtmlCache messageHtmlCache = new MessageHtmlCache();
+	/**
+	 * Parts of messages (markdown, function calls) so an updated message only
+	 * renders the parts that changed.
+	 */
+	private final MessageHtmlCache fragmentHtmlCache = new MessageHtmlCache(FRAGMENT_CACHE_ENTRIES);
+	private BrowserFunction renderRequestFunction;
 
 	LocalResourceManager resources = new LocalResourceManager(JFaceResources.getResources());
 
@@ -178,15 +203,20 @@ public class ChatView extends ViewPart {
 	private HtmlRenderer markdownRenderer = MarkdownUtil.createRenderer();
 
 	private Button btnSend;
-	private AiModelConnection connection;
+	private volatile AiModelConnection connection;
 
 	private Composite cmpAttachments;
 	private Button btnSettings;
 	private Button btnHistory;
 
-	private FunctionCallSession functionCallSession = new FunctionCallSession();
+	private final FunctionCallSession functionCallSession = session.getFunctionCallSession();
 
-	private ChatListener chatListener = new ChatListener() {
+	private final ChatViewListener chatListener = new ChatViewListener();
+
+	private final AgentLoop agentLoop = new AgentLoop(functionCallSession, session::submit, session::isCancelled,
+			this::sendFunctionResult, new AgentLoopListener());
+
+	private class ChatViewListener implements ChatListener {
 
 		@Override
 		public void onMessageUpdated(ChatMessage message) {
@@ -195,8 +225,9 @@ public class ChatView extends ViewPart {
 
 		@Override
 		public void onMessageAdded(ChatMessage message, boolean updating) {
+			agentLoop.onMessageAdded(message, updating);
 			MessageRenderSnapshot snapshot = createMessageRenderSnapshot(message, true);
-			String initialHtml = buildInitialMessageHtml(snapshot);
+			String initialHtml = renderInitialMessageHtml(snapshot);
 			Display display = Display.getDefault();
 			if (display == null || display.isDisposed()) {
 				return;
@@ -215,12 +246,16 @@ public class ChatView extends ViewPart {
 				return;
 			}
 
-			message.setMetadata("tool_execution_state", "queued");
-			functionCallSession.enqueueBatch(message);
+			agentLoop.onFunctionCall(message);
 			logDebugBatchQueuedInView(message);
 			queueMessageUpdate(message, true);
 		}
 
+		@Override
+		public void onFunctionCallComplete(ChatMessage message, FunctionCall call) {
+			agentLoop.onFunctionCallComplete(message, call);
+		}
+
 		private String getReexecuteIconBase64() {
 			// Material Design "replay" icon, fill #333333
 			return "PHN2ZyB4bWxucz0iaHR0cDovL3d3dy53My5vcmcvMjAwMC9zdmciIGhlaWdodD0iMjRweCIgdmlld0JveD0iMCAwIDI0IDI0IiB3aWR0aD0iMjRweCIgZmlsbD0iIzMzMzMzMyI+PHBhdGggZD0iTTAgMGgyNHYyNEgweiIgZmlsbD0ibm9uZSIvPjxwYXRoIGQ9Ik0xMiA1VjFMNyA2bDUgNVY3YzMuMzEgMCA2IDIuNjkgNiA2cy0yLjY5IDYtNiA2LTYtMi42OS02LTZINGMwIDQuNDIgMy41OCA4IDggOHM4LTMuNTggOC04LTMuNTgtOC04LTh6Ii8+PC9zdmc+";
@@ -270,12 +305,12 @@ public class ChatView extends ViewPart {
 				thinkHtml = String.format("<details%s><summary>%s</summary><blockquote>%s</blockquote></details>",
 						thoughtsAndMessage.isEndOfReasoningReached() ? "" : " open",
 						thoughtsAndMessage.isEndOfReasoningReached() ? "Thoughts" : "Thinking...",
-						markdownRenderer.render(markdownParser.parse(thoughtsAndMessage.getThoughts())));
+						markdownToHtmlCached("thoughts:" + message.getId(), thoughtsAndMessage.getThoughts()));
 			}
 
 			String functionCallHtml = messageToolUseToHtml(message);
 
-			String messageHtml = markdownRenderer.render(markdownParser.parse(thoughtsAndMessage.getMessage()));
+			String messageHtml = markdownToHtmlCached("content:" + message.getId(), thoughtsAndMessage.getMessage());
 			String combinedHtml = thinkHtml + messageHtml + functionCallHtml;
 			return combinedHtml;
 		}
@@ -304,12 +339,41 @@ public class ChatView extends ViewPart {
 
 				String summaryLabel = String.format("Function call %d/%d: %s", i + 1, callableItems.size(),
 						call.getFunctionName());
-				batchHtml.append(renderFunctionCallHtml(message, call, result, hasFunctionResult, summaryLabel, false));
+				batchHtml.append(
+						renderFunctionCallHtmlCached(message, i, call, result, hasFunctionResult, summaryLabel));
 			}
 			batchHtml.append(renderBatchReexecuteActionHtml(message));
 			return batchHtml.toString();
 		}
 
+		/**
+		 * Function calls are cached one by one, so re-executing a call or adding a
+		 * result to a batch only renders the changed call again.
+		 */
+		private String renderFunctionCallHtmlCached(MessageRenderSnapshot message, int index, FunctionCall call,
+				FunctionResult result, boolean hasFunctionResult, String summaryLabel) {
+			String key = "call:" + message.getId() + ":" + (call.getId() != null ? call.getId() : "#" + index);
+			long hash = MessageHtmlCache.hash(summaryLabel, hasFunctionResult, call.getArgsJson(),
+					MessageRenderSnapshot.paramValuesToString(call.getPrettyParams()), result.getResultJson(),
+					MessageRenderSnapshot.paramValuesToString(result.getPrettyResults()));
+			String res = fragmentHtmlCache.get(key, hash);
+			if (res == null) {
+				res = renderFunctionCallHtml(message, call, result, hasFunctionResult, summaryLabel, false);
+				fragmentHtmlCache.put(key, hash, res);
+			}
+			return res;
+		}
+
+		private String markdownToHtmlCached(String key, String markdown) {
+			long hash = MessageHtmlCache.hash(markdown);
+			String res = fragmentHtmlCache.get(key, hash);
+			if (res == null) {
+				res = markdownRenderer.render(markdownParser.parse(markdown));
+				fragmentHtmlCache.put(key, hash, res);
+			}
+			return res;
+		}
+
 		private String renderFunctionCallHtml(MessageRenderSnapshot message, FunctionCall call, FunctionResult result,
 				boolean hasFunctionResult, String summaryLabel, boolean includeReexecuteAction) {
 			StringBuilder paramsTable = new StringBuilder("<div class=\"function-params-container\">");
@@ -412,7 +476,7 @@ public class ChatView extends ViewPart {
 		}
 
 		private String toolSummaryToHtml(MessageRenderSnapshot message) {
-			String contentHtml = markdownRenderer.render(markdownParser.parse(message.getContent()));
+			String contentHtml = markdownToHtmlCached("content:" + message.getId(), message.getContent());
 
 			// Create a "Re-execute All" button
 			String actions = renderToolActionHtml(message, "Re-execute all previous tool calls", "Re-execute All",
@@ -598,49 +662,173 @@ public class ChatView extends ViewPart {
 		@Override
 		public void onChatResponseFinished(ChatMessage message) {
 			queueMessageUpdate(message, true);
-			Display.getDefault().asyncExec(() -> {
-				BatchExecutionReport batchReport = functionCallSession.executePendingBatchesSequentially();
-				boolean hasExecutedToolCalls = batchReport.getCallsExecuted() > 0;
-				logDebugBatchExecutionReport(batchReport);
-
-				for (ChatMessage updatedMessage : batchReport.getUpdatedMessages()) {
-					updatedMessage.setMetadata("tool_execution_state", "completed");
-					onMessageUpdated(updatedMessage);
+			agentLoop.onChatResponseFinished(message);
+		}
+
+		/**
+		 * Shows the messages as placeholders, their content is rendered when the page
+		 * requests it (see {@link RenderRequestFunction}).
+		 */
+		void showPlaceholders(List<ChatMessage> messages) {
+			List<Placeholder> placeholders = new ArrayList<>(messages.size());
+			for (ChatMessage message : messages) {
+				placeholders.add(new Placeholder(message.getId(), message.getRole().name().toLowerCase(),
+						estimatePlaceholderHeight(message)));
+			}
+			chat.addPlaceholders(placeholders);
+		}
+
+		/**
+		 * Renders the content of placeholders in the background and sets it in the
+		 * page. Must be called in the UI thread.
+		 */
+		void renderPlaceholders(List<UUID> messageIds) {
+			Map<UUID, ChatMessage> messagesById = new LinkedHashMap<>();
+			for (ChatMessage message : conversation.getMessages()) {
+				messagesById.put(message.getId(), message);
+			}
+			List<MessageRenderSnapshot> snapshots = new ArrayList<>();
+			for (UUID messageId : messageIds) {
+				ChatMessage message = messagesById.get(messageId);
+				if (message != null) {
+					snapshots.add(createMessageRenderSnapshot(message, true));
 				}
+			}
+			if (snapshots.isEmpty()) {
+				return;
+			}
 
-				if (!hasExecutedToolCalls) {
+			try {
+				messageRenderExecutor.execute(() -> {
+					Map<UUID, String> htmlById = new LinkedHashMap<>();
+					for (MessageRenderSnapshot snapshot : snapshots) {
+						try {
+							htmlById.put(snapshot.getId(), renderInitialMessageHtml(snapshot));
+						} catch (RuntimeException e) {
+							Activator.logError("Error rendering chat message " + snapshot.getId(), e);
+						}
+					}
+
+					Display display = Display.getDefault();
+					if (display == null || display.isDisposed()) {
+						return;
+					}
+					display.asyncExec(() -> {
+						if (chat == null || chat.isDisposed()) {
+							return;
+						}
+						htmlById.forEach(chat::fillPlaceholder);
+					});
+				});
+			} catch (RejectedExecutionException e) {
+				// The view is being disposed.
+			}
+		}
+
+		private String renderInitialMessageHtml(MessageRenderSnapshot snapshot) {
+			long contentHash = snapshot.getContentHash();
+			String res = messageHtmlCache.get(snapshot.getId(), contentHash);
+			if (res == null) {
+				res = buildInitialMessageHtml(snapshot);
+				messageHtmlCache.put(snapshot.getId(), contentHash, res);
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * Renders the progress of the {@link AgentLoop}. The events come from the
+	 * thread of the chat session, only the widgets are updated in the UI thread.
+	 */
+	private class AgentLoopListener implements AgentLoop.Listener {
+
+		@Override
+		public void onToolsExecuted(BatchExecutionReport report) {
+			logDebugBatchExecutionReport(report);
+			for (ChatMessage updatedMessage : report.getUpdatedMessages()) {
+				chatListener.onMessageUpdated(updatedMessage);
+			}
+		}
+
+		@Override
+		public void onContinue(int turn, BatchExecutionReport report) {
+			logDebugContinuationRequestBuilt(report);
+		}
+
+		@Override
+		public void onStopped(StopReason reason) {
+			switch (reason) {
+			case CANCELLED:
+				// abortChat() already reset the view, except for the button if the tools
+				// were still executing.
+				asyncExecIfNotDisposed(() -> {
 					// Set text to "▶️"
 					btnSend.setText("\u25B6");
+				});
+				break;
+			case CHANGES_REJECTED:
+				abortChat();
+				break;
+			case TURN_LIMIT:
+				Activator.logInfo(String.format(
+						"Stopped sending tool results after %d turns, they are sent with the next message.",
+						agentLoop.getMaxTurns()));
+				// Fall through.
+			case ANSWERED:
+				connection = null;
+				asyncExecIfNotDisposed(() -> {
+					// Set text to "▶️"
+					btnSend.setText("\u25B6");
+				});
 
-					connection = null;
+				if (isDebugPromptLoggingEnabled()) {
+					Activator.logInfo(conversation.toString());
+				}
 
-					if (isDebugPromptLoggingEnabled()) {
-						Activator.logInfo(conversation.toString());
-					}
+				applyPendingChanges();
 
-					applyPendingChanges();
+				addConversationToHistory();
+				break;
+			}
+		}
 
-					addConversationToHistory();
-				} else {
-					boolean applyChangesImmediately = !Activator.getDefault().getPreferenceStore()
-							.getBoolean(PreferenceConstants.CHAT_TOOLS_APPLY_DEFERRED_ENABLED);
-					if (applyChangesImmediately && functionCallSession.hasPendingChanges()) {
-						ChangeApplicationResult res = functionCallSession.applyPendingChanges();
-						if (res != ChangeApplicationResult.SUCCESS) {
-							abortChat();
-							return;
-						}
-					}
-					logDebugContinuationRequestBuilt(batchReport);
-					sendFunctionResult();
-				}
+		@Override
+		public void onTurnFinished(ChatMessage message) {
+			asyncExecIfNotDisposed(() -> chat.markMessageFinished(message.getId()));
+		}
 
-				Display.getDefault().asyncExec(() -> {
-					chat.markMessageFinished(message.getId());
-				});
+		private void asyncExecIfNotDisposed(Runnable runnable) {
+			Display display = Display.getDefault();
+			if (display == null || display.isDisposed()) {
+				return;
+			}
+			display.asyncExec(() -> {
+				if (chat != null && !chat.isDisposed()) {
+					runnable.run();
+				}
 			});
 		}
-	};
+	}
+
+	/**
+	 * Rough height of a rendered message: about 100 characters per line, collapsed
+	 * sections (system prompt, thoughts, function calls) take a line each.
+	 */
+	private static int estimatePlaceholderHeight(ChatMessage message) {
+		int lines = 1;
+		if (!Role.SYSTEM.equals(message.getRole())) {
+			for (String line : StringUtils.defaultString(message.getContent()).split("\n", -1)) {
+				lines += 1 + line.length() / PLACEHOLDER_CHARS_PER_LINE;
+			}
+			if (StringUtils.isNotBlank(message.getThinkingContent())) {
+				lines++;
+			}
+			if (message.getFunctionCallBatch().isPresent()) {
+				lines += message.getFunctionCallBatch().get().getItems().size() + 1;
+			}
+		}
+		return Math.min(PLACEHOLDER_MAX_HEIGHT, PLACEHOLDER_BASE_HEIGHT + lines * PLACEHOLDER_LINE_HEIGHT);
+	}
 
 	private static final class AttachmentRenderSnapshot {
 		private final UUID uuid;
@@ -707,6 +895,55 @@ public class ChatView extends ViewPart {
 		public List<AttachmentRenderSnapshot> getAttachments() {
 			return attachments;
 		}
+
+		/**
+		 * @return a hash of everything that is rendered, used as key of the rendered
+		 *         HTML.
+		 */
+		public long getContentHash() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(role).append('\0').append(content).append('\0').append(thinkingContent).append('\0')
+					.append(isThinkingComplete);
+			if (functionCallBatch.isPresent()) {
+				for (FunctionCallItem item : functionCallBatch.get().getItems()) {
+					if (item == null) {
+						continue;
+					}
+					if (item.getCall() != null) {
+						sb.append('\0').append(item.getCall().getId()).append('\0')
+								.append(item.getCall().getArgsJson());
+						appendParamValues(sb, item.getCall().getPrettyParams());
+					}
+					if (item.getResult() != null) {
+						sb.append('\0').append(item.getResult().getResultJson());
+						appendParamValues(sb, item.getResult().getPrettyResults());
+					}
+				}
+			}
+			for (AttachmentRenderSnapshot attachment : attachments) {
+				sb.append('\0').append(attachment.getUuid()).append(attachment.getLabel());
+			}
+			return MessageHtmlCache.hash(sb);
+		}
+
+		private static String paramValuesToString(Map<String, FunctionParamValue> values) {
+			StringBuilder sb = new StringBuilder();
+			appendParamValues(sb, values);
+			return sb.toString();
+		}
+
+		private static void appendParamValues(StringBuilder sb, Map<String, FunctionParamValue> values) {
+			if (values == null) {
+				return;
+			}
+			for (Map.Entry<String, FunctionParamValue> entry : values.entrySet()) {
+				FunctionParamValue value = entry.getValue();
+				sb.append('\0').append(entry.getKey()).append('=');
+				if (value != null) {
+					sb.append(value.isMarkdown()).append(value.getValue());
+				}
+			}
+		}
 	}
 
 	private static final class PendingMessageUpdate {
@@ -844,12 +1081,8 @@ public class ChatView extends ViewPart {
 		}
 	}
 
-	private void sendFunctionResult() {
-		if (connection != null && connection.isChatPending()) {
-			connection.abortChat();
-		}
-
-		connection.chat(conversation, settings.getMaxResponseTokens());
+	private boolean sendFunctionResult() {
+		return session.continueChat(settings.getMaxResponseTokens());
 	}
 
 	private void logDebugBatchQueuedInView(ChatMessage message) {
@@ -939,7 +1172,7 @@ public class ChatView extends ViewPart {
 
 	private void addCaptionForConversationInBackgroundAndAddToHistory() {
 		if (StringUtils.isBlank(conversation.getCaption())) {
-			executorService.submit(() -> { // Use a thread pool
+			session.submit(() -> {
 				try {
 					String combinedMessages = conversation.getMessages().stream().map(ChatMessage::getContent)
 							.collect(Collectors.joining("\n"));
@@ -992,6 +1225,8 @@ public class ChatView extends ViewPart {
 
 	@Override
 	public void createPartControl(Composite parent) {
+		createActions();
+
 		// Use FormLayout for the main container
 		FormLayout formLayout = new FormLayout();
 		formLayout.marginWidth = 0;
@@ -1444,7 +1679,7 @@ public class ChatView extends ViewPart {
 			updateSystemPrompt();
 		});
 
-		IListChangeListener<? super MessageContext> listChangeListener = e -> {
+		externallyAddedContextListener = e -> {
 			for (ListDiffEntry<? extends MessageContext> diff : e.diff.getDifferences()) {
 				MessageContext ctx = diff.getElement();
 				if (diff.isAddition()) {
@@ -1486,7 +1721,10 @@ public class ChatView extends ViewPart {
 				}
 			}
 		};
-		externallyAddedContext.addListChangeListener(listChangeListener);
+		externallyAddedContext.addListChangeListener(externallyAddedContextListener);
+		externallyAddedContext.addAll(contextWithoutView);
+		contextWithoutView.clear();
+		activated();
 
 		// Add context menu listener to the attachment composite itself
 		cmpAttachments.addMenuDetectListener(event -> {
@@ -1508,6 +1746,10 @@ public class ChatView extends ViewPart {
 		chat.addProgressListener(ProgressListener.completedAdapter(event -> {
 			final Browser bChat = chat.getBrowser();
 			final BrowserFunction function = new OnClickFunction(bChat, "elementClicked");
+			if (renderRequestFunction == null) {
+				// Stays installed for pages loaded later, e.g. after clearing the chat.
+				renderRequestFunction = new RenderRequestFunction(bChat, "renderRequested");
+			}
 			bChat.execute(ONCLICK_LISTENER);
 //			bChat.addLocationListener(new LocationAdapter() {
 //				@Override
@@ -1573,6 +1815,7 @@ public class ChatView extends ViewPart {
 
 	@Override
 	public void setFocus() {
+		activated();
 		if (tvUserInput != null && tvUserInput.getTextWidget() != null && !tvUserInput.getTextWidget().isDisposed()) {
 			tvUserInput.getTextWidget().setFocus();
 		}
@@ -1582,12 +1825,17 @@ public class ChatView extends ViewPart {
 		if (connection == null) {
 			connection = ConnectionFactory.forChat(settings.getModel());
 		}
-		if (connection.isChatPending()) {
+		if (session.isChatPending() || agentLoop.isRunning()) {
+			if (session.isCancelled()) {
+				// Already aborted, the loop stops after the tools that are still executing.
+				return;
+			}
 			abortChat();
 
 			// apply pending changes, if any were added so far.
 			// this will also add a message summarizing the changes.
-			applyPendingChanges();
+			// Queued after the turn that may still execute tools.
+			session.submit(this::applyPendingChanges);
 		} else {
 			ChatMessage chatMessage = new ChatMessage(Role.USER, userInput.get());
 
@@ -1603,15 +1851,19 @@ public class ChatView extends ViewPart {
 			externallyAddedContext.forEach(ctx -> addContextToMessageIfNotDuplicate(chatMessage, ctx));
 			externallyAddedContext.clear();
 			addSelectionAsContext(chatMessage);
+			ContextRefresher.addUpdates(conversation, chatMessage);
 
 			conversation.getOptions().put(REASONING_ENABLED, settings.isReasoningSupportedAndEnabled());
 			conversation.getOptions().put(REASONING_BUDGET_TOKENS, settings.getReasoningTokens());
 			conversation.getOptions().put(REASONING_EFFORT, settings.getEffectiveReasoningEffort());
 			conversation.getOptions().put(TOOLS_ENABLED, settings.isToolsEnabled());
 			conversation.getOptions().put(TOOL_PROFILE, settings.getToolProfile());
+			agentLoop.setMaxTurns(Activator.getDefault().getMaxChatToolTurns());
+			agentLoop.setApplyChangesImmediately(!Activator.getDefault().getPreferenceStore()
+					.getBoolean(PreferenceConstants.CHAT_TOOLS_APPLY_DEFERRED_ENABLED));
 
 			conversation.addMessage(chatMessage, true);
-			connection.chat(conversation, settings.getMaxResponseTokens());
+			agentLoop.start(() -> session.chat(connection, conversation, settings.getMaxResponseTokens()));
 			userInput.set("");
 
 			// Set text to "⏹️"
@@ -1620,15 +1872,16 @@ public class ChatView extends ViewPart {
 	}
 
 	private void abortChat() {
-		if (connection != null) {
-			connection.abortChat();
-		}
+		agentLoop.cancel();
+		session.cancel();
 
 		Display.getDefault().syncExec(() -> {
 			chat.markAllMessagesFinished();
 
-			// Set text to "▶️"
-			btnSend.setText("\u25B6");
+			if (!agentLoop.isRunning()) {
+				// Set text to "▶️"
+				btnSend.setText("\u25B6");
+			}
 		});
 
 		addConversationToHistory();
@@ -1642,7 +1895,7 @@ public class ChatView extends ViewPart {
 			conversation.setConversationId(null);
 
 			UUID messageUuid = UUID.fromString(messageUuidString);
-			if (connection == null || !connection.isChatPending()) {
+			if (!session.isChatPending()) {
 				getExternallyAddedContext().clear();
 				ChatConversation oldConvo = conversation;
 
@@ -1662,11 +1915,35 @@ public class ChatView extends ViewPart {
 				replaceChat(oldConvo);
 
 				userInput.set(msgToEdit.getContent());
-				getExternallyAddedContext().addAll(msgToEdit.getContext());
+				// Updates of attachments are created again when the message is sent.
+				msgToEdit.getContext().stream().filter(ctx -> !ctx.isUpdate())
+						.forEach(getExternallyAddedContext()::add);
 			}
 		});
 	}
 
+	private void createActions() {
+		IToolBarManager toolBar = getViewSite().getActionBars().getToolBarManager();
+		toolBar.add(new Action("New Chat") {
+			@Override
+			public void run() {
+				openAnotherChat();
+			}
+		});
+	}
+
+	/**
+	 * Opens another chat view with its own session, so a second conversation can
+	 * run while this one is still streaming or executing tools.
+	 */
+	private void openAnotherChat() {
+		try {
+			getSite().getPage().showView(ID, UUID.randomUUID().toString(), IWorkbenchPage.VIEW_ACTIVATE);
+		} catch (PartInitException e) {
+			Activator.logError("Could not open another chat view", e);
+		}
+	}
+
 	private void addSelectionAsContext(ChatMessage chatMessage) {
 		IWorkbenchWindow window = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
 		if (window == null) {
@@ -1724,7 +2001,7 @@ public class ChatView extends ViewPart {
 
 	private void clearChatInternal(ChatConversation replacement) {
 		if (connection != null) {
-			connection.abortChat();
+			session.cancel();
 			connection = null;
 		}
 		conversation.removeListener(chatListener);
@@ -1733,6 +2010,7 @@ public class ChatView extends ViewPart {
 		externallyAddedContext.clear();
 		pendingMessageUpdates.clear();
 		clearAllPendingChanges();
+		functionCallSession.resetResultHistory();
 		chat.reset();
 		userInput.set("");
 
@@ -1740,8 +2018,8 @@ public class ChatView extends ViewPart {
 			ProgressAdapter listener = new ProgressAdapter() {
 				@Override
 				public void completed(ProgressEvent event) {
-					List<ChatMessage> messages = new ArrayList<>(replacement.getMessages());
-					messages.forEach(m -> conversation.notifyMessageAdded(m, false));
+					// Long conversations would block the UI if all messages were rendered at once.
+					chatListener.showPlaceholders(new ArrayList<>(replacement.getMessages()));
 					chat.removeProgressListener(this);
 				}
 			};
@@ -1779,17 +2057,31 @@ public class ChatView extends ViewPart {
 		return res;
 	}
 
-	private static List<MessageContext> getExternallyAddedContext() {
+	private List<MessageContext> getExternallyAddedContext() {
 		return externallyAddedContext;
 	}
 
+	/**
+	 * Moves this view to the end of the open views, so context is added to it.
+	 */
+	private void activated() {
+		openViews.remove(this);
+		openViews.add(this);
+	}
+
+	/**
+	 * Adds context to the next message of the chat view that was active last, or
+	 * of the next view that is opened. Must be called in the UI thread.
+	 */
 	public static void addContext(MessageContext newCtx) {
+		List<MessageContext> target = openViews.isEmpty() ? contextWithoutView
+				: openViews.get(openViews.size() - 1).getExternallyAddedContext();
 		boolean isDuplicate = false;
-		for (MessageContext ctx : getExternallyAddedContext()) {
+		for (MessageContext ctx : target) {
 			isDuplicate |= newCtx.isDuplicate(ctx);
 		}
 		if (!isDuplicate) {
-			getExternallyAddedContext().add(newCtx);
+			target.add(newCtx);
 		}
 	}
 
@@ -1823,6 +2115,34 @@ public class ChatView extends ViewPart {
 		}
 	}
 
+	/**
+	 * Called by the page with a JSON array of the ids of placeholders that came
+	 * near the viewport.
+	 */
+	private class RenderRequestFunction extends BrowserFunction {
+
+		public RenderRequestFunction(Browser browser, String name) {
+			super(browser, name);
+		}
+
+		@Override
+		public Object function(Object[] arguments) {
+			if (arguments.length > 0 && arguments[0] instanceof String json && StringUtils.isNotBlank(json)) {
+				List<UUID> messageIds = new ArrayList<>();
+				try {
+					for (JsonElement id : JsonParser.parseString(json).getAsJsonArray()) {
+						messageIds.add(UUID.fromString(id.getAsString()));
+					}
+				} catch (RuntimeException e) {
+					Activator.logError("Invalid render request: " + json, e);
+					return null;
+				}
+				chatListener.renderPlaceholders(messageIds);
+			}
+			return null;
+		}
+	}
+
 	private void openAttachmentDialog(String attachmentUuid) {
 		MessageContext ctx = findContextByUuid(attachmentUuid);
 		if (ctx != null) {
@@ -2175,9 +2495,17 @@ public class ChatView extends ViewPart {
 
 	@Override
 	public void dispose() {
+		openViews.remove(this);
+		if (externallyAddedContextListener != null) {
+			externallyAddedContext.removeListChangeListener(externallyAddedContextListener);
+		}
+		if (renderRequestFunction != null && !renderRequestFunction.isDisposed()) {
+			renderRequestFunction.dispose();
+		}
+		renderRequestFunction = null;
 		pendingMessageUpdates.clear();
 		messageRenderExecutor.shutdownNow();
-		executorService.shutdownNow();
+		ChatSessionManager.getInstance().close(session);
 		super.dispose();
 	}
 
@@ -0,0 +1,103 @@
+package com.chabicht.code_intelligence.chat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.core.filebuffers.FileBuffers;
+import org.eclipse.core.filebuffers.ITextFileBuffer;
+import org.eclipse.core.filebuffers.LocationKind;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+
+import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.model.ChatConversation;
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.MessageContext;
+import com.chabicht.code_intelligence.model.ChatConversation.RangeType;
+import com.chabicht.code_intelligence.model.ContextDiff;
+
+/**
+ * Keeps the attachments of a conversation up to date with their workspace
+ * files. Attachments are snapshots, so when a file changes after it was
+ * attached, the next message gets an update with the diff of the attached
+ * range instead of a full copy.
+ */
+public class ContextRefresher {
+	private ContextRefresher() {
+		// No instances.
+	}
+
+	/**
+	 * Adds updates for the attachments of the earlier messages of the
+	 * conversation whose files changed since they were last sent to the model.
+	 *
+	 * @param message the new message, not yet added to the conversation.
+	 */
+	public static void addUpdates(ChatConversation conversation, ChatMessage message) {
+		// The latest state the model knows of each attachment.
+		Map<UUID, MessageContext> latest = new LinkedHashMap<>();
+		for (ChatMessage previous : conversation.getMessages()) {
+			for (MessageContext ctx : previous.getContext()) {
+				if (ctx.isUpdate() && latest.containsKey(ctx.getUpdateOf())) {
+					latest.put(ctx.getUpdateOf(), ctx);
+				} else if (!ctx.isUpdate() && isTracked(ctx)) {
+					latest.put(ctx.getUuid(), ctx);
+				}
+			}
+		}
+
+		Map<String, Optional<String>> texts = new HashMap<>();
+		for (MessageContext ctx : latest.values()) {
+			Optional<String> text = texts.computeIfAbsent(ctx.getFileName(), ContextRefresher::readCurrentText);
+			if (text.isEmpty()) {
+				continue;
+			}
+
+			ContextDiff change = ContextDiff.compute(ctx.getSnapshot(), ctx.getStart(), text.get());
+			if (change != null) {
+				MessageContext update = MessageContext.createUpdate(ctx, change);
+				// The user may have attached the range again.
+				if (message.getContext().stream().noneMatch(update::isDuplicate)) {
+					message.getContext().add(update);
+				}
+			}
+		}
+	}
+
+	private static boolean isTracked(MessageContext ctx) {
+		return RangeType.LINE.equals(ctx.getRangeType()) && StringUtils.startsWith(ctx.getFileName(), "/")
+				&& StringUtils.isNotBlank(ctx.getContent());
+	}
+
+	/**
+	 * @return the text of the workspace file including unsaved changes of open
+	 *         editors, empty if it isn't a readable file.
+	 */
+	private static Optional<String> readCurrentText(String fileName) {
+		IResource resource = ResourcesPlugin.getWorkspace().getRoot().findMember(fileName);
+		if (!(resource instanceof IFile file) || !file.exists()) {
+			return Optional.empty();
+		}
+
+		ITextFileBuffer buffer = FileBuffers.getTextFileBufferManager().getTextFileBuffer(file.getFullPath(),
+				LocationKind.IFILE);
+		if (buffer != null) {
+			return Optional.of(buffer.getDocument().get());
+		}
+		try (InputStream in = file.getContents()) {
+			return Optional.of(IOUtils.toString(in, file.getCharset()));
+		} catch (CoreException | IOException e) {
+			Activator.logError("Could not read attached file " + fileName, e);
+			return Optional.empty();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.chabicht.code_intelligence.chat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the rendered HTML of chat messages and their parts, so
+ * messages that are scrolled out of view and back again, or that are updated
+ * while most of their parts stay the same, don't have to be rendered again.
+ * <p>
+ * Entries are keyed by an id (e.g. the message id, or the id of a function
+ * call) and a hash of the rendered content. Changed content gets a new hash
+ * and replaces the entry of its old content.
+ */
+class MessageHtmlCache {
+	static final int MAX_ENTRIES = 500;
+
+	private final int maxEntries;
+
+	private record Entry(long contentHash, String html) {
+	}
+
+	private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	MessageHtmlCache() {
+		this(MAX_ENTRIES);
+	}
+
+	MessageHtmlCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return the HTML rendered for the given content, or null if it isn't cached.
+	 */
+	synchronized String get(Object key, long contentHash) {
+		Entry entry = entries.get(key);
+		return entry != null && entry.contentHash() == contentHash ? entry.html() : null;
+	}
+
+	synchronized void put(Object key, long contentHash, String html) {
+		entries.put(key, new Entry(contentHash, html));
+	}
+
+	synchronized void clear() {
+		entries.clear();
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return a 64 bit FNV-1a hash of the parts. The parts are separated, so
+	 *         ("ab", "c") and ("a", "bc") have different hashes.
+	 */
+	static long hash(Object... parts) {
+		long res = 0xcbf29ce484222325L;
+		for (Object part : parts) {
+			String str = String.valueOf(part);
+			for (int i = 0; i < str.length(); i++) {
+				res = (res ^ str.charAt(i)) * 0x100000001b3L;
+			}
+			res = (res ^ 0xFFFF) * 0x100000001b3L;
+		}
+		return res;
+	}
+}
@@ -202,7 +202,15 @@ public class ApplyPatchTool {
 		return prefix + changes;
 	}
 
-	private ApplyPatchResult attemptApplyPatch(List<String> originalDocLines, Patch<FuzzyLine> patch,
+	/**
+	 * Applies the patch exactly, then with growing fuzz until one attempt
+	 * succeeds.
+	 *
+	 * @param originalDocLines the lines of the document, preceded by an empty line
+	 *                         because the line numbers of the patch are 1-based.
+	 * @param patchedDocLines  receives the patched lines if the patch applies.
+	 */
+	public static ApplyPatchResult attemptApplyPatch(List<String> originalDocLines, Patch<FuzzyLine> patch,
 			List<String> patchedDocLines) {
 		List<FuzzyLine> fuzzyDocLines = originalDocLines.stream().map(FuzzyLine::new).collect(Collectors.toList());
 		PatchMethod[] patchMethods = new PatchMethod[] { () -> patch.applyTo(fuzzyDocLines),
@@ -0,0 +1,95 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A declaration in a source file, e.g. a type, method, field or function, with
+ * its line range.
+ */
+public class Declaration {
+	private final String name;
+	private final String qualifiedName;
+	private final String signature;
+	private final int startLine;
+	private final int endLine;
+	private final int depth;
+	private final List<String> parameterTypes;
+
+	/**
+	 * @param qualifiedName  the name including the enclosing declarations, e.g.
+	 *                       "Outer.Inner.method".
+	 * @param signature      the declaration without body on one line.
+	 * @param startLine      1-based, inclusive, including leading doc comments.
+	 * @param endLine        1-based, inclusive.
+	 * @param depth          the nesting level, 0 for top level declarations.
+	 * @param parameterTypes the simple names of the parameter types of methods,
+	 *                       null if unknown or not a method.
+	 */
+	public Declaration(String name, String qualifiedName, String signature, int startLine, int endLine, int depth,
+			List<String> parameterTypes) {
+		this.name = name;
+		this.qualifiedName = qualifiedName;
+		this.signature = signature;
+		this.startLine = startLine;
+		this.endLine = endLine;
+		this.depth = depth;
+		this.parameterTypes = parameterTypes;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getQualifiedName() {
+		return qualifiedName;
+	}
+
+	public String getSignature() {
+		return signature;
+	}
+
+	public int getStartLine() {
+		return startLine;
+	}
+
+	public int getEndLine() {
+		return endLine;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public List<String> getParameterTypes() {
+		return parameterTypes;
+	}
+
+	/**
+	 * Finds the declarations matching a symbol. The symbol is a name, optionally
+	 * qualified by enclosing declarations ("Outer.method" or "Outer#method") and
+	 * followed by parameter types ("method(String, int)"), see
+	 * {@link SymbolReference}.
+	 *
+	 * @return the matches, in the order of the file.
+	 */
+	public static List<Declaration> find(List<Declaration> declarations, String symbol) {
+		SymbolReference reference = SymbolReference.parse(symbol);
+		String path = reference.getName().replace('#', '.');
+
+		List<Declaration> res = new ArrayList<>();
+		for (Declaration declaration : declarations) {
+			String qualifiedName = declaration.qualifiedName;
+			boolean nameMatches = qualifiedName.equals(path) || qualifiedName.endsWith("." + path);
+			if (nameMatches && reference.matchesParameters(declaration.parameterTypes)) {
+				res.add(declaration);
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return qualifiedName + " (lines " + startLine + "-" + endLine + ")";
+	}
+}
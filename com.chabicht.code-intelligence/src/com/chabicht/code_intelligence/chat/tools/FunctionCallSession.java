@@ -4,8 +4,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -31,6 +33,7 @@ import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.PlatformUI;
 
 import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.chat.AgentLoop;
 import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
 import com.chabicht.code_intelligence.model.ChatConversation.FunctionCall;
 import com.chabicht.code_intelligence.model.ChatConversation.FunctionCallBatch;
@@ -44,7 +47,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
 
-public class FunctionCallSession {
+public class FunctionCallSession implements AgentLoop.Tools {
 	public static enum ChangeApplicationResult {
 		SUCCESS, ERROR, CANCEL;
 	}
@@ -95,11 +98,17 @@ public class FunctionCallSession {
 	private final TextSearchTool searchTool;
 	private final FindFilesTool findFilesTool; // Add this field
 	private final ListProjectsTool listProjectsTool;
+	private final SemanticSearchTool semanticSearchTool;
+	private final JavaStructureTool javaStructureTool;
+	private final ToolResultEncoder resultEncoder = new ToolResultEncoder();
+	private final SpeculativeToolCalls speculativeCalls = new SpeculativeToolCalls(this::executeFunctionCall,
+			FunctionCallSession::isReadOnlyTool, resultEncoder::forgetCalls);
 	private final Gson gson = GsonUtil.createGson();
 
 	private final Map<IFile, List<TextFileChange>> pendingTextFileChanges = new HashMap<>();
 	private final Map<String, Change> pendingCreateFileChanges = new HashMap<>();
 	private final List<UUID> messagesWithPendingChanges = new ArrayList<>();
+	// Queued while streaming, executed on the thread of the agent loop.
 	private final List<ChatMessage> pendingBatchMessages = new ArrayList<>();
 
 	public FunctionCallSession() {
@@ -118,6 +127,8 @@ public class FunctionCallSession {
 		this.searchTool = new TextSearchTool(bufferedResourceAccess);
 		this.findFilesTool = new FindFilesTool(bufferedResourceAccess); // Add this line
 		this.listProjectsTool = new ListProjectsTool(realResourceAccess);
+		this.semanticSearchTool = new SemanticSearchTool(readFileContentTool);
+		this.javaStructureTool = new JavaStructureTool(realResourceAccess);
 
 		if (Activator.getDefault() != null) {
 			Activator.logInfo("FunctionCallSession: Initialized with BufferedResourceAccess");
@@ -160,6 +171,21 @@ public class FunctionCallSession {
 		executeBatch(message);
 	}
 
+	/**
+	 * Starts executing a read-only call of a response that is still streaming, the
+	 * result is used when its batch is executed.
+	 */
+	public void speculate(ChatMessage assistantMessage, FunctionCall call) {
+		if (assistantMessage != null) {
+			speculativeCalls.onCallComplete(assistantMessage.getId(), call);
+		}
+	}
+
+	private static boolean isReadOnlyTool(String toolName) {
+		Set<String> tags = ToolDefinitions.getInstance().getToolTags(toolName);
+		return tags.contains("read") && !tags.contains("write");
+	}
+
 	public void enqueueBatch(ChatMessage assistantMessage) {
 		if (assistantMessage == null || assistantMessage.getFunctionCallBatch().isEmpty()) {
 			return;
@@ -172,22 +198,39 @@ public class FunctionCallSession {
 			return;
 		}
 
-		boolean alreadyQueued = pendingBatchMessages.stream()
-				.anyMatch(queued -> queued != null && queued.getId().equals(assistantMessage.getId()));
-		if (!alreadyQueued) {
-			pendingBatchMessages.add(assistantMessage);
-			logDebugBatchQueued(assistantMessage, batch, callCount, pendingBatchMessages.size());
+		synchronized (pendingBatchMessages) {
+			boolean alreadyQueued = pendingBatchMessages.stream()
+					.anyMatch(queued -> queued != null && queued.getId().equals(assistantMessage.getId()));
+			if (!alreadyQueued) {
+				pendingBatchMessages.add(assistantMessage);
+				logDebugBatchQueued(assistantMessage, batch, callCount, pendingBatchMessages.size());
+			}
 		}
 	}
 
 	public BatchExecutionReport executePendingBatchesSequentially() {
-		if (pendingBatchMessages.isEmpty()) {
-			return new BatchExecutionReport();
+		List<ChatMessage> batchesToExecute;
+		synchronized (pendingBatchMessages) {
+			if (pendingBatchMessages.isEmpty()) {
+				return new BatchExecutionReport();
+			}
+			batchesToExecute = new ArrayList<>(pendingBatchMessages);
+			pendingBatchMessages.clear();
 		}
+		BatchExecutionReport report = executeBatchesSequentially(batchesToExecute);
+		speculativeCalls.discard();
+		return report;
+	}
 
-		List<ChatMessage> batchesToExecute = new ArrayList<>(pendingBatchMessages);
-		pendingBatchMessages.clear();
-		return executeBatchesSequentially(batchesToExecute);
+	/**
+	 * Discards the queued batches without executing them, e.g. because the
+	 * response that contained them was aborted.
+	 */
+	public void discardPendingBatches() {
+		synchronized (pendingBatchMessages) {
+			pendingBatchMessages.clear();
+		}
+		speculativeCalls.discard();
 	}
 
 	public BatchExecutionReport executeBatch(ChatMessage assistantMessage) {
@@ -230,11 +273,23 @@ public class FunctionCallSession {
 
 			logDebugBatchExecutionStart(assistantMessage, batch, batchCallCount);
 			batch.setExecutionComplete(false);
-			for (FunctionCallItem item : items) {
+			List<String> callIds = new ArrayList<>();
+			Map<Integer, FunctionResult> speculatedResults = new HashMap<>();
+			for (int i = 0; i < items.size(); i++) {
+				FunctionCallItem item = items.get(i);
 				if (item != null) {
 					item.setResult(null);
+					FunctionResult speculated = speculativeCalls.take(item.getCall());
+					if (speculated != null) {
+						speculatedResults.put(i, speculated);
+					} else if (item.getCall() != null) {
+						callIds.add(item.getCall().getId());
+					}
 				}
 			}
+			// Re-executed calls must not be answered with a reference to their own old
+			// result.
+			resultEncoder.forgetCalls(callIds);
 
 				int batchCallsExecuted = 0;
 				int batchCallsFailed = 0;
@@ -244,7 +299,10 @@ public class FunctionCallSession {
 					continue;
 				}
 				FunctionCall call = item.getCall();
-				FunctionResult result = executeFunctionCall(assistantMessage.getId(), call);
+				FunctionResult result = speculatedResults.get(i);
+				if (result == null) {
+					result = executeFunctionCall(assistantMessage.getId(), call);
+				}
 				item.setResult(result);
 				batch.setResultForCall(i, result);
 				callsExecuted++;
@@ -359,6 +417,14 @@ public class FunctionCallSession {
 			case "read_file_content":
 				handleReadFileContent(call, result, argsJson);
 				break;
+			case "semantic_search":
+				handleSemanticSearch(call, result, argsJson);
+				break;
+			case "find_references":
+			case "find_implementations":
+			case "type_hierarchy":
+				handleJavaStructure(call, result, argsJson);
+				break;
 			case "create_file":
 				handleCreateFile(messageId, call, result, argsJson);
 				break;
@@ -613,7 +679,8 @@ public class FunctionCallSession {
 				}
 				result.addPrettyResult("search_results_summary", resultsPreview.toString(), true); // Markdown for code
 																									// backticks
-				jsonResult.add("results", gson.toJsonTree(searchExecResult.getResults()));
+				jsonResult.add("results",
+						ToolResultEncoder.encodeSearchResults(searchExecResult.getResults(), searchText));
 
 			} else {
 				result.addPrettyResult("status", "Error", false);
@@ -638,6 +705,146 @@ public class FunctionCallSession {
 		}
 	}
 
+	private void handleSemanticSearch(FunctionCall call, FunctionResult result, String functionArgsJson) {
+		try {
+			JsonObject args = gson.fromJson(functionArgsJson, JsonObject.class);
+
+			String query = args.has("query") && !args.get("query").isJsonNull() ? args.get("query").getAsString()
+					: null;
+			Integer maxResults = args.has("max_results") && !args.get("max_results").isJsonNull()
+					? args.get("max_results").getAsInt()
+					: null;
+			List<String> fileNamePatterns = null;
+			if (args.has("file_name_patterns") && !args.get("file_name_patterns").isJsonNull()) {
+				fileNamePatterns = new ArrayList<>();
+				for (JsonElement element : args.get("file_name_patterns").getAsJsonArray()) {
+					fileNamePatterns.add(element.getAsString());
+				}
+			}
+
+			if (StringUtils.isBlank(query)) {
+				String errorMsg = "Missing required argument 'query' for semantic_search. Args: " + functionArgsJson;
+				Activator.logError(errorMsg);
+				populateErrorResult(result, errorMsg);
+				return;
+			}
+
+			call.addPrettyParam("query", query, false);
+			if (maxResults != null) {
+				call.addPrettyParam("max_results", String.valueOf(maxResults), false);
+			}
+			call.addPrettyParam("file_name_patterns",
+					fileNamePatterns != null ? gson.toJson(fileNamePatterns) : "all files", false);
+
+			SemanticSearchTool.SemanticSearchResult searchResult = semanticSearchTool.search(query, maxResults,
+					fileNamePatterns);
+
+			JsonObject jsonResult = new JsonObject();
+			if (searchResult.isSuccess()) {
+				result.addPrettyResult("status", "Success", false);
+				result.addPrettyResult("message", searchResult.getMessage(), false);
+				jsonResult.addProperty("status", "Success");
+				jsonResult.addProperty("message", searchResult.getMessage());
+
+				StringBuilder resultsPreview = new StringBuilder();
+				JsonArray results = new JsonArray();
+				for (SemanticSearchTool.SemanticSearchResultItem item : searchResult.getItems()) {
+					String lines = item.getStartLine() + "-" + item.getEndLine();
+					String score = String.format(Locale.ROOT, "%.3f", item.getScore());
+					resultsPreview.append(String.format("- %s (Lines %s) %s score %s\n", item.getFilePath(), lines,
+							StringUtils.isEmpty(item.getLabel()) ? "" : "`" + item.getLabel() + "`", score));
+
+					JsonObject itemJson = new JsonObject();
+					itemJson.addProperty("file", item.getFilePath());
+					itemJson.addProperty("lines", lines);
+					if (StringUtils.isNotEmpty(item.getLabel())) {
+						itemJson.addProperty("members", item.getLabel());
+					}
+					itemJson.addProperty("score", Double.valueOf(score));
+					if (item.getContentWithLineNumbers() != null) {
+						itemJson.addProperty("content", item.getContentWithLineNumbers());
+					}
+					results.add(itemJson);
+				}
+				result.addPrettyResult("search_results_summary", resultsPreview.toString(), true);
+				jsonResult.add("results", results);
+			} else {
+				result.addPrettyResult("status", "Error", false);
+				result.addPrettyResult("message", searchResult.getMessage(), false);
+				jsonResult.addProperty("status", "Error");
+				jsonResult.addProperty("message", searchResult.getMessage());
+			}
+			result.setResultJson(gson.toJson(jsonResult));
+		} catch (Exception e) {
+			String errorMsg = "Error processing semantic_search function call: " + e.getMessage();
+			Activator.logError(errorMsg, e);
+			populateErrorResult(result, errorMsg);
+		}
+	}
+
+	/**
+	 * Handles the Java structure tools "find_references", "find_implementations"
+	 * and "type_hierarchy".
+	 */
+	private void handleJavaStructure(FunctionCall call, FunctionResult result, String functionArgsJson) {
+		String functionName = call.getFunctionName();
+		try {
+			JsonObject args = gson.fromJson(functionArgsJson, JsonObject.class);
+
+			String symbol = args.has("symbol") && !args.get("symbol").isJsonNull() ? args.get("symbol").getAsString()
+					: null;
+			Integer maxResults = args.has("max_results") && !args.get("max_results").isJsonNull()
+					? args.get("max_results").getAsInt()
+					: null;
+			if (StringUtils.isBlank(symbol)) {
+				String errorMsg = "Missing required argument 'symbol' for " + functionName + ". Args: "
+						+ functionArgsJson;
+				Activator.logError(errorMsg);
+				populateErrorResult(result, errorMsg);
+				return;
+			}
+
+			call.addPrettyParam("symbol", symbol, false);
+			if (maxResults != null) {
+				call.addPrettyParam("max_results", String.valueOf(maxResults), false);
+			}
+
+			JavaStructureTool.StructureResult structureResult = switch (functionName) {
+			case "find_references" -> javaStructureTool.findReferences(symbol, maxResults);
+			case "find_implementations" -> javaStructureTool.findImplementations(symbol, maxResults);
+			default -> javaStructureTool.getTypeHierarchy(symbol);
+			};
+
+			JsonObject jsonResult = new JsonObject();
+			if (structureResult.isSuccess()) {
+				result.addPrettyResult("status", "Success", false);
+				result.addPrettyResult("message", structureResult.getMessage(), false);
+				jsonResult.addProperty("status", "Success");
+				jsonResult.addProperty("message", structureResult.getMessage());
+
+				JsonArray results = ToolResultEncoder.encodeStructureItems(structureResult.getItems());
+				StringBuilder resultsPreview = new StringBuilder();
+				for (JsonElement element : results) {
+					JsonObject file = element.getAsJsonObject();
+					resultsPreview.append("- ").append(file.get("file").getAsString()).append("\n```\n")
+							.append(file.get("lines").getAsString()).append("\n```\n");
+				}
+				result.addPrettyResult("results", resultsPreview.toString(), true);
+				jsonResult.add("results", results);
+			} else {
+				result.addPrettyResult("status", "Error", false);
+				result.addPrettyResult("message", structureResult.getMessage(), false);
+				jsonResult.addProperty("status", "Error");
+				jsonResult.addProperty("message", structureResult.getMessage());
+			}
+			result.setResultJson(gson.toJson(jsonResult));
+		} catch (Exception e) {
+			String errorMsg = "Error processing " + functionName + " function call: " + e.getMessage();
+			Activator.logError(errorMsg, e);
+			populateErrorResult(result, errorMsg);
+		}
+	}
+
 	/**
 	 * Specifically handles the "read_file_content" function call. Parses arguments
 	 * and reads the content of the specified file or line range.
@@ -659,6 +866,10 @@ public class FunctionCallSession {
 			Integer endLine = args.has("end_line") && !args.get("end_line").isJsonNull()
 					? args.get("end_line").getAsInt()
 					: null;
+			String symbol = args.has("symbol") && !args.get("symbol").isJsonNull() ? args.get("symbol").getAsString()
+					: null;
+			boolean outlineOnly = args.has("outline_only") && !args.get("outline_only").isJsonNull()
+					&& args.get("outline_only").getAsBoolean();
 
 			if (fileName == null) {
 				String errorMsg = "Missing required argument 'file_name' for read_file_content. Args: "
@@ -680,9 +891,21 @@ public class FunctionCallSession {
 			if (endLine != null) {
 				call.addPrettyParam("end_line", String.valueOf(endLine), false);
 			}
+			if (StringUtils.isNotBlank(symbol)) {
+				call.addPrettyParam("symbol", symbol, false);
+			}
+			if (outlineOnly) {
+				call.addPrettyParam("outline_only", "true", false);
+			}
 
-			ReadFileContentTool.ReadFileContentResult readResult = readFileContentTool.readFileContent(fileName,
-					startLine, endLine);
+			ReadFileContentTool.ReadFileContentResult readResult;
+			if (outlineOnly) {
+				readResult = readFileContentTool.readOutline(fileName);
+			} else if (StringUtils.isNotBlank(symbol)) {
+				readResult = readFileContentTool.readSymbol(fileName, symbol);
+			} else {
+				readResult = readFileContentTool.readFileContent(fileName, startLine, endLine);
+			}
 
 			JsonObject jsonResponse = new JsonObject();
 			if (readResult.isSuccess()) {
@@ -704,10 +927,22 @@ public class FunctionCallSession {
 				String contentToDisplay = readResult.getContentWithLineNumbers();
 				result.addPrettyResult("file_content", "```\n" + contentToDisplay + "\n```", true);
 
+				String earlierCallId = resultEncoder.findEarlierRead(call.getId(), readResult.getFilePath(),
+						readResult.getActualStartLine(), readResult.getActualEndLine(),
+						readResult.getContentWithLineNumbers());
 				jsonResponse.addProperty("status", "Success");
-				jsonResponse.addProperty("message", readResult.getMessage());
+				if (earlierCallId == null) {
+					jsonResponse.addProperty("message", readResult.getMessage());
+				} else {
+					// The model already has the content, don't send it again.
+					jsonResponse.addProperty("message",
+							"The content is unchanged since the result of call " + earlierCallId + ".");
+					jsonResponse.addProperty("unchanged_since_call", earlierCallId);
+				}
 				jsonResponse.addProperty("file_path", readResult.getFilePath());
-				jsonResponse.addProperty("content", readResult.getContentWithLineNumbers()); // Prefixed content
+				if (earlierCallId == null) {
+					jsonResponse.addProperty("content", readResult.getContentWithLineNumbers()); // Prefixed content
+				}
 				jsonResponse.addProperty("actual_start_line", readResult.getActualStartLine());
 				jsonResponse.addProperty("actual_end_line", readResult.getActualEndLine());
 			} else {
@@ -789,6 +1024,16 @@ public class FunctionCallSession {
 		}
 	}
 
+	/**
+	 * Forgets the content returned by earlier tool results. Must be called when
+	 * the session continues with a different conversation, results of this one
+	 * must not refer to calls of the old one.
+	 */
+	public void resetResultHistory() {
+		speculativeCalls.discard();
+		resultEncoder.reset();
+	}
+
 	/**
 	 * Checks if there are any pending changes accumulated from any tool.
 	 * 
@@ -860,7 +1105,9 @@ public class FunctionCallSession {
 		pendingTextFileChanges.clear();
 		pendingCreateFileChanges.clear();
 		messagesWithPendingChanges.clear();
-		pendingBatchMessages.clear();
+		synchronized (pendingBatchMessages) {
+			pendingBatchMessages.clear();
+		}
 
 		// Clear the buffer caches
 		if (bufferedResourceAccess != null) {
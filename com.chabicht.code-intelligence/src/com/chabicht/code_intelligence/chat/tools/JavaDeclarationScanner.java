@@ -0,0 +1,117 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.AnnotationTypeMemberDeclaration;
+import org.eclipse.jdt.core.dom.BodyDeclaration;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.EnumConstantDeclaration;
+import org.eclipse.jdt.core.dom.EnumDeclaration;
+import org.eclipse.jdt.core.dom.FieldDeclaration;
+import org.eclipse.jdt.core.dom.Javadoc;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
+
+/**
+ * Finds the declarations of a Java source with the JDT parser. The source is
+ * parsed as is, so unsaved and pending changes are reflected, and no bindings
+ * are resolved, which keeps it fast.
+ */
+public class JavaDeclarationScanner {
+
+	/**
+	 * @return the types, methods, fields and enum constants of the source, in the
+	 *         order of the file.
+	 */
+	public List<Declaration> scan(String source) {
+		ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		Map<String, String> options = JavaCore.getOptions();
+		JavaCore.setComplianceOptions(JavaCore.latestSupportedJavaVersion(), options);
+		parser.setCompilerOptions(options);
+		parser.setSource(source.toCharArray());
+		CompilationUnit cu = (CompilationUnit) parser.createAST(null);
+
+		List<Declaration> res = new ArrayList<>();
+		for (Object type : cu.types()) {
+			addType(res, cu, source, (AbstractTypeDeclaration) type, null, 0);
+		}
+		return res;
+	}
+
+	private void addType(List<Declaration> res, CompilationUnit cu, String source, AbstractTypeDeclaration type,
+			String enclosingName, int depth) {
+		String name = type.getName().getIdentifier();
+		String qualifiedName = enclosingName == null ? name : enclosingName + "." + name;
+		int bodyStart = source.indexOf('{', type.getName().getStartPosition());
+		res.add(create(cu, source, type, name, qualifiedName, bodyStart, depth, null));
+
+		if (type instanceof EnumDeclaration enumDeclaration) {
+			for (Object constant : enumDeclaration.enumConstants()) {
+				EnumConstantDeclaration c = (EnumConstantDeclaration) constant;
+				String constantName = c.getName().getIdentifier();
+				res.add(create(cu, source, c, constantName, qualifiedName + "." + constantName, -1, depth + 1, null));
+			}
+		}
+
+		for (Object o : type.bodyDeclarations()) {
+			if (o instanceof AbstractTypeDeclaration nested) {
+				addType(res, cu, source, nested, qualifiedName, depth + 1);
+			} else if (o instanceof MethodDeclaration method) {
+				String methodName = method.getName().getIdentifier();
+				List<String> parameterTypes = new ArrayList<>();
+				for (Object p : method.parameters()) {
+					SingleVariableDeclaration parameter = (SingleVariableDeclaration) p;
+					parameterTypes.add(SymbolReference.simpleTypeName(parameter.getType().toString())
+							+ "[]".repeat(parameter.getExtraDimensions()) + (parameter.isVarargs() ? "[]" : ""));
+				}
+				int end = method.getBody() != null ? method.getBody().getStartPosition() : -1;
+				res.add(create(cu, source, method, methodName, qualifiedName + "." + methodName, end, depth + 1,
+						parameterTypes));
+			} else if (o instanceof FieldDeclaration field) {
+				for (Object f : field.fragments()) {
+					VariableDeclarationFragment fragment = (VariableDeclarationFragment) f;
+					String fieldName = fragment.getName().getIdentifier();
+					// The signature leaves out the initializer, it may be long.
+					int end = fragment.getInitializer() != null ? fragment.getInitializer().getStartPosition() : -1;
+					res.add(create(cu, source, field, fieldName, qualifiedName + "." + fieldName, end, depth + 1,
+							null));
+				}
+			} else if (o instanceof AnnotationTypeMemberDeclaration member) {
+				String memberName = member.getName().getIdentifier();
+				res.add(create(cu, source, member, memberName, qualifiedName + "." + memberName, -1, depth + 1,
+						List.of()));
+			}
+		}
+	}
+
+	/**
+	 * @param signatureEnd the end of the signature in the source, -1 for the end
+	 *                     of the node.
+	 */
+	private Declaration create(CompilationUnit cu, String source, BodyDeclaration node, String name,
+			String qualifiedName, int signatureEnd, int depth, List<String> parameterTypes) {
+		int start = node.getStartPosition();
+		int end = start + node.getLength();
+		int signatureStart = start;
+		Javadoc javadoc = node.getJavadoc();
+		if (javadoc != null) {
+			signatureStart = javadoc.getStartPosition() + javadoc.getLength();
+		}
+		if (signatureEnd < signatureStart || signatureEnd > end) {
+			signatureEnd = end;
+		}
+		String signature = source.substring(signatureStart, signatureEnd).replaceAll("\\s+", " ").strip();
+		signature = StringUtils.removeEnd(StringUtils.removeEnd(signature, ";"), "=").strip();
+		return new Declaration(name, qualifiedName, signature, cu.getLineNumber(start),
+				cu.getLineNumber(Math.max(start, end - 1)), depth, parameterTypes);
+	}
+}
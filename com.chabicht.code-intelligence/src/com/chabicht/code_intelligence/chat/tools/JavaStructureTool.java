@@ -0,0 +1,460 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.jdt.core.IClassFile;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IField;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IMember;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IOpenable;
+import org.eclipse.jdt.core.ISourceRange;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeHierarchy;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.Signature;
+import org.eclipse.jdt.core.SourceRange;
+import org.eclipse.jdt.core.search.IJavaSearchConstants;
+import org.eclipse.jdt.core.search.SearchEngine;
+import org.eclipse.jdt.core.search.SearchMatch;
+import org.eclipse.jdt.core.search.SearchParticipant;
+import org.eclipse.jdt.core.search.SearchPattern;
+import org.eclipse.jdt.core.search.SearchRequestor;
+import org.eclipse.jdt.core.search.TypeNameMatch;
+import org.eclipse.jdt.core.search.TypeNameMatchRequestor;
+
+import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.completion.TypeSignatureCache;
+import com.chabicht.code_intelligence.util.CodeUtil;
+
+/**
+ * Answers structural questions about Java code from the JDT model and search
+ * engine: references, implementations and the type hierarchy. The results are
+ * signatures and single lines with their position, so one call replaces a
+ * series of text searches and file reads. The outline of a file is read with
+ * {@link ReadFileContentTool#readOutline(String)}.
+ * <p>
+ * Symbols are given as type name, simple or fully qualified, optionally
+ * followed by <code>#member</code> and parameter types, e.g.
+ * <code>com.example.Foo#bar(String, int)</code>, see {@link SymbolReference}.
+ * Without parameter types all overloads are included.
+ */
+public class JavaStructureTool {
+	private static final int DEFAULT_MAX_RESULTS = 50;
+	private static final int MAX_RESULTS_LIMIT = 500;
+	private static final int MAX_AMBIGUOUS_TYPES_LISTED = 10;
+
+	private final IResourceAccess resourceAccess;
+
+	public JavaStructureTool(IResourceAccess resourceAccess) {
+		this.resourceAccess = resourceAccess;
+	}
+
+	public StructureResult findReferences(String symbol, Integer maxResults) {
+		try {
+			List<IMember> elements = resolveSymbol(symbol);
+			int max = limit(maxResults);
+
+			SearchPattern pattern = null;
+			for (IMember element : elements) {
+				SearchPattern elementPattern = SearchPattern.createPattern(element, IJavaSearchConstants.REFERENCES);
+				pattern = pattern == null ? elementPattern : SearchPattern.createOrPattern(pattern, elementPattern);
+			}
+
+			List<StructureItem> items = new ArrayList<>();
+			Map<IOpenable, int[]> lineOffsetsBySource = new HashMap<>();
+			NullProgressMonitor monitor = new NullProgressMonitor();
+			SearchRequestor requestor = new SearchRequestor() {
+				@Override
+				public void acceptSearchMatch(SearchMatch match) throws CoreException {
+					if (match.getAccuracy() != SearchMatch.A_ACCURATE
+							|| !(match.getElement() instanceof IJavaElement)) {
+						return;
+					}
+					if (items.size() >= max) {
+						monitor.setCanceled(true);
+						return;
+					}
+					IJavaElement enclosing = (IJavaElement) match.getElement();
+					String source = getSource(enclosing);
+					int[] lineOffsets = lineOffsetsBySource.computeIfAbsent(enclosing.getOpenable(),
+							o -> CodeUtil.lineOffsets(source));
+					int line = CodeUtil.lineOf(lineOffsets, match.getOffset());
+					String text = source != null ? lineText(source, lineOffsets, line) : "";
+					items.add(new StructureItem(getPath(enclosing), line, line,
+							text + "  // in " + getShortLabel(enclosing)));
+				}
+			};
+
+			boolean limitReached = false;
+			try {
+				new SearchEngine().search(pattern,
+						new SearchParticipant[] { SearchEngine.getDefaultSearchParticipant() },
+						SearchEngine.createWorkspaceScope(), requestor, monitor);
+			} catch (OperationCanceledException e) {
+				limitReached = true;
+			}
+
+			String message = "Found " + items.size() + " references to " + describe(elements) + ".";
+			if (limitReached) {
+				message += " (Limit reached, some results are omitted)";
+			}
+			return new StructureResult(true, message, items);
+		} catch (IllegalArgumentException e) {
+			return StructureResult.failure(e.getMessage());
+		} catch (CoreException e) {
+			Activator.logError("Error searching references of " + symbol, e);
+			return StructureResult.failure("Error searching references: " + e.getMessage());
+		}
+	}
+
+	public StructureResult findImplementations(String symbol, Integer maxResults) {
+		try {
+			List<IMember> elements = resolveSymbol(symbol);
+			if (elements.stream().allMatch(IField.class::isInstance)) {
+				return StructureResult.failure("Fields have no implementations, use find_references instead.");
+			}
+			int max = limit(maxResults);
+
+			List<StructureItem> items = new ArrayList<>();
+			boolean limitReached = false;
+			for (IMember element : elements) {
+				IType type = element instanceof IType t ? t : element.getDeclaringType();
+				ITypeHierarchy hierarchy = type.newTypeHierarchy(new NullProgressMonitor());
+				for (IType subtype : hierarchy.getAllSubtypes(type)) {
+					List<IMember> implementations = new ArrayList<>();
+					if (element instanceof IMethod method) {
+						IMethod[] found = subtype.findMethods(method);
+						if (found != null) {
+							implementations.addAll(Arrays.asList(found));
+						}
+					} else if (element instanceof IType) {
+						implementations.add(subtype);
+					}
+					for (IMember implementation : implementations) {
+						if (items.size() >= max) {
+							limitReached = true;
+							break;
+						}
+						items.add(createItem(implementation));
+					}
+				}
+			}
+
+			String message = "Found " + items.size() + " implementations of " + describe(elements) + ".";
+			if (limitReached) {
+				message += " (Limit reached, some results are omitted)";
+			}
+			return new StructureResult(true, message, items);
+		} catch (IllegalArgumentException e) {
+			return StructureResult.failure(e.getMessage());
+		} catch (CoreException e) {
+			Activator.logError("Error searching implementations of " + symbol, e);
+			return StructureResult.failure("Error searching implementations: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the type itself, its superclasses (nearest first), its interfaces
+	 *         and its subtypes, each with its declaration.
+	 */
+	public StructureResult getTypeHierarchy(String typeName) {
+		try {
+			List<IMember> elements = resolveSymbol(typeName);
+			if (!(elements.get(0) instanceof IType type)) {
+				return StructureResult.failure("Not a type: " + typeName);
+			}
+
+			ITypeHierarchy hierarchy = type.newTypeHierarchy(new NullProgressMonitor());
+			List<StructureItem> items = new ArrayList<>();
+			items.add(createItem(type, "type: "));
+			for (IType superclass : hierarchy.getAllSuperclasses(type)) {
+				items.add(createItem(superclass, "superclass: "));
+			}
+			for (IType superInterface : hierarchy.getAllSuperInterfaces(type)) {
+				items.add(createItem(superInterface, "interface: "));
+			}
+			for (IType subtype : hierarchy.getAllSubtypes(type)) {
+				items.add(createItem(subtype, "subtype: "));
+			}
+			return new StructureResult(true, "Hierarchy of " + type.getFullyQualifiedName('.') + ": "
+					+ hierarchy.getAllSupertypes(type).length + " supertypes, " + hierarchy.getAllSubtypes(type).length
+					+ " subtypes.", items);
+		} catch (IllegalArgumentException e) {
+			return StructureResult.failure(e.getMessage());
+		} catch (CoreException e) {
+			Activator.logError("Error computing the type hierarchy of " + typeName, e);
+			return StructureResult.failure("Error computing the type hierarchy: " + e.getMessage());
+		}
+	}
+
+	private StructureItem createItem(IMember member) throws JavaModelException {
+		return createItem(member, "");
+	}
+
+	private StructureItem createItem(IMember member, String prefix) throws JavaModelException {
+		int line = 0;
+		String source = getSource(member);
+		ISourceRange nameRange = member.getNameRange();
+		if (source != null && SourceRange.isAvailable(nameRange)) {
+			line = CodeUtil.lineOf(CodeUtil.lineOffsets(source), nameRange.getOffset());
+		}
+		String signature = TypeSignatureCache.getMemberSignature(member);
+		if (member instanceof IMethod) {
+			signature = member.getDeclaringType().getFullyQualifiedName('.') + ": " + signature;
+		}
+		return new StructureItem(getPath(member), line, line, prefix + signature);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the symbol can't be resolved.
+	 */
+	private List<IMember> resolveSymbol(String symbol) throws JavaModelException {
+		if (StringUtils.isBlank(symbol)) {
+			throw new IllegalArgumentException("The symbol must not be empty.");
+		}
+
+		SymbolReference reference = SymbolReference.parse(symbol);
+		String typeName = reference.getName();
+		String memberName = null;
+		int hash = typeName.indexOf('#');
+		if (hash >= 0) {
+			memberName = typeName.substring(hash + 1).strip();
+			typeName = typeName.substring(0, hash).strip();
+		}
+
+		IType type = findType(typeName);
+		if (type == null && memberName == null && typeName.contains(".")) {
+			// Also accept "Type.member".
+			int lastDot = typeName.lastIndexOf('.');
+			String member = typeName.substring(lastDot + 1);
+			type = findType(typeName.substring(0, lastDot));
+			if (type != null) {
+				memberName = member;
+			}
+		}
+		if (type == null) {
+			throw new IllegalArgumentException("Type not found: " + typeName
+					+ ". Use the fully qualified name or check the spelling.");
+		}
+		if (StringUtils.isEmpty(memberName)) {
+			return List.of(type);
+		}
+
+		IField field = type.getField(memberName);
+		if (reference.getParameterTypes() == null && field.exists()) {
+			return List.of(field);
+		}
+		List<IMember> res = new ArrayList<>();
+		for (IMethod method : type.getMethods()) {
+			String name = method.isConstructor() ? type.getElementName() : method.getElementName();
+			if (name.equals(memberName) && reference.matchesParameters(parameterTypes(method))) {
+				res.add(method);
+			}
+		}
+		if (res.isEmpty()) {
+			List<String> parameterTypes = reference.getParameterTypes();
+			throw new IllegalArgumentException(
+					"Member not found: " + memberName + " in " + type.getFullyQualifiedName('.')
+							+ (parameterTypes != null ? " with parameters " + parameterTypes : ""));
+		}
+		return res;
+	}
+
+	/**
+	 * @return the type with the given fully qualified or simple name, preferring
+	 *         types in source, or null if there is none.
+	 * @throws IllegalArgumentException if a simple name is ambiguous.
+	 */
+	private IType findType(String typeName) throws JavaModelException {
+		if (typeName.contains(".")) {
+			for (IJavaProject project : getJavaProjects()) {
+				IType type = project.findType(typeName);
+				if (type != null && type.exists()) {
+					return type;
+				}
+			}
+			return null;
+		}
+
+		List<IType> found = new ArrayList<>();
+		new SearchEngine().searchAllTypeNames(null, SearchPattern.R_EXACT_MATCH, typeName.toCharArray(),
+				SearchPattern.R_EXACT_MATCH | SearchPattern.R_CASE_SENSITIVE, IJavaSearchConstants.TYPE,
+				SearchEngine.createWorkspaceScope(), new TypeNameMatchRequestor() {
+					@Override
+					public void acceptTypeNameMatch(TypeNameMatch match) {
+						found.add(match.getType());
+					}
+				}, IJavaSearchConstants.WAIT_UNTIL_READY_TO_SEARCH, new NullProgressMonitor());
+
+		List<IType> sourceTypes = found.stream().filter(t -> !t.isBinary()).toList();
+		List<IType> candidates = sourceTypes.isEmpty() ? found : sourceTypes;
+		if (candidates.size() > 1) {
+			List<String> names = candidates.stream().limit(MAX_AMBIGUOUS_TYPES_LISTED)
+					.map(t -> t.getFullyQualifiedName('.')).toList();
+			throw new IllegalArgumentException(
+					"Type name " + typeName + " is ambiguous, use one of the fully qualified names: " + names);
+		}
+		return candidates.isEmpty() ? null : candidates.get(0);
+	}
+
+	private List<IJavaProject> getJavaProjects() {
+		List<IJavaProject> res = new ArrayList<>();
+		for (IProject project : resourceAccess.getProjects()) {
+			try {
+				if (project.isOpen() && project.hasNature(JavaCore.NATURE_ID)) {
+					res.add(JavaCore.create(project));
+				}
+			} catch (CoreException e) {
+				Activator.logError("Could not check the nature of project " + project.getName(), e);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return the simple names of the parameter types, to be matched with
+	 *         {@link SymbolReference#matchesParameters(List)}.
+	 */
+	static List<String> parameterTypes(IMethod method) {
+		List<String> res = new ArrayList<>();
+		for (String signature : method.getParameterTypes()) {
+			res.add(SymbolReference.simpleTypeName(Signature.toString(signature)));
+		}
+		return res;
+	}
+
+	private static String describe(List<IMember> elements) {
+		IMember first = elements.get(0);
+		String res = getShortLabel(first);
+		if (elements.size() > 1) {
+			res += " (" + elements.size() + " overloads)";
+		}
+		return res;
+	}
+
+	/**
+	 * @return e.g. "Foo.bar(String, int)" for a method, "Foo.baz" for a field.
+	 */
+	private static String getShortLabel(IJavaElement element) {
+		if (element instanceof IMethod method) {
+			return method.getDeclaringType().getElementName() + "." + method.getElementName() + "("
+					+ String.join(", ", parameterTypes(method)) + ")";
+		} else if (element instanceof IType type) {
+			return type.getFullyQualifiedName('.');
+		} else if (element instanceof IMember member && member.getDeclaringType() != null) {
+			return member.getDeclaringType().getElementName() + "." + member.getElementName();
+		}
+		return element.getElementName();
+	}
+
+	/**
+	 * @return the workspace path of the file, or the path of the library for
+	 *         binary types.
+	 */
+	private static String getPath(IJavaElement element) {
+		IResource resource = element.getResource();
+		if (resource != null) {
+			return resource.getFullPath().toString();
+		}
+		IJavaElement classFile = element.getAncestor(IJavaElement.CLASS_FILE);
+		return element.getPath().toString() + (classFile != null ? "!" + classFile.getElementName() : "");
+	}
+
+	private static String getSource(IJavaElement element) throws JavaModelException {
+		IOpenable openable = element.getOpenable();
+		if (openable instanceof ICompilationUnit cu) {
+			return cu.getSource();
+		} else if (openable instanceof IClassFile classFile) {
+			return classFile.getSource();
+		}
+		return null;
+	}
+
+	private static int limit(Integer maxResults) {
+		return maxResults == null || maxResults <= 0 ? DEFAULT_MAX_RESULTS : Math.min(maxResults, MAX_RESULTS_LIMIT);
+	}
+
+	private static String lineText(String source, int[] lineOffsets, int line) {
+		int start = lineOffsets[line - 1];
+		int end = line < lineOffsets.length ? lineOffsets[line] : source.length();
+		return source.substring(start, end).strip();
+	}
+
+	/**
+	 * A declaration or reference with its position.
+	 */
+	public static class StructureItem {
+		private final String filePath;
+		private final int startLine;
+		private final int endLine;
+		private final String text;
+
+		/**
+		 * @param startLine 1-based, 0 if unknown (e.g. binary types).
+		 */
+		public StructureItem(String filePath, int startLine, int endLine, String text) {
+			this.filePath = filePath;
+			this.startLine = startLine;
+			this.endLine = endLine;
+			this.text = text;
+		}
+
+		public String getFilePath() {
+			return filePath;
+		}
+
+		public int getStartLine() {
+			return startLine;
+		}
+
+		public int getEndLine() {
+			return endLine;
+		}
+
+		public String getText() {
+			return text;
+		}
+	}
+
+	public static class StructureResult {
+		private final boolean success;
+		private final String message;
+		private final List<StructureItem> items;
+
+		public StructureResult(boolean success, String message, List<StructureItem> items) {
+			this.success = success;
+			this.message = message;
+			this.items = items != null ? items : new ArrayList<>();
+		}
+
+		public boolean isSuccess() {
+			return success;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public List<StructureItem> getItems() {
+			return items;
+		}
+
+		public static StructureResult failure(String message) {
+			return new StructureResult(false, message, null);
+		}
+	}
+}
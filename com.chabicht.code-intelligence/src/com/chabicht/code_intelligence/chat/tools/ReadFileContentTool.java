@@ -10,6 +10,7 @@ import java.util.List;
 import java.util.ArrayList;
 
 public class ReadFileContentTool {
+	private static final int MAX_DECLARATIONS_LISTED = 50;
 
 	private final IResourceAccess resourceAccess;
 
@@ -179,16 +180,122 @@ public class ReadFileContentTool {
 			Log.logError("Unexpected error reading file " + fileName + ": " + e.getMessage(), e);
 			return ReadFileContentResult.failure("Unexpected error reading file: " + e.getMessage());
 		} finally {
-			// Convert Map<IFileHandle, IDocument> to Map<IFile, IDocument> for real files
-			Map<IFile, IDocument> fileDocumentMap = new HashMap<>();
-			for (Map.Entry<IFileHandle, IDocument> entry : documentMap.entrySet()) {
-				IFileHandle handle = entry.getKey();
-				if (!handle.isVirtual() && handle.getFile() != null) {
-					fileDocumentMap.put(handle.getFile(), entry.getValue());
-				}
+			disconnect(documentMap);
+		}
+	}
+
+	/**
+	 * Reads a single declaration of a file, e.g. a type, method or field. Java
+	 * files are parsed, other files are scanned for declaration keywords.
+	 *
+	 * @param symbol the name of the declaration, optionally qualified with the
+	 *               enclosing declarations ("Outer.method" or "Outer#method")
+	 *               and followed by parameter types ("method(String, int)").
+	 */
+	public ReadFileContentResult readSymbol(String fileName, String symbol) {
+		IFileHandle fileHandle = resourceAccess.findFileHandleByName(fileName);
+		if (fileHandle == null) {
+			return ReadFileContentResult.failure("File not found or not accessible: " + fileName);
+		}
+		String content = getText(fileHandle);
+		if (content == null) {
+			return ReadFileContentResult.failure("Could not get document for file: " + fileName);
+		}
+
+		List<Declaration> declarations = scanDeclarations(fileHandle, content);
+		List<Declaration> matches = Declaration.find(declarations, symbol);
+		if (matches.isEmpty()) {
+			List<String> names = declarations.stream().limit(MAX_DECLARATIONS_LISTED)
+					.map(Declaration::getQualifiedName).toList();
+			return ReadFileContentResult.failure(String.format("Symbol '%s' not found in %s. Declarations: %s",
+					symbol, fileHandle.getName(), names));
+		}
+
+		Declaration declaration = matches.get(0);
+		ReadFileContentResult result = readFileContent(fileName, declaration.getStartLine(),
+				declaration.getEndLine());
+		if (!result.isSuccess()) {
+			return result;
+		}
+		String message = String.format("Successfully read %s (lines %d to %d) from %s.",
+				declaration.getQualifiedName(), result.getActualStartLine(), result.getActualEndLine(),
+				fileHandle.getName());
+		if (matches.size() > 1) {
+			message += " Further matches, add parameter types to select one: "
+					+ matches.subList(1, matches.size()).stream().map(d -> d.getSignature() + " (lines "
+							+ d.getStartLine() + "-" + d.getEndLine() + ")").toList();
+		}
+		return new ReadFileContentResult(true, message, result.getFilePath(), result.getContentWithLineNumbers(),
+				result.getActualStartLine(), result.getActualEndLine());
+	}
+
+	/**
+	 * Reads the declarations of a file without their bodies: one line per
+	 * declaration with its line range, nested declarations indented.
+	 */
+	public ReadFileContentResult readOutline(String fileName) {
+		IFileHandle fileHandle = resourceAccess.findFileHandleByName(fileName);
+		if (fileHandle == null) {
+			return ReadFileContentResult.failure("File not found or not accessible: " + fileName);
+		}
+		String content = getText(fileHandle);
+		if (content == null) {
+			return ReadFileContentResult.failure("Could not get document for file: " + fileName);
+		}
+
+		List<Declaration> declarations = scanDeclarations(fileHandle, content);
+		StringBuilder outline = new StringBuilder();
+		for (Declaration declaration : declarations) {
+			if (outline.length() > 0) {
+				outline.append('\n');
+			}
+			outline.append("  ".repeat(declaration.getDepth())).append(declaration.getStartLine());
+			if (declaration.getEndLine() > declaration.getStartLine()) {
+				outline.append('-').append(declaration.getEndLine());
+			}
+			outline.append(": ").append(declaration.getSignature());
+		}
+		int totalLines = content.split("\r?\n", -1).length;
+		String message = String.format(
+				"Outline of %s (%d lines) with %d declarations. Read declarations with symbol or start_line/end_line.",
+				fileHandle.getName(), totalLines, declarations.size());
+		return new ReadFileContentResult(true, message, fileHandle.getFullPath(), outline.toString(), 0, 0);
+	}
+
+	private List<Declaration> scanDeclarations(IFileHandle fileHandle, String content) {
+		if ("java".equalsIgnoreCase(fileHandle.getFileExtension())) {
+			try {
+				return new JavaDeclarationScanner().scan(content);
+			} catch (RuntimeException e) {
+				Log.logError("Could not parse " + fileHandle.getFullPath() + ", falling back to text scanning", e);
+			}
+		}
+		return new TextDeclarationScanner().scan(content);
+	}
+
+	private String getText(IFileHandle fileHandle) {
+		if (fileHandle.isVirtual()) {
+			return ((VirtualFileHandle) fileHandle).getContent();
+		}
+		Map<IFileHandle, IDocument> documentMap = new HashMap<>();
+		try {
+			IDocument document = resourceAccess.getDocumentForHandle(fileHandle, documentMap);
+			return document != null ? document.get() : null;
+		} finally {
+			disconnect(documentMap);
+		}
+	}
+
+	private void disconnect(Map<IFileHandle, IDocument> documentMap) {
+		// Convert Map<IFileHandle, IDocument> to Map<IFile, IDocument> for real files
+		Map<IFile, IDocument> fileDocumentMap = new HashMap<>();
+		for (Map.Entry<IFileHandle, IDocument> entry : documentMap.entrySet()) {
+			IFileHandle handle = entry.getKey();
+			if (!handle.isVirtual() && handle.getFile() != null) {
+				fileDocumentMap.put(handle.getFile(), entry.getValue());
 			}
-			resourceAccess.disconnectAllDocuments(fileDocumentMap);
 		}
+		resourceAccess.disconnectAllDocuments(fileDocumentMap);
 	}
 
 	/**
@@ -0,0 +1,165 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import com.chabicht.code_intelligence.chat.tools.ReadFileContentTool.ReadFileContentResult;
+import com.chabicht.code_intelligence.semanticsearch.CodeChunk;
+import com.chabicht.code_intelligence.semanticsearch.SemanticSearchIndex;
+import com.chabicht.code_intelligence.semanticsearch.VectorIndex.Hit;
+
+public class SemanticSearchTool {
+	private static final int DEFAULT_MAX_RESULTS = 10;
+	private static final int MAX_RESULTS_LIMIT = 50;
+	/** The best hits are returned with their content, saving a read_file_content call each. */
+	private static final int HITS_WITH_CONTENT = 3;
+
+	private final ReadFileContentTool readFileContentTool;
+
+	public SemanticSearchTool(ReadFileContentTool readFileContentTool) {
+		this.readFileContentTool = readFileContentTool;
+	}
+
+	public SemanticSearchResult search(String query, Integer maxResults, List<String> fileNamePatterns) {
+		SemanticSearchIndex index = SemanticSearchIndex.getInstance();
+		if (!index.isEnabled()) {
+			return new SemanticSearchResult(false,
+					"Semantic search is not available: no embedding model is configured.", null);
+		}
+
+		int max = maxResults == null || maxResults <= 0 ? DEFAULT_MAX_RESULTS
+				: Math.min(maxResults, MAX_RESULTS_LIMIT);
+		List<Hit> hits = index.search(query, max, createPathFilter(fileNamePatterns));
+
+		List<SemanticSearchResultItem> items = new ArrayList<>();
+		for (Hit hit : hits) {
+			CodeChunk chunk = hit.getChunk();
+			String content = null;
+			if (items.size() < HITS_WITH_CONTENT) {
+				ReadFileContentResult read = readFileContentTool.readFileContent(chunk.getPath(), chunk.getStartLine(),
+						chunk.getEndLine());
+				if (read.isSuccess()) {
+					content = read.getContentWithLineNumbers();
+				}
+			}
+			items.add(new SemanticSearchResultItem(chunk.getPath(), chunk.getStartLine(), chunk.getEndLine(),
+					chunk.getLabel(), hit.getScore(), content));
+		}
+
+		String message = "Found " + items.size() + " code sections.";
+		if (index.isUpdating()) {
+			message += " The index is being updated, recently changed files may be missing.";
+		}
+		return new SemanticSearchResult(true, message, items);
+	}
+
+	/**
+	 * @return a filter accepting the paths whose file name matches one of the glob
+	 *         patterns, or all paths if there are none.
+	 */
+	static Predicate<String> createPathFilter(List<String> fileNamePatterns) {
+		if (fileNamePatterns == null || fileNamePatterns.isEmpty()) {
+			return p -> true;
+		}
+
+		List<Pattern> patterns = new ArrayList<>();
+		for (String glob : fileNamePatterns) {
+			int lastSlash = glob.lastIndexOf('/');
+			if (lastSlash >= 0 && lastSlash < glob.length() - 1) {
+				glob = glob.substring(lastSlash + 1);
+			}
+			patterns.add(Pattern.compile(globToRegex(glob), Pattern.CASE_INSENSITIVE));
+		}
+		return path -> {
+			String fileName = path.substring(path.lastIndexOf('/') + 1);
+			return patterns.stream().anyMatch(p -> p.matcher(fileName).matches());
+		};
+	}
+
+	private static String globToRegex(String glob) {
+		StringBuilder sb = new StringBuilder();
+		for (char c : glob.toCharArray()) {
+			if (c == '*') {
+				sb.append(".*");
+			} else if (c == '?') {
+				sb.append('.');
+			} else {
+				sb.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return sb.toString();
+	}
+
+	public static class SemanticSearchResultItem {
+		private final String filePath;
+		private final int startLine;
+		private final int endLine;
+		private final String label;
+		private final float score;
+		private final String contentWithLineNumbers;
+
+		public SemanticSearchResultItem(String filePath, int startLine, int endLine, String label, float score,
+				String contentWithLineNumbers) {
+			this.filePath = filePath;
+			this.startLine = startLine;
+			this.endLine = endLine;
+			this.label = label;
+			this.score = score;
+			this.contentWithLineNumbers = contentWithLineNumbers;
+		}
+
+		public String getFilePath() {
+			return filePath;
+		}
+
+		public int getStartLine() {
+			return startLine;
+		}
+
+		public int getEndLine() {
+			return endLine;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public float getScore() {
+			return score;
+		}
+
+		/**
+		 * @return the content of the section, or null if it is not one of the best
+		 *         hits.
+		 */
+		public String getContentWithLineNumbers() {
+			return contentWithLineNumbers;
+		}
+	}
+
+	public static class SemanticSearchResult {
+		private final boolean success;
+		private final String message;
+		private final List<SemanticSearchResultItem> items;
+
+		public SemanticSearchResult(boolean success, String message, List<SemanticSearchResultItem> items) {
+			this.success = success;
+			this.message = message;
+			this.items = items != null ? items : new ArrayList<>();
+		}
+
+		public boolean isSuccess() {
+			return success;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public List<SemanticSearchResultItem> getItems() {
+			return items;
+		}
+	}
+}
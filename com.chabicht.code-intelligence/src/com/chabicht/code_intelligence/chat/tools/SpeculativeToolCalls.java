@@ -0,0 +1,159 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCall;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionResult;
+import com.chabicht.code_intelligence.util.Log;
+
+/**
+ * Executes read-only tool calls while the response containing them is still
+ * streaming, so the tool latency overlaps with the generation of the rest of
+ * the response. When the batch is dispatched, the results are taken instead of
+ * executing the calls again.
+ * <p>
+ * Only the read-only calls at the start of a response are executed early. A
+ * call after a writing call could depend on its change, which is only made
+ * when the batch is dispatched. The calls run one after the other in the order
+ * they were streamed, so their results are the same as if the batch executed
+ * them.
+ */
+public class SpeculativeToolCalls {
+	private final BiFunction<UUID, FunctionCall, FunctionResult> executor;
+	private final Predicate<String> readOnly;
+	private final Consumer<Collection<String>> forget;
+	private final ThreadPoolExecutor threadPool;
+
+	private UUID messageId;
+	private boolean stopped;
+	private final Map<String, Speculation> speculations = new HashMap<>();
+
+	/**
+	 * @param executor executes a call of the message with the given id.
+	 * @param readOnly tests if the tool with the given name doesn't change
+	 *                 anything.
+	 */
+	public SpeculativeToolCalls(BiFunction<UUID, FunctionCall, FunctionResult> executor, Predicate<String> readOnly) {
+		this(executor, readOnly, callIds -> {
+		});
+	}
+
+	/**
+	 * @param forget told the ids of calls whose results were discarded, e.g. to
+	 *               forget what they read. The model never sees these results,
+	 *               so later results must not refer to them.
+	 */
+	public SpeculativeToolCalls(BiFunction<UUID, FunctionCall, FunctionResult> executor, Predicate<String> readOnly,
+			Consumer<Collection<String>> forget) {
+		this.executor = executor;
+		this.readOnly = readOnly;
+		this.forget = forget;
+		// One thread that ends when idle, calls run in the order they are submitted.
+		this.threadPool = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			Thread thread = new Thread(r, "Speculative tool calls");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Starts executing the call if it is read-only and all calls of the message
+	 * before it were read-only, too.
+	 *
+	 * @param messageId the streaming assistant message the call belongs to.
+	 */
+	public synchronized void onCallComplete(UUID messageId, FunctionCall call) {
+		if (call == null || call.getId() == null) {
+			return;
+		}
+		if (!Objects.equals(this.messageId, messageId)) {
+			discard();
+			this.messageId = messageId;
+		}
+		if (stopped || speculations.containsKey(call.getId())) {
+			return;
+		}
+		if (!readOnly.test(call.getFunctionName())) {
+			stopped = true;
+			return;
+		}
+
+		// The handlers add pretty params to the call, it must not be shared with
+		// the batch.
+		FunctionCall copy = new FunctionCall(call.getId(), call.getFunctionName(), call.getArgsJson());
+		Future<FunctionResult> result = threadPool.submit(() -> executor.apply(messageId, copy));
+		speculations.put(call.getId(), new Speculation(copy, result));
+	}
+
+	/**
+	 * Takes the result of the call if it was executed early, waiting for it if it
+	 * is still running. The pretty params of the early execution are copied to
+	 * the call.
+	 *
+	 * @return the result, null if the call has to be executed.
+	 */
+	public FunctionResult take(FunctionCall call) {
+		Speculation speculation;
+		synchronized (this) {
+			speculation = call != null ? speculations.remove(call.getId()) : null;
+		}
+		if (speculation == null || !Objects.equals(speculation.call.getFunctionName(), call.getFunctionName())
+				|| !Objects.equals(speculation.call.getArgsJson(), call.getArgsJson())) {
+			return null;
+		}
+
+		try {
+			FunctionResult result = speculation.result.get();
+			call.setPrettyParams(speculation.call.getPrettyParams());
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			Log.logError("Speculative execution of " + call.getFunctionName() + " failed", e.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * Drops the results that were not taken, e.g. because the response was
+	 * aborted. Calls that are still queued are not executed anymore, the ids of
+	 * all dropped calls are passed to the forget callback.
+	 */
+	public synchronized void discard() {
+		List<String> callIds = new ArrayList<>(speculations.keySet());
+		speculations.values().forEach(s -> s.result.cancel(false));
+		speculations.clear();
+		messageId = null;
+		stopped = false;
+		if (!callIds.isEmpty()) {
+			forget.accept(callIds);
+			// A call that is still running records what it read when it finishes.
+			threadPool.execute(() -> forget.accept(callIds));
+		}
+	}
+
+	private static class Speculation {
+		private final FunctionCall call;
+		private final Future<FunctionResult> result;
+
+		private Speculation(FunctionCall call, Future<FunctionResult> result) {
+			this.call = call;
+			this.result = result;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A symbol given to the tools: a name, optionally qualified by enclosing types
+ * or the package ("Outer.method", "com.example.Foo#method") and followed by
+ * parameter types ("method(String, Map&lt;String, Integer&gt;)").
+ * <p>
+ * Parameter types are compared by their simple names, see
+ * {@link #simpleTypeName(String)}.
+ */
+public class SymbolReference {
+	private final String name;
+	private final List<String> parameterTypes;
+
+	private SymbolReference(String name, List<String> parameterTypes) {
+		this.name = name;
+		this.parameterTypes = parameterTypes;
+	}
+
+	public static SymbolReference parse(String symbol) {
+		String name = StringUtils.strip(StringUtils.defaultString(symbol));
+		List<String> parameterTypes = null;
+		int paren = name.indexOf('(');
+		if (paren >= 0) {
+			parameterTypes = new ArrayList<>();
+			String parameters = StringUtils.removeEnd(name.substring(paren + 1).strip(), ")");
+			for (String parameter : splitParameters(parameters)) {
+				parameterTypes.add(simpleTypeName(parameter));
+			}
+			name = name.substring(0, paren).strip();
+		}
+		return new SymbolReference(name, parameterTypes);
+	}
+
+	/**
+	 * @return the name without the parameter types, e.g. "Outer#method".
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the simple names of the parameter types, null if the symbol has no
+	 *         parameter list.
+	 */
+	public List<String> getParameterTypes() {
+		return parameterTypes;
+	}
+
+	/**
+	 * @param parameterTypes the simple names of the parameter types of a
+	 *                       declaration, null if unknown.
+	 * @return true if the symbol has no parameter list or the same parameter
+	 *         types.
+	 */
+	public boolean matchesParameters(List<String> parameterTypes) {
+		return this.parameterTypes == null || parameterTypes == null || this.parameterTypes.equals(parameterTypes);
+	}
+
+	/**
+	 * Splits a parameter list at the commas that aren't nested in type arguments,
+	 * e.g. "Map&lt;String, Integer&gt;, int" into "Map&lt;String, Integer&gt;" and
+	 * "int".
+	 */
+	static List<String> splitParameters(String parameters) {
+		List<String> res = new ArrayList<>();
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i <= parameters.length(); i++) {
+			char c = i < parameters.length() ? parameters.charAt(i) : ',';
+			if (c == '<') {
+				depth++;
+			} else if (c == '>') {
+				depth = Math.max(0, depth - 1);
+			} else if (c == ',' && depth == 0) {
+				String parameter = parameters.substring(start, i).strip();
+				if (!parameter.isEmpty()) {
+					res.add(parameter);
+				}
+				start = i + 1;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return the simple name without package, enclosing types and type
+	 *         arguments, e.g. "Entry" for "java.util.Map.Entry&lt;String,
+	 *         Integer&gt;", varargs as array. Modifiers, annotations and a
+	 *         parameter name are left out, e.g. "String" for "final String name".
+	 */
+	public static String simpleTypeName(String typeName) {
+		StringBuilder withoutTypeArguments = new StringBuilder();
+		int depth = 0;
+		for (char c : typeName.toCharArray()) {
+			if (c == '<') {
+				depth++;
+			} else if (c == '>') {
+				depth = Math.max(0, depth - 1);
+			} else if (depth == 0) {
+				withoutTypeArguments.append(c);
+			}
+		}
+		String res = withoutTypeArguments.toString().replace("...", "[]").replaceAll("\\s*\\[\\s*\\]", "[]").strip();
+		for (String part : StringUtils.split(res)) {
+			if (!"final".equals(part) && !part.startsWith("@")) {
+				res = part;
+				break;
+			}
+		}
+		// Binary names of nested types separate them with '$'.
+		return res.substring(Math.max(res.lastIndexOf('.'), res.lastIndexOf('$')) + 1);
+	}
+
+	@Override
+	public String toString() {
+		return parameterTypes == null ? name : name + "(" + String.join(", ", parameterTypes) + ")";
+	}
+}
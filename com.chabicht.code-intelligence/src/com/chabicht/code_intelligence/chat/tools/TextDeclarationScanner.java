@@ -0,0 +1,181 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds declarations in source files without a parser, for languages other
+ * than Java. A line declares something if it starts with a keyword like
+ * <code>def</code>, <code>class</code>, <code>function</code> or
+ * <code>func</code>, assigns a function to a constant, or looks like a method
+ * header ending with a brace. The declaration ends where its braces are
+ * balanced again or, for blocks introduced by a colon (Python), before the
+ * next line that isn't indented deeper.
+ */
+public class TextDeclarationScanner {
+	private static final Pattern KEYWORD_DECLARATION = Pattern.compile(
+			"^(?:(?:export|default|pub(?:\\([\\w:]+\\))?|public|private|protected|internal|abstract|static|final"
+					+ "|async|unsafe|open|data|sealed|override)\\s+)*"
+					+ "(?:def|class|function\\*?|fn|func|interface|struct|enum|trait|impl|type|module|object|namespace"
+					+ "|record|fun|sub|proc)\\s+(?:\\([^)]*\\)\\s*)?([A-Za-z_$][\\w$]*)");
+	private static final Pattern FUNCTION_ASSIGNMENT = Pattern.compile(
+			"^(?:export\\s+)?(?:const|let|var)\\s+([A-Za-z_$][\\w$]*)\\s*(?::[^=]+)?=\\s*(?:async\\s+)?"
+					+ "(?:function\\b|\\([^)]*\\)\\s*(?::[^=]+)?=>|[A-Za-z_$][\\w$]*\\s*=>)");
+	private static final Pattern METHOD_HEADER = Pattern.compile(
+			"^(?:[\\w$<>\\[\\],.?*&:]+\\s+)*([A-Za-z_$][\\w$]*)\\s*\\([^;]*\\)\\s*(?::\\s*[^{;]+)?(?:\\s*->\\s*[^{;]+)?"
+					+ "(?:\\s*(?:const|throws\\s+[\\w.,\\s]+))?\\s*\\{\\s*$");
+	private static final Set<String> NOT_A_NAME = Set.of("if", "for", "foreach", "while", "switch", "catch", "return",
+			"else", "do", "try", "new", "synchronized", "function", "with", "elif", "when", "match", "using", "lock");
+	/** Only that many lines are searched for the opening brace of a declaration. */
+	private static final int MAX_HEADER_LINES = 5;
+
+	/**
+	 * @return the declarations of the content, in the order of the file.
+	 */
+	public List<Declaration> scan(String content) {
+		String[] lines = content.split("\r?\n", -1);
+		List<Declaration> res = new ArrayList<>();
+		Deque<Declaration> enclosing = new ArrayDeque<>();
+		for (int i = 0; i < lines.length; i++) {
+			String line = lines[i].strip();
+			String name = getDeclaredName(line);
+			if (name == null) {
+				continue;
+			}
+
+			int startLine = i + 1;
+			while (!enclosing.isEmpty() && enclosing.peek().getEndLine() < startLine) {
+				enclosing.pop();
+			}
+			Declaration parent = enclosing.peek();
+			int endLine = findEndLine(lines, i);
+			String qualifiedName = parent == null ? name : parent.getQualifiedName() + "." + name;
+			Declaration declaration = new Declaration(name, qualifiedName, toSignature(line), startLine, endLine,
+					enclosing.size(), null);
+			res.add(declaration);
+			if (endLine > startLine) {
+				enclosing.push(declaration);
+			}
+		}
+		return res;
+	}
+
+	private static String getDeclaredName(String line) {
+		for (Pattern pattern : List.of(KEYWORD_DECLARATION, FUNCTION_ASSIGNMENT, METHOD_HEADER)) {
+			Matcher m = pattern.matcher(line);
+			if (m.find() && !NOT_A_NAME.contains(m.group(1))) {
+				return m.group(1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the 1-based last line of the declaration starting at the 0-based
+	 *         index.
+	 */
+	private static int findEndLine(String[] lines, int start) {
+		for (int i = start; i < Math.min(lines.length, start + MAX_HEADER_LINES); i++) {
+			String code = stripStringsAndComments(lines[i]);
+			if (code.contains("{")) {
+				return findClosingBrace(lines, i);
+			}
+			if (code.strip().endsWith(":")) {
+				return findIndentedBlockEnd(lines, start, i);
+			}
+			if (code.strip().endsWith(";") || code.strip().endsWith("}")) {
+				break;
+			}
+		}
+		return start + 1;
+	}
+
+	private static int findClosingBrace(String[] lines, int start) {
+		int depth = 0;
+		boolean opened = false;
+		for (int i = start; i < lines.length; i++) {
+			for (char c : stripStringsAndComments(lines[i]).toCharArray()) {
+				if (c == '{') {
+					depth++;
+					opened = true;
+				} else if (c == '}') {
+					depth--;
+				}
+			}
+			if (opened && depth <= 0) {
+				return i + 1;
+			}
+		}
+		return lines.length;
+	}
+
+	private static int findIndentedBlockEnd(String[] lines, int start, int headerEnd) {
+		int indentation = indentation(lines[start]);
+		int end = headerEnd;
+		for (int i = headerEnd + 1; i < lines.length; i++) {
+			if (lines[i].isBlank()) {
+				continue;
+			}
+			if (indentation(lines[i]) <= indentation) {
+				break;
+			}
+			end = i;
+		}
+		return end + 1;
+	}
+
+	private static int indentation(String line) {
+		int res = 0;
+		for (char c : line.toCharArray()) {
+			if (c == ' ') {
+				res++;
+			} else if (c == '\t') {
+				res += 4;
+			} else {
+				break;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return the line without string literals and line comments, so braces in
+	 *         them aren't counted.
+	 */
+	private static String stripStringsAndComments(String line) {
+		StringBuilder sb = new StringBuilder();
+		char quote = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quote != 0) {
+				if (c == '\\') {
+					i++;
+				} else if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'' || c == '`') {
+				quote = c;
+			} else if (c == '/' && i + 1 < line.length() && line.charAt(i + 1) == '/') {
+				break;
+			} else if (c == '#' && sb.toString().isBlank()) {
+				break;
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String toSignature(String line) {
+		String res = line;
+		if (res.endsWith("{")) {
+			res = res.substring(0, res.length() - 1).strip();
+		}
+		return res;
+	}
+}
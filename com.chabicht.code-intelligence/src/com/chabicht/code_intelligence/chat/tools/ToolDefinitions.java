@@ -15,6 +15,7 @@ import org.apache.commons.io.IOUtils;
 import org.eclipse.jface.preference.IPreferenceStore;
 
 import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.semanticsearch.SemanticSearchIndex;
 import com.chabicht.code_intelligence.util.GsonUtil;
 import com.chabicht.code_intelligence.util.Log;
 import com.chabicht.codeintelligence.preferences.PreferenceConstants;
@@ -217,7 +218,10 @@ public class ToolDefinitions {
 				// Check 2: Does the active profile allow this tool?
 				boolean allowedByProfile = (profile == null) || profile.allowsTool(getToolTags(toolName));
 
-				if (individuallyEnabled && allowedByProfile) {
+				// Check 3: Is the tool usable with the current configuration?
+				boolean available = isAvailable(toolName);
+
+				if (individuallyEnabled && allowedByProfile && available) {
 					// Deep copy and strip the "tags" field before adding to result
 					JsonObject cleanedTool = toolObj.deepCopy();
 					cleanedTool.remove("tags");
@@ -232,6 +236,13 @@ public class ToolDefinitions {
 		}
 	}
 
+	private boolean isAvailable(String toolName) {
+		if ("semantic_search".equals(toolName)) {
+			return SemanticSearchIndex.getInstance().isEnabled();
+		}
+		return true;
+	}
+
 	private JsonObject toOpenAiFunctionFormat(ToolProfile profile) {
 		com.google.gson.Gson gson = GsonUtil.createGson();
 		JsonObject toolDefinitionGemini = getEnabledTools(profile);
@@ -0,0 +1,260 @@
+package com.chabicht.code_intelligence.chat.tools;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.chabicht.code_intelligence.chat.tools.JavaStructureTool.StructureItem;
+import com.chabicht.code_intelligence.chat.tools.TextSearchTool.SearchResultItem;
+import com.chabicht.code_intelligence.util.HashUtil;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Compact encodings for tool results, which make up the bulk of the input
+ * tokens of a conversation with tool calls.
+ * <ul>
+ * <li>Search matches are grouped by file and listed as numbered lines, a line
+ * with several matches is listed once. Results of the Java structure tools are
+ * grouped the same way.</li>
+ * <li>Content that an earlier call of the conversation already returned
+ * unchanged is replaced by a reference to that call.</li>
+ * <li>{@link #toPlainText(String)} renders a JSON result as plain text for
+ * providers that take tool results as a string, so the content isn't escaped
+ * twice.</li>
+ * </ul>
+ */
+public class ToolResultEncoder {
+	private final Map<String, ReadRecord> reads = new HashMap<>();
+
+	/**
+	 * Groups search matches by file. Each file is listed once with its matched
+	 * lines as one block of "line: content" lines. The matched texts are only
+	 * listed if they differ from the search text, e.g. for patterns.
+	 *
+	 * @return an array of objects with the properties "file", "lines" and
+	 *         optionally "matched".
+	 */
+	public static JsonArray encodeSearchResults(List<SearchResultItem> items, String searchText) {
+		Map<String, Map<Integer, String>> linesByFile = new LinkedHashMap<>();
+		Map<String, Set<String>> matchedByFile = new HashMap<>();
+		for (SearchResultItem item : items) {
+			linesByFile.computeIfAbsent(item.getFilePath(), k -> new LinkedHashMap<>())
+					.putIfAbsent(item.getLineNumber(), item.getLineContent());
+			if (item.getMatchedText() != null && !item.getMatchedText().equals(searchText)) {
+				matchedByFile.computeIfAbsent(item.getFilePath(), k -> new LinkedHashSet<>())
+						.add(item.getMatchedText());
+			}
+		}
+
+		JsonArray res = new JsonArray();
+		for (Map.Entry<String, Map<Integer, String>> file : linesByFile.entrySet()) {
+			StringBuilder lines = new StringBuilder();
+			for (Map.Entry<Integer, String> line : file.getValue().entrySet()) {
+				if (lines.length() > 0) {
+					lines.append('\n');
+				}
+				lines.append(line.getKey()).append(": ").append(line.getValue());
+			}
+
+			JsonObject fileJson = new JsonObject();
+			fileJson.addProperty("file", file.getKey());
+			fileJson.addProperty("lines", lines.toString());
+			Set<String> matched = matchedByFile.get(file.getKey());
+			if (matched != null) {
+				JsonArray matchedJson = new JsonArray();
+				matched.forEach(matchedJson::add);
+				fileJson.add("matched", matchedJson);
+			}
+			res.add(fileJson);
+		}
+		return res;
+	}
+
+	/**
+	 * Groups declarations and references by file. Each file is listed once with
+	 * its items as one block of "line: text" or "start-end: text" lines, in the
+	 * order of the items.
+	 *
+	 * @return an array of objects with the properties "file" and "lines".
+	 */
+	public static JsonArray encodeStructureItems(List<StructureItem> items) {
+		Map<String, StringBuilder> linesByFile = new LinkedHashMap<>();
+		for (StructureItem item : items) {
+			StringBuilder lines = linesByFile.computeIfAbsent(StringUtils.defaultString(item.getFilePath()),
+					k -> new StringBuilder());
+			if (lines.length() > 0) {
+				lines.append('\n');
+			}
+			if (item.getStartLine() > 0) {
+				lines.append(item.getStartLine());
+				if (item.getEndLine() > item.getStartLine()) {
+					lines.append('-').append(item.getEndLine());
+				}
+				lines.append(": ");
+			}
+			lines.append(item.getText());
+		}
+
+		JsonArray res = new JsonArray();
+		for (Map.Entry<String, StringBuilder> file : linesByFile.entrySet()) {
+			JsonObject fileJson = new JsonObject();
+			fileJson.addProperty("file", file.getKey());
+			fileJson.addProperty("lines", file.getValue().toString());
+			res.add(fileJson);
+		}
+		return res;
+	}
+
+	/**
+	 * Remembers the content a call read and looks up whether an earlier call
+	 * already returned the same lines of the file unchanged.
+	 *
+	 * @return the id of the earlier call, or null if the content is new or
+	 *         changed.
+	 */
+	public synchronized String findEarlierRead(String callId, String filePath, int startLine, int endLine,
+			String content) {
+		if (StringUtils.isBlank(callId) || filePath == null || content == null) {
+			return null;
+		}
+
+		String key = filePath + ":" + startLine + "-" + endLine;
+		String hash = HashUtil.sha256(content);
+		ReadRecord earlier = reads.get(key);
+		if (earlier != null && earlier.hash.equals(hash) && !earlier.callId.equals(callId)) {
+			return earlier.callId;
+		}
+		reads.put(key, new ReadRecord(callId, hash));
+		return null;
+	}
+
+	/**
+	 * Forgets the content read by the given calls, e.g. because their results are
+	 * about to be replaced.
+	 */
+	public synchronized void forgetCalls(Collection<String> callIds) {
+		reads.values().removeIf(r -> callIds.contains(r.callId));
+	}
+
+	/**
+	 * Forgets all content read so far, e.g. because a new conversation started.
+	 */
+	public synchronized void reset() {
+		reads.clear();
+	}
+
+	/**
+	 * Renders a JSON tool result as indented "name: value" lines. Multi-line
+	 * strings are written as a block below their name, top level ones without
+	 * indentation, so file content is passed on verbatim.
+	 *
+	 * @return the plain text, or the input itself if it is not a JSON object.
+	 */
+	public static String toPlainText(String resultJson) {
+		if (StringUtils.isBlank(resultJson)) {
+			return StringUtils.defaultString(resultJson);
+		}
+
+		JsonElement json;
+		try {
+			json = JsonParser.parseString(resultJson);
+		} catch (RuntimeException e) {
+			return resultJson;
+		}
+		if (!json.isJsonObject()) {
+			return resultJson;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		appendObject(sb, json.getAsJsonObject(), "", "");
+		if (sb.length() > 0 && sb.charAt(sb.length() - 1) == '\n') {
+			sb.setLength(sb.length() - 1);
+		}
+		return sb.toString();
+	}
+
+	private static void appendObject(StringBuilder sb, JsonObject object, String firstIndent, String indent) {
+		String currentIndent = firstIndent;
+		for (Map.Entry<String, JsonElement> property : object.entrySet()) {
+			if (property.getValue().isJsonNull()) {
+				continue;
+			}
+			appendProperty(sb, property.getKey(), property.getValue(), currentIndent, indent);
+			currentIndent = indent;
+		}
+	}
+
+	private static void appendProperty(StringBuilder sb, String name, JsonElement value, String firstIndent,
+			String indent) {
+		sb.append(firstIndent).append(name).append(':');
+		if (value.isJsonObject()) {
+			sb.append('\n');
+			appendObject(sb, value.getAsJsonObject(), indent + "  ", indent + "  ");
+		} else if (value.isJsonArray()) {
+			appendArray(sb, value.getAsJsonArray(), indent);
+		} else {
+			appendPrimitive(sb, value.getAsJsonPrimitive(), indent);
+		}
+	}
+
+	private static void appendArray(StringBuilder sb, JsonArray array, String indent) {
+		boolean primitives = true;
+		for (JsonElement element : array) {
+			primitives &= element.isJsonPrimitive() && !element.getAsString().contains("\n");
+		}
+		if (primitives) {
+			sb.append(' ').append(array.toString()).append('\n');
+			return;
+		}
+
+		sb.append('\n');
+		String itemIndent = indent + "  ";
+		for (JsonElement element : array) {
+			if (element.isJsonObject()) {
+				appendObject(sb, element.getAsJsonObject(), itemIndent + "- ", itemIndent + "  ");
+			} else if (element.isJsonPrimitive()) {
+				sb.append(itemIndent).append('-');
+				appendPrimitive(sb, element.getAsJsonPrimitive(), itemIndent);
+			} else {
+				sb.append(itemIndent).append("- ").append(element.toString()).append('\n');
+			}
+		}
+	}
+
+	private static void appendPrimitive(StringBuilder sb, JsonPrimitive value, String indent) {
+		String text = value.getAsString();
+		if (!text.contains("\n")) {
+			sb.append(' ').append(text).append('\n');
+			return;
+		}
+
+		sb.append('\n');
+		if (indent.isEmpty()) {
+			sb.append(text);
+		} else {
+			String blockIndent = indent + "  ";
+			sb.append(blockIndent).append(text.replace("\n", "\n" + blockIndent));
+		}
+		sb.append('\n');
+	}
+
+	private static class ReadRecord {
+		private final String callId;
+		private final String hash;
+
+		private ReadRecord(String callId, String hash) {
+			this.callId = callId;
+			this.hash = hash;
+		}
+	}
+}
@@ -4,7 +4,7 @@ import java.util.Objects;
 
 /**
  * A class representing a line of text that is compared in a fuzzy way with
- * other fuzzy lines.
+ * other fuzzy lines: ignoring case and leading and trailing whitespace.
  */
 public class FuzzyLine implements java.io.Serializable, Comparable<FuzzyLine>, CharSequence {
 	private final String originalLine;
@@ -21,7 +21,7 @@ public class FuzzyLine implements java.io.Serializable, Comparable<FuzzyLine>, C
 	@Override
 	public boolean equals(Object obj) {
 		if (obj != null && obj instanceof FuzzyLine fl) {
-			return fl.originalLine.trim().equalsIgnoreCase(this.originalLine);
+			return fl.originalLine.trim().equalsIgnoreCase(this.originalLine.trim());
 		} else {
 			return Objects.equals(this.originalLine, obj);
 		}
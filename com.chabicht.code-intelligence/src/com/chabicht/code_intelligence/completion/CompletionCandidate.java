@@ -0,0 +1,54 @@
+package com.chabicht.code_intelligence.completion;
+
+import com.chabicht.code_intelligence.model.CompletionPrompt;
+
+/**
+ * One model (and sample number) a completion is requested from.
+ */
+class CompletionCandidate {
+	/**
+	 * Temperature for additional samples of the same model. Sampling the same
+	 * prompt with temperature 0 would just return the same completion again.
+	 */
+	static final float SAMPLE_TEMPERATURE = 0.7f;
+
+	private final String model;
+	private final int sample;
+
+	CompletionCandidate(String model, int sample) {
+		this.model = model;
+		this.sample = sample;
+	}
+
+	/**
+	 * @return the configured model in the form
+	 *         <code>connectionName/modelId</code>.
+	 */
+	String getModel() {
+		return model;
+	}
+
+	int getSample() {
+		return sample;
+	}
+
+	String getLabel() {
+		return sample == 0 ? model : model + " #" + (sample + 1);
+	}
+
+	CompletionPrompt adaptPrompt(CompletionPrompt prompt) {
+		if (sample == 0) {
+			return prompt;
+		}
+		return new CompletionPrompt(SAMPLE_TEMPERATURE, prompt.getPromptString(), prompt.getPromptArgs());
+	}
+
+	String cacheKey(CompletionPrompt prompt) {
+		return PrefetchedCompletions.key(getLabel(), prompt.compile());
+	}
+
+	@Override
+	public String toString() {
+		return getLabel();
+	}
+}
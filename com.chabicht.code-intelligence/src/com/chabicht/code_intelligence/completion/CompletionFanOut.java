@@ -0,0 +1,234 @@
+package com.chabicht.code_intelligence.completion;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jface.preference.IPreferenceStore;
+
+import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.apiclient.ConnectionFactory;
+import com.chabicht.code_intelligence.model.CompletionPrompt;
+import com.chabicht.code_intelligence.model.CompletionResult;
+import com.chabicht.code_intelligence.util.ModelUtil;
+import com.chabicht.codeintelligence.preferences.PreferenceConstants;
+
+/**
+ * Sends a completion prompt to all configured completion candidates (the
+ * completion model, additional models and additional samples) concurrently.
+ * <p>
+ * All requests go through the {@link PrefetchedCompletions} cache, so results
+ * of a prefetch are reused, and results arriving after content assist already
+ * returned are available when it is invoked again at the same position.
+ */
+class CompletionFanOut {
+	private static final int MAX_ENTRIES = 32;
+	private static final long ENTRY_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+
+	private static CompletionFanOut INSTANCE = null;
+
+	private final PrefetchedCompletions completions = new PrefetchedCompletions(MAX_ENTRIES, ENTRY_TTL_MS);
+	private final ModelLatencyTracker latencies = new ModelLatencyTracker();
+	private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "Code Intelligence completion");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Completion of one candidate.
+	 */
+	static class CandidateResult {
+		private final CompletionCandidate candidate;
+		private final CompletionResult result;
+		private final boolean cached;
+
+		CandidateResult(CompletionCandidate candidate, CompletionResult result, boolean cached) {
+			this.candidate = candidate;
+			this.result = result;
+			this.cached = cached;
+		}
+
+		CompletionCandidate getCandidate() {
+			return candidate;
+		}
+
+		CompletionResult getResult() {
+			return result;
+		}
+
+		/**
+		 * @return true if the request was already started before content assist was
+		 *         invoked (e.g. by the prefetcher).
+		 */
+		boolean isCached() {
+			return cached;
+		}
+	}
+
+	private CompletionFanOut() {
+		Activator.getDefault().addPropertyChangeListener("configuration", e -> completions.clear());
+	}
+
+	static synchronized CompletionFanOut getInstance() {
+		if (INSTANCE == null)
+			INSTANCE = new CompletionFanOut();
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the configured candidates, the ones with the lowest average latency
+	 * first.
+	 */
+	List<CompletionCandidate> getCandidates() {
+		IPreferenceStore prefs = Activator.getDefault().getPreferenceStore();
+		List<String> models = new ArrayList<>();
+		models.add(ModelUtil.normalizeConfiguredModel(prefs.getString(PreferenceConstants.COMPLETION_MODEL_NAME)));
+		for (String model : StringUtils.split(prefs.getString(PreferenceConstants.COMPLETION_ADDITIONAL_MODELS),
+				",\n")) {
+			String normalized = ModelUtil.normalizeConfiguredModel(model);
+			if (StringUtils.isNotBlank(normalized) && !models.contains(normalized)) {
+				models.add(normalized);
+			}
+		}
+
+		int samples = Math.max(1, prefs.getInt(PreferenceConstants.COMPLETION_SAMPLES_PER_MODEL));
+		List<CompletionCandidate> res = new ArrayList<>();
+		for (String model : models) {
+			for (int i = 0; i < samples; i++) {
+				res.add(new CompletionCandidate(model, i));
+			}
+		}
+		return latencies.sortByLatency(res, CompletionCandidate::getModel);
+	}
+
+	/**
+	 * Starts the requests for all candidates that are not cached yet.
+	 *
+	 * @return the (pending) results per candidate, in the order of
+	 *         {@link #getCandidates()}.
+	 */
+	Map<CompletionCandidate, CompletableFuture<CompletionResult>> start(CompletionPrompt prompt) {
+		return start(prompt, new ArrayList<>());
+	}
+
+	/**
+	 * Requests completions from all candidates and returns as soon as the first
+	 * one succeeded. Candidates finishing within the grace period after that are
+	 * returned as well, slower ones keep running and end up in the cache.
+	 *
+	 * @return the successful results, fastest models first.
+	 * @throws RuntimeException the error of the first candidate if all of them
+	 *                          failed.
+	 */
+	List<CandidateResult> complete(CompletionPrompt prompt, long graceMillis) {
+		List<CompletionCandidate> cachedCandidates = new ArrayList<>();
+		Map<CompletionCandidate, CompletableFuture<CompletionResult>> futures = start(prompt, cachedCandidates);
+
+		try {
+			firstSuccessful(futures.values()).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return List.of();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException re) {
+				throw re;
+			}
+			throw new RuntimeException(e.getCause());
+		}
+
+		long deadline = System.currentTimeMillis() + graceMillis;
+		List<CandidateResult> res = new ArrayList<>();
+		for (Map.Entry<CompletionCandidate, CompletableFuture<CompletionResult>> entry : futures.entrySet()) {
+			CompletableFuture<CompletionResult> future = entry.getValue();
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				CompletionResult result = future.isDone() ? future.get()
+						: future.get(remaining, TimeUnit.MILLISECONDS);
+				res.add(new CandidateResult(entry.getKey(), result, cachedCandidates.contains(entry.getKey())));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException | TimeoutException e) {
+				// Failed candidates are logged when they fail, slow ones are skipped.
+			}
+		}
+		return res;
+	}
+
+	private Map<CompletionCandidate, CompletableFuture<CompletionResult>> start(CompletionPrompt prompt,
+			List<CompletionCandidate> cachedCandidates) {
+		Map<CompletionCandidate, CompletableFuture<CompletionResult>> res = new LinkedHashMap<>();
+		for (CompletionCandidate candidate : getCandidates()) {
+			CompletionPrompt candidatePrompt = candidate.adaptPrompt(prompt);
+			String key = candidate.cacheKey(candidatePrompt);
+			synchronized (completions) {
+				CompletableFuture<CompletionResult> future = completions.get(key).orElse(null);
+				if (future != null) {
+					cachedCandidates.add(candidate);
+				} else {
+					future = CompletableFuture.supplyAsync(() -> request(candidate, candidatePrompt), executor);
+					completions.put(key, future);
+				}
+				res.put(candidate, future);
+			}
+		}
+		return res;
+	}
+
+	private CompletionResult request(CompletionCandidate candidate, CompletionPrompt prompt) {
+		long start = System.currentTimeMillis();
+		try {
+			CompletionResult result = ConnectionFactory.forCompletions(candidate.getModel()).complete(prompt);
+			latencies.record(candidate.getModel(), System.currentTimeMillis() - start);
+			return result;
+		} catch (RuntimeException e) {
+			Activator.logWarn("Completion from " + candidate.getLabel() + " failed: " + e.getMessage());
+			throw e;
+		}
+	}
+
+	/**
+	 * @return a future completed with the first successful result, or
+	 *         exceptionally with the first error if all futures fail.
+	 */
+	static CompletableFuture<CompletionResult> firstSuccessful(
+			Collection<CompletableFuture<CompletionResult>> futures) {
+		CompletableFuture<CompletionResult> res = new CompletableFuture<>();
+		if (futures.isEmpty()) {
+			res.completeExceptionally(new IllegalStateException("No completion model configured."));
+			return res;
+		}
+
+		AtomicInteger failures = new AtomicInteger();
+		List<Throwable> errors = new ArrayList<>();
+		for (CompletableFuture<CompletionResult> future : futures) {
+			future.whenComplete((result, ex) -> {
+				if (ex == null) {
+					res.complete(result);
+				} else {
+					synchronized (errors) {
+						errors.add(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+					}
+					if (failures.incrementAndGet() == futures.size()) {
+						synchronized (errors) {
+							res.completeExceptionally(errors.get(0));
+						}
+					}
+				}
+			});
+		}
+		return res;
+	}
+}
@@ -0,0 +1,146 @@
+package com.chabicht.code_intelligence.completion;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.ui.JavaUI;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.texteditor.ITextEditor;
+
+import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.changelistener.DocumentEditAggregator;
+import com.chabicht.codeintelligence.preferences.PreferenceConstants;
+
+/**
+ * Requests a completion for the caret position in the active Java editor when
+ * the user pauses typing, so the next content assist invocation at the same
+ * position can be answered from the cache of {@link CompletionFanOut}.
+ * <p>
+ * Disabled by default because every pause costs a request to each completion
+ * candidate. Pauses that were overtaken by further edits before the UI thread
+ * got to them are dropped.
+ */
+public class CompletionPrefetcher {
+	private static CompletionPrefetcher INSTANCE = null;
+
+	private final ScheduledExecutorService pauseScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "Code Intelligence pause detection");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Incremented with every document change, a prefetch is only sent if no edit
+	 * happened since it was scheduled.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+	private ScheduledFuture<?> pendingPause;
+
+	private CompletionPrefetcher() {
+	}
+
+	public static synchronized CompletionPrefetcher getInstance() {
+		if (INSTANCE == null)
+			INSTANCE = new CompletionPrefetcher();
+		return INSTANCE;
+	}
+
+	/**
+	 * Called for every change of a document opened in a text editor. (Re-)starts
+	 * the idle timer for the document.
+	 */
+	public synchronized void documentChanged(DocumentEditAggregator aggregator) {
+		long currentGeneration = generation.incrementAndGet();
+		if (pendingPause != null) {
+			pendingPause.cancel(false);
+			pendingPause = null;
+		}
+		if (!isEnabled()) {
+			return;
+		}
+
+		long idleMillis = getIdleMillis();
+		pendingPause = pauseScheduler.schedule(() -> onPause(aggregator, currentGeneration, idleMillis), idleMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private void onPause(DocumentEditAggregator aggregator, long scheduledGeneration, long idleMillis) {
+		if (scheduledGeneration != generation.get()
+				|| System.currentTimeMillis() - aggregator.getLastChangeTimestamp() < idleMillis) {
+			return;
+		}
+		Display display = PlatformUI.isWorkbenchRunning() ? PlatformUI.getWorkbench().getDisplay() : null;
+		if (display == null || display.isDisposed()) {
+			return;
+		}
+		display.asyncExec(() -> prefetch(aggregator.getDocument(), scheduledGeneration));
+	}
+
+	/**
+	 * Builds the request in the UI thread (editor selection and document content)
+	 * and starts the requests of all completion candidates.
+	 */
+	private void prefetch(IDocument document, long scheduledGeneration) {
+		if (scheduledGeneration != generation.get()) {
+			return;
+		}
+
+		ITextEditor editor = getActiveJavaEditor();
+		if (editor == null || editor.getDocumentProvider().getDocument(editor.getEditorInput()) != document) {
+			return;
+		}
+		ISelection selection = editor.getSelectionProvider().getSelection();
+		if (!(selection instanceof ITextSelection textSelection) || textSelection.getLength() > 0) {
+			return;
+		}
+
+		CompletionRequest request;
+		try {
+			int caret = textSelection.getOffset();
+			ICompilationUnit cu = JavaUI.getWorkingCopyManager().getWorkingCopy(editor.getEditorInput());
+			request = CompletionRequest.create(document, cu, caret, 0, caret);
+		} catch (BadLocationException | RuntimeException e) {
+			Activator.logWarn("Could not prepare completion prefetch: " + e.getMessage());
+			return;
+		}
+
+		CompletionFanOut.getInstance().start(request.getPrompt());
+	}
+
+	private ITextEditor getActiveJavaEditor() {
+		IWorkbenchWindow window = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
+		IWorkbenchPage page = window != null ? window.getActivePage() : null;
+		IEditorPart editor = page != null ? page.getActiveEditor() : null;
+		if (editor instanceof ITextEditor textEditor
+				&& JavaUI.getEditorInputJavaElement(editor.getEditorInput()) != null) {
+			return textEditor;
+		}
+		return null;
+	}
+
+	private boolean isEnabled() {
+		return Activator.getDefault().getPreferenceStore().getBoolean(PreferenceConstants.COMPLETION_PREFETCH_ENABLED);
+	}
+
+	private long getIdleMillis() {
+		IPreferenceStore prefs = Activator.getDefault().getPreferenceStore();
+		int res = prefs.getInt(PreferenceConstants.COMPLETION_PREFETCH_IDLE_MILLIS);
+		if (res <= 0) {
+			res = prefs.getDefaultInt(PreferenceConstants.COMPLETION_PREFETCH_IDLE_MILLIS);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,218 @@
+package com.chabicht.code_intelligence.completion;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+
+import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.changelistener.LastEditsDocumentListener;
+import com.chabicht.code_intelligence.changelistener.RecentEdit;
+import com.chabicht.code_intelligence.model.CompletionPrompt;
+import com.chabicht.code_intelligence.model.DefaultPrompts;
+import com.chabicht.code_intelligence.model.PromptTemplate;
+import com.chabicht.code_intelligence.model.PromptType;
+import com.chabicht.codeintelligence.preferences.PreferenceConstants;
+
+/**
+ * The completion prompt for a cursor position in a document, together with the
+ * positions needed to create the proposal from the result.
+ * <p>
+ * Shared by the content assist computer and the {@link CompletionPrefetcher},
+ * so a prefetched completion is requested with exactly the prompt content
+ * assist would send.
+ */
+class CompletionRequest {
+	private final CompletionPrompt prompt;
+	private final int cursorOffset;
+	private final int lineOfCursorOffset;
+	private final String currentLine;
+
+	private CompletionRequest(CompletionPrompt prompt, int cursorOffset, int lineOfCursorOffset, String currentLine) {
+		this.prompt = prompt;
+		this.cursorOffset = cursorOffset;
+		this.lineOfCursorOffset = lineOfCursorOffset;
+		this.currentLine = currentLine;
+	}
+
+	/**
+	 * Creates the request for the given selection and cursor position. Must be
+	 * called in a context where the document is not modified concurrently (usually
+	 * the UI thread).
+	 *
+	 * @param cu the compilation unit of the document for the outline of the file,
+	 *           may be null.
+	 */
+	static CompletionRequest create(IDocument doc, ICompilationUnit cu, int selectionOffset, int selectionLength,
+			int cursorOffset) throws BadLocationException {
+		IPreferenceStore prefs = Activator.getDefault().getPreferenceStore();
+		int ctxLinesBefore = prefs.getInt(PreferenceConstants.COMPLETION_CONTEXT_LINES_BEFORE);
+		int ctxLinesAfter = prefs.getInt(PreferenceConstants.COMPLETION_CONTEXT_LINES_BEFORE);
+
+		int selectionStartOffset = selectionOffset;
+		int selectionEndOffset = selectionOffset + selectionLength;
+
+		int startLine = doc.getLineOfOffset(selectionStartOffset);
+		int endLine = doc.getLineOfOffset(selectionEndOffset);
+
+		int ctxBeforeStartOffset = doc.getLineOffset(Math.max(0, startLine - ctxLinesBefore));
+		int selectedLinesStartOffset = doc.getLineOffset(startLine);
+		int selectedLinesEndOffset = doc.getLineOffset(Math.min(doc.getNumberOfLines() - 1, endLine + 1));
+		int ctxAfterEndLine = Math.min(doc.getNumberOfLines() - 1, endLine + ctxLinesAfter + 1);
+		int ctxAfterEndOffset = doc.getLineOffset(ctxAfterEndLine);
+		// Special case: last line
+		if (ctxAfterEndLine == doc.getNumberOfLines() - 1) {
+			ctxAfterEndOffset += doc.getLineLength(ctxAfterEndLine);
+		}
+
+		int lineOfCursor = doc.getLineOfOffset(cursorOffset);
+		int lineOfCursorOffset = doc.getLineOffset(lineOfCursor);
+		String currentLine = doc.get(selectedLinesStartOffset, selectedLinesEndOffset - selectedLinesStartOffset);
+
+		String contextStringWithTags = addCursorTags(doc, selectionStartOffset, selectionEndOffset,
+				ctxBeforeStartOffset, ctxAfterEndOffset, cursorOffset);
+
+		String prefix = doc.get(ctxBeforeStartOffset, cursorOffset - ctxBeforeStartOffset);
+		String suffix = doc.get(selectionEndOffset, ctxAfterEndOffset - selectionEndOffset);
+		String selection = getSelection(doc, selectionStartOffset, selectionEndOffset);
+
+		String lastEdits = createLastEdits(doc, lineOfCursor, prefs);
+
+		PromptTemplate promptTemplate = selectPromptToUse();
+		Map<String, Object> parameters = new HashMap<>(Map.of("recentEdits", lastEdits, "prefix", prefix, "suffix",
+				suffix, "selection", selection, "contextWithTags", contextStringWithTags));
+		// Only set if available, so templates can use it as a section.
+		String fileStructure = createFileStructure(cu, cursorOffset, prefs);
+		if (!fileStructure.isEmpty()) {
+			parameters.put("fileStructure", fileStructure);
+		}
+		String referencedTypes = createReferencedTypes(cu, cursorOffset, prefs);
+		if (!referencedTypes.isEmpty()) {
+			parameters.put("referencedTypes", referencedTypes);
+		}
+		CompletionPrompt completionPrompt = new CompletionPrompt(0f, promptTemplate.getPrompt(), parameters);
+
+		return new CompletionRequest(completionPrompt, cursorOffset, lineOfCursorOffset, currentLine);
+	}
+
+	CompletionPrompt getPrompt() {
+		return prompt;
+	}
+
+	int getCursorOffset() {
+		return cursorOffset;
+	}
+
+	int getLineOfCursorOffset() {
+		return lineOfCursorOffset;
+	}
+
+	String getCurrentLine() {
+		return currentLine;
+	}
+
+	private static String getSelection(IDocument doc, int selectionStartOffset, int selectionEndOffset)
+			throws BadLocationException {
+		boolean selectionEmpty = selectionStartOffset == selectionEndOffset;
+		String res = null;
+		if (selectionEmpty) {
+			res = "";
+		} else {
+			res = doc.get(selectionStartOffset, selectionEndOffset - selectionStartOffset);
+		}
+		return res;
+	}
+
+	private static String addCursorTags(IDocument doc, int selectionStartOffset, int selectionEndOffset,
+			int ctxBeforeStartOffset, int ctxAfterEndOffset, int cursorOffset) throws BadLocationException {
+		boolean selectionEmpty = selectionStartOffset == selectionEndOffset;
+		boolean cursorBeforeSelection = cursorOffset <= selectionStartOffset;
+		boolean cursorInSelection = cursorOffset > selectionStartOffset && cursorOffset < selectionEndOffset;
+		String contextStringWithTags = null;
+		if (selectionEmpty) {
+			String startToCursor = doc.get(ctxBeforeStartOffset, cursorOffset - ctxBeforeStartOffset);
+			String cursorToEnd = doc.get(cursorOffset, ctxAfterEndOffset - cursorOffset);
+			contextStringWithTags = startToCursor + "<<<cursor>>>" + cursorToEnd;
+		} else if (cursorBeforeSelection) {
+			String startToCursor = doc.get(ctxBeforeStartOffset, cursorOffset - ctxBeforeStartOffset);
+			String cursorToSelection = doc.get(cursorOffset, selectionStartOffset - cursorOffset);
+			String selection = doc.get(selectionStartOffset, selectionEndOffset - selectionStartOffset);
+			String rest = doc.get(selectionEndOffset, ctxAfterEndOffset - selectionEndOffset);
+			contextStringWithTags = startToCursor + "<<<cursor>>>" + cursorToSelection + "<<<selection_start>>>"
+					+ selection + "<<<selection_end>>>" + rest;
+		} else if (cursorInSelection) {
+			String startToSelection = doc.get(ctxBeforeStartOffset, selectionStartOffset - ctxBeforeStartOffset);
+			String selection = doc.get(selectionStartOffset, selectionEndOffset - selectionStartOffset);
+			String selectionToCursor = doc.get(selectionEndOffset, cursorOffset - selectionEndOffset);
+			String rest = doc.get(cursorOffset, ctxAfterEndOffset - cursorOffset);
+			contextStringWithTags = startToSelection + "<<<selection_start>>>" + selection + "<<<selection_end>>>"
+					+ selectionToCursor + "<<<cursor>>>" + rest;
+		} else {
+			String startToSelection = doc.get(ctxBeforeStartOffset, selectionStartOffset - ctxBeforeStartOffset);
+			String selection = doc.get(selectionStartOffset, selectionEndOffset - selectionStartOffset);
+			String selectionToCursor = doc.get(selectionEndOffset, cursorOffset - selectionEndOffset);
+			String rest = doc.get(cursorOffset, ctxAfterEndOffset - cursorOffset);
+			contextStringWithTags = startToSelection + "<<<selection_start>>>" + selection + "<<<selection_end>>>"
+					+ selectionToCursor + "<<<cursor>>>" + rest;
+		}
+		return contextStringWithTags;
+	}
+
+	private static PromptTemplate selectPromptToUse() {
+		return Activator.getDefault().loadPromptTemplates().stream()
+				.filter(pt -> PromptType.INSTRUCT.equals(pt.getType()) && pt.isEnabled() && pt.isUseByDefault())
+				.findFirst().orElseGet(() -> defaultPromptTemplate());
+	}
+
+	private static PromptTemplate defaultPromptTemplate() {
+		PromptTemplate res = new PromptTemplate();
+		res.setType(PromptType.INSTRUCT);
+		res.setName("<Default>");
+		res.setPrompt(DefaultPrompts.INSTRUCT_PROMPT);
+		return res;
+	}
+
+	/**
+	 * @return the outline of the compilation unit (imports, signatures and the
+	 *         member at the cursor), or an empty string if it's disabled or not
+	 *         available.
+	 */
+	private static String createFileStructure(ICompilationUnit cu, int cursorOffset, IPreferenceStore prefs) {
+		int tokenBudget = prefs.getInt(PreferenceConstants.COMPLETION_FILE_STRUCTURE_TOKEN_BUDGET);
+		if (cu == null || tokenBudget <= 0) {
+			return "";
+		}
+		return JavaContextBuilder.getInstance().build(cu, cursorOffset, tokenBudget);
+	}
+
+	/**
+	 * @return the signatures of the types from other files used by the member at
+	 *         the cursor, or an empty string if it's disabled or there are none.
+	 */
+	private static String createReferencedTypes(ICompilationUnit cu, int cursorOffset, IPreferenceStore prefs) {
+		int tokenBudget = prefs.getInt(PreferenceConstants.COMPLETION_REFERENCED_TYPES_TOKEN_BUDGET);
+		if (cu == null || tokenBudget <= 0) {
+			return "";
+		}
+		return ReferencedTypesBuilder.build(cu, cursorOffset, tokenBudget);
+	}
+
+	/**
+	 * Formats the recent edits most relevant to the cursor line, limited by the
+	 * configured number of edits and token budget.
+	 */
+	private static String createLastEdits(IDocument doc, int lineOfCursor, IPreferenceStore prefs) {
+		int maxEdits = prefs.getInt(PreferenceConstants.COMPLETION_RECENT_EDITS_MAX);
+		int tokenBudget = prefs.getInt(PreferenceConstants.COMPLETION_RECENT_EDITS_TOKEN_BUDGET);
+
+		StringBuilder sb = new StringBuilder();
+		for (RecentEdit edit : LastEditsDocumentListener.getInstance().getRecentEdits()
+				.select(LastEditsDocumentListener.getFileKey(doc), lineOfCursor, maxEdits, tokenBudget)) {
+			sb.append("```\n").append(edit.getText()).append("```\n\n");
+		}
+		return sb.toString();
+	}
+}
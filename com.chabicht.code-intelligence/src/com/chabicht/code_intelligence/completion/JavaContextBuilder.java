@@ -0,0 +1,546 @@
+package com.chabicht.code_intelligence.completion;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IBuffer;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IField;
+import org.eclipse.jdt.core.IImportDeclaration;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IMember;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IPackageDeclaration;
+import org.eclipse.jdt.core.ISourceRange;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.SourceRange;
+
+import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.completion.SourceSkeleton.Fragment;
+
+/**
+ * Builds a compact outline of a Java compilation unit for completion prompts:
+ * package and imports, the headers of the enclosing types, fields and method
+ * signatures, and the member at the cursor in full.
+ * <p>
+ * The declarations of a compilation unit are cached and updated from reconcile
+ * deltas: structural changes drop the cached declarations, content changes of a
+ * member only extract the declaration of this member again and move the other
+ * declarations to their current positions. The member at the cursor is always
+ * taken from the current source.
+ */
+public class JavaContextBuilder {
+	private static final int MAX_CACHED_UNITS = 20;
+
+	private static final int PRIORITY_CURRENT_MEMBER = 1;
+	private static final int PRIORITY_IMPORTS = 2;
+	private static final int PRIORITY_FIELDS = 3;
+	private static final int PRIORITY_OTHER_MEMBERS = 4;
+
+	/** Flags of deltas that don't affect declarations. */
+	private static final int BODY_ONLY_FLAGS = IJavaElementDelta.F_CONTENT | IJavaElementDelta.F_CHILDREN
+			| IJavaElementDelta.F_FINE_GRAINED | IJavaElementDelta.F_AST_AFFECTED;
+
+	private static JavaContextBuilder INSTANCE = null;
+
+	/** Where the offset of a declaration is taken from. */
+	private static enum Anchor {
+		/** The start of the file, for package and imports. */
+		FILE_START,
+		/** The start of the member without Javadoc. */
+		MEMBER_START,
+		/** Behind the opening brace of the type, for enum constants. */
+		BODY_START,
+		/** The closing brace of the type. */
+		MEMBER_END;
+	}
+
+	/**
+	 * A cached declaration, {@code member} is null for package and imports. Enum
+	 * constants and closing braces belong to their type.
+	 */
+	private record Declaration(IMember member, Anchor anchor, Fragment fragment) {
+	}
+
+	/** The declarations of a compilation unit. */
+	private static class CachedUnit {
+		private final List<Declaration> declarations;
+		/** Members whose content changed since the declarations were extracted. */
+		private final Set<IJavaElement> changedMembers = new HashSet<>();
+
+		CachedUnit(List<Declaration> declarations) {
+			this.declarations = declarations;
+		}
+	}
+
+	/** Cached declarations by handle identifier of the compilation unit. */
+	private final Map<String, CachedUnit> cache = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedUnit> eldest) {
+			return size() > MAX_CACHED_UNITS;
+		}
+	};
+
+	/**
+	 * Number of deltas received, so declarations extracted while a delta arrived
+	 * aren't cached.
+	 */
+	private long deltaCount = 0;
+
+	private final IElementChangedListener listener = this::elementChanged;
+
+	private JavaContextBuilder() {
+		JavaCore.addElementChangedListener(listener,
+				ElementChangedEvent.POST_RECONCILE | ElementChangedEvent.POST_CHANGE);
+	}
+
+	public static synchronized JavaContextBuilder getInstance() {
+		if (INSTANCE == null)
+			INSTANCE = new JavaContextBuilder();
+		return INSTANCE;
+	}
+
+	/**
+	 * Stops listening for changes of the Java model, called when the plug-in is
+	 * stopped.
+	 */
+	public static synchronized void shutdown() {
+		if (INSTANCE != null) {
+			JavaCore.removeElementChangedListener(INSTANCE.listener);
+			INSTANCE = null;
+		}
+	}
+
+	/**
+	 * @param cu          the compilation unit, usually the working copy of the
+	 *                    editor.
+	 * @param offset      the cursor position.
+	 * @param tokenBudget maximum estimated size of the outline.
+	 * @return the outline, or an empty string if the compilation unit has no
+	 *         source.
+	 */
+	String build(ICompilationUnit cu, int offset, int tokenBudget) {
+		try {
+			List<Declaration> declarations = getDeclarations(cu);
+			String source = getSource(cu);
+			if (declarations.isEmpty() || source == null) {
+				return "";
+			}
+
+			IMember currentMember = findCurrentMember(cu, offset);
+			int currentOffset = offset;
+			for (Declaration declaration : declarations) {
+				if (isCurrentMember(declaration, currentMember)) {
+					currentOffset = declaration.fragment().offset();
+				}
+			}
+
+			SourceSkeleton skeleton = new SourceSkeleton();
+			for (Declaration declaration : declarations) {
+				Fragment fragment = declaration.fragment();
+				if (isCurrentMember(declaration, currentMember)) {
+					skeleton.add(fragment.offset(), fragment.depth(), getSourceWithoutJavadoc(currentMember, source),
+							PRIORITY_CURRENT_MEMBER, 0);
+				} else {
+					skeleton.add(fragment.offset(), fragment.depth(), fragment.text(), fragment.priority(),
+							fragment.offset() - currentOffset);
+				}
+			}
+			return skeleton.build(tokenBudget);
+		} catch (JavaModelException e) {
+			Activator.logWarn("Could not build the outline of " + cu.getElementName() + ": " + e.getMessage());
+			return "";
+		}
+	}
+
+	private static boolean isCurrentMember(Declaration declaration, IMember currentMember) {
+		return currentMember != null && declaration.anchor() == Anchor.MEMBER_START
+				&& currentMember.equals(declaration.member());
+	}
+
+	private List<Declaration> getDeclarations(ICompilationUnit cu) throws JavaModelException {
+		String key = cu.getHandleIdentifier();
+		CachedUnit cached;
+		Set<IJavaElement> changedMembers;
+		long deltaCountBefore;
+		synchronized (cache) {
+			deltaCountBefore = deltaCount;
+			cached = cache.get(key);
+			if (cached == null) {
+				changedMembers = null;
+			} else {
+				changedMembers = new HashSet<>(cached.changedMembers);
+				cached.changedMembers.clear();
+			}
+		}
+
+		if (cached == null) {
+			List<Declaration> res = List.copyOf(extractDeclarations(cu));
+			synchronized (cache) {
+				if (deltaCount == deltaCountBefore) {
+					cache.put(key, new CachedUnit(res));
+				}
+			}
+			return res;
+		}
+		if (changedMembers.isEmpty()) {
+			return cached.declarations;
+		}
+
+		List<Declaration> res = List.copyOf(updateDeclarations(cu, cached.declarations, changedMembers));
+		synchronized (cache) {
+			if (cache.get(key) == cached) {
+				CachedUnit updated = new CachedUnit(res);
+				updated.changedMembers.addAll(cached.changedMembers);
+				cache.put(key, updated);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Extracts the declarations of the changed members again, e.g. after the return
+	 * type of a method was changed. The other declarations keep their text but are
+	 * moved to the current positions of their members, which shift when the
+	 * content before them changes.
+	 */
+	private List<Declaration> updateDeclarations(ICompilationUnit cu, List<Declaration> declarations,
+			Set<IJavaElement> changedMembers) throws JavaModelException {
+		List<Declaration> res = new ArrayList<>(declarations);
+		String source = getSource(cu);
+		if (source == null) {
+			return res;
+		}
+		for (int i = 0; i < res.size(); i++) {
+			Declaration declaration = res.get(i);
+			Fragment old = declaration.fragment();
+			String text = old.text();
+			if (declaration.anchor() == Anchor.MEMBER_START && changedMembers.contains(declaration.member())) {
+				Fragment updated = null;
+				if (declaration.member() instanceof IField field) {
+					updated = fieldFragment(field, source, old.depth());
+				} else if (declaration.member() instanceof IMethod method) {
+					updated = methodFragment(method, source, old.depth());
+				}
+				if (updated != null) {
+					text = updated.text();
+				}
+			}
+			int offset = currentOffset(declaration, source);
+			if (offset != old.offset() || !text.equals(old.text())) {
+				res.set(i, new Declaration(declaration.member(), declaration.anchor(),
+						new Fragment(offset, old.depth(), text, old.priority(), 0)));
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return the current offset of a declaration in the source, or its old
+	 *         offset if the position of its member isn't known.
+	 */
+	private static int currentOffset(Declaration declaration, String source) throws JavaModelException {
+		int old = declaration.fragment().offset();
+		IMember member = declaration.member();
+		if (member == null) {
+			return old;
+		}
+		ISourceRange range = member.getSourceRange();
+		if (!SourceRange.isAvailable(range)) {
+			return old;
+		}
+		switch (declaration.anchor()) {
+		case MEMBER_START:
+			return startWithoutJavadoc(member, range);
+		case BODY_START:
+			ISourceRange nameRange = member.getNameRange();
+			if (!SourceRange.isAvailable(nameRange)) {
+				return old;
+			}
+			int bodyStart = findBodyStart(source, nameRange.getOffset() + nameRange.getLength(),
+					range.getOffset() + range.getLength());
+			return bodyStart >= 0 ? bodyStart + 1 : old;
+		case MEMBER_END:
+			return range.getOffset() + range.getLength() - 1;
+		default:
+			return old;
+		}
+	}
+
+	private List<Declaration> extractDeclarations(ICompilationUnit cu) throws JavaModelException {
+		List<Declaration> res = new ArrayList<>();
+		String source = getSource(cu);
+		if (source == null) {
+			return res;
+		}
+
+		StringBuilder header = new StringBuilder();
+		for (IPackageDeclaration pkg : cu.getPackageDeclarations()) {
+			header.append(pkg.getSource()).append("\n\n");
+		}
+		for (IImportDeclaration imp : cu.getImports()) {
+			header.append(imp.getSource()).append("\n");
+		}
+		if (!header.isEmpty()) {
+			String text = header.toString().trim() + "\n";
+			res.add(new Declaration(null, Anchor.FILE_START, new Fragment(0, 0, text, PRIORITY_IMPORTS, 0)));
+		}
+
+		for (IType type : cu.getTypes()) {
+			addType(type, source, 0, res);
+		}
+		return res;
+	}
+
+	private static String getSource(ICompilationUnit cu) throws JavaModelException {
+		IBuffer buffer = cu.getBuffer();
+		return buffer != null ? buffer.getContents() : null;
+	}
+
+	private void addType(IType type, String source, int depth, List<Declaration> res) throws JavaModelException {
+		ISourceRange range = type.getSourceRange();
+		ISourceRange nameRange = type.getNameRange();
+		if (!SourceRange.isAvailable(range) || !SourceRange.isAvailable(nameRange)) {
+			return;
+		}
+		int start = startWithoutJavadoc(type, range);
+		int bodyStart = findBodyStart(source, nameRange.getOffset() + nameRange.getLength(),
+				range.getOffset() + range.getLength());
+		if (bodyStart < 0) {
+			return;
+		}
+		res.add(new Declaration(type, Anchor.MEMBER_START,
+				new Fragment(start, depth, extract(source, start, bodyStart) + " {", SourceSkeleton.REQUIRED, 0)));
+
+		List<String> enumConstants = new ArrayList<>();
+		for (IJavaElement child : type.getChildren()) {
+			Fragment fragment = null;
+			if (child instanceof IType memberType) {
+				addType(memberType, source, depth + 1, res);
+			} else if (child instanceof IField field && field.isEnumConstant()) {
+				enumConstants.add(field.getElementName());
+			} else if (child instanceof IField field && !field.isRecordComponent()) {
+				fragment = fieldFragment(field, source, depth + 1);
+			} else if (child instanceof IMethod method) {
+				fragment = methodFragment(method, source, depth + 1);
+			}
+			if (fragment != null) {
+				res.add(new Declaration((IMember) child, Anchor.MEMBER_START, fragment));
+			}
+		}
+		if (!enumConstants.isEmpty()) {
+			res.add(new Declaration(type, Anchor.BODY_START, new Fragment(bodyStart + 1, depth + 1,
+					String.join(", ", enumConstants) + ";", PRIORITY_FIELDS, 0)));
+		}
+
+		int end = range.getOffset() + range.getLength() - 1;
+		res.add(new Declaration(type, Anchor.MEMBER_END, new Fragment(end, depth, "}", SourceSkeleton.REQUIRED, 0)));
+	}
+
+	/**
+	 * Fields without initializers, which can be arbitrarily long (e.g. prompt
+	 * templates).
+	 */
+	private static Fragment fieldFragment(IField field, String source, int depth) throws JavaModelException {
+		ISourceRange range = field.getSourceRange();
+		ISourceRange nameRange = field.getNameRange();
+		if (!SourceRange.isAvailable(range) || !SourceRange.isAvailable(nameRange)) {
+			return null;
+		}
+		int start = startWithoutJavadoc(field, range);
+		int nameEnd = nameRange.getOffset() + nameRange.getLength();
+		if (nameEnd <= start || nameEnd > source.length()) {
+			return null;
+		}
+		return new Fragment(start, depth, extract(source, start, nameEnd) + ";", PRIORITY_FIELDS, 0);
+	}
+
+	private static Fragment methodFragment(IMethod method, String source, int depth) throws JavaModelException {
+		ISourceRange range = method.getSourceRange();
+		ISourceRange nameRange = method.getNameRange();
+		if (!SourceRange.isAvailable(range) || !SourceRange.isAvailable(nameRange)) {
+			return null;
+		}
+		int start = startWithoutJavadoc(method, range);
+		int end = Math.min(range.getOffset() + range.getLength(), source.length());
+		if (end <= start) {
+			return null;
+		}
+		int bodyStart = findBodyStart(source, nameRange.getOffset() + nameRange.getLength(), end);
+		String signature = extract(source, start, bodyStart >= 0 ? bodyStart : end);
+		if (!signature.endsWith(";")) {
+			signature += ";";
+		}
+		return new Fragment(start, depth, signature, PRIORITY_OTHER_MEMBERS, 0);
+	}
+
+	/**
+	 * @return the position of the opening brace of the body, or -1 if there is none
+	 *         (e.g. abstract methods).
+	 */
+	static int findBodyStart(String source, int from, int to) {
+		int parenDepth = 0;
+		for (int i = from; i < to && i < source.length(); i++) {
+			char c = source.charAt(i);
+			if (c == '(') {
+				parenDepth++;
+			} else if (c == ')') {
+				parenDepth--;
+			} else if (parenDepth == 0 && c == '{') {
+				return i;
+			} else if (parenDepth == 0 && c == ';') {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private static int startWithoutJavadoc(IMember member, ISourceRange range) throws JavaModelException {
+		ISourceRange javadoc = member.getJavadocRange();
+		if (SourceRange.isAvailable(javadoc) && javadoc.getOffset() == range.getOffset()) {
+			return javadoc.getOffset() + javadoc.getLength();
+		}
+		return range.getOffset();
+	}
+
+	private static String getSourceWithoutJavadoc(IMember member, String source) throws JavaModelException {
+		ISourceRange range = member.getSourceRange();
+		if (!SourceRange.isAvailable(range)) {
+			return "";
+		}
+		int start = startWithoutJavadoc(member, range);
+		int end = Math.min(range.getOffset() + range.getLength(), source.length());
+		return end > start ? extract(source, start, end) : "";
+	}
+
+	/**
+	 * @return the source between start and end without surrounding whitespace.
+	 *         The indentation of the first line is removed from the following
+	 *         lines, so {@link SourceSkeleton} can indent all lines by depth.
+	 */
+	static String extract(String source, int start, int end) {
+		int first = start;
+		while (first < end && Character.isWhitespace(source.charAt(first))) {
+			first++;
+		}
+		int lineStart = source.lastIndexOf('\n', first - 1) + 1;
+		int indentation = 0;
+		while (lineStart + indentation < first && isIndentation(source.charAt(lineStart + indentation))) {
+			indentation++;
+		}
+		return dedent(source.substring(start, end).trim(), indentation);
+	}
+
+	/**
+	 * @return the text with up to {@code indentation} tabs or spaces removed from
+	 *         the start of every line but the first.
+	 */
+	static String dedent(String text, int indentation) {
+		if (indentation == 0 || text.indexOf('\n') < 0) {
+			return text;
+		}
+		String[] lines = text.split("\n", -1);
+		StringBuilder sb = new StringBuilder(lines[0]);
+		for (int i = 1; i < lines.length; i++) {
+			String line = lines[i];
+			int strip = 0;
+			while (strip < indentation && strip < line.length() && isIndentation(line.charAt(strip))) {
+				strip++;
+			}
+			sb.append("\n").append(line, strip, line.length());
+		}
+		return sb.toString();
+	}
+
+	private static boolean isIndentation(char c) {
+		return c == ' ' || c == '\t';
+	}
+
+	/**
+	 * @return the innermost method, field or initializer containing the offset, or
+	 *         null if it's not inside a member other than a type.
+	 */
+	private static IMember findCurrentMember(ICompilationUnit cu, int offset) throws JavaModelException {
+		IJavaElement element = cu.getElementAt(offset);
+		while (element != null && !(element instanceof IMember && !(element instanceof IType))) {
+			if (element instanceof IType) {
+				return null;
+			}
+			element = element.getParent();
+		}
+		return (IMember) element;
+	}
+
+	private void elementChanged(ElementChangedEvent event) {
+		update(event.getDelta());
+	}
+
+	private void update(IJavaElementDelta delta) {
+		if (delta.getElement() instanceof ICompilationUnit cu) {
+			String key = cu.getHandleIdentifier();
+			synchronized (cache) {
+				deltaCount++;
+				CachedUnit cached = cache.get(key);
+				if (cached == null) {
+					return;
+				}
+				Set<IJavaElement> changedMembers = new HashSet<>();
+				if (collectChangedMembers(delta, true, changedMembers)) {
+					cache.remove(key);
+				} else {
+					cached.changedMembers.addAll(changedMembers);
+				}
+			}
+			return;
+		}
+		for (IJavaElementDelta child : delta.getAffectedChildren()) {
+			update(child);
+		}
+	}
+
+	/**
+	 * Collects the members with changed content (method bodies, initializers, but
+	 * also return and field types) whose declarations have to be extracted again.
+	 *
+	 * @return true if the structure changed and all declarations have to be
+	 *         extracted again: added or removed members, imports, modifiers, super
+	 *         types, or coarse deltas without details.
+	 */
+	static boolean collectChangedMembers(IJavaElementDelta delta, boolean compilationUnit,
+			Set<IJavaElement> changedMembers) {
+		if (delta.getKind() != IJavaElementDelta.CHANGED) {
+			return true;
+		}
+		int flags = delta.getFlags();
+		if (compilationUnit && (flags & IJavaElementDelta.F_FINE_GRAINED) == 0) {
+			return true;
+		}
+		if ((flags & ~BODY_ONLY_FLAGS) != 0) {
+			return true;
+		}
+		if (!compilationUnit && (flags & IJavaElementDelta.F_CONTENT) != 0) {
+			if (delta.getElement() instanceof IType) {
+				// The header of the type may have changed.
+				return true;
+			}
+			changedMembers.add(delta.getElement());
+		}
+		for (IJavaElementDelta child : delta.getAffectedChildren()) {
+			if (collectChangedMembers(child, false, changedMembers)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
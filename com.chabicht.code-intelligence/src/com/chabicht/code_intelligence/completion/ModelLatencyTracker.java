@@ -0,0 +1,47 @@
+package com.chabicht.code_intelligence.completion;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keeps an exponentially weighted moving average of the completion latency per
+ * model, so fast models can be preferred when several candidates are
+ * requested.
+ */
+class ModelLatencyTracker {
+	/** Weight of the newest sample. */
+	private static final double ALPHA = 0.3;
+
+	private final Map<String, Double> averages = new HashMap<>();
+
+	synchronized void record(String model, long latencyMillis) {
+		averages.merge(model, (double) latencyMillis, (avg, sample) -> avg + ALPHA * (sample - avg));
+	}
+
+	/**
+	 * @return the average latency in milliseconds, -1 if no call was recorded yet.
+	 */
+	synchronized long getAverageMillis(String model) {
+		Double avg = averages.get(model);
+		return avg != null ? Math.round(avg) : -1;
+	}
+
+	/**
+	 * Returns the items ordered by the average latency of their model. Models
+	 * without measurements come first (in their original order) so they get
+	 * measured; the sort is stable otherwise.
+	 */
+	<T> List<T> sortByLatency(List<T> items, Function<T, String> modelOf) {
+		List<T> res = new ArrayList<>(items);
+		res.sort(Comparator.comparingLong(item -> getAverageMillis(modelOf.apply(item))));
+		return res;
+	}
+
+	synchronized void clear() {
+		averages.clear();
+	}
+}
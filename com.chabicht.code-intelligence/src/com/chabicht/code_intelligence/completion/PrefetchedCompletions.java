@@ -0,0 +1,110 @@
+package com.chabicht.code_intelligence.completion;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+import com.chabicht.code_intelligence.model.CompletionResult;
+
+/**
+ * Small LRU cache of speculatively requested completions.
+ * <p>
+ * Entries are keyed by the model and the compiled prompt, so a hit is exactly
+ * the completion content assist would request for the current state of the
+ * editor. Pending requests are cached as well, so invoking content assist while
+ * a prefetch is still running waits for it instead of sending the same prompt
+ * again. Failed requests are dropped, entries expire after a fixed time.
+ */
+class PrefetchedCompletions {
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final LongSupplier clock;
+
+	private final Map<String, Entry> entries;
+
+	PrefetchedCompletions(int maxEntries, long ttlMillis) {
+		this(maxEntries, ttlMillis, System::currentTimeMillis);
+	}
+
+	PrefetchedCompletions(int maxEntries, long ttlMillis, LongSupplier clock) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.clock = clock;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > PrefetchedCompletions.this.maxEntries;
+			}
+		};
+	}
+
+	static String key(String model, String compiledPrompt) {
+		return model + "\n" + compiledPrompt;
+	}
+
+	/**
+	 * @return true if a valid (pending or successful) entry exists for the key.
+	 */
+	synchronized boolean contains(String key) {
+		return lookup(key) != null;
+	}
+
+	/**
+	 * Adds a (possibly still pending) completion. The entry is removed again if the
+	 * request fails or is cancelled.
+	 */
+	void put(String key, CompletableFuture<CompletionResult> result) {
+		Entry entry = new Entry(result, clock.getAsLong());
+		synchronized (this) {
+			entries.put(key, entry);
+		}
+		result.whenComplete((r, ex) -> {
+			if (ex != null) {
+				remove(key, entry);
+			}
+		});
+	}
+
+	synchronized Optional<CompletableFuture<CompletionResult>> get(String key) {
+		Entry entry = lookup(key);
+		return entry != null ? Optional.of(entry.result) : Optional.empty();
+	}
+
+	synchronized void clear() {
+		entries.clear();
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	private Entry lookup(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (clock.getAsLong() - entry.created > ttlMillis || entry.result.isCompletedExceptionally()) {
+			entries.remove(key);
+			return null;
+		}
+		return entry;
+	}
+
+	private synchronized void remove(String key, Entry entry) {
+		entries.remove(key, entry);
+	}
+
+	private static class Entry {
+		private final CompletableFuture<CompletionResult> result;
+		private final long created;
+
+		private Entry(CompletableFuture<CompletionResult> result, long created) {
+			this.result = result;
+			this.created = created;
+		}
+	}
+}
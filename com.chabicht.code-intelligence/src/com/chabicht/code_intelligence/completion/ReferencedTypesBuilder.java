@@ -0,0 +1,192 @@
+package com.chabicht.code_intelligence.completion;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IMember;
+import org.eclipse.jdt.core.ISourceRange;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.SourceRange;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.BodyDeclaration;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.IBinding;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.IVariableBinding;
+import org.eclipse.jdt.core.dom.NodeFinder;
+import org.eclipse.jdt.core.dom.SimpleName;
+import org.eclipse.jdt.ui.SharedASTProvider;
+
+import com.chabicht.code_intelligence.Activator;
+
+/**
+ * Collects the signatures of the types referenced by the member at the cursor,
+ * so the completion model knows the methods and fields of types declared in
+ * other files.
+ * <p>
+ * The types are resolved with the bindings of the AST shared with the Java
+ * editor if it is available without waiting. Otherwise the capitalized
+ * identifiers closest to the cursor are resolved as type names, as many as fit
+ * into a short time budget because this runs on the content assist thread.
+ * Types closer to the cursor are included first. Types of the compilation unit
+ * itself (they are part of its outline) and of the JDK (known to the models)
+ * are left out.
+ */
+class ReferencedTypesBuilder {
+	/** Upper limit for name lookups without AST, each one may query the index. */
+	static final int MAX_UNRESOLVED_NAMES = 10;
+
+	/** Time budget for name lookups without AST. */
+	private static final long MAX_UNRESOLVED_NANOS = 50_000_000L;
+
+	private static final Pattern TYPE_NAME = Pattern.compile("\\b[A-Z][A-Za-z0-9_]*\\b");
+
+	private ReferencedTypesBuilder() {
+		// No instances.
+	}
+
+	/**
+	 * @return the signatures of the referenced types within the token budget, or
+	 *         an empty string if there are none.
+	 */
+	static String build(ICompilationUnit cu, int offset, int tokenBudget) {
+		try {
+			StringBuilder sb = new StringBuilder();
+			int remainingTokens = tokenBudget;
+			for (IType type : findReferencedTypes(cu, offset)) {
+				String signatures = TypeSignatureCache.getInstance().getSignatures(type);
+				int tokens = (signatures.length() + 3) / 4;
+				if (tokens <= remainingTokens) {
+					sb.append(signatures).append("\n");
+					remainingTokens -= tokens;
+				}
+			}
+			return sb.toString();
+		} catch (JavaModelException e) {
+			Activator.logWarn("Could not resolve referenced types in " + cu.getElementName() + ": " + e.getMessage());
+			return "";
+		}
+	}
+
+	/**
+	 * @return the referenced types, closest to the cursor first.
+	 */
+	private static List<IType> findReferencedTypes(ICompilationUnit cu, int offset) throws JavaModelException {
+		Map<IType, Integer> distances = new LinkedHashMap<>();
+		CompilationUnit ast = SharedASTProvider.getAST(cu, SharedASTProvider.WAIT_NO, null);
+		if (ast != null) {
+			collectFromBindings(ast, offset, distances);
+		}
+		// The AST may have been created without bindings.
+		if (distances.isEmpty()) {
+			collectFromNames(cu, offset, distances);
+		}
+
+		List<IType> res = new ArrayList<>();
+		distances.entrySet().stream().sorted(Map.Entry.comparingByValue()).map(Map.Entry::getKey)
+				.filter(type -> !isDeclaredIn(type, cu) && !isJdkType(type)).forEach(res::add);
+		return res;
+	}
+
+	private static void collectFromBindings(CompilationUnit ast, int offset, Map<IType, Integer> distances) {
+		ASTNode node = NodeFinder.perform(ast, offset, 0);
+		while (node != null && !(node instanceof BodyDeclaration)) {
+			node = node.getParent();
+		}
+		if (node == null) {
+			return;
+		}
+
+		node.accept(new ASTVisitor() {
+			@Override
+			public boolean visit(SimpleName name) {
+				int distance = Math.abs(name.getStartPosition() - offset);
+				IBinding binding = name.resolveBinding();
+				if (binding instanceof ITypeBinding typeBinding) {
+					addType(typeBinding, distance, distances);
+				} else if (binding instanceof IVariableBinding variableBinding) {
+					addType(variableBinding.getType(), distance, distances);
+				} else if (binding instanceof IMethodBinding methodBinding) {
+					addType(methodBinding.getDeclaringClass(), distance, distances);
+					addType(methodBinding.getReturnType(), distance, distances);
+				}
+				return true;
+			}
+		});
+	}
+
+	private static void addType(ITypeBinding binding, int distance, Map<IType, Integer> distances) {
+		if (binding == null) {
+			return;
+		}
+		ITypeBinding type = binding.isArray() ? binding.getElementType() : binding;
+		type = type.getErasure();
+		if (type.isPrimitive() || type.isTypeVariable() || type.isAnonymous() || type.isLocal()) {
+			return;
+		}
+		IJavaElement element = type.getJavaElement();
+		if (element instanceof IType t) {
+			distances.merge(t, distance, Math::min);
+		}
+	}
+
+	private static void collectFromNames(ICompilationUnit cu, int offset, Map<IType, Integer> distances)
+			throws JavaModelException {
+		IJavaElement element = cu.getElementAt(offset);
+		while (element != null && !(element instanceof IMember)) {
+			element = element.getParent();
+		}
+		if (!(element instanceof IMember member)) {
+			return;
+		}
+		IType declaringType = member instanceof IType t ? t : member.getDeclaringType();
+		ISourceRange range = member.getSourceRange();
+		String source = member.getSource();
+		if (declaringType == null || source == null || !SourceRange.isAvailable(range)) {
+			return;
+		}
+
+		Map<String, Integer> names = new LinkedHashMap<>();
+		Matcher matcher = TYPE_NAME.matcher(source);
+		while (matcher.find()) {
+			int distance = Math.abs(range.getOffset() + matcher.start() - offset);
+			names.merge(matcher.group(), distance, Math::min);
+		}
+
+		List<Map.Entry<String, Integer>> closestNames = names.entrySet().stream()
+				.sorted(Map.Entry.comparingByValue()).limit(MAX_UNRESOLVED_NAMES).toList();
+		long deadline = System.nanoTime() + MAX_UNRESOLVED_NANOS;
+		for (Map.Entry<String, Integer> entry : closestNames) {
+			if (System.nanoTime() - deadline > 0) {
+				break;
+			}
+			String[][] resolved = declaringType.resolveType(entry.getKey());
+			if (resolved == null || resolved.length != 1) {
+				continue;
+			}
+			IType type = declaringType.getJavaProject().findType(resolved[0][0], resolved[0][1].replace('$', '.'));
+			if (type != null) {
+				distances.merge(type, entry.getValue(), Math::min);
+			}
+		}
+	}
+
+	private static boolean isDeclaredIn(IType type, ICompilationUnit cu) {
+		ICompilationUnit typeCu = type.getCompilationUnit();
+		return typeCu != null && typeCu.getPrimary().equals(cu.getPrimary());
+	}
+
+	private static boolean isJdkType(IType type) {
+		String name = type.getFullyQualifiedName();
+		return name.startsWith("java.") || name.startsWith("javax.");
+	}
+}
@@ -0,0 +1,70 @@
+package com.chabicht.code_intelligence.completion;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Outline of a source file assembled from fragments (declarations, signatures,
+ * full members) that is rendered in source order but filled by priority until
+ * the token budget is used up.
+ */
+class SourceSkeleton {
+	/** Priority of fragments that are always included, e.g. type headers. */
+	static final int REQUIRED = 0;
+
+	/**
+	 * A piece of the outline.
+	 *
+	 * @param offset   position in the source, used for the order of the output.
+	 * @param depth    nesting level, every line of the text is indented by it.
+	 * @param text     the text of the fragment.
+	 * @param priority lower values are included first.
+	 * @param distance distance to the cursor, fragments with equal priority are
+	 *                 included closest first.
+	 */
+	record Fragment(int offset, int depth, String text, int priority, int distance) {
+		int estimateTokens() {
+			return (text.length() + 3) / 4 + depth;
+		}
+	}
+
+	private final List<Fragment> fragments = new ArrayList<>();
+
+	void add(int offset, int depth, String text, int priority, int distance) {
+		fragments.add(new Fragment(offset, depth, text, priority, Math.abs(distance)));
+	}
+
+	void add(Fragment fragment) {
+		fragments.add(fragment);
+	}
+
+	/**
+	 * @return the required fragments and as many others as fit into the token
+	 *         budget, in source order.
+	 */
+	String build(int tokenBudget) {
+		List<Fragment> byPriority = new ArrayList<>(fragments);
+		byPriority.sort(Comparator.comparingInt(Fragment::priority).thenComparingInt(Fragment::distance));
+
+		List<Fragment> selected = new ArrayList<>();
+		int remainingTokens = tokenBudget;
+		for (Fragment fragment : byPriority) {
+			int tokens = fragment.estimateTokens();
+			if (fragment.priority() == REQUIRED || tokens <= remainingTokens) {
+				selected.add(fragment);
+				remainingTokens -= tokens;
+			}
+		}
+
+		selected.sort(Comparator.comparingInt(Fragment::offset));
+		StringBuilder sb = new StringBuilder();
+		for (Fragment fragment : selected) {
+			String indentation = "\t".repeat(fragment.depth());
+			for (String line : fragment.text().split("\n", -1)) {
+				sb.append(line.isEmpty() ? "" : indentation).append(line).append("\n");
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,268 @@
+package com.chabicht.code_intelligence.completion;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.jdt.core.Flags;
+import org.eclipse.jdt.core.IBuffer;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IField;
+import org.eclipse.jdt.core.IMember;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeParameter;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.Signature;
+
+/**
+ * Member signatures (no bodies) of types referenced from completion prompts.
+ * <p>
+ * The signatures are created from the Java model, so they work for source and
+ * binary types alike. They are cached by handle and modification stamp of the
+ * type, an outdated entry is simply not found anymore and ages out of the LRU
+ * cache.
+ */
+public class TypeSignatureCache {
+	private static final int MAX_ENTRIES = 200;
+
+	private static TypeSignatureCache INSTANCE = null;
+
+	private final Map<String, String> cache = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private TypeSignatureCache() {
+	}
+
+	public static synchronized TypeSignatureCache getInstance() {
+		if (INSTANCE == null)
+			INSTANCE = new TypeSignatureCache();
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the declaration of the type with the signatures of its non-private
+	 *         fields and methods.
+	 */
+	String getSignatures(IType type) throws JavaModelException {
+		String key = type.getHandleIdentifier() + "@" + getModificationStamp(type);
+		synchronized (cache) {
+			String res = cache.get(key);
+			if (res != null) {
+				return res;
+			}
+		}
+
+		String res = createSignatures(type);
+		synchronized (cache) {
+			cache.put(key, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Modification stamp of the file of the type. Unsaved changes of a working
+	 * copy aren't reflected by the file, the hash of its content is used instead.
+	 */
+	private static long getModificationStamp(IType type) throws JavaModelException {
+		ICompilationUnit cu = type.getCompilationUnit();
+		if (cu != null && cu.isWorkingCopy() && cu.hasUnsavedChanges()) {
+			IBuffer buffer = cu.getBuffer();
+			String contents = buffer != null ? buffer.getContents() : null;
+			return contents != null ? contents.hashCode() : 0;
+		}
+		IResource resource = cu != null ? cu.getResource() : type.getPackageFragment().getParent().getResource();
+		return resource != null ? resource.getModificationStamp() : 0;
+	}
+
+	/**
+	 * @return the declaration of a type, field or method without body, e.g.
+	 *         <code>public static String valueOf(Object obj)</code>.
+	 */
+	public static String getMemberSignature(IMember member) throws JavaModelException {
+		if (member instanceof IType type) {
+			return createTypeHeader(type);
+		} else if (member instanceof IMethod method) {
+			return createMethodSignature(method.getDeclaringType(), method);
+		} else if (member instanceof IField field) {
+			if (field.isEnumConstant()) {
+				return field.getElementName();
+			}
+			return modifiers(field.getFlags()) + typeName(field.getTypeSignature()) + " " + field.getElementName();
+		}
+		return member.getElementName();
+	}
+
+	private static String createSignatures(IType type) throws JavaModelException {
+		StringBuilder sb = new StringBuilder();
+		sb.append(createTypeHeader(type)).append(" {\n");
+
+		List<String> enumConstants = new ArrayList<>();
+		for (IField field : type.getFields()) {
+			if (field.isEnumConstant()) {
+				enumConstants.add(field.getElementName());
+			}
+		}
+		if (!enumConstants.isEmpty()) {
+			sb.append("\t").append(String.join(", ", enumConstants)).append(";\n");
+		}
+
+		for (IField field : type.getFields()) {
+			if (!field.isEnumConstant() && !field.isRecordComponent() && !Flags.isPrivate(field.getFlags())
+					&& !Flags.isSynthetic(field.getFlags())) {
+				sb.append("\t").append(modifiers(field.getFlags()))
+						.append(typeName(field.getTypeSignature())).append(" ").append(field.getElementName())
+						.append(";\n");
+			}
+		}
+
+		for (IMethod method : type.getMethods()) {
+			if (!Flags.isPrivate(method.getFlags()) && !Flags.isSynthetic(method.getFlags())
+					&& !Flags.isBridge(method.getFlags()) && !method.getElementName().startsWith("<")
+					&& !method.getElementName().contains("$")) {
+				sb.append("\t").append(createMethodSignature(type, method)).append(";\n");
+			}
+		}
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private static String createTypeHeader(IType type) throws JavaModelException {
+		StringBuilder sb = new StringBuilder();
+		String kind;
+		if (type.isAnnotation()) {
+			kind = "@interface";
+		} else if (type.isInterface()) {
+			kind = "interface";
+		} else if (type.isEnum()) {
+			kind = "enum";
+		} else if (type.isRecord()) {
+			kind = "record";
+		} else {
+			kind = "class";
+		}
+		int flags = type.getFlags();
+		if (type.isInterface()) {
+			flags &= ~Flags.AccAbstract;
+		}
+		sb.append(modifiers(flags)).append(kind).append(" ")
+				.append(type.getFullyQualifiedName('.')).append(typeParameters(type.getTypeParameters()));
+
+		if (type.isRecord()) {
+			List<String> components = new ArrayList<>();
+			for (IField component : type.getRecordComponents()) {
+				components.add(typeName(component.getTypeSignature()) + " " + component.getElementName());
+			}
+			sb.append("(").append(String.join(", ", components)).append(")");
+		}
+
+		String superclass = type.getSuperclassTypeSignature();
+		if (superclass != null && type.isClass() && !type.isEnum() && !type.isRecord()) {
+			String superclassName = typeName(superclass);
+			if (!"Object".equals(superclassName)) {
+				sb.append(" extends ").append(superclassName);
+			}
+		}
+
+		String[] interfaces = type.getSuperInterfaceTypeSignatures();
+		if (interfaces.length > 0 && !type.isAnnotation()) {
+			List<String> names = new ArrayList<>();
+			for (String signature : interfaces) {
+				names.add(typeName(signature));
+			}
+			sb.append(type.isInterface() ? " extends " : " implements ").append(String.join(", ", names));
+		}
+		return sb.toString();
+	}
+
+	private static String createMethodSignature(IType type, IMethod method) throws JavaModelException {
+		StringBuilder sb = new StringBuilder();
+		int flags = method.getFlags();
+		sb.append(modifiers(type.isInterface() ? flags & ~Flags.AccAbstract : flags));
+		if (Flags.isDefaultMethod(flags)) {
+			sb.append("default ");
+		}
+		String typeParameters = typeParameters(method.getTypeParameters());
+		if (!typeParameters.isEmpty()) {
+			sb.append(typeParameters).append(" ");
+		}
+		if (method.isConstructor()) {
+			sb.append(type.getElementName());
+		} else {
+			sb.append(typeName(method.getReturnType())).append(" ").append(method.getElementName());
+		}
+
+		String[] parameterTypes = method.getParameterTypes();
+		String[] parameterNames = method.getParameterNames();
+		List<String> parameters = new ArrayList<>();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			String parameterType = typeName(parameterTypes[i]);
+			if (i == parameterTypes.length - 1 && Flags.isVarargs(flags) && parameterType.endsWith("[]")) {
+				parameterType = parameterType.substring(0, parameterType.length() - 2) + "...";
+			}
+			String name = i < parameterNames.length ? parameterNames[i] : "arg" + i;
+			parameters.add(parameterType + " " + name);
+		}
+		sb.append("(").append(String.join(", ", parameters)).append(")");
+
+		String[] exceptions = method.getExceptionTypes();
+		if (exceptions.length > 0) {
+			List<String> names = new ArrayList<>();
+			for (String signature : exceptions) {
+				names.add(typeName(signature));
+			}
+			sb.append(" throws ").append(String.join(", ", names));
+		}
+		return sb.toString();
+	}
+
+	private static String typeParameters(ITypeParameter[] typeParameters) {
+		if (typeParameters.length == 0) {
+			return "";
+		}
+		List<String> names = new ArrayList<>();
+		for (ITypeParameter typeParameter : typeParameters) {
+			names.add(typeParameter.getElementName());
+		}
+		return "<" + String.join(", ", names) + ">";
+	}
+
+	/**
+	 * @return the simple name of the type of a (resolved or unresolved) signature,
+	 *         including type arguments.
+	 */
+	private static String typeName(String signature) {
+		return Signature.getSimpleName(Signature.toString(signature));
+	}
+
+	/**
+	 * Only the modifiers relevant for callers. {@link Flags#toString(int)} can't
+	 * be used for methods because it reports varargs as transient.
+	 */
+	private static String modifiers(int flags) {
+		StringBuilder sb = new StringBuilder();
+		if (Flags.isPublic(flags)) {
+			sb.append("public ");
+		} else if (Flags.isProtected(flags)) {
+			sb.append("protected ");
+		}
+		if (Flags.isAbstract(flags)) {
+			sb.append("abstract ");
+		}
+		if (Flags.isStatic(flags)) {
+			sb.append("static ");
+		}
+		if (Flags.isFinal(flags)) {
+			sb.append("final ");
+		}
+		return sb.toString();
+	}
+}
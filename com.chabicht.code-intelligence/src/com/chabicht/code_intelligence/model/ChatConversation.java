@@ -6,8 +6,11 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -15,6 +18,17 @@ import org.apache.commons.lang3.StringUtils;
  * A conversation with a chat model, displayed in the chat view.
  */
 public class ChatConversation {
+	/**
+	 * Source of the versions of messages and their function calls. Versions are
+	 * unique and increasing, so the newest version of the parts of a message
+	 * changes with every mutation of any part.
+	 */
+	private static final AtomicLong VERSIONS = new AtomicLong();
+
+	private static long nextVersion() {
+		return VERSIONS.incrementAndGet();
+	}
+
 	/**
 	 * Role a chat message can have.
 	 */
@@ -58,6 +72,15 @@ public class ChatConversation {
 		private final String instructionsBefore;
 		private final String content;
 		private final String instructionsAfter;
+		/** The attachment this context updates, null for attachments. */
+		private final UUID updateOf;
+		/** For updates with a diff as content, the text of the range after the update. */
+		private final String snapshot;
+
+		// The context is immutable, the compiled text is kept for the following
+		// requests of the conversation.
+		private transient String compiled;
+		private transient String compiledWithLineNumbers;
 
 		public MessageContext(String fileName, int startLine, int endLine, String content) {
 			this(fileName, RangeType.LINE, startLine, endLine, content);
@@ -69,6 +92,11 @@ public class ChatConversation {
 
 		public MessageContext(UUID uuid, String fileName, RangeType rangeType, int start, int end,
 				String instructionsBefore, String content, String instructionsAfter) {
+			this(uuid, fileName, rangeType, start, end, instructionsBefore, content, instructionsAfter, null, null);
+		}
+
+		private MessageContext(UUID uuid, String fileName, RangeType rangeType, int start, int end,
+				String instructionsBefore, String content, String instructionsAfter, UUID updateOf, String snapshot) {
 			this.uuid = uuid;
 			this.fileName = fileName;
 			this.rangeType = rangeType;
@@ -77,6 +105,34 @@ public class ChatConversation {
 			this.instructionsBefore = instructionsBefore;
 			this.content = content;
 			this.instructionsAfter = instructionsAfter;
+			this.updateOf = updateOf;
+			this.snapshot = snapshot;
+		}
+
+		/**
+		 * Creates the update of an attachment whose file changed after it was sent to
+		 * the model. The update contains the diff if there is one, otherwise the
+		 * current text of the range.
+		 *
+		 * @param previous the attachment or its latest update.
+		 */
+		public static MessageContext createUpdate(MessageContext previous, ContextDiff change) {
+			UUID attachment = previous.isUpdate() ? previous.getUpdateOf() : previous.getUuid();
+			String fileName = previous.getFileName();
+			String range = RangeType.LINE.getName() + " " + change.getStartLine() + " to " + change.getEndLine();
+			String diff = change.getDiff();
+			if (diff == null) {
+				return new MessageContext(UUID.randomUUID(), fileName, RangeType.LINE, change.getStartLine(),
+						change.getEndLine(), "The attachment " + fileName + " changed, this is its current content:\n",
+						change.getContent(), "", attachment, null);
+			}
+
+			String instructions = diff.isEmpty()
+					? "The attachment " + fileName + " moved to " + range + ", its content is unchanged.\n"
+					: "The attachment " + fileName + " changed and now covers " + range
+							+ ". Unified diff against the previous version:\n";
+			return new MessageContext(UUID.randomUUID(), fileName, RangeType.LINE, change.getStartLine(),
+					change.getEndLine(), instructions, diff, "", attachment, change.getContent());
 		}
 
 		public boolean isDuplicate(MessageContext other) {
@@ -112,8 +168,26 @@ public class ChatConversation {
 			return content;
 		}
 
+		/**
+		 * @return true if this context updates an attachment of an earlier message.
+		 */
+		public boolean isUpdate() {
+			return updateOf != null;
+		}
+
+		public UUID getUpdateOf() {
+			return updateOf;
+		}
+
+		/**
+		 * @return the text of the range as the model knows it after this context.
+		 */
+		public String getSnapshot() {
+			return snapshot != null ? snapshot : content;
+		}
+
 		public String getLabel() {
-			return this.fileName + ":" + getShortRangeDescription();
+			return this.fileName + ":" + getShortRangeDescription() + (isUpdate() ? " (changed)" : "");
 		}
 
 		public String getDescriptor(boolean prefixLineNumbers) {
@@ -132,10 +206,30 @@ public class ChatConversation {
 		}
 
 		public String compile(boolean prefixLineNumbers) {
+			String res = prefixLineNumbers ? compiledWithLineNumbers : compiled;
+			if (res == null) {
+				res = compileUncached(prefixLineNumbers);
+				if (prefixLineNumbers) {
+					compiledWithLineNumbers = res;
+				} else {
+					compiled = res;
+				}
+			}
+			return res;
+		}
+
+		private String compileUncached(boolean prefixLineNumbers) {
 			StringBuilder sb = new StringBuilder();
 			if (StringUtils.isNotBlank(instructionsBefore)) {
 				sb.append(instructionsBefore);
 			}
+			if (snapshot != null) {
+				// The content is a diff, line numbers are in its hunk headers.
+				if (StringUtils.isNotEmpty(content)) {
+					sb.append("```diff\n").append(content).append("\n```\n");
+				}
+				return sb.toString();
+			}
 			sb.append("```").append(getDescriptor(prefixLineNumbers))
 					.append(prefixLineNumbers ? getPrefixedContent() : getContent()).append("\n```\n");
 			if (StringUtils.isNotBlank(instructionsAfter)) {
@@ -144,34 +238,42 @@ public class ChatConversation {
 			return sb.toString();
 		}
 
+		/**
+		 * @return the content with each line prefixed with its number, padded to the
+		 *         width of the last line number (e.g. " 9: ", " 10: ").
+		 */
 		private String getPrefixedContent() {
 			if (this.content == null) {
 				return "";
 			}
 
-			String[] lines = this.content.split("\\r?\\n", -1);
-
-			// Determine the width for line number padding based on the 'end' line number.
-			// 'this.end' is the last line number of the context.
-			// Line numbers are expected to be 1-based and positive.
-			int maxLineNumberForFormatting = this.end;
-			int maxLineNumberLength = String.valueOf(maxLineNumberForFormatting).length();
-			if (maxLineNumberLength <= 0) { // Should not happen with positive line numbers
-				maxLineNumberLength = 1;
-			}
-
-			java.util.List<String> prefixedLines = new java.util.ArrayList<>();
-			for (int i = 0; i < lines.length; i++) {
-				// Calculate the current line number
-				int currentLineNumber = this.start + i;
+			int width = Math.max(1, String.valueOf(this.end).length());
+			int length = this.content.length();
+			StringBuilder sb = new StringBuilder(length + (length / 32 + 1) * (width + 2));
+			int lineNumber = this.start;
+			int lineStart = 0;
+			while (true) {
+				int lineEnd = this.content.indexOf('\n', lineStart);
+				int next = lineEnd + 1;
+				if (lineEnd < 0) {
+					lineEnd = length;
+				} else if (lineEnd > lineStart && this.content.charAt(lineEnd - 1) == '\r') {
+					lineEnd--;
+				}
 
-				// Format the line number prefix (e.g., " 9: ", " 10: ", "100: ")
-				String prefix = String.format("%" + maxLineNumberLength + "d: ", currentLineNumber);
+				String number = Integer.toString(lineNumber++);
+				for (int i = number.length(); i < width; i++) {
+					sb.append(' ');
+				}
+				sb.append(number).append(": ").append(this.content, lineStart, lineEnd);
 
-				prefixedLines.add(prefix + lines[i]);
+				if (next == 0) {
+					break;
+				}
+				sb.append('\n');
+				lineStart = next;
 			}
-
-			return String.join("\n", prefixedLines);
+			return sb.toString();
 		}
 
 		public String getRangeDescription() {
@@ -205,6 +307,7 @@ public class ChatConversation {
 		private String thinkingContent;
 		private boolean isThinkingComplete;
 		private Map<String, Object> metadata = new HashMap<>();
+		private transient long version = nextVersion();
 
 		protected ChatMessage() {
 			id = UUID.randomUUID();
@@ -227,6 +330,7 @@ public class ChatConversation {
 
 		public void setContent(String content) {
 			this.content = content;
+			version = nextVersion();
 		}
 
 		public Role getRole() {
@@ -290,10 +394,12 @@ public class ChatConversation {
 
 		public void setFunctionCallBatch(Optional<FunctionCallBatch> functionCallBatch) {
 			this.functionCallBatch = (functionCallBatch != null) ? functionCallBatch : Optional.empty();
+			version = nextVersion();
 		}
 
 		public void setFunctionCallBatch(FunctionCallBatch functionCallBatch) {
 			this.functionCallBatch = Optional.ofNullable(functionCallBatch);
+			version = nextVersion();
 		}
 
 		/**
@@ -322,6 +428,7 @@ public class ChatConversation {
 		 */
 		public void setThinkingContent(String thinkingContent) {
 			this.thinkingContent = thinkingContent;
+			version = nextVersion();
 		}
 
 		/**
@@ -350,6 +457,7 @@ public class ChatConversation {
 		 */
 		public void setThinkingComplete(boolean isThinkingComplete) {
 			this.isThinkingComplete = isThinkingComplete;
+			version = nextVersion();
 		}
 
 		/**
@@ -378,6 +486,7 @@ public class ChatConversation {
 		 */
 		public void setMetadata(String key, Object value) {
 			this.metadata.put(key, value);
+			version = nextVersion();
 		}
 
 		/**
@@ -390,6 +499,18 @@ public class ChatConversation {
 			return this.metadata.get(key);
 		}
 
+		/**
+		 * Version of the message including its function calls and results. It
+		 * changes with every mutation through the setters, so encodings of the
+		 * message can be reused as long as it stays the same.
+		 * <p>
+		 * Changes of the context list are not covered, the context is only ever added
+		 * to, so its size tells whether it changed.
+		 */
+		public long getVersion() {
+			return functionCallBatch.isPresent() ? Math.max(version, functionCallBatch.get().getVersion()) : version;
+		}
+
 		@Override
 		public String toString() {
 			StringBuilder sb = new StringBuilder("ChatMessage {").append("\n");
@@ -483,6 +604,7 @@ public class ChatConversation {
 		private final String functionName;
 		private String resultJson;
 		private Map<String, FunctionParamValue> prettyResults;
+		private transient long version = nextVersion();
 
 		public FunctionResult(String id, String functionName) {
 			this.id = id;
@@ -504,6 +626,11 @@ public class ChatConversation {
 
 		public void setResultJson(String resultJson) {
 			this.resultJson = resultJson;
+			version = nextVersion();
+		}
+
+		public long getVersion() {
+			return version;
 		}
 
 		public Map<String, FunctionParamValue> getPrettyResults() {
@@ -534,6 +661,7 @@ public class ChatConversation {
 		public static class FunctionCallItem {
 			private FunctionCall call;
 			private FunctionResult result;
+			private transient long version = nextVersion();
 
 			public FunctionCallItem() {
 			}
@@ -549,6 +677,7 @@ public class ChatConversation {
 
 			public void setCall(FunctionCall call) {
 				this.call = call;
+				version = nextVersion();
 			}
 
 			public FunctionResult getResult() {
@@ -557,6 +686,11 @@ public class ChatConversation {
 
 			public void setResult(FunctionResult result) {
 				this.result = result;
+				version = nextVersion();
+			}
+
+			public long getVersion() {
+				return result != null ? Math.max(version, result.getVersion()) : version;
 			}
 		}
 
@@ -564,6 +698,7 @@ public class ChatConversation {
 		private List<FunctionCallItem> items = new ArrayList<>();
 		private String thoughtSignature;
 		private boolean executionComplete;
+		private transient long version = nextVersion();
 
 		public FunctionCallBatch() {
 			this(UUID.randomUUID().toString());
@@ -579,6 +714,7 @@ public class ChatConversation {
 
 		public void setBatchId(String batchId) {
 			this.batchId = StringUtils.isNotBlank(batchId) ? batchId : UUID.randomUUID().toString();
+			version = nextVersion();
 		}
 
 		public List<FunctionCallItem> getItems() {
@@ -590,6 +726,7 @@ public class ChatConversation {
 
 		public void setItems(List<FunctionCallItem> items) {
 			this.items = (items != null) ? new ArrayList<>(items) : new ArrayList<>();
+			version = nextVersion();
 		}
 
 		// Compatibility helper while migrating old call sites.
@@ -612,6 +749,7 @@ public class ChatConversation {
 				FunctionResult existingResult = i < existingResults.size() ? existingResults.get(i) : null;
 				getItems().add(new FunctionCallItem(safeCalls.get(i), existingResult));
 			}
+			version = nextVersion();
 		}
 
 		// Compatibility helper while migrating old call sites.
@@ -629,6 +767,7 @@ public class ChatConversation {
 			for (int i = safeItems.size(); i < safeResults.size(); i++) {
 				safeItems.add(new FunctionCallItem(null, safeResults.get(i)));
 			}
+			version = nextVersion();
 		}
 
 		// Compatibility helper while migrating old call sites.
@@ -648,6 +787,7 @@ public class ChatConversation {
 
 		public void setThoughtSignature(String thoughtSignature) {
 			this.thoughtSignature = thoughtSignature;
+			version = nextVersion();
 		}
 
 		public boolean isExecutionComplete() {
@@ -661,6 +801,7 @@ public class ChatConversation {
 		public void addCall(FunctionCall call) {
 			if (call != null) {
 				getItems().add(new FunctionCallItem(call, null));
+				version = nextVersion();
 			}
 		}
 
@@ -675,6 +816,7 @@ public class ChatConversation {
 				}
 			}
 			getItems().add(new FunctionCallItem(null, result));
+			version = nextVersion();
 		}
 
 		public void setResultForCall(int callIndex, FunctionResult result) {
@@ -685,9 +827,24 @@ public class ChatConversation {
 			if (item == null) {
 				item = new FunctionCallItem();
 				getItems().set(callIndex, item);
+				version = nextVersion();
 			}
 			item.setResult(result);
 		}
+
+		/**
+		 * @return the newest version of the batch and its items, see
+		 *         {@link ChatMessage#getVersion()}.
+		 */
+		public long getVersion() {
+			long res = version;
+			for (FunctionCallItem item : getItems()) {
+				if (item != null) {
+					res = Math.max(res, item.getVersion());
+				}
+			}
+			return res;
+		}
 	}
 
 	public static class FunctionParamValue {
@@ -791,6 +948,18 @@ public class ChatConversation {
 		 */
 		void onFunctionCall(ChatMessage message);
 
+		/**
+		 * Called while the response is still streaming, as soon as the arguments of
+		 * a function call are complete. Unless the response is aborted, the call is
+		 * part of the batch passed to {@link #onFunctionCall(ChatMessage)} later.
+		 *
+		 * @param message the streaming assistant message.
+		 * @param call    the complete function call.
+		 */
+		default void onFunctionCallComplete(ChatMessage message, FunctionCall call) {
+			// Most listeners only handle the batch.
+		}
+
 		/**
 		 * Called when an async chat response finished updating the message.
 		 *
@@ -800,6 +969,8 @@ public class ChatConversation {
 	}
 
 	private final List<ChatListener> listeners = new CopyOnWriteArrayList<>();
+	// Responses that were aborted while streaming, their events are dropped.
+	private final Set<UUID> abortedResponses = ConcurrentHashMap.newKeySet();
 
 	/**
 	 * Adds a listener to receive conversation updates.
@@ -876,12 +1047,29 @@ public class ChatConversation {
 		return false;
 	}
 
+	/**
+	 * Stops notifying the listeners about a response that is still streaming,
+	 * e.g. because the user aborted it. The message stays in the conversation.
+	 *
+	 * @param message the message the response is streamed into.
+	 */
+	public void abortResponse(ChatMessage message) {
+		abortedResponses.add(message.getId());
+	}
+
+	private boolean isAborted(ChatMessage message) {
+		return message != null && abortedResponses.contains(message.getId());
+	}
+
 	/**
 	 * Notifies listeners that an existing message has been updated.
 	 *
 	 * @param message the message that was updated.
 	 */
 	public void notifyMessageUpdated(ChatMessage message) {
+		if (isAborted(message)) {
+			return;
+		}
 		for (ChatListener listener : listeners) {
 			if (listener != null) {
 				listener.onMessageUpdated(message);
@@ -890,6 +1078,9 @@ public class ChatConversation {
 	}
 
 	public void notifyChatResponseFinished(ChatMessage message) {
+		if (isAborted(message)) {
+			return;
+		}
 		for (ChatListener listener : listeners) {
 			if (listener != null) {
 				listener.onChatResponseFinished(message);
@@ -906,6 +1097,9 @@ public class ChatConversation {
 	}
 
 	public void notifyFunctionCalled(ChatMessage message) {
+		if (isAborted(message)) {
+			return;
+		}
 		for (ChatListener listener : listeners) {
 			if (listener != null) {
 				listener.onFunctionCall(message);
@@ -913,6 +1107,17 @@ public class ChatConversation {
 		}
 	}
 
+	public void notifyFunctionCallComplete(ChatMessage message, FunctionCall call) {
+		if (isAborted(message)) {
+			return;
+		}
+		for (ChatListener listener : listeners) {
+			if (listener != null) {
+				listener.onFunctionCallComplete(message, call);
+			}
+		}
+	}
+
 	/**
 	 * Returns the list of messages in the conversation.
 	 *
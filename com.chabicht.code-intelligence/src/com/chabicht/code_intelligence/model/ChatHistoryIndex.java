@@ -0,0 +1,284 @@
+package com.chabicht.code_intelligence.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCall;
+import com.chabicht.code_intelligence.model.ChatConversation.FunctionCallBatch.FunctionCallItem;
+import com.chabicht.code_intelligence.model.ChatConversation.MessageContext;
+
+/**
+ * Inverted index over the chat history: message content, function calls and
+ * the file names of the context of each conversation.
+ * <p>
+ * The index is updated incrementally, only conversations that changed since
+ * they were last indexed are tokenized again. Queries match all of their terms,
+ * the last one as prefix, and are ranked with BM25. Words in camel case are
+ * indexed as a whole and in parts, so "kafka consumer" finds
+ * "KafkaConsumer".
+ * <p>
+ * The index is serialized with Gson and stored next to the history. Documents
+ * are numbered to keep the postings small.
+ */
+public class ChatHistoryIndex {
+	/** Increment when the tokenization changes to rebuild stored indexes. */
+	public static final int VERSION = 1;
+
+	private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+	private static final Pattern CAMEL_CASE_BOUNDARY = Pattern
+			.compile("(?<=\\p{Ll})(?=\\p{Lu})|(?<=\\p{Lu})(?=\\p{Lu}\\p{Ll})|(?<=\\p{L})(?=\\p{N})");
+	private static final int MIN_TERM_LENGTH = 2;
+	private static final int MAX_TERM_LENGTH = 40;
+	private static final int TITLE_WEIGHT = 3;
+	private static final double PREFIX_MATCH_WEIGHT = 0.5;
+	private static final double BM25_K1 = 1.2;
+	private static final double BM25_B = 0.75;
+
+	/**
+	 * A search result.
+	 */
+	public record Hit(UUID entryId, double score) {
+	}
+
+	private static class Document {
+		private int number;
+		private long stamp;
+		private int length;
+	}
+
+	private int version = VERSION;
+	private int nextNumber;
+	private Map<UUID, Document> documents = new HashMap<>();
+	/** term -> document number -> term frequency */
+	private TreeMap<String, HashMap<Integer, Integer>> postings = new TreeMap<>();
+
+	private transient Map<Integer, UUID> idsByNumber;
+
+	/**
+	 * @return true if the index was created with the current tokenization and can
+	 *         be used.
+	 */
+	public synchronized boolean isCurrentVersion() {
+		return version == VERSION && documents != null && postings != null;
+	}
+
+	/**
+	 * Indexes new and changed entries and removes the ones that aren't in the
+	 * history anymore.
+	 *
+	 * @return true if the index changed.
+	 */
+	public synchronized boolean update(Collection<ChatHistoryEntry> history) {
+		boolean changed = false;
+		Set<UUID> ids = new HashSet<>();
+		for (ChatHistoryEntry entry : history) {
+			ids.add(entry.getId());
+			changed |= update(entry);
+		}
+		for (UUID id : new ArrayList<>(documents.keySet())) {
+			if (!ids.contains(id)) {
+				remove(id);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Indexes the entry if it is new or changed since it was last indexed.
+	 *
+	 * @return true if the index changed.
+	 */
+	public synchronized boolean update(ChatHistoryEntry entry) {
+		long stamp = stampOf(entry);
+		Document existing = documents.get(entry.getId());
+		if (existing != null && existing.stamp == stamp) {
+			return false;
+		}
+		if (existing != null) {
+			remove(entry.getId());
+		}
+
+		Map<String, Integer> frequencies = new HashMap<>();
+		for (int i = 0; i < TITLE_WEIGHT; i++) {
+			addTerms(entry.getTitle(), frequencies);
+		}
+		ChatConversation conversation = entry.getConversation();
+		if (conversation != null) {
+			for (ChatMessage message : conversation.getMessages()) {
+				addTerms(message, frequencies);
+			}
+		}
+
+		Document document = new Document();
+		document.number = nextNumber++;
+		document.stamp = stamp;
+		for (Map.Entry<String, Integer> frequency : frequencies.entrySet()) {
+			postings.computeIfAbsent(frequency.getKey(), k -> new HashMap<>()).put(document.number,
+					frequency.getValue());
+			document.length += frequency.getValue();
+		}
+		documents.put(entry.getId(), document);
+		idsByNumber = null;
+		return true;
+	}
+
+	public synchronized void remove(UUID entryId) {
+		Document document = documents.remove(entryId);
+		if (document == null) {
+			return;
+		}
+		Iterator<HashMap<Integer, Integer>> it = postings.values().iterator();
+		while (it.hasNext()) {
+			HashMap<Integer, Integer> posting = it.next();
+			if (posting.remove(document.number) != null && posting.isEmpty()) {
+				it.remove();
+			}
+		}
+		idsByNumber = null;
+	}
+
+	public synchronized int size() {
+		return documents.size();
+	}
+
+	/**
+	 * @return the entries matching all terms of the query, best match first.
+	 */
+	public synchronized List<Hit> search(String query, int limit) {
+		List<String> terms = tokenizeQuery(query);
+		if (terms.isEmpty() || documents.isEmpty()) {
+			return List.of();
+		}
+
+		double averageLength = documents.values().stream().mapToInt(d -> d.length).average().orElse(1);
+		Map<Integer, Integer> lengths = new HashMap<>();
+		documents.values().forEach(d -> lengths.put(d.number, d.length));
+
+		Map<Integer, Double> scores = null;
+		for (int i = 0; i < terms.size(); i++) {
+			String term = terms.get(i);
+			boolean prefix = i == terms.size() - 1;
+			Map<Integer, Double> termScores = new HashMap<>();
+			SortedMap<String, HashMap<Integer, Integer>> matches = prefix
+					? postings.subMap(term, term + Character.MAX_VALUE)
+					: postings.subMap(term, true, term, true);
+			for (Map.Entry<String, HashMap<Integer, Integer>> match : matches.entrySet()) {
+				double weight = match.getKey().equals(term) ? 1 : PREFIX_MATCH_WEIGHT;
+				HashMap<Integer, Integer> posting = match.getValue();
+				double idf = Math.log(1 + (documents.size() - posting.size() + 0.5) / (posting.size() + 0.5));
+				for (Map.Entry<Integer, Integer> p : posting.entrySet()) {
+					double tf = p.getValue();
+					double norm = 1 - BM25_B + BM25_B * lengths.getOrDefault(p.getKey(), 0) / averageLength;
+					double score = weight * idf * tf * (BM25_K1 + 1) / (tf + BM25_K1 * norm);
+					termScores.merge(p.getKey(), score, Double::sum);
+				}
+			}
+
+			if (scores == null) {
+				scores = termScores;
+			} else {
+				scores.keySet().retainAll(termScores.keySet());
+				for (Map.Entry<Integer, Double> score : scores.entrySet()) {
+					score.setValue(score.getValue() + termScores.get(score.getKey()));
+				}
+			}
+			if (scores.isEmpty()) {
+				return List.of();
+			}
+		}
+
+		Map<Integer, UUID> ids = getIdsByNumber();
+		return scores.entrySet().stream().sorted(Map.Entry.<Integer, Double>comparingByValue().reversed())
+				.limit(limit).map(e -> new Hit(ids.get(e.getKey()), e.getValue())).toList();
+	}
+
+	private Map<Integer, UUID> getIdsByNumber() {
+		if (idsByNumber == null) {
+			idsByNumber = new HashMap<>();
+			documents.forEach((id, document) -> idsByNumber.put(document.number, id));
+		}
+		return idsByNumber;
+	}
+
+	private static long stampOf(ChatHistoryEntry entry) {
+		return Objects.hash(entry.getUpdatedAt(), entry.getMessageCount(), entry.getTitle());
+	}
+
+	private static void addTerms(ChatMessage message, Map<String, Integer> frequencies) {
+		addTerms(message.getContent(), frequencies);
+		for (MessageContext context : message.getContext()) {
+			addTerms(context.getFileName(), frequencies);
+		}
+		if (message.getFunctionCallBatch().isPresent()) {
+			for (FunctionCallItem item : message.getFunctionCallBatch().get().getItems()) {
+				FunctionCall call = item != null ? item.getCall() : null;
+				if (call != null) {
+					addTerms(call.getFunctionName(), frequencies);
+					addTerms(call.getArgsJson(), frequencies);
+				}
+			}
+		}
+	}
+
+	private static void addTerms(String text, Map<String, Integer> frequencies) {
+		for (String term : tokenize(text, true)) {
+			frequencies.merge(term, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Query words in camel case are searched by their parts, which are indexed
+	 * for both spellings.
+	 */
+	static List<String> tokenizeQuery(String query) {
+		return new ArrayList<>(new LinkedHashSet<>(tokenize(query, false)));
+	}
+
+	/**
+	 * @param keepWholeWords if words in camel case are returned as a whole in
+	 *                       addition to their parts.
+	 */
+	static List<String> tokenize(String text, boolean keepWholeWords) {
+		List<String> res = new ArrayList<>();
+		if (StringUtils.isBlank(text)) {
+			return res;
+		}
+		Matcher matcher = WORD.matcher(text);
+		while (matcher.find()) {
+			String word = matcher.group();
+			String[] parts = CAMEL_CASE_BOUNDARY.split(word);
+			if (parts.length == 1 || keepWholeWords) {
+				addTerm(word, res);
+			}
+			if (parts.length > 1) {
+				for (String part : parts) {
+					addTerm(part, res);
+				}
+			}
+		}
+		return res;
+	}
+
+	private static void addTerm(String term, List<String> res) {
+		if (term.length() >= MIN_TERM_LENGTH && term.length() <= MAX_TERM_LENGTH) {
+			res.add(term.toLowerCase());
+		}
+	}
+}
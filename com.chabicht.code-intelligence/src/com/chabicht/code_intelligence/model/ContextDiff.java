@@ -0,0 +1,221 @@
+package com.chabicht.code_intelligence.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.github.difflib.DiffUtils;
+import com.github.difflib.UnifiedDiffUtils;
+import com.github.difflib.patch.Patch;
+
+/**
+ * The change of an attached line range since it was sent to the model. The
+ * range is located again in the current file text, so lines inserted or
+ * removed above it move it instead of showing up as changes.
+ */
+public class ContextDiff {
+	private static final int CONTEXT_LINES = 2;
+	/**
+	 * The range is searched within that many lines around its previous position,
+	 * at least as many lines as the range itself.
+	 */
+	private static final int MIN_SEARCH_LINES = 1000;
+	private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -(\\d+),(\\d+) \\+(\\d+),(\\d+) @@");
+
+	private final int startLine;
+	private final int endLine;
+	private final String content;
+	private final String diff;
+
+	private ContextDiff(int startLine, int endLine, String content, String diff) {
+		this.startLine = startLine;
+		this.endLine = endLine;
+		this.content = content;
+		this.diff = diff;
+	}
+
+	/**
+	 * @param snapshot    the text of the range as the model knows it.
+	 * @param startLine   the 1-based first line of the range as the model knows
+	 *                    it.
+	 * @param currentText the current text of the whole file.
+	 * @return the change, null if the range is unchanged at the same position.
+	 */
+	public static ContextDiff compute(String snapshot, int startLine, String currentText) {
+		List<String> oldLines = lines(snapshot);
+		List<String> fileLines = lines(currentText);
+		int oldStart = Math.min(Math.max(0, startLine - 1), fileLines.size());
+		if (oldStart + oldLines.size() <= fileLines.size()
+				&& fileLines.subList(oldStart, oldStart + oldLines.size()).equals(oldLines)) {
+			return null;
+		}
+
+		int slack = Math.max(oldLines.size(), MIN_SEARCH_LINES);
+		int windowStart = Math.max(0, oldStart - slack);
+		int windowEnd = Math.min(fileLines.size(), oldStart + oldLines.size() + slack);
+		List<String> window = fileLines.subList(windowStart, windowEnd);
+
+		int[] range = locate(oldLines, window, oldStart - windowStart);
+		int newStart = windowStart + range[0];
+		int newEnd = windowStart + range[1];
+
+		List<String> newLines = fileLines.subList(newStart, newEnd);
+		String content = String.join("\n", newLines);
+		String diff = "";
+		if (!newLines.equals(oldLines)) {
+			diff = unifiedDiff(oldLines, oldStart, newLines, newStart);
+			if (diff.length() >= content.length()) {
+				// Sending the range again is shorter.
+				diff = null;
+			}
+		}
+		return new ContextDiff(newStart + 1, newStart + newLines.size(), content, diff);
+	}
+
+	/**
+	 * Locates the lines in the window: where they occur unchanged, nearest to
+	 * their previous position, otherwise around the lines that occur only once in
+	 * both and are still in the same order. Lines that repeat, like blank lines,
+	 * braces or annotations, are no anchors, a diff could align them with an
+	 * earlier copy.
+	 *
+	 * @param previousStart the previous position of the lines in the window.
+	 * @return the start and the exclusive end of the lines in the window.
+	 */
+	private static int[] locate(List<String> lines, List<String> window, int previousStart) {
+		int bestStart = -1;
+		for (int start = 0; start + lines.size() <= window.size(); start++) {
+			if ((bestStart < 0 || Math.abs(start - previousStart) < Math.abs(bestStart - previousStart))
+					&& window.subList(start, start + lines.size()).equals(lines)) {
+				bestStart = start;
+			}
+		}
+		if (bestStart >= 0) {
+			return new int[] { bestStart, bestStart + lines.size() };
+		}
+
+		List<int[]> anchors = anchors(lines, window);
+		if (anchors.isEmpty()) {
+			// Nothing of the lines is left, keep their position.
+			int start = Math.min(previousStart, window.size());
+			return new int[] { start, Math.min(window.size(), start + lines.size()) };
+		}
+		// Lines before the first and after the last anchor are assumed to be next to
+		// them, changed or not.
+		int[] first = anchors.get(0);
+		int[] last = anchors.get(anchors.size() - 1);
+		int start = Math.max(0, first[1] - first[0]);
+		int end = Math.min(window.size(), last[1] + lines.size() - last[0]);
+		return new int[] { start, Math.max(start, end) };
+	}
+
+	/**
+	 * @return the lines that occur once in both lists as pairs of their indexes,
+	 *         the longest sequence that has the same order in both.
+	 */
+	private static List<int[]> anchors(List<String> lines, List<String> window) {
+		Map<String, Integer> lineCounts = new HashMap<>();
+		lines.forEach(line -> lineCounts.merge(line, 1, Integer::sum));
+		Map<String, Integer> windowIndexes = new HashMap<>();
+		for (int i = 0; i < window.size(); i++) {
+			if (lineCounts.containsKey(window.get(i))) {
+				// -1 marks lines that occur more than once.
+				windowIndexes.merge(window.get(i), i, (a, b) -> -1);
+			}
+		}
+
+		List<int[]> candidates = new ArrayList<>();
+		for (int i = 0; i < lines.size(); i++) {
+			Integer windowIndex = windowIndexes.get(lines.get(i));
+			if (lineCounts.get(lines.get(i)) == 1 && windowIndex != null && windowIndex >= 0) {
+				candidates.add(new int[] { i, windowIndex });
+			}
+		}
+
+		// Longest increasing subsequence of the window indexes (patience sorting).
+		int[] tails = new int[candidates.size()];
+		int[] previous = new int[candidates.size()];
+		int length = 0;
+		for (int i = 0; i < candidates.size(); i++) {
+			int low = 0;
+			int high = length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (candidates.get(tails[mid])[1] < candidates.get(i)[1]) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			previous[i] = low > 0 ? tails[low - 1] : -1;
+			tails[low] = i;
+			length = Math.max(length, low + 1);
+		}
+
+		LinkedList<int[]> res = new LinkedList<>();
+		for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+			res.addFirst(candidates.get(i));
+		}
+		return res;
+	}
+
+	private static String unifiedDiff(List<String> oldLines, int oldStart, List<String> newLines, int newStart) {
+		Patch<String> patch = DiffUtils.diff(oldLines, newLines);
+		List<String> unified = UnifiedDiffUtils.generateUnifiedDiff("a", "b", oldLines, patch, CONTEXT_LINES);
+		List<String> res = new ArrayList<>(unified.size());
+		// The first two lines are the file headers.
+		for (String line : unified.subList(Math.min(2, unified.size()), unified.size())) {
+			Matcher m = HUNK_HEADER.matcher(line);
+			if (m.find()) {
+				line = String.format("@@ -%d,%s +%d,%s @@", Integer.parseInt(m.group(1)) + oldStart, m.group(2),
+						Integer.parseInt(m.group(3)) + newStart, m.group(4));
+			}
+			res.add(line);
+		}
+		return String.join("\n", res);
+	}
+
+	private static List<String> lines(String text) {
+		if (text == null || text.isEmpty()) {
+			return List.of();
+		}
+		List<String> res = Arrays.asList(text.split("\\R", -1));
+		// A trailing line break doesn't start another line.
+		return res.get(res.size() - 1).isEmpty() ? res.subList(0, res.size() - 1) : res;
+	}
+
+	/**
+	 * @return the 1-based first line of the range in the current text.
+	 */
+	public int getStartLine() {
+		return startLine;
+	}
+
+	/**
+	 * @return the 1-based last line of the range in the current text, inclusive.
+	 */
+	public int getEndLine() {
+		return endLine;
+	}
+
+	/**
+	 * @return the current text of the range.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	/**
+	 * @return the unified diff from the previous to the current text of the range
+	 *         with file line numbers, empty if the range only moved, null if the
+	 *         diff wouldn't be shorter than the current text.
+	 */
+	public String getDiff() {
+		return diff;
+	}
+}
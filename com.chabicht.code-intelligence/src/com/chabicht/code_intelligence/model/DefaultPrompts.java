@@ -85,12 +85,28 @@ public interface DefaultPrompts {
 
 			{{/recentEdits}}
 
+			{{#fileStructure}}
+			## Here is an outline of the file (imports, declarations and the current method):
+			```
+			{{.}}
+			```
+
+			{{/fileStructure}}
+			{{#referencedTypes}}
+			## Here are the declarations of types from other files used in the code:
+			```
+			{{.}}
+			```
+
+			{{/referencedTypes}}
 			## Important details:
 			- This is Java 17 code.
 			- Do not repeat the context in your answer.
 			- Focus on relevant variables and methods from the context provided.
 			- If the context before the current line ends with a comment, implement what the comment intends to do.
 			- Use the provided last edits by the user to guess what might be an appropriate completion here.
+			- Use the outline of the file to find the fields, methods and types available at the cursor.
+			- Only call methods of other types that are declared in the provided declarations or that you know for sure.
 			- Output only the completion snippet (no extra explanations, no markdown, not the whole program again).
 			- If the code can be completed logically in 1-5 lines, do so; otherwise, finalize the snippet where it makes sense.
 			- It is important to create short completions.
@@ -0,0 +1,52 @@
+package com.chabicht.code_intelligence.semanticsearch;
+
+/**
+ * A range of lines of a file that is embedded as one vector, e.g. a method or
+ * a window of a file without a known structure.
+ */
+public class CodeChunk {
+	private final String path;
+	private final int startLine;
+	private final int endLine;
+	private final String label;
+	/** Only known while the chunk is embedded, the index doesn't store it. */
+	private final transient String text;
+
+	/**
+	 * @param startLine 1-based, inclusive.
+	 * @param endLine   1-based, inclusive.
+	 * @param label     e.g. the name of the member, may be empty.
+	 */
+	public CodeChunk(String path, int startLine, int endLine, String label, String text) {
+		this.path = path;
+		this.startLine = startLine;
+		this.endLine = endLine;
+		this.label = label;
+		this.text = text;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public int getStartLine() {
+		return startLine;
+	}
+
+	public int getEndLine() {
+		return endLine;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	@Override
+	public String toString() {
+		return "CodeChunk [" + path + ":" + startLine + "-" + endLine + (label.isEmpty() ? "" : " " + label) + "]";
+	}
+}
@@ -0,0 +1,155 @@
+package com.chabicht.code_intelligence.semanticsearch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits a file into chunks for embedding. Chunks follow the members of the
+ * file where they are known (e.g. from JDT), the remaining lines and files
+ * without known structure are split into overlapping windows of lines.
+ */
+public class CodeChunker {
+	/** Longer members are split into several chunks. */
+	public static final int MAX_CHUNK_LINES = 60;
+	/** Smaller neighbors are merged into one chunk. */
+	private static final int MIN_CHUNK_LINES = 10;
+	private static final int OVERLAP_LINES = 10;
+	/** Keeps the text within the context length of common embedding models. */
+	private static final int MAX_CHUNK_CHARS = 4000;
+
+	/**
+	 * A member of the file, e.g. a method.
+	 */
+	public static class Member {
+		private final String label;
+		private final int startLine;
+		private final int endLine;
+
+		/**
+		 * @param startLine 1-based, inclusive.
+		 * @param endLine   1-based, inclusive.
+		 */
+		public Member(String label, int startLine, int endLine) {
+			this.label = label;
+			this.startLine = startLine;
+			this.endLine = endLine;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public int getStartLine() {
+			return startLine;
+		}
+
+		public int getEndLine() {
+			return endLine;
+		}
+	}
+
+	/**
+	 * @param path    the path of the file, part of the embedded text.
+	 * @param content the content of the file.
+	 * @param members the members of the file, may be empty.
+	 */
+	public List<CodeChunk> chunk(String path, String content, List<Member> members) {
+		String[] lines = content.split("\r?\n", -1);
+		List<Member> segments = segment(lines, members);
+
+		List<CodeChunk> res = new ArrayList<>();
+		Member pending = null;
+		for (Member segment : segments) {
+			if (pending != null && lineCount(pending) < MIN_CHUNK_LINES
+					&& segment.endLine - pending.startLine + 1 <= MAX_CHUNK_LINES) {
+				pending = new Member(joinLabels(pending.label, segment.label), pending.startLine, segment.endLine);
+				continue;
+			}
+			if (pending != null) {
+				addChunks(res, path, lines, pending);
+			}
+			pending = segment;
+		}
+		if (pending != null) {
+			addChunks(res, path, lines, pending);
+		}
+		return res;
+	}
+
+	/**
+	 * @return the members and the non-blank gaps between them, in the order of
+	 *         the file.
+	 */
+	private List<Member> segment(String[] lines, List<Member> members) {
+		List<Member> sorted = new ArrayList<>(members);
+		sorted.sort(Comparator.comparingInt(Member::getStartLine));
+
+		List<Member> res = new ArrayList<>();
+		int next = 1;
+		for (Member member : sorted) {
+			if (member.startLine < next || member.startLine > lines.length) {
+				// Nested or overlapping members are covered by the previous one.
+				continue;
+			}
+			addGap(res, lines, next, member.startLine - 1);
+			int end = Math.min(member.endLine, lines.length);
+			res.add(new Member(member.label, member.startLine, end));
+			next = end + 1;
+		}
+		addGap(res, lines, next, lines.length);
+		return res;
+	}
+
+	private void addGap(List<Member> res, String[] lines, int startLine, int endLine) {
+		while (startLine <= endLine && lines[startLine - 1].isBlank()) {
+			startLine++;
+		}
+		while (endLine >= startLine && lines[endLine - 1].isBlank()) {
+			endLine--;
+		}
+		if (startLine <= endLine) {
+			res.add(new Member("", startLine, endLine));
+		}
+	}
+
+	private void addChunks(List<CodeChunk> res, String path, String[] lines, Member segment) {
+		int start = segment.startLine;
+		while (true) {
+			int end = Math.min(segment.endLine, start + MAX_CHUNK_LINES - 1);
+			res.add(new CodeChunk(path, start, end, segment.label, text(path, lines, segment.label, start, end)));
+			if (end >= segment.endLine) {
+				break;
+			}
+			start = end + 1 - OVERLAP_LINES;
+		}
+	}
+
+	private String text(String path, String[] lines, String label, int startLine, int endLine) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(path).append('\n');
+		if (!label.isEmpty()) {
+			sb.append(label).append('\n');
+		}
+		for (int i = startLine; i <= endLine && sb.length() < MAX_CHUNK_CHARS; i++) {
+			sb.append(lines[i - 1].strip()).append('\n');
+		}
+		if (sb.length() > MAX_CHUNK_CHARS) {
+			sb.setLength(MAX_CHUNK_CHARS);
+		}
+		return sb.toString();
+	}
+
+	private static int lineCount(Member member) {
+		return member.endLine - member.startLine + 1;
+	}
+
+	private static String joinLabels(String a, String b) {
+		if (a.isEmpty()) {
+			return b;
+		} else if (b.isEmpty()) {
+			return a;
+		}
+		return a + ", " + b;
+	}
+}
@@ -0,0 +1,423 @@
+package com.chabicht.code_intelligence.semanticsearch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IMember;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.ISourceRange;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.SourceRange;
+import org.eclipse.jface.util.IPropertyChangeListener;
+
+import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.apiclient.AiModelConnection;
+import com.chabicht.code_intelligence.apiclient.ConnectionFactory;
+import com.chabicht.code_intelligence.apiclient.RequestGovernor;
+import com.chabicht.code_intelligence.apiclient.RequestGovernor.Priority;
+import com.chabicht.code_intelligence.semanticsearch.CodeChunker.Member;
+import com.chabicht.code_intelligence.semanticsearch.VectorIndex.Hit;
+import com.chabicht.code_intelligence.util.CodeUtil;
+import com.chabicht.code_intelligence.util.ModelUtil;
+import com.chabicht.codeintelligence.preferences.PreferenceConstants;
+
+/**
+ * Keeps the {@link VectorIndex} of the workspace up to date and answers
+ * semantic queries against it.
+ * <p>
+ * On start a background job embeds all files whose modification stamp differs
+ * from the one in the index, afterwards resource changes update single files.
+ * The index is stored in the state location of the plug-in, i.e. per
+ * workspace. Nothing is indexed unless an embedding model is configured
+ * ({@link PreferenceConstants#SEMANTIC_SEARCH_EMBEDDING_MODEL}).
+ */
+public class SemanticSearchIndex implements IResourceChangeListener {
+	private static final String INDEX_FILE = "semantic-search-index.bin";
+	private static final Set<String> EXTENSIONS = Set.of("java", "kt", "scala", "groovy", "js", "jsx", "ts", "tsx",
+			"py", "rb", "go", "rs", "c", "h", "cpp", "hpp", "cs", "php", "swift", "sql", "xml", "html", "css", "json",
+			"yaml", "yml", "properties", "md", "gradle", "sh");
+	private static final long MAX_FILE_SIZE = 256 * 1024;
+	private static final int EMBEDDING_BATCH_SIZE = 32;
+	/** Collects the changes of a save or refactoring into one update. */
+	private static final long UPDATE_DELAY_MILLIS = 2000;
+	/** Saves the index from time to time while it is built the first time. */
+	private static final int SAVE_AFTER_FILES = 200;
+
+	private static SemanticSearchIndex INSTANCE = null;
+
+	private final CodeChunker chunker = new CodeChunker();
+	private final Set<IFile> pendingFiles = ConcurrentHashMap.newKeySet();
+	private final Job updateJob;
+	private final IPropertyChangeListener preferenceListener = e -> {
+		if (PreferenceConstants.SEMANTIC_SEARCH_EMBEDDING_MODEL.equals(e.getProperty())) {
+			reload();
+		}
+	};
+	private volatile boolean fullScanPending;
+	private boolean started;
+	private VectorIndex index;
+
+	public static synchronized SemanticSearchIndex getInstance() {
+		if (INSTANCE == null) {
+			INSTANCE = new SemanticSearchIndex();
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * Stops the index if it was started.
+	 */
+	public static synchronized void shutdown() {
+		if (INSTANCE != null) {
+			INSTANCE.stop();
+		}
+	}
+
+	private SemanticSearchIndex() {
+		updateJob = new Job("Updating semantic search index") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				return update(monitor);
+			}
+		};
+		updateJob.setPriority(Job.DECORATE);
+	}
+
+	/**
+	 * Loads the index and starts to keep it up to date.
+	 */
+	public synchronized void start() {
+		if (started) {
+			return;
+		}
+		started = true;
+		Activator.getDefault().getPreferenceStore().addPropertyChangeListener(preferenceListener);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+		reload();
+	}
+
+	public synchronized void stop() {
+		if (!started) {
+			return;
+		}
+		started = false;
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+		Activator activator = Activator.getDefault();
+		if (activator != null) {
+			activator.getPreferenceStore().removePropertyChangeListener(preferenceListener);
+		}
+		updateJob.cancel();
+	}
+
+	/**
+	 * @return true if an embedding model is configured.
+	 */
+	public boolean isEnabled() {
+		return StringUtils.isNotBlank(getConfiguredModel());
+	}
+
+	/**
+	 * @return true while files are (re-)indexed, results may be incomplete.
+	 */
+	public boolean isUpdating() {
+		return updateJob.getState() != Job.NONE || !pendingFiles.isEmpty();
+	}
+
+	/**
+	 * @param query      the query in natural language or code.
+	 * @param maxResults the maximum number of chunks.
+	 * @param pathFilter only chunks of files whose workspace path is accepted are
+	 *                   returned.
+	 * @return the most similar chunks, the most similar first.
+	 * @throws IllegalStateException if no embedding model is configured.
+	 */
+	public List<Hit> search(String query, int maxResults, Predicate<String> pathFilter) {
+		VectorIndex current = getIndex();
+		if (current == null) {
+			throw new IllegalStateException(
+					"Semantic search is not configured. Set an embedding model in the preferences.");
+		}
+		AiModelConnection connection = ConnectionFactory.forEmbeddings(current.getModelId());
+		float[] embedding = connection.embed(List.of(query)).get(0);
+		return current.search(embedding, maxResults, pathFilter);
+	}
+
+	@Override
+	public void resourceChanged(IResourceChangeEvent event) {
+		if (getIndex() == null || event.getDelta() == null) {
+			return;
+		}
+
+		try {
+			event.getDelta().accept(delta -> {
+				IResource resource = delta.getResource();
+				if (resource.getType() == IResource.PROJECT && (delta.getFlags() & IResourceDelta.OPEN) != 0) {
+					// Opened or closed projects don't report their files.
+					fullScanPending = true;
+					return false;
+				}
+				if (resource.getType() != IResource.FILE) {
+					return true;
+				}
+				boolean contentChanged = delta.getKind() != IResourceDelta.CHANGED
+						|| (delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) != 0;
+				if (contentChanged && EXTENSIONS.contains(resource.getFileExtension())) {
+					pendingFiles.add((IFile) resource);
+				}
+				return false;
+			});
+		} catch (CoreException e) {
+			Activator.logError("Could not process resource changes for the semantic search index", e);
+		}
+
+		if (fullScanPending || !pendingFiles.isEmpty()) {
+			updateJob.schedule(UPDATE_DELAY_MILLIS);
+		}
+	}
+
+	private void reload() {
+		String modelId = getConfiguredModel();
+		VectorIndex loaded = StringUtils.isBlank(modelId) ? null : load(modelId);
+		synchronized (this) {
+			index = loaded;
+		}
+		updateJob.cancel();
+		pendingFiles.clear();
+		if (loaded != null) {
+			fullScanPending = true;
+			updateJob.schedule();
+		}
+	}
+
+	private IStatus update(IProgressMonitor monitor) {
+		VectorIndex current = getIndex();
+		if (current == null) {
+			return Status.OK_STATUS;
+		}
+
+		List<IFile> files = new ArrayList<>(pendingFiles);
+		pendingFiles.removeAll(files);
+		// Removed files count as changes, too, so the index is saved without them.
+		int updated = 0;
+		if (fullScanPending) {
+			fullScanPending = false;
+			files = new ArrayList<>();
+			try {
+				collectFiles(files);
+			} catch (CoreException e) {
+				Activator.logError("Could not list the files for the semantic search index", e);
+				return Status.OK_STATUS;
+			}
+			Set<String> removed = current.getPaths();
+			files.forEach(f -> removed.remove(f.getFullPath().toString()));
+			for (String path : removed) {
+				if (current.remove(path)) {
+					updated++;
+				}
+			}
+		}
+
+		AiModelConnection connection;
+		try {
+			connection = ConnectionFactory.forEmbeddings(current.getModelId());
+		} catch (IllegalStateException e) {
+			Activator.logWarn("Semantic search index is not updated: " + e.getMessage());
+			save(current, updated);
+			return Status.OK_STATUS;
+		}
+
+		SubMonitor subMonitor = SubMonitor.convert(monitor, files.size());
+		for (int i = 0; i < files.size(); i++) {
+			IFile file = files.get(i);
+			if (subMonitor.isCanceled() || current != getIndex()) {
+				pendingFiles.addAll(files.subList(i, files.size()));
+				save(current, updated);
+				return Status.CANCEL_STATUS;
+			}
+			subMonitor.subTask(file.getFullPath().toString());
+			try {
+				if (updateFile(current, connection, file)) {
+					updated++;
+					if (updated % SAVE_AFTER_FILES == 0) {
+						save(current, updated);
+					}
+				}
+			} catch (CoreException | IOException e) {
+				Activator.logWarn("Could not index " + file.getFullPath() + ": " + e.getMessage());
+			} catch (RuntimeException e) {
+				// Most likely the embedding endpoint is unavailable, retry on the next change.
+				Activator.logError("Could not update the semantic search index", e);
+				pendingFiles.addAll(files.subList(i, files.size()));
+				save(current, updated);
+				return Status.OK_STATUS;
+			}
+			subMonitor.worked(1);
+		}
+		save(current, updated);
+		return Status.OK_STATUS;
+	}
+
+	private void collectFiles(List<IFile> res) throws CoreException {
+		ResourcesPlugin.getWorkspace().getRoot().accept(resource -> {
+			if (resource.isDerived() || resource.isHidden() || resource.isTeamPrivateMember()
+					|| "node_modules".equals(resource.getName())) {
+				return false;
+			}
+			if (resource instanceof IFile file) {
+				if (isIndexable(file)) {
+					res.add(file);
+				}
+				return false;
+			}
+			return true;
+		});
+	}
+
+	/**
+	 * @return true if the index was changed.
+	 */
+	private boolean updateFile(VectorIndex current, AiModelConnection connection, IFile file)
+			throws CoreException, IOException {
+		String path = file.getFullPath().toString();
+		if (!isIndexable(file)) {
+			return current.remove(path);
+		}
+		long modificationStamp = file.getModificationStamp();
+		if (current.getModificationStamp(path) == modificationStamp) {
+			return false;
+		}
+
+		String content;
+		try (InputStream in = file.getContents(true)) {
+			content = new String(in.readAllBytes(), file.getCharset());
+		}
+		List<CodeChunk> chunks = chunker.chunk(path, content, getMembers(file, content));
+		List<float[]> vectors = new ArrayList<>(chunks.size());
+		for (int i = 0; i < chunks.size(); i += EMBEDDING_BATCH_SIZE) {
+			List<String> texts = chunks.subList(i, Math.min(chunks.size(), i + EMBEDDING_BATCH_SIZE)).stream()
+					.map(CodeChunk::getText).toList();
+			vectors.addAll(RequestGovernor.withPriority(Priority.BACKGROUND, () -> connection.embed(texts)));
+		}
+		current.put(path, modificationStamp, chunks, vectors);
+		return true;
+	}
+
+	private boolean isIndexable(IFile file) {
+		if (!file.exists() || !EXTENSIONS.contains(file.getFileExtension()) || file.isDerived(IResource.CHECK_ANCESTORS)
+				|| file.isHidden(IResource.CHECK_ANCESTORS) || file.isTeamPrivateMember(IResource.CHECK_ANCESTORS)) {
+			return false;
+		}
+		IPath location = file.getLocation();
+		return location == null || location.toFile().length() <= MAX_FILE_SIZE;
+	}
+
+	/**
+	 * @return the methods and fields of the types in a Java file, an empty list
+	 *         for other files.
+	 */
+	private List<Member> getMembers(IFile file, String content) {
+		List<Member> res = new ArrayList<>();
+		if (!"java".equals(file.getFileExtension())) {
+			return res;
+		}
+		ICompilationUnit cu = JavaCore.createCompilationUnitFrom(file);
+		if (cu == null || !cu.exists()) {
+			return res;
+		}
+
+		int[] lineOffsets = CodeUtil.lineOffsets(content);
+		try {
+			for (IType type : cu.getAllTypes()) {
+				for (IJavaElement child : type.getChildren()) {
+					if (!(child instanceof IMember member) || child instanceof IType) {
+						continue;
+					}
+					ISourceRange range = member.getSourceRange();
+					if (!SourceRange.isAvailable(range)) {
+						continue;
+					}
+					String label = type.getElementName() + "." + member.getElementName()
+							+ (member instanceof IMethod ? "()" : "");
+					res.add(new Member(label, CodeUtil.lineOf(lineOffsets, range.getOffset()),
+							CodeUtil.lineOf(lineOffsets, range.getOffset() + Math.max(0, range.getLength() - 1))));
+				}
+			}
+		} catch (JavaModelException e) {
+			// Chunk the file by lines.
+			res.clear();
+		}
+		return res;
+	}
+
+	private VectorIndex load(String modelId) {
+		Path file = getIndexFile();
+		if (Files.exists(file)) {
+			try (InputStream in = Files.newInputStream(file)) {
+				return VectorIndex.read(in, modelId);
+			} catch (IOException e) {
+				Activator.logWarn("Semantic search index is rebuilt, it could not be read: " + e.getMessage());
+			}
+		}
+		return new VectorIndex(modelId);
+	}
+
+	/**
+	 * Saves the index if it was changed, i.e. files were updated or removed.
+	 */
+	private void save(VectorIndex current, int changes) {
+		if (changes == 0 || current != getIndex()) {
+			return;
+		}
+
+		Path file = getIndexFile();
+		Path temp = file.resolveSibling(INDEX_FILE + ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				current.write(out);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Activator.logError("Could not save the semantic search index", e);
+		}
+	}
+
+	private synchronized VectorIndex getIndex() {
+		return index;
+	}
+
+	private static String getConfiguredModel() {
+		return ModelUtil.normalizeConfiguredModel(Activator.getDefault().getPreferenceStore()
+				.getString(PreferenceConstants.SEMANTIC_SEARCH_EMBEDDING_MODEL));
+	}
+
+	private static Path getIndexFile() {
+		return Activator.getDefault().getStateLocation().append(INDEX_FILE).toFile().toPath();
+	}
+}
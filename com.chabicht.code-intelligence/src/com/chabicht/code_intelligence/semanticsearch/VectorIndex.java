@@ -0,0 +1,270 @@
+package com.chabicht.code_intelligence.semanticsearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Embedding vectors of the code chunks of a workspace.
+ * <p>
+ * Vectors are normalized when added, so the dot product is the cosine
+ * similarity. Queries compare against all vectors: for the chunks of a
+ * workspace this takes a few milliseconds, far less than embedding the query,
+ * and is exact and trivial to update file by file, unlike an approximate
+ * index (HNSW, IVF) that has to be rebalanced or retrained.
+ * <p>
+ * The index is written in a binary format: a magic number, the format version
+ * and the embedding model, followed by the chunks and vectors per file.
+ * Vectors of another model are not comparable, an index of another model or
+ * format version is read as an empty index.
+ */
+public class VectorIndex {
+	private static final int MAGIC = 0x43495653; // "CIVS"
+	static final int FORMAT_VERSION = 1;
+
+	private final String modelId;
+	private int dimensions = -1;
+	private final Map<String, FileEntry> files = new HashMap<>();
+
+	/**
+	 * A chunk found by a query.
+	 */
+	public static class Hit {
+		private final CodeChunk chunk;
+		private final float score;
+
+		private Hit(CodeChunk chunk, float score) {
+			this.chunk = chunk;
+			this.score = score;
+		}
+
+		public CodeChunk getChunk() {
+			return chunk;
+		}
+
+		/**
+		 * @return the cosine similarity to the query, 1 for the same direction.
+		 */
+		public float getScore() {
+			return score;
+		}
+	}
+
+	private static class FileEntry {
+		private final long modificationStamp;
+		private final List<CodeChunk> chunks;
+		private final float[][] vectors;
+
+		private FileEntry(long modificationStamp, List<CodeChunk> chunks, float[][] vectors) {
+			this.modificationStamp = modificationStamp;
+			this.chunks = chunks;
+			this.vectors = vectors;
+		}
+	}
+
+	/**
+	 * @param modelId the embedding model, vectors of different models can't be
+	 *                compared.
+	 */
+	public VectorIndex(String modelId) {
+		this.modelId = modelId;
+	}
+
+	public String getModelId() {
+		return modelId;
+	}
+
+	/**
+	 * @return the modification stamp of the file when it was indexed, -1 if it
+	 *         isn't indexed.
+	 */
+	public synchronized long getModificationStamp(String path) {
+		FileEntry entry = files.get(path);
+		return entry == null ? -1 : entry.modificationStamp;
+	}
+
+	public synchronized Set<String> getPaths() {
+		return new HashSet<>(files.keySet());
+	}
+
+	/**
+	 * @return the number of indexed chunks.
+	 */
+	public synchronized int size() {
+		int res = 0;
+		for (FileEntry entry : files.values()) {
+			res += entry.chunks.size();
+		}
+		return res;
+	}
+
+	/**
+	 * Replaces the chunks of a file.
+	 *
+	 * @param vectors the embeddings of the chunks, in the same order.
+	 */
+	public synchronized void put(String path, long modificationStamp, List<CodeChunk> chunks, List<float[]> vectors) {
+		if (chunks.size() != vectors.size()) {
+			throw new IllegalArgumentException(chunks.size() + " chunks but " + vectors.size() + " vectors");
+		}
+
+		List<CodeChunk> stored = new ArrayList<>(chunks.size());
+		float[][] normalized = new float[vectors.size()][];
+		for (int i = 0; i < normalized.length; i++) {
+			float[] vector = vectors.get(i);
+			if (dimensions < 0) {
+				dimensions = vector.length;
+			} else if (vector.length != dimensions) {
+				throw new IllegalArgumentException(
+						"Vector of " + vector.length + " dimensions, the index has " + dimensions);
+			}
+			normalized[i] = normalize(vector);
+			CodeChunk chunk = chunks.get(i);
+			stored.add(new CodeChunk(path, chunk.getStartLine(), chunk.getEndLine(), chunk.getLabel(), null));
+		}
+		files.put(path, new FileEntry(modificationStamp, stored, normalized));
+	}
+
+	/**
+	 * @return true if the file was indexed.
+	 */
+	public synchronized boolean remove(String path) {
+		return files.remove(path) != null;
+	}
+
+	/**
+	 * @param query      the embedding of the query.
+	 * @param maxResults the maximum number of hits.
+	 * @param pathFilter only chunks of files accepted by the filter are returned.
+	 * @return the chunks most similar to the query, the most similar first.
+	 */
+	public synchronized List<Hit> search(float[] query, int maxResults, Predicate<String> pathFilter) {
+		if (dimensions >= 0 && query.length != dimensions) {
+			throw new IllegalArgumentException("Query of " + query.length + " dimensions, the index has " + dimensions);
+		}
+
+		float[] q = normalize(query);
+		PriorityQueue<Hit> best = new PriorityQueue<>(Comparator.comparingDouble(Hit::getScore));
+		for (Map.Entry<String, FileEntry> file : files.entrySet()) {
+			if (!pathFilter.test(file.getKey())) {
+				continue;
+			}
+			FileEntry entry = file.getValue();
+			for (int i = 0; i < entry.vectors.length; i++) {
+				float score = dot(q, entry.vectors[i]);
+				if (best.size() < maxResults) {
+					best.add(new Hit(entry.chunks.get(i), score));
+				} else if (maxResults > 0 && score > best.peek().score) {
+					best.poll();
+					best.add(new Hit(entry.chunks.get(i), score));
+				}
+			}
+		}
+
+		List<Hit> res = new ArrayList<>(best);
+		res.sort(Comparator.comparingDouble(Hit::getScore).reversed());
+		return res;
+	}
+
+	public synchronized void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		data.writeInt(MAGIC);
+		data.writeInt(FORMAT_VERSION);
+		data.writeUTF(modelId);
+		data.writeInt(dimensions);
+		data.writeInt(files.size());
+		for (Map.Entry<String, FileEntry> file : files.entrySet()) {
+			FileEntry entry = file.getValue();
+			data.writeUTF(file.getKey());
+			data.writeLong(entry.modificationStamp);
+			data.writeInt(entry.chunks.size());
+			for (int i = 0; i < entry.chunks.size(); i++) {
+				CodeChunk chunk = entry.chunks.get(i);
+				data.writeInt(chunk.getStartLine());
+				data.writeInt(chunk.getEndLine());
+				data.writeUTF(chunk.getLabel());
+				for (float f : entry.vectors[i]) {
+					data.writeFloat(f);
+				}
+			}
+		}
+		data.flush();
+	}
+
+	/**
+	 * Reads an index written by {@link #write(OutputStream)}.
+	 *
+	 * @param modelId the current embedding model.
+	 * @return the index, or an empty one if it was written for another model or
+	 *         in another format version.
+	 * @throws IOException if the input is not an index or truncated.
+	 */
+	public static VectorIndex read(InputStream in, String modelId) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a semantic search index");
+		}
+		VectorIndex index = new VectorIndex(modelId);
+		if (data.readInt() != FORMAT_VERSION || !modelId.equals(data.readUTF())) {
+			return index;
+		}
+
+		index.dimensions = data.readInt();
+		int fileCount = data.readInt();
+		for (int f = 0; f < fileCount; f++) {
+			String path = data.readUTF();
+			long modificationStamp = data.readLong();
+			int chunkCount = data.readInt();
+			List<CodeChunk> chunks = new ArrayList<>(chunkCount);
+			float[][] vectors = new float[chunkCount][];
+			for (int i = 0; i < chunkCount; i++) {
+				int startLine = data.readInt();
+				int endLine = data.readInt();
+				String label = data.readUTF();
+				chunks.add(new CodeChunk(path, startLine, endLine, label, null));
+				vectors[i] = new float[index.dimensions];
+				for (int d = 0; d < index.dimensions; d++) {
+					vectors[i][d] = data.readFloat();
+				}
+			}
+			index.files.put(path, new FileEntry(modificationStamp, chunks, vectors));
+		}
+		return index;
+	}
+
+	private static float[] normalize(float[] vector) {
+		double norm = 0;
+		for (float f : vector) {
+			norm += f * f;
+		}
+		norm = Math.sqrt(norm);
+		float[] res = new float[vector.length];
+		if (norm > 0) {
+			for (int i = 0; i < res.length; i++) {
+				res[i] = (float) (vector[i] / norm);
+			}
+		}
+		return res;
+	}
+
+	private static float dot(float[] a, float[] b) {
+		float res = 0;
+		for (int i = 0; i < a.length; i++) {
+			res += a[i] * b[i];
+		}
+		return res;
+	}
+}
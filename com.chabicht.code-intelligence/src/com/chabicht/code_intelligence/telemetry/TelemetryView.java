@@ -0,0 +1,222 @@
+package com.chabicht.code_intelligence.telemetry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.function.Function;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.resource.JFaceResources;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ColumnLabelProvider;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.TableViewerColumn;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.SashForm;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.Text;
+import org.eclipse.ui.part.ViewPart;
+
+import com.chabicht.code_intelligence.Activator;
+import com.chabicht.code_intelligence.apiclient.ApiCallStats;
+import com.chabicht.code_intelligence.apiclient.ApiCallTelemetry;
+import com.chabicht.code_intelligence.apiclient.LatencyHistogram;
+
+/**
+ * Shows latency and token usage of the model calls per connection, model and
+ * prompt type, and the latency histograms of the selected row.
+ */
+public class TelemetryView extends ViewPart {
+	public static final String ID = "com.chabicht.code_intelligence.telemetry.TelemetryView";
+
+	private Display display;
+	private TableViewer tableViewer;
+	private Text histogramText;
+	private final Runnable telemetryListener = this::scheduleRefresh;
+	private boolean refreshScheduled;
+
+	@Override
+	public void createPartControl(Composite parent) {
+		display = parent.getDisplay();
+		SashForm sash = new SashForm(parent, SWT.VERTICAL);
+
+		tableViewer = new TableViewer(sash, SWT.BORDER | SWT.V_SCROLL | SWT.H_SCROLL | SWT.FULL_SELECTION);
+		Table table = tableViewer.getTable();
+		table.setHeaderVisible(true);
+		table.setLinesVisible(true);
+
+		addColumn("Connection", 120, ApiCallStats::getConnection);
+		addColumn("Model", 180, ApiCallStats::getModel);
+		addColumn("Type", 60, s -> s.getPromptType() != null ? s.getPromptType().getLabel() : "");
+		addColumn("Calls", 50, s -> String.valueOf(s.getCalls()));
+		addColumn("Errors", 50, s -> String.valueOf(s.getErrors()));
+		addColumn("Headers p50", 85, s -> formatMillis(s.getHeadersLatency().getPercentile(50)));
+		addColumn("TTFT p50", 75, s -> formatMillis(s.getFirstTokenLatency().getPercentile(50)));
+		addColumn("TTFT p90", 75, s -> formatMillis(s.getFirstTokenLatency().getPercentile(90)));
+		addColumn("Total p50", 75, s -> formatMillis(s.getTotalLatency().getPercentile(50)));
+		addColumn("Total p90", 75, s -> formatMillis(s.getTotalLatency().getPercentile(90)));
+		addColumn("Tokens/s", 65, s -> s.getMeanTokensPerSecond() < 0 ? "-"
+				: String.format(Locale.ROOT, "%.1f", s.getMeanTokensPerSecond()));
+		addColumn("Input tokens", 85, s -> String.valueOf(s.getInputTokens()));
+		addColumn("Cached tokens", 90, s -> String.valueOf(s.getCachedTokens()));
+		addColumn("Output tokens", 90, s -> String.valueOf(s.getOutputTokens()));
+
+		tableViewer.setContentProvider(ArrayContentProvider.getInstance());
+		tableViewer.addSelectionChangedListener(e -> updateHistogram());
+
+		histogramText = new Text(sash, SWT.BORDER | SWT.MULTI | SWT.READ_ONLY | SWT.V_SCROLL | SWT.H_SCROLL);
+		histogramText.setFont(JFaceResources.getTextFont());
+		sash.setWeights(new int[] { 2, 1 });
+
+		createActions();
+
+		ApiCallTelemetry.getInstance().addListener(telemetryListener);
+		refresh();
+	}
+
+	private void addColumn(String title, int width, Function<ApiCallStats, String> text) {
+		TableViewerColumn column = new TableViewerColumn(tableViewer, SWT.NONE);
+		column.getColumn().setText(title);
+		column.getColumn().setWidth(width);
+		column.setLabelProvider(new ColumnLabelProvider() {
+			@Override
+			public String getText(Object element) {
+				if (element instanceof ApiCallStats stats) {
+					return text.apply(stats);
+				}
+				return "";
+			}
+		});
+	}
+
+	private void createActions() {
+		IToolBarManager toolBar = getViewSite().getActionBars().getToolBarManager();
+		toolBar.add(new Action("Export JSON...") {
+			@Override
+			public void run() {
+				exportJson();
+			}
+		});
+		toolBar.add(new Action("Reset") {
+			@Override
+			public void run() {
+				ApiCallTelemetry.getInstance().reset();
+			}
+		});
+	}
+
+	private void exportJson() {
+		FileDialog dialog = new FileDialog(getSite().getShell(), SWT.SAVE);
+		dialog.setFilterExtensions(new String[] { "*.json" });
+		dialog.setFileName("code-intelligence-telemetry.json");
+		dialog.setOverwrite(true);
+		String file = dialog.open();
+		if (file == null) {
+			return;
+		}
+
+		try {
+			Files.writeString(Path.of(file), ApiCallTelemetry.getInstance().toJson(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			Activator.logError("Could not export telemetry to " + file, e);
+			MessageDialog.openError(getSite().getShell(), "Export failed", e.getMessage());
+		}
+	}
+
+	/**
+	 * Called in the thread of the finished call, coalesces the refreshes of
+	 * quickly finishing calls into one UI update.
+	 */
+	private synchronized void scheduleRefresh() {
+		if (refreshScheduled || display.isDisposed()) {
+			return;
+		}
+		refreshScheduled = true;
+		display.asyncExec(() -> {
+			synchronized (this) {
+				refreshScheduled = false;
+			}
+			refresh();
+		});
+	}
+
+	private void refresh() {
+		if (tableViewer.getControl().isDisposed()) {
+			return;
+		}
+		IStructuredSelection selection = tableViewer.getStructuredSelection();
+		tableViewer.setInput(ApiCallTelemetry.getInstance().getStats());
+		tableViewer.setSelection(selection);
+		updateHistogram();
+	}
+
+	private void updateHistogram() {
+		if (histogramText.isDisposed()) {
+			return;
+		}
+		if (!(tableViewer.getStructuredSelection().getFirstElement() instanceof ApiCallStats stats)) {
+			histogramText.setText("Select a row to show its latency histograms.");
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(stats.getConnection()).append(" / ").append(stats.getModel()).append(" / ")
+				.append(stats.getPromptType() != null ? stats.getPromptType().getLabel() : "").append("\n");
+		if (stats.getLastError() != null) {
+			sb.append("Last error: ").append(stats.getLastError()).append("\n");
+		}
+		appendHistogram(sb, "Time to response headers", stats.getHeadersLatency());
+		appendHistogram(sb, "Time to first token", stats.getFirstTokenLatency());
+		appendHistogram(sb, "Total latency", stats.getTotalLatency());
+		histogramText.setText(sb.toString());
+	}
+
+	private static void appendHistogram(StringBuilder sb, String title, LatencyHistogram histogram) {
+		sb.append("\n").append(title).append(" (n=").append(histogram.getCount()).append(", mean=")
+				.append(formatMillis(histogram.getMean())).append(", p99=")
+				.append(formatMillis(histogram.getPercentile(99))).append(", max=")
+				.append(formatMillis(histogram.getMax())).append(")\n");
+
+		long[] bounds = LatencyHistogram.getBounds();
+		long[] counts = histogram.getCounts();
+		long maxCount = 1;
+		for (long count : counts) {
+			maxCount = Math.max(maxCount, count);
+		}
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			String label = i < bounds.length ? "<= " + formatMillis(bounds[i])
+					: "> " + formatMillis(bounds[bounds.length - 1]);
+			sb.append(String.format(Locale.ROOT, "%10s %6d %s%n", label, counts[i],
+					"#".repeat((int) Math.max(1, counts[i] * 40 / maxCount))));
+		}
+	}
+
+	private static String formatMillis(long millis) {
+		if (millis < 0) {
+			return "-";
+		}
+		return millis < 10000 ? millis + " ms" : String.format(Locale.ROOT, "%.1f s", millis / 1000d);
+	}
+
+	@Override
+	public void setFocus() {
+		tableViewer.getControl().setFocus();
+	}
+
+	@Override
+	public void dispose() {
+		ApiCallTelemetry.getInstance().removeListener(telemetryListener);
+		super.dispose();
+	}
+}
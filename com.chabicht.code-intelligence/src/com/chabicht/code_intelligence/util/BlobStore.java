@@ -0,0 +1,195 @@
+package com.chabicht.code_intelligence.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed store of compressed texts, used to store file contents and
+ * tool results that appear many times in the chat history only once.
+ * <p>
+ * Texts are stored gzipped in a file named after their SHA-256 hash. References
+ * are counted while the history is written: {@link #resetReferenceCounts()}
+ * before, every {@link #put(String)} adds a reference and
+ * {@link #deleteUnreferenced()} afterwards removes the blobs that the history
+ * doesn't reference anymore, e.g. of deleted conversations.
+ */
+public class BlobStore {
+	/** Shorter texts are stored inline, a file would be larger than the text. */
+	public static final int MIN_BLOB_LENGTH = 1024;
+
+	private static final String SUFFIX = ".gz";
+	private static final int MAX_CACHED_BLOBS = 256;
+
+	private final Path directory;
+	private final Map<String, Integer> referenceCounts = new HashMap<>();
+	private boolean countingReferences = false;
+
+	/** Hashes of recently stored or loaded texts, saves hashing them again. */
+	private final Map<String, String> hashByContent = createLruMap();
+	/** Recently loaded texts, loaded conversations share their instances. */
+	private final Map<String, String> contentByHash = createLruMap();
+
+	public BlobStore(Path directory) {
+		this.directory = directory;
+	}
+
+	private static Map<String, String> createLruMap() {
+		return new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > MAX_CACHED_BLOBS;
+			}
+		};
+	}
+
+	/**
+	 * Stores the text if it isn't stored yet and counts a reference to it.
+	 *
+	 * @return the hash to load the text with.
+	 */
+	public synchronized String put(String text) {
+		String hash = hashByContent.get(text);
+		if (hash == null) {
+			hash = HashUtil.sha256(text);
+			hashByContent.put(text, hash);
+			contentByHash.put(hash, text);
+		}
+
+		Path file = getPath(hash);
+		if (!Files.exists(file)) {
+			try {
+				Files.createDirectories(file.getParent());
+				Path tempFile = Files.createTempFile(file.getParent(), hash, ".tmp");
+				try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile))) {
+					out.write(text.getBytes(StandardCharsets.UTF_8));
+				}
+				Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		if (countingReferences) {
+			referenceCounts.merge(hash, 1, Integer::sum);
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the text stored with the hash, or null if there is none.
+	 */
+	public synchronized String get(String hash) {
+		String res = contentByHash.get(hash);
+		if (res != null) {
+			return res;
+		}
+
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(getPath(hash)))) {
+			res = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		contentByHash.put(hash, res);
+		hashByContent.put(res, hash);
+		return res;
+	}
+
+	/**
+	 * Starts counting the references of everything that is stored from now on.
+	 */
+	public synchronized void resetReferenceCounts() {
+		referenceCounts.clear();
+		countingReferences = true;
+	}
+
+	public synchronized int getReferenceCount(String hash) {
+		return referenceCounts.getOrDefault(hash, 0);
+	}
+
+	/**
+	 * Deletes the blobs that weren't referenced since
+	 * {@link #resetReferenceCounts()} and stops counting. Does nothing if
+	 * references weren't counted.
+	 *
+	 * @return the number of deleted blobs.
+	 */
+	public synchronized int deleteUnreferenced() {
+		if (!countingReferences) {
+			return 0;
+		}
+		countingReferences = false;
+		if (!Files.isDirectory(directory)) {
+			return 0;
+		}
+
+		Set<String> referenced = new HashSet<>(referenceCounts.keySet());
+		int res = 0;
+		try (Stream<Path> files = Files.walk(directory)) {
+			List<Path> blobs = files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).toList();
+			for (Path blob : blobs) {
+				String fileName = blob.getFileName().toString();
+				String hash = fileName.substring(0, fileName.length() - SUFFIX.length());
+				if (!referenced.contains(hash)) {
+					Files.deleteIfExists(blob);
+					String content = contentByHash.remove(hash);
+					if (content != null) {
+						hashByContent.remove(content);
+					}
+					res++;
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return res;
+	}
+
+	/**
+	 * Moves the blobs to another directory, e.g. next to a history file that
+	 * couldn't be read. The next history that is written doesn't reference them,
+	 * so they would be deleted otherwise. A directory that already exists at the
+	 * target is replaced. The store is empty afterwards.
+	 */
+	public synchronized void moveTo(Path target) throws IOException {
+		hashByContent.clear();
+		contentByHash.clear();
+		referenceCounts.clear();
+		countingReferences = false;
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+
+		if (Files.exists(target)) {
+			try (Stream<Path> files = Files.walk(target)) {
+				for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+					Files.delete(file);
+				}
+			}
+		}
+		Files.move(directory, target);
+	}
+
+	private Path getPath(String hash) {
+		return directory.resolve(hash.substring(0, 2)).resolve(hash + SUFFIX);
+	}
+}
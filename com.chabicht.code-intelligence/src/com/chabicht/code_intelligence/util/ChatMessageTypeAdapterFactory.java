@@ -1,7 +1,9 @@
 package com.chabicht.code_intelligence.util;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import com.chabicht.code_intelligence.model.ChatConversation.ChatMessage;
 import com.chabicht.code_intelligence.model.ChatConversation.FunctionCall;
@@ -9,8 +11,10 @@ import com.chabicht.code_intelligence.model.ChatConversation.FunctionCallBatch;
 import com.chabicht.code_intelligence.model.ChatConversation.FunctionCallBatch.FunctionCallItem;
 import com.chabicht.code_intelligence.model.ChatConversation.FunctionResult;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
 import com.google.gson.reflect.TypeToken;
@@ -18,6 +22,25 @@ import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 
 public class ChatMessageTypeAdapterFactory implements TypeAdapterFactory {
+	/** Suffix of the properties referencing a text in the {@link BlobStore}. */
+	private static final String BLOB_SUFFIX = "Blob";
+
+	/** Shown instead of a text whose blob is missing, e.g. a deleted file. */
+	static final String MISSING_BLOB_TEXT = "[Content missing from the chat history]";
+
+	private final BlobStore blobStore;
+
+	public ChatMessageTypeAdapterFactory() {
+		this(null);
+	}
+
+	/**
+	 * @param blobStore if not null, long context contents and function results are
+	 *                  written to the store and referenced by their hash.
+	 */
+	public ChatMessageTypeAdapterFactory(BlobStore blobStore) {
+		this.blobStore = blobStore;
+	}
 
 	@Override
 	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
@@ -31,12 +54,28 @@ public class ChatMessageTypeAdapterFactory implements TypeAdapterFactory {
 		return new TypeAdapter<T>() {
 			@Override
 			public void write(JsonWriter out, T value) throws IOException {
-				delegate.write(out, value);
+				if (blobStore == null) {
+					delegate.write(out, value);
+				} else {
+					JsonElement tree = delegate.toJsonTree(value);
+					forEachBlobCandidate(tree, this::externalize);
+					elementAdapter.write(out, tree);
+				}
+			}
+
+			private void externalize(JsonObject json, String property) {
+				JsonElement value = json.get(property);
+				if (value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isString()
+						&& value.getAsString().length() >= BlobStore.MIN_BLOB_LENGTH) {
+					json.remove(property);
+					json.addProperty(property + BLOB_SUFFIX, blobStore.put(value.getAsString()));
+				}
 			}
 
 			@Override
 			public T read(JsonReader in) throws IOException {
 				JsonElement tree = elementAdapter.read(in);
+				forEachBlobCandidate(tree, ChatMessageTypeAdapterFactory.this::resolve);
 				T value = delegate.fromJsonTree(tree);
 				if (value instanceof ChatMessage message && tree != null && tree.isJsonObject()) {
 					normalizeLegacyToolFields(message, tree.getAsJsonObject(), gson);
@@ -46,6 +85,87 @@ public class ChatMessageTypeAdapterFactory implements TypeAdapterFactory {
 		};
 	}
 
+	private void resolve(JsonObject json, String property) {
+		JsonElement reference = json.remove(property + BLOB_SUFFIX);
+		if (reference == null || !reference.isJsonPrimitive()) {
+			return;
+		}
+		String content = blobStore != null ? blobStore.get(reference.getAsString()) : null;
+		if (content == null) {
+			Log.logWarn("Missing blob " + reference.getAsString() + " of " + property + " in the chat history.");
+			content = missingBlobPlaceholder(property);
+		}
+		json.add(property, new JsonPrimitive(content));
+	}
+
+	/**
+	 * @return a text telling the user and the model that the content is missing.
+	 *         Function results stay valid JSON.
+	 */
+	private static String missingBlobPlaceholder(String property) {
+		if ("resultJson".equals(property)) {
+			JsonObject error = new JsonObject();
+			error.addProperty("error", MISSING_BLOB_TEXT);
+			return error.toString();
+		}
+		return MISSING_BLOB_TEXT;
+	}
+
+	private interface BlobPropertyVisitor {
+		void visit(JsonObject json, String property);
+	}
+
+	/**
+	 * Visits the properties that may contain long texts repeated in many messages:
+	 * context contents, results of function calls and their pretty printed values.
+	 */
+	private static void forEachBlobCandidate(JsonElement message, BlobPropertyVisitor visitor) {
+		if (message == null || !message.isJsonObject()) {
+			return;
+		}
+		JsonObject json = message.getAsJsonObject();
+		for (JsonObject context : objects(json.get("context"))) {
+			visitor.visit(context, "content");
+		}
+		JsonElement batch = json.get("functionCallBatch");
+		if (batch != null && batch.isJsonObject()) {
+			for (JsonObject item : objects(batch.getAsJsonObject().get("items"))) {
+				JsonElement result = item.get("result");
+				if (result != null && result.isJsonObject()) {
+					visitResult(result.getAsJsonObject(), visitor);
+				}
+			}
+		}
+		JsonElement legacyResult = json.get("functionResult");
+		if (legacyResult != null && legacyResult.isJsonObject()) {
+			visitResult(legacyResult.getAsJsonObject(), visitor);
+		}
+	}
+
+	private static void visitResult(JsonObject result, BlobPropertyVisitor visitor) {
+		visitor.visit(result, "resultJson");
+		JsonElement prettyResults = result.get("prettyResults");
+		if (prettyResults != null && prettyResults.isJsonObject()) {
+			for (Map.Entry<String, JsonElement> entry : prettyResults.getAsJsonObject().entrySet()) {
+				if (entry.getValue().isJsonObject()) {
+					visitor.visit(entry.getValue().getAsJsonObject(), "value");
+				}
+			}
+		}
+	}
+
+	private static List<JsonObject> objects(JsonElement array) {
+		List<JsonObject> res = new ArrayList<>();
+		if (array != null && array.isJsonArray()) {
+			for (JsonElement element : (JsonArray) array) {
+				if (element.isJsonObject()) {
+					res.add(element.getAsJsonObject());
+				}
+			}
+		}
+		return res;
+	}
+
 	private void normalizeLegacyToolFields(ChatMessage message, JsonObject json, Gson gson) {
 		if (message.getFunctionCallBatch().isPresent() && hasMeaningfulBatchItems(message.getFunctionCallBatch().get())) {
 			return;
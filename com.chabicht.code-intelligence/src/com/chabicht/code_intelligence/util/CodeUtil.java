@@ -1,5 +1,9 @@
 package com.chabicht.code_intelligence.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class CodeUtil {
 	public CodeUtil() {
 		// No instances.
@@ -60,4 +64,31 @@ public class CodeUtil {
 		return result.toString();
 	}
 
+	/**
+	 * @return the offsets at which the lines of the text start, for
+	 *         {@link #lineOf(int[], int)}. A null text has one empty line.
+	 */
+	public static int[] lineOffsets(String text) {
+		if (text == null) {
+			return new int[] { 0 };
+		}
+		List<Integer> offsets = new ArrayList<>();
+		offsets.add(0);
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '\n') {
+				offsets.add(i + 1);
+			}
+		}
+		return offsets.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * @param lineOffsets the result of {@link #lineOffsets(String)}.
+	 * @return the 1-based line of the offset.
+	 */
+	public static int lineOf(int[] lineOffsets, int offset) {
+		int pos = Arrays.binarySearch(lineOffsets, offset);
+		return pos >= 0 ? pos + 1 : -pos - 1;
+	}
+
 }
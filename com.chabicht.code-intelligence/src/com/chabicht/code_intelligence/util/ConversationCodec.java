@@ -0,0 +1,107 @@
+package com.chabicht.code_intelligence.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Compact format for conversations and the chat history: a header with a magic
+ * number and the format version, followed by gzipped JSON that is streamed
+ * from and to the model without building a tree or string in between.
+ * <p>
+ * Files without the header are read as plain JSON, the format the history was
+ * stored in before, so existing files are migrated by reading and writing them
+ * again.
+ */
+public class ConversationCodec {
+	/** Increment when the schema changes in a way older versions can't read. */
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC = { 'C', 'I', 'C', 'V' };
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Gson gson;
+
+	public ConversationCodec(Gson gson) {
+		this.gson = gson;
+	}
+
+	public void write(OutputStream out, Object value, Type type) throws IOException {
+		DataOutputStream header = new DataOutputStream(out);
+		header.write(MAGIC);
+		header.writeInt(VERSION);
+		header.flush();
+
+		GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE) {
+			{
+				def.setLevel(Deflater.BEST_SPEED);
+			}
+		};
+		try (Writer writer = new OutputStreamWriter(new BufferedOutputStream(gzip, BUFFER_SIZE),
+				StandardCharsets.UTF_8); JsonWriter jsonWriter = new JsonWriter(writer)) {
+			gson.toJson(value, type, jsonWriter);
+		} catch (JsonIOException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Reads a value written with {@link #write(OutputStream, Object, Type)} or
+	 * stored as plain JSON.
+	 *
+	 * @throws IOException if the value was written by a newer version or can't be
+	 *                     parsed.
+	 */
+	public <T> T read(InputStream in, Type type) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+		buffered.mark(MAGIC.length);
+		byte[] magic = buffered.readNBytes(MAGIC.length);
+
+		Reader reader;
+		if (Arrays.equals(MAGIC, magic)) {
+			int version = new DataInputStream(buffered).readInt();
+			if (version > VERSION) {
+				throw new IOException(
+						"Unsupported format version " + version + ", the file was written by a newer version.");
+			}
+			reader = new InputStreamReader(new BufferedInputStream(new GZIPInputStream(buffered, BUFFER_SIZE)),
+					StandardCharsets.UTF_8);
+		} else {
+			buffered.reset();
+			reader = new InputStreamReader(buffered, StandardCharsets.UTF_8);
+		}
+
+		try (JsonReader jsonReader = new JsonReader(reader)) {
+			return gson.fromJson(jsonReader, type);
+		} catch (JsonIOException | JsonSyntaxException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * @return true if the data starts with the header of the compact format.
+	 */
+	public static boolean hasHeader(byte[] data) {
+		return data.length >= MAGIC.length && Arrays.equals(MAGIC, Arrays.copyOf(data, MAGIC.length));
+	}
+}
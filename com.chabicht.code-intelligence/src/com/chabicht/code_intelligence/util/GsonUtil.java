@@ -14,8 +14,16 @@ public class GsonUtil {
 	}
 
 	public static Gson createGson() {
+		return createGson(null);
+	}
+
+	/**
+	 * @param blobStore store for long texts of chat messages, see
+	 *                  {@link ChatMessageTypeAdapterFactory#ChatMessageTypeAdapterFactory(BlobStore)}.
+	 */
+	public static Gson createGson(BlobStore blobStore) {
 		return new GsonBuilder().registerTypeAdapter(Instant.class, new InstantTypeAdapter())
 				.registerTypeAdapter(Optional.class, new OptionalTypeAdapter())
-				.registerTypeAdapterFactory(new ChatMessageTypeAdapterFactory()).create();
+				.registerTypeAdapterFactory(new ChatMessageTypeAdapterFactory(blobStore)).create();
 	}
 }
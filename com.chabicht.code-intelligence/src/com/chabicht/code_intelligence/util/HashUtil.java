@@ -0,0 +1,24 @@
+package com.chabicht.code_intelligence.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public class HashUtil {
+	private HashUtil() {
+		// No instances.
+	}
+
+	/**
+	 * @return the SHA-256 hash of the UTF-8 encoded text as lower case hex string.
+	 */
+	public static String sha256(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
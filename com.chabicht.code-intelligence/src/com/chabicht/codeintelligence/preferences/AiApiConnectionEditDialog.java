@@ -44,6 +44,9 @@ public class AiApiConnectionEditDialog extends Dialog {
 	private WritableList<ApiType> apiTypes = new WritableList<>();
 
 	private Button btnLegacyFormat;
+	private Text txtRequestsPerMinute;
+	private Text txtTokensPerMinute;
+	private Button btnPlainTextToolResults;
 
 	protected AiApiConnectionEditDialog(Shell parentShell, AiApiConnection model) {
 		super(parentShell);
@@ -119,6 +122,30 @@ public class AiApiConnectionEditDialog extends Dialog {
 
 		btnLegacyFormat = new Button(composite, SWT.CHECK);
 
+		Label lblRequestsPerMinute = new Label(composite, SWT.NONE);
+		lblRequestsPerMinute.setLayoutData(new GridData(SWT.RIGHT, SWT.CENTER, false, false, 1, 1));
+		lblRequestsPerMinute.setText("Requests per minute:");
+		lblRequestsPerMinute.setToolTipText("Rate limit for requests of this connection, 0 for no limit.");
+
+		txtRequestsPerMinute = new Text(composite, SWT.BORDER);
+		txtRequestsPerMinute.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1));
+
+		Label lblTokensPerMinute = new Label(composite, SWT.NONE);
+		lblTokensPerMinute.setLayoutData(new GridData(SWT.RIGHT, SWT.CENTER, false, false, 1, 1));
+		lblTokensPerMinute.setText("Tokens per minute:");
+		lblTokensPerMinute.setToolTipText(
+				"Rate limit for the (estimated) input tokens of this connection, 0 for no limit.");
+
+		txtTokensPerMinute = new Text(composite, SWT.BORDER);
+		txtTokensPerMinute.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1));
+
+		Label lblPlainTextToolResults = new Label(composite, SWT.NONE);
+		lblPlainTextToolResults.setText("Plain text tool results:");
+		lblPlainTextToolResults.setToolTipText("Sends tool results as plain text instead of JSON, "
+				+ "which saves the tokens for escaping file content. Not applicable for Gemini.");
+
+		btnPlainTextToolResults = new Button(composite, SWT.CHECK);
+
 		cvType.setInput(apiTypes);
 
 		initDataBinding();
@@ -131,13 +158,13 @@ public class AiApiConnectionEditDialog extends Dialog {
 		model.addPropertyChangeListener("type", e -> {
 			ApiType type = (ApiType) e.getNewValue();
 
-			txtBaseUri.setEnabled(!ApiType.GEMINI.equals(type));
 			btnLegacyFormat.setEnabled(ApiType.OPENAI.equals(type));
+			btnPlainTextToolResults.setEnabled(!ApiType.GEMINI.equals(type));
 
 			presetBaseUri(type);
 		});
-		txtBaseUri.setEnabled(!ApiType.GEMINI.equals(model.getType()));
 		btnLegacyFormat.setEnabled(ApiType.OPENAI.equals(model.getType()));
+		btnPlainTextToolResults.setEnabled(!ApiType.GEMINI.equals(model.getType()));
 		if (StringUtils.isBlank(model.getBaseUri())) {
 			presetBaseUri(model.getType());
 		}
@@ -168,6 +195,12 @@ public class AiApiConnectionEditDialog extends Dialog {
 				BeanProperties.value("enabled", Boolean.class).observe(model));
 		bindingContext.bindValue(WidgetProperties.buttonSelection().observe(btnLegacyFormat),
 				BeanProperties.value("legacyFormat", Boolean.class).observe(model));
+		bindingContext.bindValue(WidgetProperties.text(SWT.Modify).observe(txtRequestsPerMinute),
+				BeanProperties.value("requestsPerMinute", Integer.class).observe(model));
+		bindingContext.bindValue(WidgetProperties.text(SWT.Modify).observe(txtTokensPerMinute),
+				BeanProperties.value("tokensPerMinute", Integer.class).observe(model));
+		bindingContext.bindValue(WidgetProperties.buttonSelection().observe(btnPlainTextToolResults),
+				BeanProperties.value("plainTextToolResults", Boolean.class).observe(model));
 	}
 
 	@Override
@@ -48,13 +48,24 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 	private Text txtCompletionMaxTokens;
 	private Text txtCompletionContextBefore;
 	private Text txtCompletionContextAfter;
+	private Text txtCompletionRecentEdits;
+	private Text txtCompletionRecentEditsTokens;
+	private Text txtCompletionFileStructureTokens;
+	private Text txtCompletionReferencedTypesTokens;
+	private Button chkCompletionPrefetch;
+	private Text txtCompletionPrefetchIdle;
+	private Text txtCompletionAdditionalModels;
+	private Text txtCompletionSamples;
+	private Text txtCompletionCandidateGrace;
 	private Text txtMaxFilesSearchText;
+	private Text txtSemanticSearchModel;
 
 	private Text txtChatModel;
 	private Text txtChatMaxTokens;
 	private Text txtChatHistorySize;
 	private Button chkChatToolsEnabled;
 	private Button chkChatToolsApplyDeferred;
+	private Text txtChatToolsMaxTurns;
 	private Button chkChatSubmitOnEnter;
 
 	private Button chkDebugLogPrompts;
@@ -103,6 +114,31 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 		txtCompletionMaxTokens = createNumberTextField(main, "Max. response tokens:");
 		txtCompletionContextBefore = createNumberTextField(main, "Context lines before cursor:");
 		txtCompletionContextAfter = createNumberTextField(main, "Context lines after cursor:");
+		txtCompletionRecentEdits = createNumberTextField(main, "Max. recent edits in prompt:");
+		txtCompletionRecentEdits.setToolTipText(
+				"The recent edits closest to the cursor and most recent are added to the completion prompt.");
+		txtCompletionRecentEditsTokens = createNumberTextField(main, "Max. tokens of recent edits:");
+		txtCompletionFileStructureTokens = createNumberTextField(main, "Max. tokens of file structure:");
+		txtCompletionFileStructureTokens.setToolTipText(
+				"Imports, fields and method signatures of the Java file added to the completion prompt (0 to disable).");
+		txtCompletionReferencedTypesTokens = createNumberTextField(main, "Max. tokens of referenced types:");
+		txtCompletionReferencedTypesTokens.setToolTipText(
+				"Signatures of the types from other files used at the cursor added to the completion prompt (0 to disable).");
+		chkCompletionPrefetch = createBooleanField(main, "Prefetch completions when typing pauses",
+				"""
+						If enabled, a completion for the cursor position in the active Java editor is requested in the background when typing pauses.
+						Invoking content assist at that position afterwards returns the prefetched completion immediately.
+						Note that every pause results in a request to the completion model.
+						""");
+		txtCompletionPrefetchIdle = createNumberTextField(main, "Pause before prefetching (ms):");
+		txtCompletionAdditionalModels = createNumberTextField(main, "Additional models (comma separated):");
+		txtCompletionAdditionalModels.setToolTipText(
+				"""
+						Completions are requested from these models in parallel to the completion model, e.g. "Ollama/qwen2.5-coder:1.5b, OpenAI/gpt-4.1-mini".
+						The first completion is shown as soon as it arrives, faster models are listed first.
+						""");
+		txtCompletionSamples = createNumberTextField(main, "Completions per model:");
+		txtCompletionCandidateGrace = createNumberTextField(main, "Wait for further models after first result (ms):");
 
 		// Chat Section
 		createSeparator(main);
@@ -122,6 +158,12 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 						If enabled, modifications from tool calls are recorded and provided for review in one, big chunk when the model is finished editing.
 						Otherwise, each modification triggers a separate review dialog as soon as the tool is called.
 						""");
+		txtChatToolsMaxTurns = createNumberTextField(main, "Max. tool turns per message:");
+		txtChatToolsMaxTurns.setToolTipText(
+				"""
+						How many times in a row tool results are sent back to the model without waiting for you.
+						When the limit is reached, the results are kept and sent with your next message.
+						""");
 		chkChatSubmitOnEnter = createBooleanField(main, "Submit message on Enter (Shift+Enter for new line)",
 				"""
 						Controls how the Enter key is handled and the current chat message is submitted.
@@ -130,6 +172,12 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 
 		createManageToolsButton(main);
 		txtMaxFilesSearchText = createNumberTextField(main, "Maximum number of files in search results (-1 for unlimited):");
+		txtSemanticSearchModel = createModelField(main, "Embedding model for semantic search:");
+		txtSemanticSearchModel.setToolTipText(
+				"""
+						Model used to index the workspace for the semantic_search tool, e.g. "Ollama/nomic-embed-text".
+						Leave empty to disable semantic search. The index is built in the background, changing the model rebuilds it.
+						""");
 
 
 
@@ -155,9 +203,19 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 		txtCompletionMaxTokens.addFocusListener(validationListener);
 		txtCompletionContextBefore.addFocusListener(validationListener);
 		txtCompletionContextAfter.addFocusListener(validationListener);
+		txtCompletionRecentEdits.addFocusListener(validationListener);
+		txtCompletionRecentEditsTokens.addFocusListener(validationListener);
+		txtCompletionFileStructureTokens.addFocusListener(validationListener);
+		txtCompletionReferencedTypesTokens.addFocusListener(validationListener);
+		txtCompletionPrefetchIdle.addFocusListener(validationListener);
+		txtCompletionAdditionalModels.addFocusListener(validationListener);
+		txtCompletionSamples.addFocusListener(validationListener);
+		txtCompletionCandidateGrace.addFocusListener(validationListener);
 		txtChatMaxTokens.addFocusListener(validationListener);
 		txtChatHistorySize.addFocusListener(validationListener);
+		txtChatToolsMaxTurns.addFocusListener(validationListener);
 		txtMaxFilesSearchText.addFocusListener(validationListener);
+		txtSemanticSearchModel.addFocusListener(validationListener);
 
 		return main;
 	}
@@ -260,6 +318,21 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 				.setText(Integer.toString(store.getInt(PreferenceConstants.COMPLETION_CONTEXT_LINES_BEFORE)));
 		txtCompletionContextAfter
 				.setText(Integer.toString(store.getInt(PreferenceConstants.COMPLETION_CONTEXT_LINES_AFTER)));
+		txtCompletionRecentEdits
+				.setText(Integer.toString(store.getInt(PreferenceConstants.COMPLETION_RECENT_EDITS_MAX)));
+		txtCompletionRecentEditsTokens
+				.setText(Integer.toString(store.getInt(PreferenceConstants.COMPLETION_RECENT_EDITS_TOKEN_BUDGET)));
+		txtCompletionFileStructureTokens
+				.setText(Integer.toString(store.getInt(PreferenceConstants.COMPLETION_FILE_STRUCTURE_TOKEN_BUDGET)));
+		txtCompletionReferencedTypesTokens
+				.setText(Integer.toString(store.getInt(PreferenceConstants.COMPLETION_REFERENCED_TYPES_TOKEN_BUDGET)));
+		chkCompletionPrefetch.setSelection(store.getBoolean(PreferenceConstants.COMPLETION_PREFETCH_ENABLED));
+		txtCompletionPrefetchIdle
+				.setText(Integer.toString(store.getInt(PreferenceConstants.COMPLETION_PREFETCH_IDLE_MILLIS)));
+		txtCompletionAdditionalModels.setText(store.getString(PreferenceConstants.COMPLETION_ADDITIONAL_MODELS));
+		txtCompletionSamples.setText(Integer.toString(store.getInt(PreferenceConstants.COMPLETION_SAMPLES_PER_MODEL)));
+		txtCompletionCandidateGrace
+				.setText(Integer.toString(store.getInt(PreferenceConstants.COMPLETION_CANDIDATE_GRACE_MILLIS)));
 
 		txtChatModel.setText(store.getString(PreferenceConstants.CHAT_MODEL_NAME));
 		txtChatMaxTokens.setText(Integer.toString(store.getInt(PreferenceConstants.CHAT_MAX_RESPONSE_TOKENS)));
@@ -267,12 +340,14 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 
 		chkChatToolsEnabled.setSelection(store.getBoolean(PreferenceConstants.CHAT_TOOLS_ENABLED));
 		chkChatToolsApplyDeferred.setSelection(store.getBoolean(PreferenceConstants.CHAT_TOOLS_APPLY_DEFERRED_ENABLED));
+		txtChatToolsMaxTurns.setText(Integer.toString(store.getInt(PreferenceConstants.CHAT_TOOLS_MAX_TURNS)));
 		chkChatSubmitOnEnter.setSelection(store.getBoolean(PreferenceConstants.CHAT_SUBMIT_ON_ENTER));
 
 		chkDebugLogPrompts.setSelection(store.getBoolean(PreferenceConstants.DEBUG_LOG_PROMPTS));
 		
 		txtMaxFilesSearchText
 				.setText(Integer.toString(store.getInt(PreferenceConstants.MAX_FILES_SEARCH_RESULTS)));
+		txtSemanticSearchModel.setText(store.getString(PreferenceConstants.SEMANTIC_SEARCH_EMBEDDING_MODEL));
 
 
 
@@ -299,8 +374,26 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 				Integer.parseInt(txtCompletionContextBefore.getText()));
 		store.setValue(PreferenceConstants.COMPLETION_CONTEXT_LINES_AFTER,
 				Integer.parseInt(txtCompletionContextAfter.getText()));
+		store.setValue(PreferenceConstants.COMPLETION_RECENT_EDITS_MAX,
+				Integer.parseInt(txtCompletionRecentEdits.getText()));
+		store.setValue(PreferenceConstants.COMPLETION_RECENT_EDITS_TOKEN_BUDGET,
+				Integer.parseInt(txtCompletionRecentEditsTokens.getText()));
+		store.setValue(PreferenceConstants.COMPLETION_FILE_STRUCTURE_TOKEN_BUDGET,
+				Integer.parseInt(txtCompletionFileStructureTokens.getText()));
+		store.setValue(PreferenceConstants.COMPLETION_REFERENCED_TYPES_TOKEN_BUDGET,
+				Integer.parseInt(txtCompletionReferencedTypesTokens.getText()));
+		store.setValue(PreferenceConstants.COMPLETION_PREFETCH_ENABLED, chkCompletionPrefetch.getSelection());
+		store.setValue(PreferenceConstants.COMPLETION_PREFETCH_IDLE_MILLIS,
+				Integer.parseInt(txtCompletionPrefetchIdle.getText()));
+		store.setValue(PreferenceConstants.COMPLETION_ADDITIONAL_MODELS, txtCompletionAdditionalModels.getText());
+		store.setValue(PreferenceConstants.COMPLETION_SAMPLES_PER_MODEL,
+				Integer.parseInt(txtCompletionSamples.getText()));
+		store.setValue(PreferenceConstants.COMPLETION_CANDIDATE_GRACE_MILLIS,
+				Integer.parseInt(txtCompletionCandidateGrace.getText()));
 		store.setValue(PreferenceConstants.MAX_FILES_SEARCH_RESULTS,
 				Integer.parseInt(txtMaxFilesSearchText.getText()));
+		store.setValue(PreferenceConstants.SEMANTIC_SEARCH_EMBEDDING_MODEL,
+				PreferenceValidationSupport.normalizeConfiguredModel(txtSemanticSearchModel.getText()));
 
 
 
@@ -311,6 +404,7 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 
 		store.setValue(PreferenceConstants.CHAT_TOOLS_ENABLED, chkChatToolsEnabled.getSelection());
 		store.setValue(PreferenceConstants.CHAT_TOOLS_APPLY_DEFERRED_ENABLED, chkChatToolsApplyDeferred.getSelection());
+		store.setValue(PreferenceConstants.CHAT_TOOLS_MAX_TURNS, Integer.parseInt(txtChatToolsMaxTurns.getText()));
 		store.setValue(PreferenceConstants.CHAT_SUBMIT_ON_ENTER, chkChatSubmitOnEnter.getSelection());
 
 		store.setValue(PreferenceConstants.DEBUG_LOG_PROMPTS, chkDebugLogPrompts.getSelection());
@@ -334,6 +428,22 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 				.setText(Integer.toString(store.getDefaultInt(PreferenceConstants.COMPLETION_CONTEXT_LINES_BEFORE)));
 		txtCompletionContextAfter
 				.setText(Integer.toString(store.getDefaultInt(PreferenceConstants.COMPLETION_CONTEXT_LINES_AFTER)));
+		txtCompletionRecentEdits
+				.setText(Integer.toString(store.getDefaultInt(PreferenceConstants.COMPLETION_RECENT_EDITS_MAX)));
+		txtCompletionRecentEditsTokens.setText(
+				Integer.toString(store.getDefaultInt(PreferenceConstants.COMPLETION_RECENT_EDITS_TOKEN_BUDGET)));
+		txtCompletionFileStructureTokens.setText(
+				Integer.toString(store.getDefaultInt(PreferenceConstants.COMPLETION_FILE_STRUCTURE_TOKEN_BUDGET)));
+		txtCompletionReferencedTypesTokens.setText(
+				Integer.toString(store.getDefaultInt(PreferenceConstants.COMPLETION_REFERENCED_TYPES_TOKEN_BUDGET)));
+		chkCompletionPrefetch.setSelection(store.getDefaultBoolean(PreferenceConstants.COMPLETION_PREFETCH_ENABLED));
+		txtCompletionPrefetchIdle
+				.setText(Integer.toString(store.getDefaultInt(PreferenceConstants.COMPLETION_PREFETCH_IDLE_MILLIS)));
+		txtCompletionAdditionalModels.setText(store.getDefaultString(PreferenceConstants.COMPLETION_ADDITIONAL_MODELS));
+		txtCompletionSamples
+				.setText(Integer.toString(store.getDefaultInt(PreferenceConstants.COMPLETION_SAMPLES_PER_MODEL)));
+		txtCompletionCandidateGrace
+				.setText(Integer.toString(store.getDefaultInt(PreferenceConstants.COMPLETION_CANDIDATE_GRACE_MILLIS)));
 
 		txtChatModel.setText(store.getDefaultString(PreferenceConstants.CHAT_MODEL_NAME));
 		txtChatMaxTokens.setText(Integer.toString(store.getDefaultInt(PreferenceConstants.CHAT_MAX_RESPONSE_TOKENS)));
@@ -342,11 +452,13 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 		chkChatToolsEnabled.setSelection(store.getDefaultBoolean(PreferenceConstants.CHAT_TOOLS_ENABLED));
 		chkChatToolsApplyDeferred
 				.setSelection(store.getDefaultBoolean(PreferenceConstants.CHAT_TOOLS_APPLY_DEFERRED_ENABLED));
+		txtChatToolsMaxTurns.setText(Integer.toString(store.getDefaultInt(PreferenceConstants.CHAT_TOOLS_MAX_TURNS)));
 		chkChatSubmitOnEnter.setSelection(store.getDefaultBoolean(PreferenceConstants.CHAT_SUBMIT_ON_ENTER));
 
 		chkDebugLogPrompts.setSelection(store.getDefaultBoolean(PreferenceConstants.DEBUG_LOG_PROMPTS));
 		
 		txtMaxFilesSearchText.setText(Integer.toString(store.getDefaultInt(PreferenceConstants.MAX_FILES_SEARCH_RESULTS)));
+		txtSemanticSearchModel.setText(store.getDefaultString(PreferenceConstants.SEMANTIC_SEARCH_EMBEDDING_MODEL));
 
 		validate();
 		super.performDefaults();
@@ -387,12 +499,32 @@ public class CodeIntelligencePreferencePage extends PreferencePage implements IW
 				.validateInt(txtCompletionContextBefore.getText(), "Completion Context Before"));
 		validationResult = mergeValidationResult(validationResult, PreferenceValidationSupport
 				.validateInt(txtCompletionContextAfter.getText(), "Completion Context After"));
+		validationResult = mergeValidationResult(validationResult, PreferenceValidationSupport
+				.validateInt(txtCompletionRecentEdits.getText(), "Completion Recent Edits"));
+		validationResult = mergeValidationResult(validationResult, PreferenceValidationSupport
+				.validateInt(txtCompletionRecentEditsTokens.getText(), "Completion Recent Edits Tokens"));
+		validationResult = mergeValidationResult(validationResult, PreferenceValidationSupport
+				.validateInt(txtCompletionFileStructureTokens.getText(), "Completion File Structure Tokens"));
+		validationResult = mergeValidationResult(validationResult, PreferenceValidationSupport
+				.validateInt(txtCompletionReferencedTypesTokens.getText(), "Completion Referenced Types Tokens"));
+		validationResult = mergeValidationResult(validationResult, PreferenceValidationSupport
+				.validateInt(txtCompletionPrefetchIdle.getText(), "Completion Prefetch Pause"));
+		validationResult = mergeValidationResult(validationResult, PreferenceValidationSupport.validateModelList(
+				txtCompletionAdditionalModels.getText(), "Additional Completion Models", connections));
+		validationResult = mergeValidationResult(validationResult, PreferenceValidationSupport
+				.validateInt(txtCompletionSamples.getText(), "Completions per Model"));
+		validationResult = mergeValidationResult(validationResult, PreferenceValidationSupport
+				.validateInt(txtCompletionCandidateGrace.getText(), "Completion Candidate Wait"));
 		validationResult = mergeValidationResult(validationResult, PreferenceValidationSupport
 				.validateInt(txtMaxFilesSearchText.getText(), "Max Files in Search Text"));
+		validationResult = mergeValidationResult(validationResult, PreferenceValidationSupport.validateModelList(
+				txtSemanticSearchModel.getText(), "Embedding Model for Semantic Search", connections));
 		validationResult = mergeValidationResult(validationResult,
 				PreferenceValidationSupport.validateInt(txtChatMaxTokens.getText(), "Chat Max Tokens"));
 		validationResult = mergeValidationResult(validationResult,
 				PreferenceValidationSupport.validateInt(txtChatHistorySize.getText(), "Chat History Size"));
+		validationResult = mergeValidationResult(validationResult,
+				PreferenceValidationSupport.validateInt(txtChatToolsMaxTurns.getText(), "Max. Tool Turns"));
 
 		return validationResult;
 	}
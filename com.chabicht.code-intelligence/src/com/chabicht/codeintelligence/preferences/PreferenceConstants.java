@@ -16,15 +16,26 @@ public class PreferenceConstants {
 	public static final String CUSTOM_CONFIGURATION_PARAMETERS = "customConfigurationParameters";
 	public static final String COMPLETION_CONTEXT_LINES_BEFORE = "completionContextLinesBefore";
 	public static final String COMPLETION_CONTEXT_LINES_AFTER = "completionContextLinesAfter";
+	public static final String COMPLETION_RECENT_EDITS_MAX = "completionRecentEditsMax";
+	public static final String COMPLETION_RECENT_EDITS_TOKEN_BUDGET = "completionRecentEditsTokenBudget";
+	public static final String COMPLETION_FILE_STRUCTURE_TOKEN_BUDGET = "completionFileStructureTokenBudget";
+	public static final String COMPLETION_REFERENCED_TYPES_TOKEN_BUDGET = "completionReferencedTypesTokenBudget";
+	public static final String COMPLETION_PREFETCH_ENABLED = "completionPrefetchEnabled";
+	public static final String COMPLETION_PREFETCH_IDLE_MILLIS = "completionPrefetchIdleMillis";
+	public static final String COMPLETION_ADDITIONAL_MODELS = "completionAdditionalModels";
+	public static final String COMPLETION_SAMPLES_PER_MODEL = "completionSamplesPerModel";
+	public static final String COMPLETION_CANDIDATE_GRACE_MILLIS = "completionCandidateGraceMillis";
 	public static final String CHAT_TOOLS_ENABLED = "chatToolsEnabled";
 	public static final String CHAT_TOOL_ENABLED_PREFIX = "chatToolEnabled";
 	public static final String CHAT_TOOL_ENABLED_SUFFIX = "enabled";
 	public static final String CHAT_TOOL_PROFILE = "chatToolProfile";
 	public static final String CHAT_TOOLS_APPLY_DEFERRED_ENABLED = "chatToolsApplyDeferredEnabled";
+	public static final String CHAT_TOOLS_MAX_TURNS = "chatToolsMaxTurns";
 	public static final String CHAT_SUBMIT_ON_ENTER = "chatSubmitOnEnter";
 	public static final String FAVORITE_MODELS = "favoriteModels";
 
 	public static final String CONNECTION_SETUP_WIZARD_PROPOSED = "connectionSetupWizardProposed";
 	
 	public static final String MAX_FILES_SEARCH_RESULTS = "maxFilesSearchResults";
+	public static final String SEMANTIC_SEARCH_EMBEDDING_MODEL = "semanticSearchEmbeddingModel";
 }
@@ -24,6 +24,15 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 		store.setDefault(PreferenceConstants.COMPLETION_MAX_RESPONSE_TOKENS, 1024);
 		store.setDefault(PreferenceConstants.COMPLETION_CONTEXT_LINES_BEFORE, 50);
 		store.setDefault(PreferenceConstants.COMPLETION_CONTEXT_LINES_AFTER, 10);
+		store.setDefault(PreferenceConstants.COMPLETION_RECENT_EDITS_MAX, 5);
+		store.setDefault(PreferenceConstants.COMPLETION_RECENT_EDITS_TOKEN_BUDGET, 1000);
+		store.setDefault(PreferenceConstants.COMPLETION_FILE_STRUCTURE_TOKEN_BUDGET, 1500);
+		store.setDefault(PreferenceConstants.COMPLETION_REFERENCED_TYPES_TOKEN_BUDGET, 1000);
+		store.setDefault(PreferenceConstants.COMPLETION_PREFETCH_ENABLED, false);
+		store.setDefault(PreferenceConstants.COMPLETION_PREFETCH_IDLE_MILLIS, 800);
+		store.setDefault(PreferenceConstants.COMPLETION_ADDITIONAL_MODELS, "");
+		store.setDefault(PreferenceConstants.COMPLETION_SAMPLES_PER_MODEL, 1);
+		store.setDefault(PreferenceConstants.COMPLETION_CANDIDATE_GRACE_MILLIS, 300);
 		store.setDefault(PreferenceConstants.CHAT_MAX_RESPONSE_TOKENS, 8192);
 		store.setDefault(PreferenceConstants.CHAT_HISTORY_SIZE_LIMIT, 50);
 		store.setDefault(PreferenceConstants.FAVORITE_MODELS, "[]");
@@ -35,10 +44,12 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 					+ PreferenceConstants.CHAT_TOOL_ENABLED_SUFFIX, true);
 		}
 		store.setDefault(PreferenceConstants.CHAT_TOOLS_APPLY_DEFERRED_ENABLED, true);
+		store.setDefault(PreferenceConstants.CHAT_TOOLS_MAX_TURNS, 50);
 		store.setDefault(PreferenceConstants.CHAT_SUBMIT_ON_ENTER, false);
 
 
 		store.setDefault(PreferenceConstants.MAX_FILES_SEARCH_RESULTS, 100);
+		store.setDefault(PreferenceConstants.SEMANTIC_SEARCH_EMBEDDING_MODEL, "");
 	}
 
 }
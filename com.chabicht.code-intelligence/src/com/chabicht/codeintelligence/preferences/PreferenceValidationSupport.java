@@ -100,6 +100,22 @@ final class PreferenceValidationSupport {
 		return ValidationResult.ok();
 	}
 
+	/**
+	 * Validates a comma separated list of models, reporting the first problem.
+	 */
+	static ValidationResult validateModelList(String value, String fieldName, List<AiApiConnection> connections) {
+		for (String model : StringUtils.split(StringUtils.defaultString(value), ",\n")) {
+			if (StringUtils.isBlank(model)) {
+				continue;
+			}
+			ValidationResult result = validateModel(model, fieldName, connections);
+			if (!result.isOk()) {
+				return result;
+			}
+		}
+		return ValidationResult.ok();
+	}
+
 	private static AiApiConnection findConnectionByName(String connectionName, List<AiApiConnection> connections) {
 		for (AiApiConnection conn : connections) {
 			if (StringUtils.equals(StringUtils.stripToEmpty(conn.getName()),
@@ -391,6 +391,26 @@ public class PromptManagementDialog extends Dialog {
 				""");
 		res.put("suffix", "");
 		res.put("selection", "");
+		res.put("fileStructure", """
+				package com.example;
+
+				import java.util.List;
+
+				public class Numbers {
+					private final List<Integer> numbers;
+					public Numbers(List<Integer> numbers);
+					public int sumOfEvenNumbers() {
+						int evenSum = numbers.stream()
+						    .filter(n -> n % 2 == 0)
+					}
+				}
+				""");
+		res.put("referencedTypes", """
+				public class com.example.Statistics {
+					public static int sum(List<Integer> values);
+					public static double average(List<Integer> values);
+				}
+				""");
 		return res;
 	}
 
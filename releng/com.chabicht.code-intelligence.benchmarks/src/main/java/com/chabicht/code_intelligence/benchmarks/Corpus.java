@@ -0,0 +1,121 @@
+package com.chabicht.code_intelligence.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Inputs of the benchmarks. The real-world corpus consists of the plugin's own
+ * sources and documentation (copied to <code>corpus/</code> by the build), the
+ * synthetic corpus is generated with a fixed seed so runs are comparable.
+ */
+final class Corpus {
+	static final String SYNTHETIC = "synthetic";
+	static final String REAL = "real";
+
+	private static final long SEED = 42;
+	private static final String[] WORDS = { "request", "message", "context", "session", "result", "handler",
+			"buffer", "token", "stream", "index", "model", "prompt", "change", "editor", "document", "value" };
+
+	private Corpus() {
+		// No instances.
+	}
+
+	/**
+	 * @return a large Java source file.
+	 */
+	static String javaSource(String corpus) {
+		if (REAL.equals(corpus)) {
+			return resource("corpus/com/chabicht/code_intelligence/chat/ChatView.java");
+		}
+		return generateJava(new Random(SEED), 250);
+	}
+
+	/**
+	 * @return a Markdown document with headings, lists, tables and code blocks.
+	 */
+	static String markdown(String corpus) {
+		if (REAL.equals(corpus)) {
+			return resource("corpus/README.md") + "\n\n" + resource("corpus/TOOLS.md");
+		}
+		return generateMarkdown(new Random(SEED), 40);
+	}
+
+	/**
+	 * @return a prose-like text of the given number of words, e.g. a streamed
+	 *         answer of a model.
+	 */
+	static String words(int count) {
+		Random random = new Random(SEED);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append(word(random)).append(i % 12 == 11 ? ".\n" : " ");
+		}
+		return sb.toString();
+	}
+
+	static String resource(String name) {
+		try (InputStream in = Corpus.class.getClassLoader().getResourceAsStream(name)) {
+			if (in == null) {
+				throw new IllegalStateException("Corpus resource not found: " + name);
+			}
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String generateJava(Random random, int methods) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("package com.example.generated;\n\nimport java.util.ArrayList;\nimport java.util.List;\n\n");
+		sb.append("public class Generated {\n");
+		for (int i = 0; i < methods; i++) {
+			String name = word(random) + capitalize(word(random)) + i;
+			sb.append("\t/**\n\t * Computes the ").append(word(random)).append(" of the ").append(word(random))
+					.append(".\n\t */\n");
+			sb.append("\tpublic List<String> ").append(name).append("(String ").append(word(random))
+					.append(", int count) {\n");
+			sb.append("\t\tList<String> res = new ArrayList<>();\n");
+			sb.append("\t\tfor (int i = 0; i < count; i++) {\n");
+			sb.append("\t\t\tif (i % ").append(2 + random.nextInt(5)).append(" == 0) {\n");
+			sb.append("\t\t\t\tres.add(\"").append(word(random)).append("-\" + i);\n");
+			sb.append("\t\t\t} else {\n");
+			sb.append("\t\t\t\tres.add(String.valueOf(i * ").append(random.nextInt(100)).append("));\n");
+			sb.append("\t\t\t}\n\t\t}\n\t\treturn res;\n\t}\n\n");
+		}
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private static String generateMarkdown(Random random, int sections) {
+		StringBuilder sb = new StringBuilder("# Generated document\n\n");
+		for (int i = 0; i < sections; i++) {
+			sb.append("## ").append(capitalize(word(random))).append(' ').append(word(random)).append("\n\n");
+			for (int j = 0; j < 5; j++) {
+				sb.append(j % 2 == 0 ? "**" : "`").append(word(random)).append(j % 2 == 0 ? "**" : "`").append(' ');
+				for (int k = 0; k < 12; k++) {
+					sb.append(word(random)).append(' ');
+				}
+				sb.append(".\n");
+			}
+			sb.append("\n- ").append(word(random)).append("\n- ~~").append(word(random)).append("~~\n\n");
+			sb.append("| Name | Value |\n|------|-------|\n");
+			for (int j = 0; j < 4; j++) {
+				sb.append("| ").append(word(random)).append(" | ").append(random.nextInt(1000)).append(" |\n");
+			}
+			sb.append("\n```java\nString ").append(word(random)).append(" = \"").append(word(random))
+					.append("\";\n```\n\n");
+		}
+		return sb.toString();
+	}
+
+	private static String word(Random random) {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	private static String capitalize(String s) {
+		return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+	}
+}
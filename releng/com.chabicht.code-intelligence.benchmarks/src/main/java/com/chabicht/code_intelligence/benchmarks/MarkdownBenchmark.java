@@ -0,0 +1,67 @@
+package com.chabicht.code_intelligence.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.commonmark.node.Node;
+import org.commonmark.parser.Parser;
+import org.commonmark.renderer.html.HtmlRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chabicht.code_intelligence.util.MarkdownUtil;
+
+/**
+ * Rendering chat messages to HTML the way the chat view does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkdownBenchmark {
+	@Param({ Corpus.SYNTHETIC, Corpus.REAL })
+	public String corpus;
+
+	private final Parser parser = MarkdownUtil.createParser();
+	private final HtmlRenderer renderer = MarkdownUtil.createRenderer();
+	private String markdown;
+	private String codeBlock;
+	private Node document;
+
+	@Setup
+	public void setUp() {
+		markdown = Corpus.markdown(corpus);
+		codeBlock = "```java\n" + Corpus.javaSource(corpus) + "\n```";
+		document = parser.parse(markdown);
+	}
+
+	@Benchmark
+	public String renderMessage() {
+		return renderer.render(parser.parse(markdown));
+	}
+
+	@Benchmark
+	public String renderCodeBlock() {
+		return renderer.render(parser.parse(codeBlock));
+	}
+
+	@Benchmark
+	public Node parse() {
+		return parser.parse(markdown);
+	}
+
+	@Benchmark
+	public String render() {
+		return renderer.render(document);
+	}
+}
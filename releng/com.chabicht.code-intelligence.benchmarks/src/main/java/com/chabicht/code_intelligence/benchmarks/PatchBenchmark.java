@@ -0,0 +1,104 @@
+package com.chabicht.code_intelligence.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chabicht.code_intelligence.chat.tools.ApplyPatchTool;
+import com.chabicht.code_intelligence.chat.tools.ApplyPatchTool.ApplyPatchResult;
+import com.chabicht.code_intelligence.chat.tools.fuzzydiff.FuzzyDiffUtils;
+import com.chabicht.code_intelligence.chat.tools.fuzzydiff.FuzzyLine;
+import com.github.difflib.DiffUtils;
+import com.github.difflib.UnifiedDiffUtils;
+import com.github.difflib.patch.Patch;
+
+/**
+ * Parsing and applying the unified diffs of the apply_patch tool. Applying
+ * calls {@link ApplyPatchTool#attemptApplyPatch(List, Patch, List)}: an exact
+ * attempt, then fuzzy attempts with growing fuzz until one succeeds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatchBenchmark {
+	@Param({ Corpus.SYNTHETIC, Corpus.REAL })
+	public String corpus;
+
+	private List<String> patchLines;
+	private Patch<FuzzyLine> patch;
+	private List<String> document;
+	private List<String> shiftedDocument;
+
+	@Setup
+	public void setUp() {
+		List<String> original = Arrays.asList(Corpus.javaSource(corpus).split("\\R", -1));
+
+		// Change every 50th line and insert a line after every 120th.
+		List<String> revised = new ArrayList<>();
+		for (int i = 0; i < original.size(); i++) {
+			String line = original.get(i);
+			revised.add(i % 50 == 25 ? line + " // changed" : line);
+			if (i % 120 == 60) {
+				revised.add("\t\t// inserted");
+			}
+		}
+		patchLines = UnifiedDiffUtils.generateUnifiedDiff("a/File.java", "b/File.java", original,
+				DiffUtils.diff(original, revised), 3);
+		patch = FuzzyDiffUtils.parseUnifiedDiff(patchLines);
+
+		// ApplyPatchTool prepends an empty line, the parsed line numbers are 1-based.
+		document = new ArrayList<>(original);
+		document.add(0, "");
+		// The file got a new header since the diff was created.
+		shiftedDocument = new ArrayList<>(document);
+		shiftedDocument.addAll(0, List.of("// header", "// header", "// header", "// header", "// header"));
+
+		// Make sure the benchmarks time a patch that applies, not the failure path.
+		apply(document);
+		apply(shiftedDocument);
+	}
+
+	@Benchmark
+	public Patch<FuzzyLine> parseUnifiedDiff() {
+		return FuzzyDiffUtils.parseUnifiedDiff(patchLines);
+	}
+
+	@Benchmark
+	public List<String> applyPatch() {
+		return apply(document);
+	}
+
+	@Benchmark
+	public List<String> applyPatchToChangedFile() {
+		return apply(shiftedDocument);
+	}
+
+	/**
+	 * @return the patched lines.
+	 * @throws IllegalStateException if the patch doesn't apply.
+	 */
+	private List<String> apply(List<String> lines) {
+		List<String> patchedLines = new ArrayList<>();
+		ApplyPatchResult result = ApplyPatchTool.attemptApplyPatch(lines, patch, patchedLines);
+		if (!result.isSuccess()) {
+			throw new IllegalStateException(result.getMessage());
+		}
+		return patchedLines;
+	}
+}
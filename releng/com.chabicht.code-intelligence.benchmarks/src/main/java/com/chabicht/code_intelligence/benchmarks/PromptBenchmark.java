@@ -0,0 +1,83 @@
+package com.chabicht.code_intelligence.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chabicht.code_intelligence.model.ChatConversation.MessageContext;
+import com.chabicht.code_intelligence.model.CompletionPrompt;
+import com.chabicht.code_intelligence.model.DefaultPrompts;
+
+/**
+ * Building prompts: the context files of a chat message and the completion
+ * prompt template.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromptBenchmark {
+	private static final int CONTEXT_LINES_BEFORE = 60;
+	private static final int CONTEXT_LINES_AFTER = 20;
+
+	@Param({ Corpus.SYNTHETIC, Corpus.REAL })
+	public String corpus;
+
+	private String source;
+	private int lines;
+	private Map<String, Object> completionArgs;
+
+	@Setup
+	public void setUp() {
+		source = Corpus.javaSource(corpus);
+		lines = source.split("\n", -1).length;
+
+		String[] sourceLines = source.split("\n");
+		int cursorLine = sourceLines.length / 2;
+		String prefix = String.join("\n", Arrays.copyOfRange(sourceLines, cursorLine - CONTEXT_LINES_BEFORE, cursorLine))
+				+ "\n\t\tString ";
+		String suffix = String.join("\n",
+				Arrays.copyOfRange(sourceLines, cursorLine + 1, cursorLine + CONTEXT_LINES_AFTER));
+		String recentEdits = String.join("\n",
+				Arrays.copyOfRange(sourceLines, cursorLine - 200, cursorLine - 185));
+
+		completionArgs = new HashMap<>();
+		completionArgs.put("prefix", prefix);
+		completionArgs.put("suffix", suffix);
+		completionArgs.put("recentEdits", recentEdits);
+		completionArgs.put("selection", "");
+		completionArgs.put("contextWithTags", prefix + "<<<cursor>>>" + suffix);
+	}
+
+	// MessageContext keeps its compiled text, a new context is compiled per request.
+	@Benchmark
+	public String compileMessageContext() {
+		return new MessageContext("File.java", 1, lines, source).compile();
+	}
+
+	@Benchmark
+	public String compileMessageContextWithoutLineNumbers() {
+		return new MessageContext("File.java", 1, lines, source).compile(false);
+	}
+
+	@Benchmark
+	public String compileCompletionPrompt() {
+		// CompletionPrompt caches its result, a new prompt is compiled per request.
+		return new CompletionPrompt(0f, DefaultPrompts.INSTRUCT_PROMPT, completionArgs).compile();
+	}
+}
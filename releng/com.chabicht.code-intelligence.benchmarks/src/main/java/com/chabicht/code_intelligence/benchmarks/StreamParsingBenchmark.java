@@ -0,0 +1,164 @@
+package com.chabicht.code_intelligence.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.chabicht.code_intelligence.apiclient.EventStreamDecoder;
+import com.chabicht.code_intelligence.apiclient.EventStreamDecoder.Format;
+import com.chabicht.code_intelligence.apiclient.StreamDeltaParser;
+import com.chabicht.code_intelligence.apiclient.StreamEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+
+/**
+ * Decoding a complete streamed answer of each API the way its client does:
+ * splitting the byte stream into events and extracting the deltas.
+ * <p>
+ * The answer is a generated text or the plugin's README, sent in chunks of
+ * about four tokens like the providers do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamParsingBenchmark {
+	private static final int CHUNK_LENGTH = 16;
+
+	@Param({ Corpus.SYNTHETIC, Corpus.REAL })
+	public String corpus;
+
+	private byte[] openAiStream;
+	private byte[] anthropicStream;
+	private byte[] responsesStream;
+	private byte[] ollamaStream;
+	private byte[] geminiStream;
+
+	@Setup
+	public void setUp() {
+		String answer = Corpus.REAL.equals(corpus) ? Corpus.resource("corpus/README.md") : Corpus.words(2000);
+		Gson gson = new Gson();
+		List<String> deltas = new ArrayList<>();
+		for (int i = 0; i < answer.length(); i += CHUNK_LENGTH) {
+			deltas.add(gson.toJson(answer.substring(i, Math.min(answer.length(), i + CHUNK_LENGTH))));
+		}
+
+		StringBuilder openAi = new StringBuilder();
+		StringBuilder anthropic = new StringBuilder("event: message_start\n"
+				+ "data: {\"type\":\"message_start\",\"message\":{\"id\":\"msg_1\",\"usage\":{\"input_tokens\":2048}}}\n\n");
+		StringBuilder responses = new StringBuilder();
+		StringBuilder ollama = new StringBuilder();
+		StringBuilder gemini = new StringBuilder();
+		for (String delta : deltas) {
+			openAi.append("data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"model\":\"gpt\","
+					+ "\"choices\":[{\"index\":0,\"delta\":{\"content\":").append(delta)
+					.append("},\"finish_reason\":null}]}\n\n");
+			anthropic.append("event: content_block_delta\ndata: {\"type\":\"content_block_delta\",\"index\":0,"
+					+ "\"delta\":{\"type\":\"text_delta\",\"text\":").append(delta).append("}}\n\n");
+			responses.append("event: response.output_text.delta\ndata: {\"type\":\"response.output_text.delta\","
+					+ "\"item_id\":\"msg_1\",\"output_index\":0,\"content_index\":0,\"delta\":").append(delta)
+					.append("}\n\n");
+			ollama.append("{\"model\":\"qwen\",\"created_at\":\"2025-01-01T00:00:00Z\","
+					+ "\"message\":{\"role\":\"assistant\",\"content\":").append(delta).append("},\"done\":false}\n");
+			gemini.append("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":").append(delta)
+					.append("}],\"role\":\"model\"},\"index\":0}]}\n\n");
+		}
+		openAi.append("data: {\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}],"
+				+ "\"usage\":{\"prompt_tokens\":2048,\"completion_tokens\":512}}\n\ndata: [DONE]\n\n");
+		anthropic.append("event: message_delta\ndata: {\"type\":\"message_delta\",\"delta\":{\"stop_reason\":"
+				+ "\"end_turn\"},\"usage\":{\"output_tokens\":512}}\n\n"
+				+ "event: message_stop\ndata: {\"type\":\"message_stop\"}\n\n");
+		responses.append("event: response.completed\ndata: {\"type\":\"response.completed\",\"response\":"
+				+ "{\"usage\":{\"input_tokens\":2048,\"output_tokens\":512}}}\n\n");
+		ollama.append("{\"model\":\"qwen\",\"message\":{\"role\":\"assistant\",\"content\":\"\"},\"done\":true,"
+				+ "\"prompt_eval_count\":2048,\"eval_count\":512}\n");
+		gemini.append("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"\"}],\"role\":\"model\"},"
+				+ "\"finishReason\":\"STOP\"}],\"usageMetadata\":{\"promptTokenCount\":2048,"
+				+ "\"candidatesTokenCount\":512}}\n\n");
+
+		openAiStream = openAi.toString().getBytes(StandardCharsets.UTF_8);
+		anthropicStream = anthropic.toString().getBytes(StandardCharsets.UTF_8);
+		responsesStream = responses.toString().getBytes(StandardCharsets.UTF_8);
+		ollamaStream = ollama.toString().getBytes(StandardCharsets.UTF_8);
+		geminiStream = gemini.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** OpenAI chat completions, also used by xAI. */
+	@Benchmark
+	public void openAi(Blackhole bh) throws IOException {
+		Consumer<StreamEvent> sink = bh::consume;
+		new EventStreamDecoder(Format.SSE).decode(new ByteArrayInputStream(openAiStream),
+				(event, data) -> parse(() -> StreamDeltaParser.parseChatCompletionChunk(data, sink)));
+	}
+
+	@Benchmark
+	public void anthropic(Blackhole bh) throws IOException {
+		Consumer<StreamEvent> sink = bh::consume;
+		new EventStreamDecoder(Format.SSE).decode(new ByteArrayInputStream(anthropicStream), (event, data) -> {
+			if ("content_block_delta".equals(event)) {
+				parse(() -> StreamDeltaParser.parseAnthropicContentBlockDelta(data, sink));
+			} else {
+				bh.consume(JsonParser.parseString(data));
+			}
+		});
+	}
+
+	@Benchmark
+	public void openAiResponses(Blackhole bh) throws IOException {
+		Consumer<StreamEvent> sink = bh::consume;
+		new EventStreamDecoder(Format.SSE).decode(new ByteArrayInputStream(responsesStream), (event, data) -> {
+			if ("response.output_text.delta".equals(event)) {
+				parse(() -> StreamDeltaParser.parseResponsesTextDelta(data, sink));
+			} else {
+				bh.consume(JsonParser.parseString(data));
+			}
+		});
+	}
+
+	@Benchmark
+	public void ollama(Blackhole bh) throws IOException {
+		Consumer<StreamEvent> sink = bh::consume;
+		new EventStreamDecoder(Format.NDJSON).decode(new ByteArrayInputStream(ollamaStream),
+				(event, data) -> parse(() -> StreamDeltaParser.parseOllamaChunk(data, sink)));
+	}
+
+	/** The Gemini client parses every chunk into a JSON tree. */
+	@Benchmark
+	public void gemini(Blackhole bh) throws IOException {
+		new EventStreamDecoder(Format.SSE).decode(new ByteArrayInputStream(geminiStream),
+				(event, data) -> bh.consume(JsonParser.parseString(data)));
+	}
+
+	private static void parse(ParseAction action) {
+		try {
+			action.run();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@FunctionalInterface
+	private interface ParseAction {
+		void run() throws IOException;
+	}
+}
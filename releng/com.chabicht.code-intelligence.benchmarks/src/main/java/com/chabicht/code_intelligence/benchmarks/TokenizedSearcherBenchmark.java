@@ -0,0 +1,71 @@
+package com.chabicht.code_intelligence.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chabicht.code_intelligence.chat.tools.TokenizedSearcher;
+import com.chabicht.code_intelligence.chat.tools.TokenizedSearcher.Language;
+
+/**
+ * Locating the code a model quotes for a change (apply_change, replace_string)
+ * in the file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizedSearcherBenchmark {
+	@Param({ Corpus.SYNTHETIC, Corpus.REAL })
+	public String corpus;
+
+	private String text;
+	private String snippet;
+	private String statement;
+	private TokenizedSearcher searcher;
+
+	@Setup
+	public void setUp() {
+		text = Corpus.javaSource(corpus);
+		String[] lines = text.split("\n");
+
+		// Models quote code with different indentation.
+		int start = lines.length * 2 / 3;
+		while (!lines[start].strip().startsWith("if (")) {
+			start++;
+		}
+		snippet = String.join("\n  ",
+				Arrays.stream(lines, start, start + 8).map(String::strip).toList());
+		statement = Arrays.stream(lines).map(String::strip).filter(line -> line.startsWith("return ")).findFirst()
+				.orElseThrow();
+
+		searcher = new TokenizedSearcher(new TokenizedSearcher.Config().setLanguage(Language.C_LIKE));
+		if (searcher.findMatchingRegion(snippet, text) == null) {
+			throw new IllegalStateException("Snippet not found in the " + corpus + " corpus");
+		}
+	}
+
+	@Benchmark
+	public int[] findMatchingRegion() {
+		return searcher.findMatchingRegion(snippet, text);
+	}
+
+	@Benchmark
+	public List<int[]> findAllMatchingRegions() {
+		return searcher.findAllMatchingRegions(statement, text);
+	}
+}